@@ -23,9 +23,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.libtorrent4j.AddTorrentParams;
 import org.libtorrent4j.Priority;
+import org.libtorrent4j.TorrentInfo;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -70,4 +72,44 @@ public class TorrentDownloadImplTest
                     "actual: " + "[" + indicesStr + "]; " + Arrays.toString(actualPriorities), equal);
         }
     }
+
+    @Test
+    public void getPiecePriorityTest()
+    {
+        /* The first piece crosses the boundary of the files */
+        TorrentInfo ti = TorrentInfo.bdecode(makeTorrent(16384, 10000, 20000));
+        assertEquals(2, ti.numPieces());
+
+        Priority[] priorities = new Priority[] {Priority.IGNORE, Priority.DEFAULT};
+        assertEquals(Priority.DEFAULT, TorrentDownloadImpl.getPiecePriority(ti, 0, priorities));
+        assertEquals(Priority.DEFAULT, TorrentDownloadImpl.getPiecePriority(ti, 1, priorities));
+
+        priorities = new Priority[] {Priority.TOP_PRIORITY, Priority.IGNORE};
+        assertEquals(Priority.TOP_PRIORITY, TorrentDownloadImpl.getPiecePriority(ti, 0, priorities));
+        assertEquals(Priority.IGNORE, TorrentDownloadImpl.getPiecePriority(ti, 1, priorities));
+    }
+
+    private static byte[] makeTorrent(int pieceLength, long... fileLengths)
+    {
+        long totalLength = 0;
+        StringBuilder files = new StringBuilder("l");
+        for (int i = 0; i < fileLengths.length; i++) {
+            String path = "file" + i;
+            files.append("d6:lengthi").append(fileLengths[i]).append("e4:pathl")
+                    .append(path.length()).append(':').append(path).append("ee");
+            totalLength += fileLengths[i];
+        }
+        files.append('e');
+        int numPieces = (int)((totalLength + pieceLength - 1) / pieceLength);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String head = "d4:infod5:files" + files + "4:name4:test12:piece lengthi" +
+                pieceLength + "e6:pieces" + (numPieces * 20) + ":";
+        os.write(head.getBytes(), 0, head.length());
+        os.write(new byte[numPieces * 20], 0, numPieces * 20);
+        os.write('e');
+        os.write('e');
+
+        return os.toByteArray();
+    }
 }
@@ -27,6 +27,7 @@ import android.util.Log;
 
 import androidx.room.Room;
 import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -39,6 +40,7 @@ import org.junit.runner.RunWith;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FeedChannel;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
 import org.proninyaroslav.libretorrent.core.system.SystemFacadeHelper;
 import org.proninyaroslav.libretorrent.core.system.FileSystemFacade;
 import org.proninyaroslav.libretorrent.core.utils.Utils;
@@ -198,6 +200,48 @@ public class DatabaseMigrationTest
         assertFalse(channel.isRegexFilter);
     }
 
+    @Test
+    public void testMigration6to7() throws IOException
+    {
+        byte[] fastResumeData = new byte[] {1, 2, 3};
+
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DATABASE_NAME, 6);
+        ContentValues torrentValues = new ContentValues();
+        torrentValues.put("id", torrentHash);
+        torrentValues.put("name", torrentName);
+        torrentValues.put("downloadPath", "file://" + fs.getDefaultDownloadPath());
+        torrentValues.put("dateAdded", System.currentTimeMillis());
+        torrentValues.put("manuallyPaused", false);
+        torrentValues.put("downloadingMetadata", false);
+        torrentValues.put("visibility", Torrent.VISIBILITY_VISIBLE_NOTIFY_FINISHED);
+        assertNotEquals(-1, db.insert("Torrent", SQLiteDatabase.CONFLICT_REPLACE, torrentValues));
+        ContentValues fastResumeValues = new ContentValues();
+        fastResumeValues.put("torrentId", torrentHash);
+        fastResumeValues.put("data", fastResumeData);
+        assertNotEquals(-1, db.insert("FastResume", SQLiteDatabase.CONFLICT_REPLACE, fastResumeValues));
+        db.close();
+
+        helper.runMigrationsAndValidate(TEST_DATABASE_NAME, 7, true,
+                DatabaseMigration.MIGRATION_6_7);
+
+        AppDatabase appDb = getMigratedRoomDatabase();
+
+        /* Old resume data is kept as is, the metadata is split on the next save */
+        assertNotNull(appDb.torrentDao().getTorrentById(torrentHash));
+        FastResume fastResume = appDb.fastResumeDao().getByTorrentId(torrentHash);
+        assertNotNull(fastResume);
+        assertArrayEquals(fastResumeData, fastResume.data);
+        assertNull(appDb.torrentMetadataDao().getByTorrentId(torrentHash));
+
+        byte[] metadata = new byte[] {4, 5, 6};
+        appDb.torrentMetadataDao().add(new TorrentMetadata(torrentHash, metadata));
+        assertArrayEquals(metadata, appDb.torrentMetadataDao().getByTorrentId(torrentHash).data);
+
+        /* Removed with the torrent */
+        appDb.torrentDao().delete(appDb.torrentDao().getTorrentById(torrentHash));
+        assertNull(appDb.torrentMetadataDao().getByTorrentId(torrentHash));
+    }
+
     private void addTorrent(SQLiteDatabase sqliteDb, ContentValues values)
     {
         assertNotEquals(sqliteDb.replace("torrents", null, values), -1);
@@ -33,8 +33,10 @@ package org.nanohttpd.protocols.http;
  * #L%
  */
 
+import org.nanohttpd.protocols.http.response.Response;
 import org.nanohttpd.protocols.http.tempfiles.ITempFileManager;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
@@ -47,6 +49,16 @@ import java.util.logging.Level;
  */
 public class ClientHandler implements Runnable {
 
+    /**
+     * Total time to wait for the client to close the rejected connection.
+     */
+    private static final int REJECT_DRAIN_TIMEOUT = 1000;
+
+    /**
+     * Max bytes of the rejected request that are read before closing.
+     */
+    private static final int REJECT_DRAIN_LIMIT = 64 * 1024;
+
     private final NanoHTTPD httpd;
 
     private final InputStream inputStream;
@@ -64,6 +76,46 @@ public class ClientHandler implements Runnable {
         NanoHTTPD.safeClose(this.acceptSocket);
     }
 
+    /**
+     * Sends the response without reading the request and closes the
+     * connection, e.g. when the server is overloaded.
+     */
+    public void reject(Response response) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = this.acceptSocket.getOutputStream();
+            response.setKeepAlive(false);
+            response.send(outputStream);
+            // Closing the socket with the unread request resets the
+            // connection, and the client may lose the response
+            this.acceptSocket.shutdownOutput();
+            // Drain until the client closes the connection, but don't let
+            // a slow or endless request hold the reject thread
+            long deadline = System.currentTimeMillis() + REJECT_DRAIN_TIMEOUT;
+            byte[] buf = new byte[512];
+            int drained = 0;
+            while (drained < REJECT_DRAIN_LIMIT) {
+                long timeout = deadline - System.currentTimeMillis();
+                if (timeout <= 0) {
+                    break;
+                }
+                this.acceptSocket.setSoTimeout((int) timeout);
+                int read = this.inputStream.read(buf);
+                if (read == -1) {
+                    break;
+                }
+                drained += read;
+            }
+        } catch (SocketTimeoutException e) {
+            // the client didn't close the connection in time
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not reject the client", e);
+        } finally {
+            NanoHTTPD.safeClose(outputStream);
+            close();
+        }
+    }
+
     @Override
     public void run() {
         OutputStream outputStream = null;
@@ -71,6 +123,7 @@ public class ClientHandler implements Runnable {
             outputStream = this.acceptSocket.getOutputStream();
             ITempFileManager tempFileManager = httpd.getTempFileManagerFactory().create();
             HTTPSession session = new HTTPSession(httpd, tempFileManager, this.inputStream, outputStream, this.acceptSocket.getInetAddress());
+            session.setOutputChannel(this.acceptSocket.getChannel());
             while (!this.acceptSocket.isClosed()) {
                 session.execute();
             }
@@ -59,6 +59,7 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -89,6 +90,8 @@ public class HTTPSession implements IHTTPSession {
 
     private final OutputStream outputStream;
 
+    private WritableByteChannel outputChannel;
+
     private final BufferedInputStream inputStream;
 
     private int splitbyte;
@@ -113,6 +116,11 @@ public class HTTPSession implements IHTTPSession {
 
     private String protocolVersion;
 
+    /**
+     * Header buffer, reused by all requests of the persistent connection.
+     */
+    private final byte[] headerBuf = new byte[HTTPSession.BUFSIZE];
+
     public HTTPSession(NanoHTTPD httpd, ITempFileManager tempFileManager, InputStream inputStream, OutputStream outputStream) {
         this.httpd = httpd;
         this.tempFileManager = tempFileManager;
@@ -130,6 +138,14 @@ public class HTTPSession implements IHTTPSession {
         this.headers = new HashMap<String, String>();
     }
 
+    /**
+     * Sets the channel of the client socket, if any. Channel bodies are
+     * written to it directly.
+     */
+    public void setOutputChannel(WritableByteChannel outputChannel) {
+        this.outputChannel = outputChannel;
+    }
+
     /**
      * Decodes the sent headers and loads the data into Key/value pairs
      */
@@ -347,7 +363,7 @@ public class HTTPSession implements IHTTPSession {
             // Apache's default header limit is 8KB.
             // Do NOT assume that a single read will get the entire header
             // at once!
-            byte[] buf = new byte[HTTPSession.BUFSIZE];
+            byte[] buf = this.headerBuf;
             this.splitbyte = 0;
             this.rlen = 0;
 
@@ -411,7 +427,8 @@ public class HTTPSession implements IHTTPSession {
             this.cookies = new CookieHandler(this.headers);
 
             String connection = this.headers.get("connection");
-            boolean keepAlive = "HTTP/1.1".equals(protocolVersion) && (connection == null || !connection.matches("(?i).*close.*"));
+            boolean keepAlive = "HTTP/1.1".equals(protocolVersion) && (connection == null || !connection.matches("(?i).*close.*"))
+                    && httpd.isKeepAliveAllowed();
 
             // Ok, now do the serve()
 
@@ -432,7 +449,7 @@ public class HTTPSession implements IHTTPSession {
                     r.setUseGzip(false);
                 }
                 r.setKeepAlive(keepAlive);
-                r.send(this.outputStream);
+                r.send(this.outputStream, this.outputChannel);
             }
             if (!keepAlive || r.isCloseConnection()) {
                 throw new SocketException("NanoHttpd Shutdown");
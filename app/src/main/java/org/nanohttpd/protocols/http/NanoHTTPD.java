@@ -565,6 +565,14 @@ public abstract class NanoHTTPD {
         this.asyncRunner = asyncRunner;
     }
 
+    /**
+     * Whether the connection may be kept open after the response. Servers can
+     * override it to close persistent connections, e.g. when overloaded.
+     */
+    protected boolean isKeepAliveAllowed() {
+        return true;
+    }
+
     /**
      * Pluggable strategy for creating and cleaning up temporary files.
      * 
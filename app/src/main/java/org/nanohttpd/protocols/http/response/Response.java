@@ -46,6 +46,8 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.text.SimpleDateFormat;
@@ -80,6 +82,11 @@ public class Response implements Closeable {
      */
     private InputStream data;
 
+    /**
+     * Data of the response written directly to the channel, may be null.
+     */
+    private IChannelBody channelBody;
+
     private long contentLength;
 
     /**
@@ -144,11 +151,26 @@ public class Response implements Closeable {
         this.cookieHeaders = new ArrayList(10);
     }
 
+    /**
+     * Creates a fixed length response if totalBytes>=0, otherwise chunked.
+     */
+    protected Response(IStatus status, String mimeType, IChannelBody body, long totalBytes) {
+        this(status, mimeType, (InputStream) null, 0);
+        if (body != null) {
+            this.channelBody = body;
+            this.contentLength = totalBytes;
+            this.chunkedTransfer = this.contentLength < 0;
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (this.data != null) {
             this.data.close();
         }
+        if (this.channelBody != null) {
+            this.channelBody.close();
+        }
     }
 
     /**
@@ -226,6 +248,14 @@ public class Response implements Closeable {
      * Sends given response to the socket.
      */
     public void send(OutputStream outputStream) {
+        send(outputStream, null);
+    }
+
+    /**
+     * Sends given response to the socket. The channel body is written
+     * directly to the socket channel, if it's not null.
+     */
+    public void send(OutputStream outputStream, WritableByteChannel outputChannel) {
         SimpleDateFormat gmtFrmt = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
         gmtFrmt.setTimeZone(TimeZone.getTimeZone("GMT"));
 
@@ -257,7 +287,7 @@ public class Response implements Closeable {
                 printHeader(pw, "Content-Encoding", "gzip");
                 setChunkedTransfer(true);
             }
-            long pending = this.data != null ? this.contentLength : 0;
+            long pending = this.data != null || this.channelBody != null ? this.contentLength : 0;
             if (this.requestMethod != Method.HEAD && this.chunkedTransfer) {
                 printHeader(pw, "Transfer-Encoding", "chunked");
             } else if (!useGzipWhenAccepted()) {
@@ -265,9 +295,18 @@ public class Response implements Closeable {
             }
             pw.append("\r\n");
             pw.flush();
-            sendBodyWithCorrectTransferAndEncoding(outputStream, pending);
+            // no body for HEAD requests
+            if (this.requestMethod != Method.HEAD) {
+                if (this.channelBody != null && outputChannel != null && !this.chunkedTransfer && !useGzipWhenAccepted()) {
+                    // headers are flushed, the body goes to the same socket
+                    sendChannelBody(outputChannel, pending);
+                } else {
+                    sendBodyWithCorrectTransferAndEncoding(outputStream, pending);
+                }
+            }
             outputStream.flush();
             NanoHTTPD.safeClose(this.data);
+            NanoHTTPD.safeClose(this.channelBody);
         } catch (IOException ioe) {
             NanoHTTPD.LOG.log(Level.SEVERE, "Could not send response to the client", ioe);
         }
@@ -327,6 +366,10 @@ public class Response implements Closeable {
      *             if something goes wrong while sending the data.
      */
     private void sendBody(OutputStream outputStream, long pending) throws IOException {
+        if (this.channelBody != null) {
+            sendChannelBody(Channels.newChannel(outputStream), pending);
+            return;
+        }
         long BUFFER_SIZE = 16 * 1024;
         byte[] buff = new byte[(int) BUFFER_SIZE];
         boolean sendEverything = pending == -1;
@@ -349,6 +392,29 @@ public class Response implements Closeable {
         }
     }
 
+    /**
+     * Sends the channel body to the specified channel, see
+     * {@link #sendBody(OutputStream, long)}.
+     */
+    private void sendChannelBody(WritableByteChannel channel, long pending) throws IOException {
+        boolean sendEverything = pending == -1;
+        while (pending > 0 || sendEverything) {
+            long written;
+            try {
+                written = this.channelBody.writeTo(channel, sendEverything ? Long.MAX_VALUE : pending);
+            } catch (IOException e) {
+                NanoHTTPD.safeClose(this.channelBody);
+                throw e;
+            }
+            if (written < 0) {
+                break;
+            }
+            if (!sendEverything) {
+                pending -= written;
+            }
+        }
+    }
+
     public void setChunkedTransfer(boolean chunkedTransfer) {
         this.chunkedTransfer = chunkedTransfer;
     }
@@ -387,6 +453,14 @@ public class Response implements Closeable {
         return new Response(status, mimeType, data, totalBytes);
     }
 
+    /**
+     * Create a response with known length, written directly to the socket
+     * channel.
+     */
+    public static Response newFixedLengthResponse(IStatus status, String mimeType, IChannelBody body, long totalBytes) {
+        return new Response(status, mimeType, body, totalBytes);
+    }
+
     /**
      * Create a text response with known length.
      */
@@ -27,14 +27,24 @@ import java.util.Locale;
 public class LogEntry
 {
     private static final String defaultTimeStampFormatter = "yyyy-MM-dd HH:mm:ss.SSS";
+    /* SimpleDateFormat isn't thread-safe and expensive to create */
+    private static final ThreadLocal<SimpleDateFormat> timeStampFormatter =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue()
+                {
+                    return new SimpleDateFormat(defaultTimeStampFormatter, Locale.getDefault());
+                }
+            };
 
     private int id;
     @NonNull
     private String tag;
-    @NonNull
+    /* Resolved from the ring on demand, see LogEntry(LogRing) */
     private String msg;
     private long timeStamp;
-    private SimpleDateFormat timeStampFormatter;
+    private LogRing ring;
+    private long seq = -1;
 
     public LogEntry(int id, @NonNull String tag,@NonNull String msg, long timeStamp)
     {
@@ -42,8 +52,33 @@ public class LogEntry
         this.tag = tag;
         this.msg = msg;
         this.timeStamp = timeStamp;
-        this.timeStampFormatter = new SimpleDateFormat(defaultTimeStampFormatter,
-                Locale.getDefault());
+    }
+
+    LogEntry(long seq, int id, @NonNull String tag, @NonNull String msg, long timeStamp)
+    {
+        this(id, tag, msg, timeStamp);
+
+        this.seq = seq;
+    }
+
+    /*
+     * Reusable view of the ring entry, used to apply the filters
+     * without creating the entry and the message string
+     */
+
+    LogEntry(@NonNull LogRing ring)
+    {
+        this.ring = ring;
+        this.tag = "";
+    }
+
+    void set(long seq, @NonNull String tag)
+    {
+        this.seq = seq;
+        this.tag = tag;
+        id = ring.getId(seq);
+        timeStamp = ring.getTimeStamp(seq);
+        msg = null;
     }
 
     public int getId()
@@ -51,6 +86,17 @@ public class LogEntry
         return id;
     }
 
+    /*
+     * Stable key of the entry received from the logger, grows monotonically.
+     * The entries read from the store (see LogStore) have the store sequence number.
+     * Returns -1 for the entries created outside the logger
+     */
+
+    public long getSeq()
+    {
+        return seq;
+    }
+
     @NonNull
     public String getTag()
     {
@@ -60,6 +106,9 @@ public class LogEntry
     @NonNull
     public String getMsg()
     {
+        if (msg == null)
+            msg = ring.getMessage(seq);
+
         return msg;
     }
 
@@ -70,7 +119,7 @@ public class LogEntry
 
     public String getTimeStampAsString()
     {
-        return timeStampFormatter.format(this.timeStamp);
+        return timeStampFormatter.get().format(this.timeStamp);
     }
 
     @Override
@@ -86,7 +135,7 @@ public class LogEntry
         return id == entry.id &&
                 timeStamp == entry.timeStamp &&
                 tag.equals(entry.tag) &&
-                msg.equals(entry.msg);
+                getMsg().equals(entry.getMsg());
     }
 
     @Override
@@ -94,7 +143,7 @@ public class LogEntry
     {
         int result = id;
         result = 31 * result + tag.hashCode();
-        result = 31 * result + msg.hashCode();
+        result = 31 * result + getMsg().hashCode();
         result = 31 * result + (int) (timeStamp ^ (timeStamp >>> 32));
 
         return result;
@@ -108,6 +157,6 @@ public class LogEntry
     @Override
     public String toString()
     {
-        return "[" + tag + "] " + msg;
+        return "[" + tag + "] " + getMsg();
     }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.logger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free multi-producer single-consumer queue of the log entries.
+ * Producers claim a slot by the sequence number and publish it after
+ * writing, the consumer drains the published slots in order into
+ * the log ring. The slot has a fixed chars region, longer messages
+ * are kept as strings. If the queue is full, the entry is dropped,
+ * so producers never wait for the consumer.
+ */
+
+class LogQueue
+{
+    static final int DEFAULT_CAPACITY = 1024;
+    static final int SLOT_CHARS = 256;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong producerSeq = new AtomicLong();
+    /* Written only by the consumer */
+    private volatile long consumerSeq;
+    /* Sequence number + 1 of the published entry in the slot */
+    private final AtomicLongArray published;
+    private final int[] ids;
+    private final int[] types;
+    private final long[] timeStamps;
+    private final int[] lengths;
+    private final char[] chars;
+    private final String[] longMessages;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    LogQueue(int capacity)
+    {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("Capacity must be a power of two");
+
+        this.capacity = capacity;
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        ids = new int[capacity];
+        types = new int[capacity];
+        timeStamps = new long[capacity];
+        lengths = new int[capacity];
+        chars = new char[capacity * SLOT_CHARS];
+        longMessages = new String[capacity];
+    }
+
+    /*
+     * Returns false if the queue is full and the entry was dropped
+     */
+
+    boolean offer(int id, int type, long timeStamp, @NonNull CharSequence msg)
+    {
+        long seq;
+        do {
+            seq = producerSeq.get();
+            if (seq - consumerSeq >= capacity) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+        } while (!producerSeq.compareAndSet(seq, seq + 1));
+
+        int slot = (int)(seq & mask);
+        ids[slot] = id;
+        types[slot] = type;
+        timeStamps[slot] = timeStamp;
+        int len = msg.length();
+        lengths[slot] = len;
+        if (len > SLOT_CHARS) {
+            longMessages[slot] = msg.toString();
+        } else {
+            int offset = slot * SLOT_CHARS;
+            if (msg instanceof String)
+                ((String)msg).getChars(0, len, chars, offset);
+            else if (msg instanceof StringBuilder)
+                ((StringBuilder)msg).getChars(0, len, chars, offset);
+            else
+                for (int i = 0; i < len; i++)
+                    chars[offset + i] = msg.charAt(i);
+        }
+        published.lazySet(slot, seq + 1);
+
+        return true;
+    }
+
+    /*
+     * Returns the number of entries that were offered but not drained yet
+     */
+
+    int pendingCount()
+    {
+        return (int)Math.max(producerSeq.get() - consumerSeq, 0);
+    }
+
+    int getCapacity()
+    {
+        return capacity;
+    }
+
+    long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    int drain(@Nullable LogRing ring)
+    {
+        return drain(ring, null, null);
+    }
+
+    /*
+     * Only for the consumer. Moves the published entries into the ring
+     * and appends them to the store, or discards them if both are null.
+     * `tags` is required for the store. Returns the number of entries
+     */
+
+    int drain(@Nullable LogRing ring, @Nullable LogStore store, @Nullable List<String> tags)
+    {
+        long seq = consumerSeq;
+        int count = 0;
+        while (true) {
+            int slot = (int)(seq & mask);
+            if (published.get(slot) != seq + 1)
+                break;
+
+            String longMsg = longMessages[slot];
+            if (ring != null) {
+                if (longMsg != null)
+                    ring.add(ids[slot], types[slot], timeStamps[slot], longMsg);
+                else
+                    ring.add(ids[slot], types[slot], timeStamps[slot],
+                             chars, slot * SLOT_CHARS, lengths[slot]);
+            }
+            if (store != null && tags != null) {
+                String tag = tags.get(types[slot]);
+                if (longMsg != null)
+                    store.add(ids[slot], tag, timeStamps[slot], longMsg);
+                else
+                    store.add(ids[slot], tag, timeStamps[slot],
+                              chars, slot * SLOT_CHARS, lengths[slot]);
+            }
+            longMessages[slot] = null;
+            seq++;
+            count++;
+            /* Releases the slot for the producers */
+            consumerSeq = seq;
+        }
+
+        return count;
+    }
+}
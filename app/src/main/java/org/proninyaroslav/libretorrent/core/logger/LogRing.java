@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.logger;
+
+import androidx.annotation.NonNull;
+
+/*
+ * Preallocated ring of the log entries. Each entry is a set of primitive
+ * slots: id, type (index of the interned tag), time stamp and the offset
+ * and length of the message in the shared chars arena. Adding an entry
+ * doesn't allocate memory, strings are created only on read.
+ *
+ * Entries are addressed by the sequence number, which grows
+ * monotonically. The oldest entries are evicted when the ring is full
+ * or when their chars are overwritten by the new message.
+ * Not thread-safe.
+ */
+
+class LogRing
+{
+    static final int AVG_MESSAGE_LENGTH = 128;
+    static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private final int capacity;
+    private final int[] ids;
+    private final int[] types;
+    private final long[] timeStamps;
+    private final int[] msgOffsets;
+    private final int[] msgLengths;
+    private final char[] chars;
+    private final int maxMessageLength;
+    /* Sequence number of the oldest entry and of the next entry */
+    private long headSeq;
+    private long tailSeq;
+    private int charsTail;
+
+    LogRing(int capacity)
+    {
+        this(capacity, 0);
+    }
+
+    /*
+     * `startSeq` is the sequence number of the first entry
+     */
+
+    LogRing(int capacity, long startSeq)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+
+        this.capacity = capacity;
+        ids = new int[capacity];
+        types = new int[capacity];
+        timeStamps = new long[capacity];
+        msgOffsets = new int[capacity];
+        msgLengths = new int[capacity];
+        long charsSize = (long)capacity * AVG_MESSAGE_LENGTH;
+        chars = new char[(int)Math.min(Math.max(charsSize, MAX_MESSAGE_LENGTH), Integer.MAX_VALUE - 8)];
+        maxMessageLength = Math.min(MAX_MESSAGE_LENGTH, chars.length);
+        headSeq = startSeq;
+        tailSeq = startSeq;
+    }
+
+    /*
+     * Returns the sequence number of the entry. The message is truncated
+     * to MAX_MESSAGE_LENGTH chars
+     */
+
+    long add(int id, int type, long timeStamp, @NonNull CharSequence msg)
+    {
+        int len = Math.min(msg.length(), maxMessageLength);
+        int offset = reserveChars(len);
+        if (msg instanceof String)
+            ((String)msg).getChars(0, len, chars, offset);
+        else if (msg instanceof StringBuilder)
+            ((StringBuilder)msg).getChars(0, len, chars, offset);
+        else
+            for (int i = 0; i < len; i++)
+                chars[offset + i] = msg.charAt(i);
+
+        return addSlot(id, type, timeStamp, offset, len);
+    }
+
+    long add(int id, int type, long timeStamp, @NonNull char[] msg, int msgOffset, int msgLength)
+    {
+        int len = Math.min(msgLength, maxMessageLength);
+        int offset = reserveChars(len);
+        System.arraycopy(msg, msgOffset, chars, offset, len);
+
+        return addSlot(id, type, timeStamp, offset, len);
+    }
+
+    private long addSlot(int id, int type, long timeStamp, int offset, int len)
+    {
+        if (size() == capacity)
+            headSeq++;
+        int slot = slot(tailSeq);
+        ids[slot] = id;
+        types[slot] = type;
+        timeStamps[slot] = timeStamp;
+        msgOffsets[slot] = offset;
+        msgLengths[slot] = len;
+        charsTail = offset + len;
+
+        return tailSeq++;
+    }
+
+    /*
+     * Messages are stored contiguously. If the message doesn't fit
+     * at the end of the arena, it's written from the start.
+     * Entries whose chars are overwritten are evicted
+     */
+
+    private int reserveChars(int len)
+    {
+        int offset = charsTail;
+        if (offset + len > chars.length) {
+            /* The oldest entries are located after the tail, evict them first */
+            while (size() > 0 && msgOffsets[slot(headSeq)] >= charsTail)
+                headSeq++;
+            offset = 0;
+        }
+        /* The new range is right before the oldest entries */
+        while (size() > 0) {
+            int headOffset = msgOffsets[slot(headSeq)];
+            if (headOffset < offset || headOffset >= offset + len)
+                break;
+            headSeq++;
+        }
+
+        return offset;
+    }
+
+    private int slot(long seq)
+    {
+        return (int)(seq % capacity);
+    }
+
+    int size()
+    {
+        return (int)(tailSeq - headSeq);
+    }
+
+    int getCapacity()
+    {
+        return capacity;
+    }
+
+    long getHeadSeq()
+    {
+        return headSeq;
+    }
+
+    long getTailSeq()
+    {
+        return tailSeq;
+    }
+
+    boolean contains(long seq)
+    {
+        return seq >= headSeq && seq < tailSeq;
+    }
+
+    int getId(long seq)
+    {
+        return ids[checkedSlot(seq)];
+    }
+
+    int getType(long seq)
+    {
+        return types[checkedSlot(seq)];
+    }
+
+    long getTimeStamp(long seq)
+    {
+        return timeStamps[checkedSlot(seq)];
+    }
+
+    @NonNull
+    String getMessage(long seq)
+    {
+        int slot = checkedSlot(seq);
+
+        return new String(chars, msgOffsets[slot], msgLengths[slot]);
+    }
+
+    void clear()
+    {
+        headSeq = tailSeq;
+        charsTail = 0;
+    }
+
+    private int checkedSlot(long seq)
+    {
+        if (!contains(seq))
+            throw new IndexOutOfBoundsException("seq = " + seq +
+                    ", head = " + headSeq + ", tail = " + tailSeq);
+
+        return slot(seq);
+    }
+}
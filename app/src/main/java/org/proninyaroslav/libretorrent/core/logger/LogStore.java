@@ -0,0 +1,960 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.logger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Persistent log: entries are appended to the segment files through
+ * the buffered channel, the segment is rotated when it reaches
+ * `maxSegmentSize` and the oldest segments are deleted when there are
+ * more than `maxSegments`. Each segment has a small index with the time
+ * range, the mask of the entry types and the offset and time of every
+ * INDEX_INTERVAL entry, so the entries can be paged and searched
+ * without reading the whole segment. The index of the closed segment
+ * is stored next to it, the index of the segment that wasn't closed
+ * properly is rebuilt on open.
+ *
+ * Entries are addressed by the sequence number, which continues
+ * between sessions. Entry types are the indexes of the tags, stored
+ * in the separate file.
+ *
+ * Segment format (big-endian):
+ *   magic, version, sequence number of the first entry,
+ *   entries (id, type, time stamp, message length, UTF-16 message)
+ */
+
+public class LogStore
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = LogStore.class.getSimpleName();
+
+    public static final String DIR_NAME = "log";
+    public static final int DEFAULT_MAX_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 32;
+    static final int INDEX_INTERVAL = 64;
+    private static final String SEGMENT_EXT = ".log";
+    private static final String INDEX_EXT = ".idx";
+    private static final String TAGS_FILE_NAME = "tags";
+    private static final int SEGMENT_MAGIC = 0x4C544C47; /* LTLG */
+    private static final int INDEX_MAGIC = 0x4C544C49; /* LTLI */
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 4 + 4 + 8;
+    private static final int ENTRY_HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_MESSAGE_LENGTH = LogRing.MAX_MESSAGE_LENGTH;
+
+    private final File dir;
+    private final int maxSegmentSize;
+    private final int maxSegments;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final ArrayList<String> tags = new ArrayList<>();
+    private final HashMap<String, Integer> tagTypes = new HashMap<>();
+    private final ByteBuffer writeBuf = ByteBuffer.allocate(BUFFER_SIZE);
+    private Segment active;
+    private RandomAccessFile activeFile;
+    private FileChannel activeChannel;
+    private long tailSeq;
+    private boolean opened;
+    private IOException error;
+
+    public LogStore(@NonNull File dir)
+    {
+        this(dir, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public LogStore(@NonNull File dir, int maxSegmentSize, int maxSegments)
+    {
+        if (maxSegmentSize < SEGMENT_HEADER_SIZE + ENTRY_HEADER_SIZE + MAX_MESSAGE_LENGTH * 2)
+            throw new IllegalArgumentException("Segment size is too small");
+        if (maxSegments <= 0)
+            throw new IllegalArgumentException("Maximum segments must be greater than 0");
+
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    public static class Page
+    {
+        @NonNull
+        public final List<LogEntry> entries;
+        /* Sequence number to continue reading from */
+        public final long nextSeq;
+
+        Page(@NonNull List<LogEntry> entries, long nextSeq)
+        {
+            this.entries = entries;
+            this.nextSeq = nextSeq;
+        }
+    }
+
+    private static class Segment
+    {
+        final long startSeq;
+        final File file;
+        int count;
+        long size = SEGMENT_HEADER_SIZE;
+        long minTimeStamp = Long.MAX_VALUE;
+        long maxTimeStamp = Long.MIN_VALUE;
+        long typeMask;
+        /* Offset and time stamp of every INDEX_INTERVAL entry */
+        long[] offsets = new long[16];
+        long[] timeStamps = new long[16];
+
+        Segment(long startSeq, File file)
+        {
+            this.startSeq = startSeq;
+            this.file = file;
+        }
+
+        void add(long timeStamp, int type, int entrySize)
+        {
+            if (count % INDEX_INTERVAL == 0) {
+                int i = count / INDEX_INTERVAL;
+                if (i == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, i * 2);
+                    timeStamps = Arrays.copyOf(timeStamps, i * 2);
+                }
+                offsets[i] = size;
+                timeStamps[i] = timeStamp;
+            }
+            count++;
+            size += entrySize;
+            minTimeStamp = Math.min(minTimeStamp, timeStamp);
+            maxTimeStamp = Math.max(maxTimeStamp, timeStamp);
+            typeMask |= typeBit(type);
+        }
+
+        int indexSize()
+        {
+            return (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+        }
+
+        long endSeq()
+        {
+            return startSeq + count;
+        }
+    }
+
+    /* Immutable part of the segment, read without the lock */
+    private static class SegmentRange
+    {
+        final long startSeq;
+        final File file;
+        final int count;
+
+        SegmentRange(Segment segment)
+        {
+            startSeq = segment.startSeq;
+            file = segment.file;
+            count = segment.count;
+        }
+    }
+
+    private static long typeBit(int type)
+    {
+        return 1L << Math.min(type, 63);
+    }
+
+    /*
+     * Loads the indexes of the existing segments and starts the new segment
+     */
+
+    public synchronized void open() throws IOException
+    {
+        if (opened)
+            return;
+
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Cannot create log dir " + dir);
+
+        loadTags();
+
+        File[] files = dir.listFiles();
+        ArrayList<Long> startSeqs = new ArrayList<>();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (!name.endsWith(SEGMENT_EXT))
+                    continue;
+                try {
+                    startSeqs.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_EXT.length())));
+
+                } catch (NumberFormatException e) {
+                    /* Ignore */
+                }
+            }
+        }
+        long[] sorted = new long[startSeqs.size()];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = startSeqs.get(i);
+        Arrays.sort(sorted);
+
+        segments.clear();
+        tailSeq = 0;
+        for (long startSeq : sorted) {
+            Segment segment = loadSegment(startSeq);
+            if (segment == null || segment.count == 0 || segment.startSeq < tailSeq) {
+                deleteSegment(startSeq);
+                continue;
+            }
+            segments.add(segment);
+            tailSeq = segment.endSeq();
+        }
+
+        error = null;
+        opened = true;
+        startSegment();
+    }
+
+    public synchronized void close()
+    {
+        if (!opened)
+            return;
+
+        try {
+            closeSegment();
+
+        } catch (IOException e) {
+            error = e;
+        }
+        opened = false;
+    }
+
+    public synchronized boolean isOpened()
+    {
+        return opened;
+    }
+
+    /*
+     * Returns the write error. The entries aren't stored after the error
+     */
+
+    @Nullable
+    public synchronized IOException getError()
+    {
+        return error;
+    }
+
+    /*
+     * The message is truncated to LogRing.MAX_MESSAGE_LENGTH chars.
+     * Writing is buffered, see flush()
+     */
+
+    synchronized void add(int id, @NonNull String tag, long timeStamp, @NonNull CharSequence msg)
+    {
+        int len = Math.min(msg.length(), MAX_MESSAGE_LENGTH);
+        ByteBuffer buf = reserve(tag, id, timeStamp, len);
+        if (buf == null)
+            return;
+
+        for (int i = 0; i < len; i++)
+            buf.putChar(msg.charAt(i));
+    }
+
+    synchronized void add(int id, @NonNull String tag, long timeStamp,
+                          @NonNull char[] msg, int msgOffset, int msgLength)
+    {
+        int len = Math.min(msgLength, MAX_MESSAGE_LENGTH);
+        ByteBuffer buf = reserve(tag, id, timeStamp, len);
+        if (buf == null)
+            return;
+
+        for (int i = 0; i < len; i++)
+            buf.putChar(msg[msgOffset + i]);
+    }
+
+    /*
+     * Writes the entry header and returns the buffer for the message,
+     * or null if the store isn't writable
+     */
+
+    private ByteBuffer reserve(String tag, int id, long timeStamp, int msgLength)
+    {
+        if (!opened || error != null)
+            return null;
+
+        int entrySize = ENTRY_HEADER_SIZE + msgLength * 2;
+        try {
+            if (active.count > 0 && active.size + entrySize > maxSegmentSize) {
+                closeSegment();
+                startSegment();
+            }
+            if (writeBuf.remaining() < entrySize)
+                flushBuffer();
+
+        } catch (IOException e) {
+            error = e;
+            return null;
+        }
+
+        int type = getTagType(tag);
+        if (type < 0)
+            return null;
+
+        active.add(timeStamp, type, entrySize);
+        tailSeq++;
+
+        return writeBuf.putInt(id)
+                .putInt(type)
+                .putLong(timeStamp)
+                .putInt(msgLength);
+    }
+
+    /*
+     * Writes the buffered entries to the segment file
+     */
+
+    public synchronized void flush()
+    {
+        if (!opened || error != null)
+            return;
+
+        try {
+            flushBuffer();
+
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        writeBuf.flip();
+        while (writeBuf.hasRemaining())
+            activeChannel.write(writeBuf);
+        writeBuf.clear();
+    }
+
+    public synchronized long getHeadSeq()
+    {
+        return (segments.isEmpty() ? tailSeq : segments.get(0).startSeq);
+    }
+
+    public synchronized long getTailSeq()
+    {
+        return tailSeq;
+    }
+
+    public synchronized long getNumEntries()
+    {
+        return tailSeq - getHeadSeq();
+    }
+
+    /*
+     * Returns the sequence number of the first entry with time stamp
+     * not less than `timeStamp`, or the tail sequence number
+     */
+
+    public synchronized long findSeq(long timeStamp)
+    {
+        flush();
+
+        for (Segment segment : segments) {
+            if (segment.count == 0 || segment.maxTimeStamp < timeStamp)
+                continue;
+            if (segment.minTimeStamp >= timeStamp)
+                return segment.startSeq;
+
+            /* Time stamps are almost monotonic, start from the nearest index entry */
+            int i = 0;
+            while (i + 1 < segment.indexSize() && segment.timeStamps[i + 1] < timeStamp)
+                i++;
+            try (EntryReader reader = new EntryReader(segment.file)) {
+                reader.seek(segment.offsets[i]);
+                long seq = segment.startSeq + (long)i * INDEX_INTERVAL;
+                for (; seq < segment.endSeq(); seq++) {
+                    if (reader.readHeader() && reader.timeStamp >= timeStamp)
+                        return seq;
+                    reader.skipMessage();
+                }
+
+            } catch (IOException e) {
+                /* Try the next segment */
+            }
+        }
+
+        return tailSeq;
+    }
+
+    /*
+     * Returns up to `maxSize` entries starting from `startSeq`.
+     * If `tags` != null, only entries with these tags are returned,
+     * the segments without them aren't read
+     */
+
+    public synchronized Page read(long startSeq, int maxSize,
+                                  @Nullable Collection<String> tags,
+                                  @Nullable LogFilter filter)
+    {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Size must be greater than 0");
+
+        flush();
+
+        long typeMask = makeTypeMask(tags);
+
+        ArrayList<LogEntry> entries = new ArrayList<>(Math.min(maxSize, INDEX_INTERVAL));
+        long seq = Math.max(startSeq, getHeadSeq());
+        for (int s = findSegment(seq); s < segments.size() && entries.size() < maxSize; s++) {
+            Segment segment = segments.get(s);
+            seq = Math.max(seq, segment.startSeq);
+            if ((segment.typeMask & typeMask) == 0) {
+                seq = segment.endSeq();
+                continue;
+            }
+
+            try (EntryReader reader = new EntryReader(segment.file)) {
+                int i = (int)((seq - segment.startSeq) / INDEX_INTERVAL);
+                reader.seek(segment.offsets[i]);
+                for (long skip = segment.startSeq + (long)i * INDEX_INTERVAL; skip < seq; skip++) {
+                    reader.readHeader();
+                    reader.skipMessage();
+                }
+                for (; seq < segment.endSeq() && entries.size() < maxSize; seq++) {
+                    if (!reader.readHeader())
+                        break;
+                    if (!matches(reader.type, typeMask, tags)) {
+                        reader.skipMessage();
+                        continue;
+                    }
+                    LogEntry entry = reader.readEntry(seq, getTag(reader.type));
+                    if (filter == null || filter.apply(entry))
+                        entries.add(entry);
+                }
+
+            } catch (FileNotFoundException e) {
+                seq = segment.endSeq();
+
+            } catch (IOException e) {
+                break;
+            }
+        }
+
+        return new Page(entries, seq);
+    }
+
+    /*
+     * Returns up to `maxSize` last entries before `endSeq`, in ascending order.
+     * The index blocks are read backwards, `nextSeq` of the page is
+     * the sequence number to continue reading backwards from
+     */
+
+    public synchronized Page readBefore(long endSeq, int maxSize,
+                                        @Nullable Collection<String> tags,
+                                        @Nullable LogFilter filter)
+    {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Size must be greater than 0");
+
+        flush();
+
+        long typeMask = makeTypeMask(tags);
+
+        ArrayList<LogEntry> entries = new ArrayList<>(Math.min(maxSize, INDEX_INTERVAL));
+        ArrayList<LogEntry> block = new ArrayList<>(INDEX_INTERVAL);
+        long seq = Math.max(Math.min(endSeq, tailSeq), getHeadSeq());
+        for (int s = findSegment(seq - 1); s >= 0 && entries.size() < maxSize; s--) {
+            if (s >= segments.size())
+                continue;
+            Segment segment = segments.get(s);
+            seq = Math.min(seq, segment.endSeq());
+            if ((segment.typeMask & typeMask) == 0) {
+                seq = segment.startSeq;
+                continue;
+            }
+
+            try (EntryReader reader = new EntryReader(segment.file)) {
+                while (seq > segment.startSeq && entries.size() < maxSize) {
+                    int i = (int)((seq - 1 - segment.startSeq) / INDEX_INTERVAL);
+                    long blockSeq = segment.startSeq + (long)i * INDEX_INTERVAL;
+                    reader.seek(segment.offsets[i]);
+                    block.clear();
+                    for (long n = blockSeq; n < seq; n++) {
+                        if (!reader.readHeader())
+                            break;
+                        if (!matches(reader.type, typeMask, tags)) {
+                            reader.skipMessage();
+                            continue;
+                        }
+                        LogEntry entry = reader.readEntry(n, getTag(reader.type));
+                        if (filter == null || filter.apply(entry))
+                            block.add(entry);
+                    }
+
+                    int j = block.size() - 1;
+                    for (; j >= 0 && entries.size() < maxSize; j--)
+                        entries.add(block.get(j));
+                    /* Stopped inside the block */
+                    seq = (j >= 0 ? block.get(j + 1).getSeq() : blockSeq);
+                }
+
+            } catch (FileNotFoundException e) {
+                seq = segment.startSeq;
+
+            } catch (IOException e) {
+                break;
+            }
+        }
+        Collections.reverse(entries);
+
+        return new Page(entries, seq);
+    }
+
+    /*
+     * Returns all tags of the stored entries
+     */
+
+    public synchronized List<String> getTags()
+    {
+        return new ArrayList<>(tags);
+    }
+
+    private long makeTypeMask(Collection<String> tags)
+    {
+        if (tags == null)
+            return -1;
+
+        long typeMask = 0;
+        for (String tag : tags) {
+            Integer type = tagTypes.get(tag);
+            if (type != null)
+                typeMask |= typeBit(type);
+        }
+
+        return typeMask;
+    }
+
+    /* The mask bits of the types above 63 are shared, check the tag itself */
+    private boolean matches(int type, long typeMask, Collection<String> tags)
+    {
+        return (typeBit(type) & typeMask) != 0 &&
+                (tags == null || tags.contains(getTag(type)));
+    }
+
+    /*
+     * Streams the entries from `startSeq` to the last entry. The file reading
+     * is done without the lock, so the entries can be added meanwhile.
+     * Returns the number of written log entries
+     */
+
+    public int write(@NonNull Writer writer, long startSeq, boolean timeStamp,
+                     @Nullable LogFilter filter) throws IOException
+    {
+        ArrayList<SegmentRange> ranges = new ArrayList<>();
+        ArrayList<String> tags;
+        synchronized (this) {
+            flush();
+            for (int s = findSegment(startSeq); s < segments.size(); s++)
+                ranges.add(new SegmentRange(segments.get(s)));
+            tags = new ArrayList<>(this.tags);
+        }
+
+        int count = 0;
+        for (SegmentRange range : ranges) {
+            try (EntryReader reader = new EntryReader(range.file)) {
+                reader.seek(SEGMENT_HEADER_SIZE);
+                long endSeq = range.startSeq + range.count;
+                for (long seq = range.startSeq; seq < endSeq; seq++) {
+                    if (!reader.readHeader())
+                        break;
+                    if (seq < startSeq) {
+                        reader.skipMessage();
+                        continue;
+                    }
+                    String tag = (reader.type < tags.size() ? tags.get(reader.type) : "");
+                    LogEntry entry = reader.readEntry(seq, tag);
+                    if (filter != null && !filter.apply(entry))
+                        continue;
+
+                    writer.write(timeStamp ? entry.toStringWithTimeStamp() : entry.toString());
+                    writer.write('\n');
+                    count++;
+                }
+
+            } catch (FileNotFoundException e) {
+                /* The segment was deleted by the rotation */
+            }
+        }
+        writer.flush();
+
+        return count;
+    }
+
+    /*
+     * Returns the index of the segment containing `seq`, or of the next one
+     */
+
+    private int findSegment(long seq)
+    {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Segment segment = segments.get(mid);
+            if (seq < segment.startSeq)
+                high = mid - 1;
+            else if (seq >= segment.endSeq())
+                low = mid + 1;
+            else
+                return mid;
+        }
+
+        return low;
+    }
+
+    private String getTag(int type)
+    {
+        return (type < tags.size() ? tags.get(type) : "");
+    }
+
+    private int getTagType(String tag)
+    {
+        Integer type = tagTypes.get(tag);
+        if (type != null)
+            return type;
+
+        type = tags.size();
+        tags.add(tag);
+        tagTypes.put(tag, type);
+        try {
+            saveTags();
+
+        } catch (IOException e) {
+            error = e;
+            return -1;
+        }
+
+        return type;
+    }
+
+    private void loadTags() throws IOException
+    {
+        tags.clear();
+        tagTypes.clear();
+        File f = new File(dir, TAGS_FILE_NAME);
+        if (!f.exists())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String tag = in.readUTF();
+                tagTypes.put(tag, tags.size());
+                tags.add(tag);
+            }
+        }
+    }
+
+    private void saveTags() throws IOException
+    {
+        File f = new File(dir, TAGS_FILE_NAME);
+        File tmp = new File(dir, TAGS_FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(tags.size());
+            for (String tag : tags)
+                out.writeUTF(tag);
+        }
+        if (!tmp.renameTo(f))
+            throw new IOException("Cannot rename " + tmp + " to " + f);
+    }
+
+    private File segmentFile(long startSeq)
+    {
+        return new File(dir, String.format(Locale.US, "%020d", startSeq) + SEGMENT_EXT);
+    }
+
+    private File indexFile(long startSeq)
+    {
+        return new File(dir, String.format(Locale.US, "%020d", startSeq) + INDEX_EXT);
+    }
+
+    private void startSegment() throws IOException
+    {
+        Segment segment = new Segment(tailSeq, segmentFile(tailSeq));
+        activeFile = new RandomAccessFile(segment.file, "rw");
+        activeFile.setLength(0);
+        activeChannel = activeFile.getChannel();
+        writeBuf.clear();
+        writeBuf.putInt(SEGMENT_MAGIC)
+                .putInt(VERSION)
+                .putLong(segment.startSeq);
+        active = segment;
+        segments.add(segment);
+        deleteOldSegments();
+    }
+
+    private void closeSegment() throws IOException
+    {
+        Segment segment = active;
+        if (segment == null)
+            return;
+
+        active = null;
+        try {
+            flushBuffer();
+
+        } finally {
+            activeChannel = null;
+            activeFile.close();
+            activeFile = null;
+        }
+        if (segment.count == 0) {
+            segments.remove(segment);
+            deleteSegment(segment.startSeq);
+        } else {
+            saveIndex(segment);
+        }
+    }
+
+    private void deleteOldSegments()
+    {
+        while (segments.size() > maxSegments) {
+            Segment segment = segments.remove(0);
+            deleteSegment(segment.startSeq);
+        }
+    }
+
+    private void deleteSegment(long startSeq)
+    {
+        segmentFile(startSeq).delete();
+        indexFile(startSeq).delete();
+    }
+
+    private void saveIndex(Segment segment) throws IOException
+    {
+        File f = indexFile(segment.startSeq);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(segment.startSeq);
+            out.writeInt(segment.count);
+            out.writeLong(segment.size);
+            out.writeLong(segment.minTimeStamp);
+            out.writeLong(segment.maxTimeStamp);
+            out.writeLong(segment.typeMask);
+            int indexSize = segment.indexSize();
+            for (int i = 0; i < indexSize; i++) {
+                out.writeLong(segment.offsets[i]);
+                out.writeLong(segment.timeStamps[i]);
+            }
+        }
+    }
+
+    /*
+     * Returns null if the segment is broken
+     */
+
+    private Segment loadSegment(long startSeq)
+    {
+        File file = segmentFile(startSeq);
+        File index = indexFile(startSeq);
+        if (index.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+                Segment segment = new Segment(startSeq, file);
+                if (in.readInt() == INDEX_MAGIC && in.readInt() == VERSION &&
+                    in.readLong() == startSeq) {
+                    segment.count = in.readInt();
+                    segment.size = in.readLong();
+                    segment.minTimeStamp = in.readLong();
+                    segment.maxTimeStamp = in.readLong();
+                    segment.typeMask = in.readLong();
+                    int indexSize = segment.indexSize();
+                    segment.offsets = new long[Math.max(indexSize, 1)];
+                    segment.timeStamps = new long[Math.max(indexSize, 1)];
+                    for (int i = 0; i < indexSize; i++) {
+                        segment.offsets[i] = in.readLong();
+                        segment.timeStamps[i] = in.readLong();
+                    }
+                    if (segment.size == file.length())
+                        return segment;
+                }
+
+            } catch (IOException e) {
+                /* Rebuild */
+            }
+        }
+
+        try {
+            Segment segment = rebuildIndex(startSeq, file);
+            if (segment != null && segment.count > 0)
+                saveIndex(segment);
+
+            return segment;
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Scans the segment, the incomplete last entry is truncated
+     */
+
+    private Segment rebuildIndex(long startSeq, File file) throws IOException
+    {
+        Segment segment = new Segment(startSeq, file);
+        long length = file.length();
+        try (EntryReader reader = new EntryReader(file)) {
+            if (!reader.readSegmentHeader(startSeq))
+                return null;
+            while (reader.readHeader()) {
+                int entrySize = ENTRY_HEADER_SIZE + reader.msgLength * 2;
+                if (reader.msgLength > MAX_MESSAGE_LENGTH || segment.size + entrySize > length)
+                    break;
+                reader.skipMessage();
+                segment.add(reader.timeStamp, reader.type, entrySize);
+            }
+        }
+        if (segment.size < length) {
+            try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+                f.setLength(segment.size);
+            }
+        }
+
+        return segment;
+    }
+
+    /*
+     * Buffered reading of the segment entries
+     */
+
+    private static class EntryReader implements AutoCloseable
+    {
+        final FileInputStream in;
+        final FileChannel channel;
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        char[] chars = new char[256];
+        int id;
+        int type;
+        long timeStamp;
+        int msgLength;
+
+        EntryReader(File file) throws FileNotFoundException
+        {
+            in = new FileInputStream(file);
+            channel = in.getChannel();
+            buf.limit(0);
+        }
+
+        void seek(long offset) throws IOException
+        {
+            channel.position(offset);
+            buf.clear();
+            buf.limit(0);
+        }
+
+        boolean readSegmentHeader(long startSeq) throws IOException
+        {
+            return fill(SEGMENT_HEADER_SIZE) &&
+                    buf.getInt() == SEGMENT_MAGIC &&
+                    buf.getInt() == VERSION &&
+                    buf.getLong() == startSeq;
+        }
+
+        /*
+         * Returns false at the end of the segment
+         */
+
+        boolean readHeader() throws IOException
+        {
+            if (!fill(ENTRY_HEADER_SIZE))
+                return false;
+
+            id = buf.getInt();
+            type = buf.getInt();
+            timeStamp = buf.getLong();
+            msgLength = buf.getInt();
+
+            return msgLength >= 0;
+        }
+
+        void skipMessage() throws IOException
+        {
+            int skip = msgLength * 2;
+            if (skip <= buf.remaining()) {
+                buf.position(buf.position() + skip);
+            } else {
+                channel.position(channel.position() + skip - buf.remaining());
+                buf.clear();
+                buf.limit(0);
+            }
+        }
+
+        LogEntry readEntry(long seq, String tag) throws IOException
+        {
+            if (!fill(msgLength * 2))
+                throw new IOException("Unexpected end of segment");
+            if (chars.length < msgLength)
+                chars = new char[Math.max(msgLength, chars.length * 2)];
+            for (int i = 0; i < msgLength; i++)
+                chars[i] = buf.getChar();
+
+            return new LogEntry(seq, id, tag, new String(chars, 0, msgLength), timeStamp);
+        }
+
+        private boolean fill(int len) throws IOException
+        {
+            if (buf.remaining() >= len)
+                return true;
+            if (len > buf.capacity())
+                return false;
+
+            buf.compact();
+            while (buf.position() < len) {
+                if (channel.read(buf) < 0)
+                    break;
+            }
+            buf.flip();
+
+            return buf.remaining() >= len;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+}
@@ -22,37 +22,86 @@ package org.proninyaroslav.libretorrent.core.logger;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import org.proninyaroslav.libretorrent.core.collections.FixedRingBuffer;
-
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.reactivex.Observable;
 import io.reactivex.subjects.PublishSubject;
 
+/*
+ * Log entries are recorded into the preallocated ring (see LogRing)
+ * without creating objects. The entries that passed the filters are
+ * referenced by the sequence number, LogEntry objects and strings
+ * are created only when the entries are read or written.
+ *
+ * Senders don't take the lock: entries are offered to the lock-free
+ * queue (see LogQueue), which is drained by the single consumer thread.
+ * The consumer and the readers share `logLock`, the readers drain the
+ * queue themselves to see the latest entries.
+ *
+ * The sequence number is the stable key of the entry (see LogEntry.getSeq()),
+ * it keeps growing after clean. The readers can page by the key: new
+ * entries are reported as NEW_ENTRIES and the evicted ones as HEAD_TRIM,
+ * so the loaded pages stay valid.
+ *
+ * If the store is set (see LogStore), the consumer also appends all
+ * received entries to it, regardless of the filters, and flushes
+ * them once per poll. Export and recording are streamed from the store,
+ * so they aren't limited by `maxStoredLogs`. The readers can also page
+ * the stored entries by the store sequence number (see getStoredEntries()),
+ * the tag filters (see NewFilter.excludeTag()) are applied by the segment index.
+ */
+
 public class Logger
 {
     protected static final long POLL_TIME_INTERVAL = 250; /* ms */
-
-    protected FixedRingBuffer<LogEntry> inputBuf;
-    protected  FixedRingBuffer<LogEntry> outputBuf;
-    /* `numPendingLogs` <= `maxStoredLogs` */
-    protected int numPendingLogs;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    protected final LogQueue queue = new LogQueue(LogQueue.DEFAULT_CAPACITY);
+    protected LogRing inputBuf;
+    /* Sequence numbers of the filtered entries, a ring with `maxStoredLogs` capacity */
+    protected long[] outputBuf;
+    protected int outputHead;
+    protected int outputSize;
+    /* Sequence number of the next input entry to filter */
+    protected long filteredSeq;
+    /* Sequence number of the first entry of the new input buffer */
+    protected long baseSeq;
+    /* Number of entries evicted from the output since the last HEAD_TRIM */
+    protected int trimmedCount;
     protected HashMap<String, LogFilter> filters = new HashMap<>();
+    /* Tags excluded by the filters, the store skips them by the segment index */
+    protected HashMap<String, String> excludedTags = new HashMap<>();
     protected ReentrantLock logLock = new ReentrantLock();
     protected int maxStoredLogs;
     protected PublishSubject<DataSetChange> dataSetChangedPublish = PublishSubject.create();
     protected ExecutorService sender = Executors.newSingleThreadExecutor();
-    protected Thread pendingThread;
+    protected AtomicReference<Thread> pendingThread = new AtomicReference<>();
     protected boolean paused;
     protected boolean recording;
-    protected int recordStartIndex = -1;
+    /* Sequence number of the first recorded entry */
+    protected long recordStartSeq = -1;
+    @Nullable
+    protected LogStore store;
+    /* Store sequence number of the first recorded entry */
+    protected long recordStartStoreSeq = -1;
+    /* Interned tags, the entry type is the index in the list */
+    protected ArrayList<String> tags = new ArrayList<>();
+    protected ConcurrentHashMap<String, Integer> tagTypes = new ConcurrentHashMap<>();
+    private LogEntry filterEntry;
 
     public Logger(int maxStoredLogs)
     {
@@ -62,107 +111,358 @@ public class Logger
         this.maxStoredLogs = maxStoredLogs;
     }
 
-    private FixedRingBuffer<LogEntry> lazyGetInputBuf()
+    private LogRing lazyGetInputBuf()
     {
-        if (inputBuf == null)
-            inputBuf = new FixedRingBuffer<>(calcInitBufCapacity(maxStoredLogs), maxStoredLogs);
-
-        if (pendingThread == null) {
-            pendingThread = new Thread(this::periodicSwapBuffers);
-            pendingThread.start();
+        if (inputBuf == null) {
+            inputBuf = new LogRing(maxStoredLogs, baseSeq);
+            filterEntry = new LogEntry(inputBuf);
+            filteredSeq = baseSeq;
+        }
 
-        } else if (!pendingThread.isAlive()) {
-            try {
-                pendingThread.start();
+        return inputBuf;
+    }
 
-            } catch (IllegalThreadStateException e) {
-                /* Already started, ignore */
+    private long[] lazyGetOutputBuf()
+    {
+        if (outputBuf == null) {
+            outputBuf = new long[maxStoredLogs];
+            outputHead = 0;
+            outputSize = 0;
+        }
+        /* Entries may be evicted from the input buffer earlier, see LogRing */
+        if (inputBuf != null) {
+            while (outputSize > 0 && !inputBuf.contains(outputBuf[outputHead])) {
+                outputHead = (outputHead + 1) % outputBuf.length;
+                outputSize--;
+                trimmedCount++;
             }
         }
 
-        return inputBuf;
+        return outputBuf;
     }
 
-    private FixedRingBuffer<LogEntry> lazyGetOutputBuf()
+    private void addOutput(long seq)
     {
-        if (outputBuf == null)
-            outputBuf = new FixedRingBuffer<>(calcInitBufCapacity(maxStoredLogs), maxStoredLogs);
+        long[] outputBuf = lazyGetOutputBuf();
+        if (outputSize == outputBuf.length) {
+            outputHead = (outputHead + 1) % outputBuf.length;
+            outputSize--;
+            trimmedCount++;
+        }
+        outputBuf[(outputHead + outputSize) % outputBuf.length] = seq;
+        outputSize++;
+    }
 
-        return outputBuf;
+    private long getOutput(int pos)
+    {
+        return outputBuf[(outputHead + pos) % outputBuf.length];
     }
 
-    private int calcInitBufCapacity(int capacity)
+    private void clearOutput()
     {
-        return (int) Math.floor(capacity / 2);
+        outputHead = 0;
+        outputSize = 0;
+        trimmedCount = 0;
     }
 
-    protected void send(@NonNull LogEntry entry)
+    /*
+     * Returns the position of the first output entry with
+     * the sequence number greater than `seq`
+     */
+
+    private int findOutputAfter(long seq)
+    {
+        int low = 0;
+        int high = outputSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getOutput(mid) <= seq)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+
+    /*
+     * Returns the entry type of the tag
+     */
+
+    protected int registerTag(@NonNull String tag)
     {
+        Integer type = tagTypes.get(tag);
+        if (type != null)
+            return type;
+
         logLock.lock();
 
         try {
-            lazyGetInputBuf().add(entry);
-            if (numPendingLogs < maxStoredLogs)
-                numPendingLogs++;
+            return getTagType(tag);
 
         } finally {
             logLock.unlock();
         }
     }
 
-    private void periodicSwapBuffers()
+    private int getTagType(String tag)
     {
-        while (!Thread.interrupted()) {
-            if (!paused) {
-                if (logLock.tryLock()) {
-                    try {
-                        if (Thread.interrupted())
-                            break;
+        Integer type = tagTypes.get(tag);
+        if (type == null) {
+            type = tags.size();
+            tags.add(tag);
+            tagTypes.put(tag, type);
+        }
 
-                        swapBuffers();
+        return type;
+    }
 
-                    } finally {
-                        logLock.unlock();
-                    }
-                }
-            }
+    protected void send(@NonNull LogEntry entry)
+    {
+        send(entry.getId(), registerTag(entry.getTag()), entry.getTimeStamp(), entry.getMsg());
+    }
 
-            try {
-                Thread.sleep(POLL_TIME_INTERVAL);
+    /*
+     * Never blocks. The message is copied, so it can be a reusable builder.
+     * `type` must be returned by registerTag()
+     */
+
+    protected void send(int id, int type, long timeStamp, @NonNull CharSequence msg)
+    {
+        if (!queue.offer(id, type, timeStamp, msg))
+            return;
+
+        Thread consumer = pendingThread.get();
+        if (consumer == null)
+            startConsumer();
+        else if (queue.pendingCount() >= queue.getCapacity() / 2)
+            LockSupport.unpark(consumer);
+    }
+
+    private void startConsumer()
+    {
+        Thread consumer = new Thread(this::periodicSwapBuffers);
+        if (pendingThread.compareAndSet(null, consumer))
+            consumer.start();
+    }
+
+    /*
+     * Returns the number of entries dropped because the consumer didn't keep up
+     */
+
+    public long getDroppedCount()
+    {
+        return queue.getDroppedCount();
+    }
 
-            } catch (InterruptedException e) {
-                break;
+    private void periodicSwapBuffers()
+    {
+        while (!Thread.interrupted()) {
+            if (logLock.tryLock()) {
+                try {
+                    if (Thread.interrupted())
+                        break;
+
+                    /* Keep receiving while paused, the queue is small */
+                    drainQueue();
+                    if (store != null)
+                        store.flush();
+                    if (!paused)
+                        filterPending();
+
+                } finally {
+                    logLock.unlock();
+                }
             }
+
+            /* Woken up by the senders if the queue is half full */
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_TIME_INTERVAL));
         }
     }
 
     private void swapBuffers()
     {
-        if (numPendingLogs == 0)
-            return;
+        drainQueue();
+        filterPending();
+    }
+
+    private void drainQueue()
+    {
+        queue.drain(lazyGetInputBuf(), store, tags);
+    }
+
+    /*
+     * Set the persistent store of the log entries, or null to detach
+     * the current one. The store must be opened, the caller closes it
+     */
+
+    public void setStore(@Nullable LogStore store)
+    {
+        logLock.lock();
+
+        try {
+            drainQueue();
+            if (this.store != null)
+                this.store.flush();
+            this.store = store;
+            recordStartStoreSeq = -1;
+
+            submitDataSetChanged(new DataSetChange(DataSetChange.Reason.STORE));
+
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    @Nullable
+    public LogStore getStore()
+    {
+        logLock.lock();
+
+        try {
+            return store;
+
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /*
+     * Returns up to `maxSize` stored entries starting from the store
+     * sequence number `startSeq`, the filters are applied.
+     * Returns null if the store isn't set
+     */
+
+    @Nullable
+    public LogStore.Page getStoredEntries(long startSeq, int maxSize)
+    {
+        return readStored(startSeq, maxSize, false);
+    }
+
+    /*
+     * Returns up to `maxSize` stored entries before the store sequence
+     * number `endSeq`, in ascending order. Pass Long.MAX_VALUE to read
+     * the last entries. Returns null if the store isn't set
+     */
+
+    @Nullable
+    public LogStore.Page getStoredEntriesBefore(long endSeq, int maxSize)
+    {
+        return readStored(endSeq, maxSize, true);
+    }
+
+    @Nullable
+    private LogStore.Page readStored(long seq, int maxSize, boolean before)
+    {
+        LogStore store;
+        List<String> tags;
+        LogFilter filter;
+        logLock.lock();
+
+        try {
+            if (this.store == null)
+                return null;
+            drainQueue();
+            store = this.store;
+            tags = makeStoreTags();
+            filter = makeFilter();
 
-        FixedRingBuffer<LogEntry> inputBuf = lazyGetInputBuf();
-        if (inputBuf.isEmpty())
+        } finally {
+            logLock.unlock();
+        }
+
+        return (before ?
+                store.readBefore(seq, maxSize, tags, filter) :
+                store.read(seq, maxSize, tags, filter));
+    }
+
+    /*
+     * Returns the store sequence number of the first entry with time stamp
+     * not less than `timeStamp`, or -1 if the store isn't set
+     */
+
+    public long findStoredSeq(long timeStamp)
+    {
+        LogStore store = getStore();
+
+        return (store == null ? -1 : store.findSeq(timeStamp));
+    }
+
+    /*
+     * Stored tags that aren't excluded by the filters, or null if all
+     */
+
+    @Nullable
+    private List<String> makeStoreTags()
+    {
+        if (excludedTags.isEmpty())
+            return null;
+
+        List<String> tags = store.getTags();
+        tags.removeAll(excludedTags.values());
+
+        return tags;
+    }
+
+    /*
+     * Copy of the current filters, for reading without the lock
+     */
+
+    @Nullable
+    private LogFilter makeFilter()
+    {
+        if (filters.isEmpty())
+            return null;
+
+        ArrayList<LogFilter> filters = new ArrayList<>(this.filters.values());
+
+        return (entry) -> {
+            for (LogFilter f : filters) {
+                if (!f.apply(entry))
+                    return false;
+            }
+
+            return true;
+        };
+    }
+
+    private void filterPending()
+    {
+        LogRing inputBuf = lazyGetInputBuf();
+        long startSeq = Math.max(inputBuf.getHeadSeq(), filteredSeq);
+        long endSeq = inputBuf.getTailSeq();
+        if (startSeq >= endSeq)
             return;
-        FixedRingBuffer<LogEntry> outputBuf = lazyGetOutputBuf();
-
-        ArrayList<LogEntry> newEntries = new ArrayList<>(numPendingLogs);
-        int size = inputBuf.size();
-        for (int i = size - numPendingLogs; i < size; i++) {
-            LogEntry entry = applyFilters(inputBuf.get(i));
-            if (entry != null) {
-                outputBuf.add(entry);
-                newEntries.add(entry);
-
-                /* Move old position back */
-                if (recording && recordStartIndex > 0)
-                    recordStartIndex--;
+        lazyGetOutputBuf();
+
+        /* Create the entries only if somebody listens to them */
+        ArrayList<LogEntry> newEntries = (dataSetChangedPublish.hasObservers() ?
+                new ArrayList<>((int)(endSeq - startSeq)) :
+                null);
+        boolean added = false;
+        for (long seq = startSeq; seq < endSeq; seq++) {
+            if (applyFilters(seq)) {
+                addOutput(seq);
+                added = true;
+                if (newEntries != null)
+                    newEntries.add(makeEntry(seq));
             }
         }
-        numPendingLogs = 0;
+        filteredSeq = endSeq;
 
-        if (!newEntries.isEmpty())
+        if (added)
             submitDataSetChanged(new DataSetChange(DataSetChange.Reason.NEW_ENTRIES, newEntries));
+        submitHeadTrim();
+    }
+
+    private void submitHeadTrim()
+    {
+        if (trimmedCount == 0)
+            return;
+
+        trimmedCount = 0;
+        long headSeq = (outputSize > 0 ? getOutput(0) : inputBuf.getTailSeq());
+        submitDataSetChanged(new DataSetChange(DataSetChange.Reason.HEAD_TRIM, null, headSeq));
     }
 
     private void submitDataSetChanged(DataSetChange change)
@@ -210,6 +510,10 @@ public class Logger
                     continue;
 
                 this.filters.put(filter.name, filter.filter);
+                if (filter.excludedTag == null)
+                    excludedTags.remove(filter.name);
+                else
+                    excludedTags.put(filter.name, filter.excludedTag);
                 addedFilters++;
             }
             if (addedFilters > 0)
@@ -230,6 +534,7 @@ public class Logger
                 if (name == null)
                     continue;
 
+                excludedTags.remove(name);
                 if (filters.remove(name) != null)
                     removedFilters++;
             }
@@ -243,15 +548,17 @@ public class Logger
 
     private void forceFilterBuf()
     {
-        FixedRingBuffer<LogEntry> inputBuf = lazyGetInputBuf();
-        FixedRingBuffer<LogEntry> outputBuf = lazyGetOutputBuf();
+        drainQueue();
+        LogRing inputBuf = lazyGetInputBuf();
+        lazyGetOutputBuf();
 
-        outputBuf.clear();
-        for (LogEntry entry : inputBuf) {
-            entry = applyFilters(entry);
-            if (entry != null)
-                outputBuf.add(entry);
+        clearOutput();
+        for (long seq = inputBuf.getHeadSeq(); seq < inputBuf.getTailSeq(); seq++) {
+            if (applyFilters(seq))
+                addOutput(seq);
         }
+        filteredSeq = inputBuf.getTailSeq();
+        trimmedCount = 0;
 
         submitDataSetChanged(new DataSetChange(DataSetChange.Reason.FILTER));
     }
@@ -278,16 +585,16 @@ public class Logger
             if (maxSize < 0)
                 throw new IllegalArgumentException("Size must be greater than 0");
 
-            FixedRingBuffer<LogEntry> outputBuf = lazyGetOutputBuf();
             swapBuffers();
+            lazyGetOutputBuf();
 
             ArrayList<LogEntry> res = new ArrayList<>(maxSize);
             int endPos = startPos + maxSize;
             for (int i = startPos; i < endPos; i++) {
-                if (i >= outputBuf.size())
+                if (i >= outputSize)
                     continue;
 
-                res.add(outputBuf.get(i));
+                res.add(makeEntry(getOutput(i)));
             }
 
             return res;
@@ -297,33 +604,104 @@ public class Logger
         }
     }
 
+    /*
+     * Returns up to `maxSize` entries with the sequence number greater than
+     * `seq`, in ascending order. Pass -1 to read from the first entry
+     */
+
+    public List<LogEntry> getEntriesAfter(long seq, int maxSize)
+    {
+        logLock.lock();
+
+        try {
+            if (maxSize < 0)
+                throw new IllegalArgumentException("Size must be greater than 0");
+
+            swapBuffers();
+            lazyGetOutputBuf();
+
+            int startPos = findOutputAfter(seq);
+            int endPos = Math.min(startPos + maxSize, outputSize);
+            ArrayList<LogEntry> res = new ArrayList<>(Math.max(endPos - startPos, 0));
+            for (int i = startPos; i < endPos; i++)
+                res.add(makeEntry(getOutput(i)));
+
+            return res;
+
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /*
+     * Returns up to `maxSize` entries with the sequence number less than
+     * `seq`, in ascending order. Pass Long.MAX_VALUE to read the last entries
+     */
+
+    public List<LogEntry> getEntriesBefore(long seq, int maxSize)
+    {
+        logLock.lock();
+
+        try {
+            if (maxSize < 0)
+                throw new IllegalArgumentException("Size must be greater than 0");
+
+            swapBuffers();
+            lazyGetOutputBuf();
+
+            int endPos = (seq == Long.MIN_VALUE ? 0 : findOutputAfter(seq - 1));
+            int startPos = Math.max(endPos - maxSize, 0);
+            ArrayList<LogEntry> res = new ArrayList<>(endPos - startPos);
+            for (int i = startPos; i < endPos; i++)
+                res.add(makeEntry(getOutput(i)));
+
+            return res;
+
+        } finally {
+            logLock.unlock();
+        }
+    }
+
     @Nullable
     public LogEntry getEntry(int pos)
     {
         logLock.lock();
 
         try {
-            FixedRingBuffer<LogEntry> outputBuf = lazyGetOutputBuf();
             swapBuffers();
+            lazyGetOutputBuf();
 
-            if (pos < 0 || pos >= outputBuf.size())
+            if (pos < 0 || pos >= outputSize)
                 throw new IllegalArgumentException("Invalid position = " + pos);
 
-            return outputBuf.get(pos);
+            return makeEntry(getOutput(pos));
 
         } finally {
             logLock.unlock();
         }
     }
 
-    private LogEntry applyFilters(LogEntry entry)
+    private LogEntry makeEntry(long seq)
+    {
+        return new LogEntry(seq,
+                inputBuf.getId(seq),
+                tags.get(inputBuf.getType(seq)),
+                inputBuf.getMessage(seq),
+                inputBuf.getTimeStamp(seq));
+    }
+
+    private boolean applyFilters(long seq)
     {
+        if (filters.isEmpty())
+            return true;
+
+        filterEntry.set(seq, tags.get(inputBuf.getType(seq)));
         for (LogFilter f : filters.values()) {
-            if (!f.apply(entry))
-                return null;
+            if (!f.apply(filterEntry))
+                return false;
         }
 
-        return entry;
+        return true;
     }
 
     public void startRecording()
@@ -332,10 +710,14 @@ public class Logger
 
         try {
             swapBuffers();
+            lazyGetOutputBuf();
 
             recording = true;
-            int size = lazyGetOutputBuf().size();
-            recordStartIndex = (size > 0 ? size - 1 : 0);
+            recordStartStoreSeq = (store == null ? -1 : store.getTailSeq());
+            if (outputSize > 0)
+                recordStartSeq = getOutput(outputSize - 1);
+            else
+                recordStartSeq = (inputBuf == null ? 0 : inputBuf.getTailSeq());
 
         } finally {
             logLock.unlock();
@@ -371,34 +753,51 @@ public class Logger
 
     public int stopRecording(@Nullable OutputStream os, boolean timeStamp)
     {
+        LogStore store;
+        long startSeq;
+        LogFilter filter;
         logLock.lock();
 
         try {
             int count = 0;
 
-            if (os != null) {
+            if (os != null && this.store != null && recordStartStoreSeq >= 0) {
+                drainQueue();
+                store = this.store;
+                startSeq = recordStartStoreSeq;
+                filter = makeFilter();
+
+            } else if (os != null) {
                 swapBuffers();
+                lazyGetOutputBuf();
 
-                if (recordStartIndex < 0)
+                if (recordStartSeq < 0)
                     return count;
 
-                FixedRingBuffer<LogEntry> outputBuf = lazyGetOutputBuf();
+                int startPos = 0;
+                while (startPos < outputSize && getOutput(startPos) < recordStartSeq)
+                    startPos++;
 
-                return write(outputBuf, os, recordStartIndex, outputBuf.size() - 1, timeStamp);
-            }
+                return write(os, startPos, outputSize - 1, timeStamp);
 
-            return count;
+            } else {
+                return count;
+            }
 
         } finally {
             recording = false;
-            recordStartIndex = -1;
+            recordStartSeq = -1;
+            recordStartStoreSeq = -1;
 
             logLock.unlock();
         }
+
+        return writeStored(os, store, startSeq, timeStamp, filter);
     }
 
     /*
      * Writes all entries from the start position to the last entry.
+     * If the store is set, all stored entries are written.
      * Returns the number of written log entries
      */
 
@@ -409,48 +808,82 @@ public class Logger
 
     public int write(@NonNull OutputStream os, boolean timeStamp)
     {
+        LogStore store;
+        LogFilter filter;
         logLock.lock();
 
         try {
-            swapBuffers();
-            FixedRingBuffer<LogEntry> outputBuf = lazyGetOutputBuf();
+            if (this.store != null) {
+                drainQueue();
+                store = this.store;
+                filter = makeFilter();
 
-            return write(outputBuf, os, 0, outputBuf.size() - 1, timeStamp);
+            } else {
+                return writeBuffered(os, timeStamp);
+            }
 
         } finally {
             logLock.unlock();
         }
+
+        /* Without the lock, the log continues meanwhile */
+        return writeStored(os, store, store.getHeadSeq(), timeStamp, filter);
     }
 
-    private int write(FixedRingBuffer<LogEntry> buf, OutputStream os,
-                      int startPos, int endPos, boolean timeStamp)
+    private int writeBuffered(OutputStream os, boolean timeStamp)
+    {
+        swapBuffers();
+        lazyGetOutputBuf();
+
+        return write(os, 0, outputSize - 1, timeStamp);
+    }
+
+    private int write(OutputStream os, int startPos, int endPos, boolean timeStamp)
     {
         if (startPos < 0)
             throw new IllegalArgumentException("startPos < 0");
 
         int count = 0;
 
-        PrintStream printStream = new PrintStream(os, true);
-
-        for (int i = startPos; i <= endPos; i++) {
-            LogEntry entry = buf.get(i);
-            printStream.println(timeStamp ? entry.toStringWithTimeStamp() : entry.toString());
-            if (!printStream.checkError())
+        /* Flushed once at the end, not after every line */
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os), WRITE_BUFFER_SIZE);
+        try {
+            for (int i = startPos; i <= endPos; i++) {
+                LogEntry entry = makeEntry(getOutput(i));
+                writer.write(timeStamp ? entry.toStringWithTimeStamp() : entry.toString());
+                writer.write('\n');
                 count++;
+            }
+            writer.flush();
+
+        } catch (IOException e) {
+            return 0;
         }
 
         return count;
     }
 
+    private int writeStored(OutputStream os, LogStore store, long startSeq,
+                            boolean timeStamp, LogFilter filter)
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os), WRITE_BUFFER_SIZE);
+        try {
+            return store.write(writer, startSeq, timeStamp, filter);
+
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
     public int getNumEntries()
     {
         logLock.lock();
 
         try {
-            FixedRingBuffer<LogEntry> outputBuf = lazyGetOutputBuf();
             swapBuffers();
+            lazyGetOutputBuf();
 
-            return outputBuf.size();
+            return outputSize;
 
         } finally {
             logLock.unlock();
@@ -486,28 +919,52 @@ public class Logger
 
     private void doClean()
     {
-        if (pendingThread != null)
-            pendingThread.interrupt();
-        pendingThread = null;
+        Thread consumer = pendingThread.getAndSet(null);
+        if (consumer != null)
+            consumer.interrupt();
+        /* The pending entries are still stored */
+        queue.drain(null, store, tags);
+        /* Keys aren't reused */
+        if (inputBuf != null)
+            baseSeq = inputBuf.getTailSeq();
         inputBuf = null;
+        filterEntry = null;
+        filteredSeq = baseSeq;
         outputBuf = null;
-        numPendingLogs = 0;
+        outputSize = 0;
+        trimmedCount = 0;
         if (recording)
-            recordStartIndex = 0;
+            recordStartSeq = baseSeq;
 
-        submitDataSetChanged(new DataSetChange(DataSetChange.Reason.NEW_ENTRIES));
+        submitDataSetChanged(new DataSetChange(DataSetChange.Reason.CLEAN));
     }
 
     public static class NewFilter
     {
         String name;
         LogFilter filter;
+        @Nullable
+        String excludedTag;
 
         public NewFilter(@NonNull String name, @NonNull LogFilter filter)
         {
             this.name = name;
             this.filter = filter;
         }
+
+        /*
+         * Filters out the entries with the tag. Unlike the arbitrary filter,
+         * the stored segments without other tags aren't read at all
+         */
+
+        public static NewFilter excludeTag(@NonNull String name, @NonNull String tag)
+        {
+            NewFilter filter = new NewFilter(name,
+                    (entry) -> entry == null || !entry.getTag().equals(tag));
+            filter.excludedTag = tag;
+
+            return filter;
+        }
     }
 
     public static class DataSetChange
@@ -517,12 +974,18 @@ public class Logger
             NEW_ENTRIES,
             CLEAN,
             FILTER,
+            /* The oldest entries were evicted, see `headSeq` */
+            HEAD_TRIM,
+            /* The store was set or detached, see getStore() */
+            STORE,
         }
 
         @Nullable
         public final List<LogEntry> entries;
         @NonNull
         public final Reason reason;
+        /* Sequence number of the first retained entry for HEAD_TRIM, otherwise -1 */
+        public final long headSeq;
 
         DataSetChange(@NonNull Reason reason)
         {
@@ -530,9 +993,15 @@ public class Logger
         }
 
         DataSetChange(@NonNull Reason reason, @Nullable List<LogEntry> entries)
+        {
+            this(reason, entries, -1);
+        }
+
+        DataSetChange(@NonNull Reason reason, @Nullable List<LogEntry> entries, long headSeq)
         {
             this.entries = entries;
             this.reason = reason;
+            this.headSeq = headSeq;
         }
     }
 }
@@ -50,6 +50,11 @@ import org.proninyaroslav.libretorrent.core.model.session.SessionInitParams;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentDownload;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentSession;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentSessionImpl;
+import org.proninyaroslav.libretorrent.core.model.stream.PieceCache;
+import org.proninyaroslav.libretorrent.core.model.stream.PieceDeadlines;
+import org.proninyaroslav.libretorrent.core.model.stream.PieceReadDispatcher;
+import org.proninyaroslav.libretorrent.core.model.stream.StreamFile;
+import org.proninyaroslav.libretorrent.core.model.stream.StreamMetrics;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentInputStream;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentStream;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentStreamServer;
@@ -98,6 +103,10 @@ public class TorrentEngine
     private Context appContext;
     private TorrentSession session;
     private TorrentStreamServer torrentStreamServer;
+    private PieceReadDispatcher pieceReadDispatcher = new PieceReadDispatcher();
+    private PieceCache pieceCache = new PieceCache();
+    private PieceDeadlines pieceDeadlines = new PieceDeadlines();
+    private StreamMetrics streamMetrics = new StreamMetrics();
     private TorrentRepository repo;
     private SettingsRepository pref;
     private TorrentNotifier notifier;
@@ -136,6 +145,8 @@ public class TorrentEngine
                 SystemFacadeHelper.getSystemFacade(appContext));
         session.setSettings(pref.readSessionSettings());
         session.addListener(engineListener);
+        session.addSyncListener(pieceReadDispatcher);
+        session.addSyncListener(pieceCache);
     }
 
     private void handleAutoStop()
@@ -152,6 +163,11 @@ public class TorrentEngine
         Utils.startServiceBackground(appContext, new Intent(appContext, TorrentService.class));
     }
 
+    public Flowable<List<Torrent>> observeTorrents()
+    {
+        return repo.observeAllTorrents();
+    }
+
     public Flowable<Boolean> observeNeedStartEngine()
     {
         return Flowable.create((emitter) -> {
@@ -781,9 +797,100 @@ public class TorrentEngine
         return task.getStream(fileIndex);
     }
 
+    public PieceCache getPieceCache()
+    {
+        return pieceCache;
+    }
+
+    public StreamMetrics getStreamMetrics()
+    {
+        return streamMetrics;
+    }
+
     public TorrentInputStream getTorrentInputStream(@NonNull TorrentStream stream)
     {
-        return new TorrentInputStream(session, stream);
+        return getTorrentInputStream(stream, true);
+    }
+
+    /*
+     * Without the readahead the stream doesn't set the piece deadlines
+     */
+
+    public TorrentInputStream getTorrentInputStream(@NonNull TorrentStream stream, boolean readahead)
+    {
+        return new TorrentInputStream(session, pieceReadDispatcher, pieceCache,
+                                      pieceDeadlines, streamMetrics, stream, readahead);
+    }
+
+    /*
+     * Opens the file of the stream for reading the finished pieces directly from the disk.
+     * Returns null if the file doesn't exist
+     */
+
+    public StreamFile openStreamFile(@NonNull TorrentStream stream) throws IOException
+    {
+        if (!isRunning())
+            return null;
+
+        TorrentDownload task = session.getTask(stream.torrentId);
+        if (task == null)
+            return null;
+
+        Uri path = task.getFileUri(stream.selectedFileIndex);
+        if (path == null || !fs.fileExists(path))
+            return null;
+
+        FileDescriptorWrapper w = fs.getFD(path);
+        try {
+            FileDescriptor fd = w.open("r");
+            if (fd == null) {
+                w.close();
+                return null;
+            }
+
+            return new StreamFile(new FileInputStream(fd).getChannel(), w);
+
+        } catch (IOException | RuntimeException e) {
+            w.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Sets the deadline on behalf of the holder, see PieceDeadlines.
+     * The deadline is reset when the last holder releases the piece
+     */
+
+    public void holdPieceDeadline(@NonNull String id, int pieceIndex, int deadline,
+                                  @NonNull Object holder)
+    {
+        pieceDeadlines.hold(id, pieceIndex, holder);
+        if (!isRunning())
+            return;
+
+        TorrentDownload task = session.getTask(id);
+        if (task != null)
+            task.setPieceDeadline(pieceIndex, deadline);
+    }
+
+    public void releasePieceDeadline(@NonNull String id, int pieceIndex, @NonNull Object holder)
+    {
+        if (!pieceDeadlines.release(id, pieceIndex, holder) || !isRunning())
+            return;
+
+        TorrentDownload task = session.getTask(id);
+        if (task != null)
+            task.resetPieceDeadline(pieceIndex);
+    }
+
+    public boolean isPieceFlushed(@NonNull String id, int pieceIndex)
+    {
+        if (!isRunning())
+            return false;
+
+        TorrentDownload task = session.getTask(id);
+
+        return task != null && task.isPieceFlushed(pieceIndex);
     }
 
     /*
@@ -799,7 +906,7 @@ public class TorrentEngine
         return makeInfo(torrent);
     }
 
-    private TorrentInfo makeInfo(Torrent torrent)
+    public TorrentInfo makeInfo(@NonNull Torrent torrent)
     {
         TorrentDownload task = session.getTask(torrent.id);
         if (task == null || !task.isValid() || task.isStopped())
@@ -1702,6 +1809,11 @@ public class TorrentEngine
             SessionSettings s = session.getSettings();
             s.maxLogSize = pref.maxLogSize();
             session.setSettings(s);
+
+        } else if (key.equals(appContext.getString(R.string.pref_key_log_history))) {
+            SessionSettings s = session.getSettings();
+            s.logHistory = pref.logHistory();
+            session.setSettings(s);
         }
 
         if (reschedule)
@@ -25,6 +25,8 @@ import org.proninyaroslav.libretorrent.core.model.data.ReadPieceInfo;
 import org.proninyaroslav.libretorrent.core.model.data.SessionStats;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 
+import java.util.List;
+
 public abstract class TorrentEngineListener
 {
     public void onTorrentAdded(@NonNull String id) {}
@@ -70,4 +72,7 @@ public abstract class TorrentEngineListener
     public void onPieceFinished(@NonNull String id, int piece) {}
 
     public void onSessionStats(@NonNull SessionStats stats) {}
+
+    /* Torrents whose status has changed since the previous stats tick */
+    public void onTorrentsStatusUpdated(@NonNull List<String> ids) {}
 }
@@ -28,12 +28,17 @@ import org.proninyaroslav.libretorrent.core.model.data.AdvancedTorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.PeerInfo;
 import org.proninyaroslav.libretorrent.core.model.data.SessionStats;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfoDelta;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.reactivex.BackpressureStrategy;
@@ -95,6 +100,15 @@ public class TorrentInfoProvider
         return makeInfoListFlowable();
     }
 
+    /*
+     * Returns only added, changed and removed torrents. The first delta contains all torrents
+     */
+
+    public Flowable<TorrentInfoDelta> observeInfoDelta()
+    {
+        return makeInfoDeltaFlowable();
+    }
+
     public Single<List<TorrentInfo>> getInfoListSingle()
     {
         return makeInfoListSingle();
@@ -231,77 +245,162 @@ public class TorrentInfoProvider
         }, BackpressureStrategy.LATEST);
     }
 
+    /*
+     * Applies the deltas to the list, keeping the order of the torrents
+     */
+
     private Flowable<List<TorrentInfo>> makeInfoListFlowable()
+    {
+        return Flowable.defer(() -> {
+            LinkedHashMap<String, TorrentInfo> infoMap = new LinkedHashMap<>();
+
+            return makeInfoDeltaFlowable()
+                    .map((delta) -> {
+                        for (TorrentInfo info : delta.added)
+                            infoMap.put(info.torrentId, info);
+                        for (TorrentInfo info : delta.changed)
+                            infoMap.put(info.torrentId, info);
+                        for (String id : delta.removed)
+                            infoMap.remove(id);
+
+                        return new ArrayList<>(infoMap.values());
+                    });
+        });
+    }
+
+    private Flowable<TorrentInfoDelta> makeInfoDeltaFlowable()
     {
         return Flowable.create((emitter) -> {
-            final AtomicReference<List<TorrentInfo>> infoList = new AtomicReference<>();
-
-            Runnable handleInfo = () -> {
-                List<TorrentInfo> newInfoList = engine.makeInfoListSync();
-                List<TorrentInfo> oldInfoList = infoList.get();
-                if (oldInfoList == null || oldInfoList.size() != newInfoList.size() ||
-                    !oldInfoList.containsAll(newInfoList)) {
-                    infoList.set(newInfoList);
-                    if (!emitter.isCancelled())
-                        emitter.onNext(newInfoList);
-                }
+            TorrentInfoTable table = new TorrentInfoTable(engine);
+            AtomicBoolean initialized = new AtomicBoolean(false);
+
+            /* Must be called with the table lock held to keep the order of deltas */
+            Consumer<TorrentInfoDelta> emitDelta = (delta) -> {
+                if (!delta.isEmpty() && !emitter.isCancelled())
+                    emitter.onNext(delta);
             };
 
             TorrentEngineListener listener = new TorrentEngineListener() {
+                @Override
+                public void onTorrentAdded(@NonNull String torrentId)
+                {
+                    handleChanged(torrentId);
+                }
+
+                @Override
+                public void onTorrentLoaded(@NonNull String torrentId)
+                {
+                    handleChanged(torrentId);
+                }
+
                 @Override
                 public void onTorrentStateChanged(@NonNull String torrentId,
                                                   @NonNull TorrentStateCode prevState,
                                                   @NonNull TorrentStateCode curState)
                 {
-                    handleInfo.run();
+                    handleChanged(torrentId);
                 }
 
                 @Override
                 public void onTorrentPaused(@NonNull String torrentId)
                 {
-                    handleInfo.run();
+                    handleChanged(torrentId);
                 }
 
                 @Override
-                public void onTorrentRemoved(@NonNull String torrentId)
+                public void onTorrentResumed(@NonNull String torrentId)
+                {
+                    handleChanged(torrentId);
+                }
+
+                @Override
+                public void onTorrentMetadataLoaded(@NonNull String torrentId, Exception err)
                 {
-                    handleInfo.run();
+                    handleChanged(torrentId);
                 }
 
                 @Override
                 public void onRestoreSessionError(@NonNull String torrentId)
                 {
-                    handleInfo.run();
+                    handleChanged(torrentId);
                 }
 
                 @Override
                 public void onTorrentError(@NonNull String torrentId, Exception e)
                 {
-                    handleInfo.run();
+                    handleChanged(torrentId);
                 }
 
                 @Override
-                public void onSessionStats(@NonNull SessionStats stats)
+                public void onTorrentRemoved(@NonNull String torrentId)
+                {
+                    synchronized (table) {
+                        handleDelta(table.remove(torrentId));
+                    }
+                }
+
+                @Override
+                public void onTorrentsStatusUpdated(@NonNull List<String> ids)
                 {
-                    handleInfo.run();
+                    synchronized (table) {
+                        handleDelta(table.update(ids));
+                    }
+                }
+
+                @Override
+                public void onSessionStopped()
+                {
+                    synchronized (table) {
+                        handleDelta(table.updateAll());
+                    }
+                }
+
+                private void handleChanged(String torrentId)
+                {
+                    synchronized (table) {
+                        handleDelta(table.update(Collections.singletonList(torrentId)));
+                    }
+                }
+
+                private void handleDelta(TorrentInfoDelta delta)
+                {
+                    try {
+                        emitDelta.accept(delta);
+
+                    } catch (Exception e) {
+                        if (!emitter.isCancelled())
+                            emitter.onError(e);
+                    }
                 }
             };
 
             if (!emitter.isCancelled()) {
-                Thread t = new Thread(() -> {
-                    infoList.set(engine.makeInfoListSync());
-                    if (!emitter.isCancelled()) {
-                        /* Emit once to avoid missing any data and also easy chaining */
-                        emitter.onNext(infoList.get());
-                        engine.addListener(listener);
-                        emitter.setDisposable(Disposables.fromAction(() ->
-                                engine.removeListener(listener)));
-                    }
-                });
-                t.start();
+                /* Room emits the rows on each change of the table, starting with all rows */
+                Disposable d = engine.observeTorrents()
+                        .subscribe((torrents) -> {
+                                    synchronized (table) {
+                                        TorrentInfoDelta delta = table.updateTorrents(torrents);
+                                        /* Emit once to avoid missing any data and also easy chaining */
+                                        if (initialized.compareAndSet(false, true)) {
+                                            if (!emitter.isCancelled())
+                                                emitter.onNext(delta);
+                                        } else {
+                                            emitDelta.accept(delta);
+                                        }
+                                    }
+                                },
+                                (Throwable t) -> {
+                                    if (!emitter.isCancelled())
+                                        emitter.onError(t);
+                                });
+                engine.addListener(listener);
+                emitter.setDisposable(Disposables.fromAction(() -> {
+                    engine.removeListener(listener);
+                    d.dispose();
+                }));
             }
 
-        }, BackpressureStrategy.LATEST);
+        }, BackpressureStrategy.BUFFER);
     }
 
     private Single<List<TorrentInfo>> makeInfoListSingle()
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfoDelta;
+import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * In-memory table of the torrent info, keyed by torrent id.
+ * Each update recomputes only the given torrents and
+ * returns the difference with the previous state.
+ */
+
+class TorrentInfoTable
+{
+    private final TorrentEngine engine;
+    private final HashMap<String, Torrent> torrents = new HashMap<>();
+    private final HashMap<String, TorrentInfo> infoMap = new HashMap<>();
+
+    TorrentInfoTable(@NonNull TorrentEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    /*
+     * Applies the database rows. Recomputes only new torrents and
+     * torrents whose fields, shown in the info, were changed
+     */
+
+    synchronized TorrentInfoDelta updateTorrents(@NonNull List<Torrent> newTorrents)
+    {
+        TorrentInfoDelta delta = new TorrentInfoDelta();
+
+        HashSet<String> ids = new HashSet<>(newTorrents.size());
+        for (Torrent torrent : newTorrents) {
+            if (torrent == null)
+                continue;
+            ids.add(torrent.id);
+
+            Torrent oldTorrent = torrents.put(torrent.id, torrent);
+            if (oldTorrent == null || torrentChanged(oldTorrent, torrent))
+                updateInfo(torrent, true, delta);
+        }
+
+        Iterator<Map.Entry<String, Torrent>> it = torrents.entrySet().iterator();
+        while (it.hasNext()) {
+            String id = it.next().getKey();
+            if (ids.contains(id))
+                continue;
+            it.remove();
+            if (infoMap.remove(id) != null)
+                delta.removed.add(id);
+        }
+
+        return delta;
+    }
+
+    synchronized TorrentInfoDelta update(@NonNull Collection<String> ids)
+    {
+        TorrentInfoDelta delta = new TorrentInfoDelta();
+
+        for (String id : ids) {
+            Torrent torrent = torrents.get(id);
+            if (torrent != null)
+                updateInfo(torrent, false, delta);
+        }
+
+        return delta;
+    }
+
+    synchronized TorrentInfoDelta updateAll()
+    {
+        return update(new HashSet<>(torrents.keySet()));
+    }
+
+    synchronized TorrentInfoDelta remove(@NonNull String id)
+    {
+        TorrentInfoDelta delta = new TorrentInfoDelta();
+
+        torrents.remove(id);
+        if (infoMap.remove(id) != null)
+            delta.removed.add(id);
+
+        return delta;
+    }
+
+    private void updateInfo(Torrent torrent, boolean force, TorrentInfoDelta delta)
+    {
+        TorrentInfo info = engine.makeInfo(torrent);
+        TorrentInfo oldInfo = infoMap.put(torrent.id, info);
+        if (oldInfo == null)
+            delta.added.add(info);
+        else if (force || !info.equals(oldInfo))
+            delta.changed.add(info);
+    }
+
+    private static boolean torrentChanged(Torrent oldTorrent, Torrent newTorrent)
+    {
+        return !TextUtils.equals(oldTorrent.name, newTorrent.name) ||
+                !TextUtils.equals(oldTorrent.error, newTorrent.error) ||
+                oldTorrent.dateAdded != newTorrent.dateAdded;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Statistics of the session alert loop since the session start.
+ * All times are in microseconds. The histogram bucket i counts
+ * the alerts handled in less than 2^i microseconds, the last bucket
+ * counts the rest.
+ *
+ * `listeners` are the alert listeners and the synchronous engine
+ * listeners called from them, i.e. the alert loop time. The engine
+ * listeners called on their own threads are in `engineListeners`.
+ */
+
+public class AlertLoopStats implements Parcelable
+{
+    public static final int HISTOGRAM_BUCKETS = 16;
+
+    public long alertsCount;
+    public long busyTime;
+    /* The largest number of alerts handled without a pause, i.e. popped from the queue at once */
+    public int maxBatchSize;
+    public int alertQueueSize;
+    /* Number of alerts_dropped alerts, i.e. the queue overflows */
+    public long droppedCount;
+    /* Sorted by the total time */
+    @NonNull
+    public List<TypeStats> types;
+    @NonNull
+    public List<ListenerStats> listeners;
+    /* Sorted by the total time */
+    @NonNull
+    public List<ListenerStats> engineListeners;
+
+    public AlertLoopStats(long alertsCount, long busyTime, int maxBatchSize,
+                          int alertQueueSize, long droppedCount,
+                          @NonNull List<TypeStats> types,
+                          @NonNull List<ListenerStats> listeners,
+                          @NonNull List<ListenerStats> engineListeners)
+    {
+        this.alertsCount = alertsCount;
+        this.busyTime = busyTime;
+        this.maxBatchSize = maxBatchSize;
+        this.alertQueueSize = alertQueueSize;
+        this.droppedCount = droppedCount;
+        this.types = types;
+        this.listeners = listeners;
+        this.engineListeners = engineListeners;
+    }
+
+    public AlertLoopStats(Parcel source)
+    {
+        alertsCount = source.readLong();
+        busyTime = source.readLong();
+        maxBatchSize = source.readInt();
+        alertQueueSize = source.readInt();
+        droppedCount = source.readLong();
+        types = new ArrayList<>();
+        source.readTypedList(types, TypeStats.CREATOR);
+        listeners = new ArrayList<>();
+        source.readTypedList(listeners, ListenerStats.CREATOR);
+        engineListeners = new ArrayList<>();
+        source.readTypedList(engineListeners, ListenerStats.CREATOR);
+    }
+
+    public static long bucketUpperBound(int bucket)
+    {
+        return (bucket >= HISTOGRAM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket);
+    }
+
+    @Nullable
+    public ListenerStats getSlowestListener()
+    {
+        return (listeners.isEmpty() ? null : listeners.get(0));
+    }
+
+    @Override
+    public int describeContents()
+    {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags)
+    {
+        dest.writeLong(alertsCount);
+        dest.writeLong(busyTime);
+        dest.writeInt(maxBatchSize);
+        dest.writeInt(alertQueueSize);
+        dest.writeLong(droppedCount);
+        dest.writeTypedList(types);
+        dest.writeTypedList(listeners);
+        dest.writeTypedList(engineListeners);
+    }
+
+    public static final Parcelable.Creator<AlertLoopStats> CREATOR =
+            new Parcelable.Creator<AlertLoopStats>()
+            {
+                @Override
+                public AlertLoopStats createFromParcel(Parcel source)
+                {
+                    return new AlertLoopStats(source);
+                }
+
+                @Override
+                public AlertLoopStats[] newArray(int size)
+                {
+                    return new AlertLoopStats[size];
+                }
+            };
+
+    @Override
+    public int hashCode()
+    {
+        int prime = 31, result = 1;
+
+        result = prime * result + (int) (alertsCount ^ (alertsCount >>> 32));
+        result = prime * result + (int) (busyTime ^ (busyTime >>> 32));
+        result = prime * result + maxBatchSize;
+        result = prime * result + (int) (droppedCount ^ (droppedCount >>> 32));
+
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof AlertLoopStats))
+            return false;
+
+        if (o == this)
+            return true;
+
+        AlertLoopStats stats = (AlertLoopStats)o;
+
+        return alertsCount == stats.alertsCount &&
+                busyTime == stats.busyTime &&
+                maxBatchSize == stats.maxBatchSize &&
+                alertQueueSize == stats.alertQueueSize &&
+                droppedCount == stats.droppedCount &&
+                types.equals(stats.types) &&
+                listeners.equals(stats.listeners) &&
+                engineListeners.equals(stats.engineListeners);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AlertLoopStats{" +
+                "alertsCount=" + alertsCount +
+                ", busyTime=" + busyTime +
+                ", maxBatchSize=" + maxBatchSize +
+                ", alertQueueSize=" + alertQueueSize +
+                ", droppedCount=" + droppedCount +
+                ", types=" + types +
+                ", listeners=" + listeners +
+                ", engineListeners=" + engineListeners +
+                '}';
+    }
+
+    public static class TypeStats implements Parcelable
+    {
+        public int type;
+        @NonNull
+        public String name;
+        public long count;
+        public long totalTime;
+        public long maxTime;
+        @NonNull
+        public long[] histogram;
+
+        public TypeStats(int type, @NonNull String name, long count,
+                         long totalTime, long maxTime, @NonNull long[] histogram)
+        {
+            this.type = type;
+            this.name = name;
+            this.count = count;
+            this.totalTime = totalTime;
+            this.maxTime = maxTime;
+            this.histogram = histogram;
+        }
+
+        public TypeStats(Parcel source)
+        {
+            type = source.readInt();
+            name = source.readString();
+            count = source.readLong();
+            totalTime = source.readLong();
+            maxTime = source.readLong();
+            histogram = source.createLongArray();
+        }
+
+        @Override
+        public int describeContents()
+        {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags)
+        {
+            dest.writeInt(type);
+            dest.writeString(name);
+            dest.writeLong(count);
+            dest.writeLong(totalTime);
+            dest.writeLong(maxTime);
+            dest.writeLongArray(histogram);
+        }
+
+        public static final Parcelable.Creator<TypeStats> CREATOR =
+                new Parcelable.Creator<TypeStats>()
+                {
+                    @Override
+                    public TypeStats createFromParcel(Parcel source)
+                    {
+                        return new TypeStats(source);
+                    }
+
+                    @Override
+                    public TypeStats[] newArray(int size)
+                    {
+                        return new TypeStats[size];
+                    }
+                };
+
+        @Override
+        public int hashCode()
+        {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof TypeStats))
+                return false;
+
+            if (o == this)
+                return true;
+
+            TypeStats stats = (TypeStats)o;
+
+            return type == stats.type &&
+                    count == stats.count &&
+                    totalTime == stats.totalTime &&
+                    maxTime == stats.maxTime &&
+                    Arrays.equals(histogram, stats.histogram);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "TypeStats{" +
+                    "name=" + name +
+                    ", count=" + count +
+                    ", totalTime=" + totalTime +
+                    ", maxTime=" + maxTime +
+                    ", histogram=" + Arrays.toString(histogram) +
+                    '}';
+        }
+    }
+
+    public static class ListenerStats implements Parcelable
+    {
+        @NonNull
+        public String name;
+        public long calls;
+        public long totalTime;
+        public long maxTime;
+
+        public ListenerStats(@NonNull String name, long calls, long totalTime, long maxTime)
+        {
+            this.name = name;
+            this.calls = calls;
+            this.totalTime = totalTime;
+            this.maxTime = maxTime;
+        }
+
+        public ListenerStats(Parcel source)
+        {
+            name = source.readString();
+            calls = source.readLong();
+            totalTime = source.readLong();
+            maxTime = source.readLong();
+        }
+
+        @Override
+        public int describeContents()
+        {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags)
+        {
+            dest.writeString(name);
+            dest.writeLong(calls);
+            dest.writeLong(totalTime);
+            dest.writeLong(maxTime);
+        }
+
+        public static final Parcelable.Creator<ListenerStats> CREATOR =
+                new Parcelable.Creator<ListenerStats>()
+                {
+                    @Override
+                    public ListenerStats createFromParcel(Parcel source)
+                    {
+                        return new ListenerStats(source);
+                    }
+
+                    @Override
+                    public ListenerStats[] newArray(int size)
+                    {
+                        return new ListenerStats[size];
+                    }
+                };
+
+        @Override
+        public int hashCode()
+        {
+            return name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof ListenerStats))
+                return false;
+
+            if (o == this)
+                return true;
+
+            ListenerStats stats = (ListenerStats)o;
+
+            return name.equals(stats.name) &&
+                    calls == stats.calls &&
+                    totalTime == stats.totalTime &&
+                    maxTime == stats.maxTime;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ListenerStats{" +
+                    "name=" + name +
+                    ", calls=" + calls +
+                    ", totalTime=" + totalTime +
+                    ", maxTime=" + maxTime +
+                    '}';
+        }
+    }
+}
@@ -23,6 +23,7 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public class SessionStats extends AbstractInfoParcel
 {
@@ -32,10 +33,13 @@ public class SessionStats extends AbstractInfoParcel
     public long downloadSpeed;
     public long uploadSpeed;
     public int listenPort;
+    @Nullable
+    public AlertLoopStats alertLoop;
 
     public SessionStats(long dhtNodes, long totalDownload,
                         long totalUpload, long downloadSpeed,
-                        long uploadSpeed, int listenPort)
+                        long uploadSpeed, int listenPort,
+                        @Nullable AlertLoopStats alertLoop)
     {
         this.dhtNodes = dhtNodes;
         this.totalDownload = totalDownload;
@@ -43,6 +47,7 @@ public class SessionStats extends AbstractInfoParcel
         this.downloadSpeed = downloadSpeed;
         this.uploadSpeed = uploadSpeed;
         this.listenPort = listenPort;
+        this.alertLoop = alertLoop;
     }
 
     public SessionStats(Parcel source)
@@ -55,6 +60,7 @@ public class SessionStats extends AbstractInfoParcel
         downloadSpeed = source.readLong();
         uploadSpeed = source.readLong();
         listenPort = source.readInt();
+        alertLoop = source.readParcelable(AlertLoopStats.class.getClassLoader());
     }
 
     @Override
@@ -74,6 +80,7 @@ public class SessionStats extends AbstractInfoParcel
         dest.writeLong(downloadSpeed);
         dest.writeLong(uploadSpeed);
         dest.writeInt(listenPort);
+        dest.writeParcelable(alertLoop, flags);
     }
 
     public static final Parcelable.Creator<SessionStats> CREATOR =
@@ -103,6 +110,7 @@ public class SessionStats extends AbstractInfoParcel
         result = prime * result + (int) (downloadSpeed ^ (downloadSpeed >>> 32));
         result = prime * result + (int) (uploadSpeed ^ (uploadSpeed >>> 32));
         result = prime * result + listenPort;
+        result = prime * result + (alertLoop == null ? 0 : alertLoop.hashCode());
 
         return result;
     }
@@ -129,7 +137,8 @@ public class SessionStats extends AbstractInfoParcel
                 totalUpload == stats.totalUpload &&
                 downloadSpeed == stats.downloadSpeed &&
                 uploadSpeed == stats.uploadSpeed &&
-                listenPort == stats.listenPort;
+                listenPort == stats.listenPort &&
+                (alertLoop == null ? stats.alertLoop == null : alertLoop.equals(stats.alertLoop));
     }
 
     @Override
@@ -142,6 +151,7 @@ public class SessionStats extends AbstractInfoParcel
                 ", downloadSpeed=" + downloadSpeed +
                 ", uploadSpeed=" + uploadSpeed +
                 ", listenPort=" + listenPort +
+                ", alertLoop=" + alertLoop +
                 '}';
     }
 }
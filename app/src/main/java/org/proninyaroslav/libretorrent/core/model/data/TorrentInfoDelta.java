@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Changes of the torrent info list since the previous delta.
+ * The first delta of the stream contains all torrents as added.
+ */
+
+public class TorrentInfoDelta
+{
+    @NonNull
+    public final List<TorrentInfo> added = new ArrayList<>();
+    @NonNull
+    public final List<TorrentInfo> changed = new ArrayList<>();
+    /* Torrent ids */
+    @NonNull
+    public final List<String> removed = new ArrayList<>();
+
+    public boolean isEmpty()
+    {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TorrentInfoDelta{" +
+                "added=" + added.size() +
+                ", changed=" + changed.size() +
+                ", removed=" + removed +
+                '}';
+    }
+}
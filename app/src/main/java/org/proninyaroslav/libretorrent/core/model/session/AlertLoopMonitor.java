@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import androidx.annotation.NonNull;
+
+import org.libtorrent4j.AlertListener;
+import org.libtorrent4j.alerts.Alert;
+import org.libtorrent4j.alerts.AlertType;
+import org.proninyaroslav.libretorrent.core.model.data.AlertLoopStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Instrumentation of the alert loop. All session alert listeners
+ * are wrapped, so that the time of each alert (by all listeners)
+ * is measured per alert type and per listener. Synchronous engine
+ * listeners, called from the alert listeners on the alert thread, are
+ * also counted in the alert loop (their time is a part of the alert listener time).
+ * The rest of the engine listeners are called on their own threads
+ * and measured separately. Also listens for the alert queue overflows.
+ */
+
+class AlertLoopMonitor implements AlertListener
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = AlertLoopMonitor.class.getSimpleName();
+
+    private static final int MAX_ALERT_TYPES = 256;
+    /* Alerts handled with a shorter pause are considered popped from the queue at once */
+    private static final long BATCH_GAP = 1_000_000; /* ns */
+    private static final String ALERT_LISTENER_PREFIX = "alerts:";
+    private static final String SYNC_LISTENER_PREFIX = "sync:";
+
+    private static class TypeCounters
+    {
+        final String name;
+        long count;
+        long totalTime, maxTime;
+        final long[] histogram = new long[AlertLoopStats.HISTOGRAM_BUCKETS];
+
+        TypeCounters(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    private static class ListenerCounters
+    {
+        long calls;
+        long totalTime, maxTime;
+    }
+
+    private final int[] types = new int[] {
+            AlertType.ALERTS_DROPPED.swig()
+    };
+    /* Guarded by this */
+    private final TypeCounters[] typeCounters = new TypeCounters[MAX_ALERT_TYPES];
+    private final HashMap<String, ListenerCounters> listenerCounters = new HashMap<>();
+    private final HashMap<String, ListenerCounters> engineListenerCounters = new HashMap<>();
+    /* The thread inside the wrapped alert listener at the moment */
+    private volatile Thread alertThread;
+    private long alertsCount, busyTime;
+    private int batchSize, maxBatchSize;
+    private long droppedCount;
+    /* The alert handled by the listeners at the moment */
+    private Object curAlert;
+    private int curType;
+    private long curTime;
+    private long lastEndTime = -1;
+
+    @Override
+    public int[] types()
+    {
+        return types;
+    }
+
+    @Override
+    public void alert(Alert<?> alert)
+    {
+        synchronized (this) {
+            droppedCount++;
+        }
+    }
+
+    /*
+     * Returns the listener to be added to the session instead of the given one
+     */
+
+    @NonNull
+    AlertListener wrap(@NonNull String name, @NonNull AlertListener listener)
+    {
+        String listenerName = ALERT_LISTENER_PREFIX + name;
+
+        return new AlertListener() {
+            @Override
+            public int[] types()
+            {
+                return listener.types();
+            }
+
+            @Override
+            public void alert(Alert<?> alert)
+            {
+                onAlertStarted();
+                long startTime = System.nanoTime();
+                try {
+                    listener.alert(alert);
+
+                } finally {
+                    AlertType type = alert.type();
+                    onAlertHandled(listenerName, alert, type.swig(), type.name(),
+                            startTime, System.nanoTime());
+                }
+            }
+        };
+    }
+
+    void onAlertStarted()
+    {
+        alertThread = Thread.currentThread();
+    }
+
+    synchronized void onAlertHandled(@NonNull String listenerName, @NonNull Object alert,
+                                     int type, @NonNull String typeName,
+                                     long startTime, long endTime)
+    {
+        alertThread = null;
+        if (alert != curAlert) {
+            flushAlert();
+            curAlert = alert;
+            curType = type;
+            curTime = 0;
+            if (type >= 0 && type < MAX_ALERT_TYPES && typeCounters[type] == null)
+                typeCounters[type] = new TypeCounters(typeName);
+
+            alertsCount++;
+            boolean sameBatch = lastEndTime >= 0 && startTime - lastEndTime < BATCH_GAP;
+            batchSize = (sameBatch ? batchSize + 1 : 1);
+            maxBatchSize = Math.max(maxBatchSize, batchSize);
+        }
+
+        long time = endTime - startTime;
+        curTime += time;
+        busyTime += time;
+        lastEndTime = endTime;
+        countListenerCall(listenerCounters, listenerName, time);
+    }
+
+    /*
+     * Time of the synchronous engine listener callback. Counted in the
+     * alert loop only if called from the alert listener, otherwise
+     * (e.g. an event of the user request) as the engine listener
+     */
+
+    void onSyncListenerCall(@NonNull String listenerName, long time)
+    {
+        if (Thread.currentThread() != alertThread) {
+            onListenerCall(listenerName, time);
+            return;
+        }
+
+        synchronized (this) {
+            countListenerCall(listenerCounters, SYNC_LISTENER_PREFIX + listenerName, time);
+        }
+    }
+
+    /*
+     * Time of the engine listener callback outside the alert loop
+     */
+
+    synchronized void onListenerCall(@NonNull String listenerName, long time)
+    {
+        countListenerCall(engineListenerCounters, listenerName, time);
+    }
+
+    private static void countListenerCall(Map<String, ListenerCounters> listenerCounters,
+                                          String listenerName, long time)
+    {
+        ListenerCounters counters = listenerCounters.get(listenerName);
+        if (counters == null) {
+            counters = new ListenerCounters();
+            listenerCounters.put(listenerName, counters);
+        }
+        counters.calls++;
+        counters.totalTime += time;
+        counters.maxTime = Math.max(counters.maxTime, time);
+    }
+
+    private void flushAlert()
+    {
+        if (curAlert == null || curType < 0 || curType >= MAX_ALERT_TYPES)
+            return;
+
+        TypeCounters counters = typeCounters[curType];
+        long time = curTime / 1000;
+        counters.count++;
+        counters.totalTime += time;
+        counters.maxTime = Math.max(counters.maxTime, time);
+        int bucket = 64 - Long.numberOfLeadingZeros(time);
+        counters.histogram[Math.min(bucket, AlertLoopStats.HISTOGRAM_BUCKETS - 1)]++;
+    }
+
+    /*
+     * The alert handled at the moment isn't counted in the types yet
+     */
+
+    @NonNull
+    synchronized AlertLoopStats makeStats(int alertQueueSize)
+    {
+        ArrayList<AlertLoopStats.TypeStats> types = new ArrayList<>();
+        for (int type = 0; type < MAX_ALERT_TYPES; type++) {
+            TypeCounters c = typeCounters[type];
+            if (c == null || c.count == 0)
+                continue;
+            types.add(new AlertLoopStats.TypeStats(type, c.name, c.count,
+                    c.totalTime, c.maxTime, c.histogram.clone()));
+        }
+        Collections.sort(types, (a, b) -> compareTime(a.totalTime, b.totalTime));
+
+        return new AlertLoopStats(alertsCount, busyTime / 1000, maxBatchSize,
+                alertQueueSize, droppedCount, types,
+                makeListenerStats(listenerCounters),
+                makeListenerStats(engineListenerCounters));
+    }
+
+    private static List<AlertLoopStats.ListenerStats> makeListenerStats(Map<String, ListenerCounters> listenerCounters)
+    {
+        List<AlertLoopStats.ListenerStats> listeners = new ArrayList<>(listenerCounters.size());
+        for (Map.Entry<String, ListenerCounters> entry : listenerCounters.entrySet()) {
+            ListenerCounters c = entry.getValue();
+            listeners.add(new AlertLoopStats.ListenerStats(entry.getKey(), c.calls,
+                    c.totalTime / 1000, c.maxTime / 1000));
+        }
+        Collections.sort(listeners, (a, b) -> compareTime(a.totalTime, b.totalTime));
+
+        return listeners;
+    }
+
+    /* Descending order */
+
+    private static int compareTime(long a, long b)
+    {
+        return (a < b ? 1 : (a == b ? 0 : -1));
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Delivers the engine events to the listeners. Synchronous listeners
+ * are called on the calling (alert) thread, the rest of the listeners
+ * are called on the serial executors, striped by the torrent id. So the events
+ * of the same torrent keep their order, and the alert thread never waits for
+ * the slow listeners (e.g. database queries): the queues are unbounded.
+ *
+ * Session events (without the torrent id) are ordered among themselves only,
+ * not with the events of the torrents. The events about several torrents at once
+ * must go through dispatchBatch(), that splits them by the stripes, so each torrent
+ * sees them in order with its own events.
+ *
+ * Events must not refer to the alerts, which are invalid after the alert callback.
+ */
+
+class EngineListenerDispatcher
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = EngineListenerDispatcher.class.getSimpleName();
+
+    static final int DEFAULT_STRIPES = 4;
+    private static final long KEEP_ALIVE_TIME = 60; /* sec */
+
+    interface Event
+    {
+        void apply(TorrentEngineListener listener);
+    }
+
+    interface BatchEvent
+    {
+        void apply(TorrentEngineListener listener, List<String> torrentIds);
+    }
+
+    private final ConcurrentLinkedQueue<TorrentEngineListener> syncListeners =
+            new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<TorrentEngineListener> asyncListeners =
+            new ConcurrentLinkedQueue<>();
+    private final ThreadPoolExecutor[] stripes;
+    @Nullable
+    private final AlertLoopMonitor monitor;
+
+    EngineListenerDispatcher(int stripesCount, @Nullable AlertLoopMonitor monitor)
+    {
+        this.monitor = monitor;
+        stripes = new ThreadPoolExecutor[stripesCount];
+        ThreadFactory threadFactory = new ListenerThreadFactory();
+        for (int i = 0; i < stripesCount; i++) {
+            stripes[i] = new ThreadPoolExecutor(1, 1,
+                    KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    threadFactory);
+            stripes[i].allowCoreThreadTimeOut(true);
+        }
+    }
+
+    void addListener(@NonNull TorrentEngineListener listener)
+    {
+        asyncListeners.add(listener);
+    }
+
+    /*
+     * For the listeners that must handle the event before the alert callback returns
+     */
+
+    void addSyncListener(@NonNull TorrentEngineListener listener)
+    {
+        syncListeners.add(listener);
+    }
+
+    void removeListener(@NonNull TorrentEngineListener listener)
+    {
+        syncListeners.remove(listener);
+        asyncListeners.remove(listener);
+    }
+
+    /*
+     * Events without the torrent id (session events) have their own order
+     */
+
+    void dispatch(@Nullable String torrentId, @NonNull Event event)
+    {
+        for (TorrentEngineListener listener : syncListeners)
+            apply(listener, event, true);
+
+        if (asyncListeners.isEmpty())
+            return;
+
+        getStripe(torrentId).execute(() -> {
+            for (TorrentEngineListener listener : asyncListeners)
+                apply(listener, event, false);
+        });
+    }
+
+    /*
+     * Each asynchronous listener receives the event once per stripe,
+     * with the torrents of this stripe; the synchronous listeners receive all torrents at once
+     */
+
+    void dispatchBatch(@NonNull List<String> torrentIds, @NonNull BatchEvent event)
+    {
+        for (TorrentEngineListener listener : syncListeners)
+            apply(listener, (l) -> event.apply(l, torrentIds), true);
+
+        if (asyncListeners.isEmpty())
+            return;
+
+        ArrayList<ArrayList<String>> parts = new ArrayList<>(stripes.length);
+        for (int i = 0; i < stripes.length; i++)
+            parts.add(null);
+        for (String id : torrentIds) {
+            int i = getStripeIndex(id);
+            ArrayList<String> part = parts.get(i);
+            if (part == null) {
+                part = new ArrayList<>();
+                parts.set(i, part);
+            }
+            part.add(id);
+        }
+
+        for (int i = 0; i < stripes.length; i++) {
+            List<String> part = parts.get(i);
+            if (part == null)
+                continue;
+            stripes[i].execute(() -> {
+                for (TorrentEngineListener listener : asyncListeners)
+                    apply(listener, (l) -> event.apply(l, part), false);
+            });
+        }
+    }
+
+    /*
+     * Only for the synchronous listeners, e.g. the data
+     * of the event is valid only during the call
+     */
+
+    void dispatchSync(@NonNull Event event)
+    {
+        for (TorrentEngineListener listener : syncListeners)
+            apply(listener, event, true);
+    }
+
+    int getQueueSize()
+    {
+        int size = 0;
+        for (ThreadPoolExecutor stripe : stripes)
+            size += stripe.getQueue().size();
+
+        return size;
+    }
+
+    private ThreadPoolExecutor getStripe(String torrentId)
+    {
+        return stripes[getStripeIndex(torrentId)];
+    }
+
+    private int getStripeIndex(String torrentId)
+    {
+        int hash = (torrentId == null ? 0 : torrentId.hashCode());
+
+        return (hash & 0x7FFFFFFF) % stripes.length;
+    }
+
+    /*
+     * Only the synchronous listeners can take the alert loop time, see AlertLoopMonitor
+     */
+
+    private void apply(TorrentEngineListener listener, Event event, boolean sync)
+    {
+        long startTime = System.nanoTime();
+        try {
+            event.apply(listener);
+
+        } catch (Exception e) {
+            /* Don't let the listener break the delivery to the rest of the listeners */
+            Log.e(TAG, "Listener " + listener + " error: " + Log.getStackTraceString(e));
+        }
+        if (monitor == null)
+            return;
+
+        long time = System.nanoTime() - startTime;
+        if (sync)
+            monitor.onSyncListenerCall(listener.getClass().getName(), time);
+        else
+            monitor.onListenerCall(listener.getClass().getName(), time);
+    }
+
+    private static class ListenerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable r)
+        {
+            Thread t = new Thread(r, "EngineListener-" + count.incrementAndGet());
+            t.setDaemon(true);
+
+            return t;
+        }
+    }
+}
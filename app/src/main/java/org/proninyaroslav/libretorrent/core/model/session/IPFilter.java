@@ -26,4 +26,6 @@ import org.proninyaroslav.libretorrent.core.exception.IPFilterException;
 interface IPFilter
 {
     void addRange(@NonNull String first, @NonNull String last) throws IPFilterException;
+
+    void addRanges(@NonNull IPRangeSet ranges) throws IPFilterException;
 }
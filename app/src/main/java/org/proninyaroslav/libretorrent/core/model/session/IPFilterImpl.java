@@ -22,6 +22,7 @@ package org.proninyaroslav.libretorrent.core.model.session;
 import androidx.annotation.NonNull;
 
 import org.libtorrent4j.swig.address;
+import org.libtorrent4j.swig.address_v4;
 import org.libtorrent4j.swig.error_code;
 import org.libtorrent4j.swig.ip_filter;
 import org.proninyaroslav.libretorrent.core.exception.IPFilterException;
@@ -61,6 +62,26 @@ class IPFilterImpl implements IPFilter
         filter.add_rule(firstAddr, lastAddr, ip_filter.access_flags.blocked.swigValue());
     }
 
+    /*
+     * IPv4 addresses are created from the numbers, without the string parsing
+     */
+
+    @Override
+    public void addRanges(@NonNull IPRangeSet ranges) throws IPFilterException
+    {
+        int flags = ip_filter.access_flags.blocked.swigValue();
+        for (int i = 0; i < ranges.getV4Count(); i++) {
+            address first = new address(new address_v4(ranges.getV4First(i)));
+            address last = new address(new address_v4(ranges.getV4Last(i)));
+            filter.add_rule(first, last, flags);
+        }
+
+        /* IPv6 rules are rare, so use the usual way */
+        for (int i = 0; i < ranges.getV6Count(); i++)
+            addRange(IPRangeSet.formatV6(ranges.getV6FirstHigh(i), ranges.getV6FirstLow(i)),
+                     IPRangeSet.formatV6(ranges.getV6LastHigh(i), ranges.getV6LastLow(i)));
+    }
+
     public ip_filter getFilter()
     {
         return filter;
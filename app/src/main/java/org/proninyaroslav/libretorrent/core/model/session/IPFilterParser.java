@@ -24,18 +24,32 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
+import org.proninyaroslav.libretorrent.core.exception.IPFilterException;
 import org.proninyaroslav.libretorrent.core.system.FileDescriptorWrapper;
 import org.proninyaroslav.libretorrent.core.system.FileSystemFacade;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 /*
  * Parser of blacklist IP addresses in DAT and P2P formats.
+ *
+ * parseFile() maps the file into memory and parses the bytes directly
+ * into the compact range set, without per-line strings. The ranges are
+ * merged and added to the filter in one batch. If the snapshot file is set,
+ * the merged ranges are saved into it and the next parseFile() loads them
+ * without parsing, while the source file isn't changed. The stream parsers
+ * add each rule to the filter as is. They're also used if the file
+ * can't be mapped (e.g. it's a pipe of the SAF provider).
  */
 
 class IPFilterParser
@@ -44,8 +58,16 @@ class IPFilterParser
     private static final String TAG = IPFilterParser.class.getSimpleName();
 
     private static final int MAX_LOGGED_ERRORS = 5;
+    private static final int MAX_ACCESS_VALUE = 127;
+    private static final int FAMILY_V4 = 4;
+    private static final int FAMILY_V6 = 6;
 
     private boolean logEnabled;
+    private File snapshotFile;
+    /* Parsed address: family, IPv4 address or high and low words of IPv6 */
+    private final long[] firstAddr = new long[3];
+    private final long[] lastAddr = new long[3];
+    private final int[] groups = new int[8];
 
     public IPFilterParser()
     {
@@ -57,6 +79,12 @@ class IPFilterParser
         this.logEnabled = logEnabled;
     }
 
+    public IPFilterParser(@Nullable File snapshotFile)
+    {
+        logEnabled = true;
+        this.snapshotFile = snapshotFile;
+    }
+
     public int parseFile(@NonNull Uri path, @NonNull FileSystemFacade fs, @NonNull IPFilter filter)
     {
         int ruleCount = 0;
@@ -66,16 +94,60 @@ class IPFilterParser
         Log.d(TAG, "Start parsing IP filter file");
 
         try (FileDescriptorWrapper w = fs.getFD(path);
-             FileInputStream is = new FileInputStream(w.open("r"))) {
+             FileInputStream is = new FileInputStream(w.open("r"));
+             FileChannel chan = is.getChannel()) {
+
+            long size = chan.size();
+            long lastModified = fs.lastModified(path);
+            IPFilterSnapshot snapshot = (snapshotFile == null ?
+                    null :
+                    IPFilterSnapshot.open(snapshotFile, path.toString()));
+            IPRangeSet ranges = null;
+            if (snapshot != null && snapshot.isSourceUnchanged(size, lastModified))
+                ranges = loadSnapshot(snapshot);
+
+            if (ranges != null) {
+                ruleCount = snapshot.ruleCount;
+            } else {
+                ByteBuffer buf;
+                try {
+                    buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to map IP filter file, parse it as a stream: " +
+                            Log.getStackTraceString(e));
+                    /* Nothing is read from the stream yet */
+                    ruleCount = parseStream(path, is, filter);
+
+                    return ruleCount;
+                }
+                long hash = (snapshotFile == null ? 0 : IPFilterSnapshot.hash(buf));
+                if (snapshot != null && snapshot.isSameSource(size, hash))
+                    ranges = loadSnapshot(snapshot);
+
+                if (ranges != null) {
+                    ruleCount = snapshot.ruleCount;
+                    /* Only the modification time was changed */
+                    saveSnapshot(path, size, lastModified, hash, ruleCount, ranges);
+                } else {
+                    ranges = new IPRangeSet();
+                    String pathStr = path.toString().toLowerCase();
+                    if (pathStr.contains("dat"))
+                        ruleCount = parseDAT(buf, ranges);
+                    else if (pathStr.contains("p2p"))
+                        ruleCount = parseP2P(buf, ranges);
+                    ranges.compact();
+                    if (ruleCount > 0)
+                        saveSnapshot(path, size, lastModified, hash, ruleCount, ranges);
+                }
+            }
 
-            String pathStr = path.toString().toLowerCase();
-            if (pathStr.contains("dat"))
-                ruleCount = parseDAT(is, filter);
-            else if (pathStr.contains("p2p"))
-                ruleCount = parseP2P(is, filter);
+            filter.addRanges(ranges);
+            Log.d(TAG, "IP filter rules: " + ruleCount + ", after merge: " + ranges.size());
 
-        } catch (IOException e) {
+        } catch (IOException | IPFilterException e) {
             Log.e(TAG, Log.getStackTraceString(e));
+            ruleCount = 0;
 
             return ruleCount;
 
@@ -86,6 +158,17 @@ class IPFilterParser
         return ruleCount;
     }
 
+    private int parseStream(Uri path, InputStream is, IPFilter filter)
+    {
+        String pathStr = path.toString().toLowerCase();
+        if (pathStr.contains("dat"))
+            return parseDAT(is, filter);
+        else if (pathStr.contains("p2p"))
+            return parseP2P(is, filter);
+
+        return 0;
+    }
+
     /*
      * Parser for eMule ip filter in DAT format
      */
@@ -248,6 +331,382 @@ class IPFilterParser
         return ruleCount;
     }
 
+    private IPRangeSet loadSnapshot(IPFilterSnapshot snapshot)
+    {
+        try {
+            IPRangeSet ranges = snapshot.load();
+            Log.d(TAG, "IP filter loaded from the snapshot");
+
+            return ranges;
+
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to load IP filter snapshot: " + Log.getStackTraceString(e));
+
+            return null;
+        }
+    }
+
+    private void saveSnapshot(Uri path, long size, long lastModified, long hash,
+                              int ruleCount, IPRangeSet ranges)
+    {
+        if (snapshotFile == null)
+            return;
+
+        try {
+            IPFilterSnapshot.save(snapshotFile, path.toString(), size, lastModified, hash, ruleCount, ranges);
+
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save IP filter snapshot: " + Log.getStackTraceString(e));
+        }
+    }
+
+    /*
+     * Parser for eMule ip filter in DAT format, reads from the buffer position to the limit
+     */
+
+    public int parseDAT(@NonNull ByteBuffer buf, @NonNull IPRangeSet ranges)
+    {
+        return parse(buf, ranges, true);
+    }
+
+    /*
+     * Parser for PeerGuardian ip filter in p2p format, reads from the buffer position to the limit
+     */
+
+    public int parseP2P(@NonNull ByteBuffer buf, @NonNull IPRangeSet ranges)
+    {
+        return parse(buf, ranges, false);
+    }
+
+    private int parse(ByteBuffer buf, IPRangeSet ranges, boolean dat)
+    {
+        String prefix = (dat ? "DAT" : "P2P");
+        int ruleCount = 0;
+        long lineNum = 0;
+        int parseErrorCount = 0;
+
+        int pos = buf.position();
+        int limit = buf.limit();
+        while (pos < limit) {
+            lineNum++;
+
+            int lineEnd = indexOf(buf, '\n', pos, limit);
+            if (lineEnd < 0)
+                lineEnd = limit;
+            int start = skipSpaces(buf, pos, lineEnd);
+            int end = trimSpaces(buf, start, lineEnd);
+            pos = lineEnd + 1;
+            if (start == end)
+                continue;
+
+            /* Ignoring commented lines */
+            byte c = buf.get(start);
+            if (c == '#' || (c == '/' && end - start > 1 && buf.get(start + 1) == '/'))
+                continue;
+
+            int rangeStart;
+            int rangeEnd;
+            if (dat) {
+                /* Range, access value (apparently not mandatory) and description split by commas */
+                rangeStart = start;
+                rangeEnd = indexOf(buf, ',', start, end);
+                if (rangeEnd < 0) {
+                    rangeEnd = end;
+                } else {
+                    int accessEnd = indexOf(buf, ',', rangeEnd + 1, end);
+                    long access = parseNumber(buf, rangeEnd + 1, (accessEnd < 0 ? end : accessEnd));
+                    if (access < 0) {
+                        parseErrorCount++;
+                        errLog(parseErrorCount, prefix, "line " + lineNum +
+                                " is malformed. Access value is invalid. Line was " +
+                                toString(buf, start, end));
+                        continue;
+                    }
+                    /* Ignoring this rule because access value is too high */
+                    if (access > MAX_ACCESS_VALUE)
+                        continue;
+                }
+            } else {
+                /* Description may contain ':', the range is IPv4 only */
+                int colon = lastIndexOf(buf, ':', start, end);
+                if (colon < 0) {
+                    parseErrorCount++;
+                    errLog(parseErrorCount, prefix, "line " + lineNum + " is malformed");
+                    continue;
+                }
+                rangeStart = colon + 1;
+                rangeEnd = end;
+            }
+
+            /* IP Range should be split by a dash */
+            int dash = indexOf(buf, '-', rangeStart, rangeEnd);
+            if (dash < 0) {
+                parseErrorCount++;
+                errLog(parseErrorCount, prefix, "line " + lineNum +
+                        " is malformed. Line was " + toString(buf, start, end));
+                continue;
+            }
+            if (!parseAddress(buf, rangeStart, dash, firstAddr)) {
+                parseErrorCount++;
+                errLog(parseErrorCount, prefix, "line " + lineNum +
+                        " is malformed. Start IP of the range is invalid: " +
+                        toString(buf, rangeStart, dash));
+                continue;
+            }
+            if (!parseAddress(buf, dash + 1, rangeEnd, lastAddr)) {
+                parseErrorCount++;
+                errLog(parseErrorCount, prefix, "line " + lineNum +
+                        " is malformed. End IP of the range is invalid: " +
+                        toString(buf, dash + 1, rangeEnd));
+                continue;
+            }
+            if (firstAddr[0] != lastAddr[0]) {
+                parseErrorCount++;
+                errLog(parseErrorCount, prefix, "line " + lineNum +
+                        " is malformed. One IP is IPv6 and the other is IPv4. Line was " +
+                        toString(buf, start, end));
+                continue;
+            }
+
+            if (firstAddr[0] == FAMILY_V4) {
+                if (firstAddr[1] > lastAddr[1]) {
+                    parseErrorCount++;
+                    errLog(parseErrorCount, prefix, "line " + lineNum +
+                            " is malformed. Start IP is greater than end IP. Line was " +
+                            toString(buf, start, end));
+                    continue;
+                }
+                ranges.addV4(firstAddr[1], lastAddr[1]);
+            } else {
+                if (IPRangeSet.compareUnsigned(firstAddr[1], firstAddr[2],
+                                               lastAddr[1], lastAddr[2]) > 0) {
+                    parseErrorCount++;
+                    errLog(parseErrorCount, prefix, "line " + lineNum +
+                            " is malformed. Start IP is greater than end IP. Line was " +
+                            toString(buf, start, end));
+                    continue;
+                }
+                ranges.addV6(firstAddr[1], firstAddr[2], lastAddr[1], lastAddr[2]);
+            }
+            ruleCount++;
+        }
+
+        return ruleCount;
+    }
+
+    private boolean parseAddress(ByteBuffer buf, int from, int to, long[] out)
+    {
+        from = skipSpaces(buf, from, to);
+        to = trimSpaces(buf, from, to);
+        if (from == to)
+            return false;
+
+        if (indexOf(buf, ':', from, to) < 0) {
+            out[0] = FAMILY_V4;
+            out[1] = parseV4(buf, from, to);
+
+            return out[1] >= 0;
+        } else {
+            out[0] = FAMILY_V6;
+
+            return parseV6(buf, from, to, out);
+        }
+    }
+
+    /*
+     * Returns -1 if the address is invalid. Leading zeroes
+     * in the octets are allowed (e.g 001.009.106.186 in eMule .DAT files)
+     */
+
+    private static long parseV4(ByteBuffer buf, int from, int to)
+    {
+        long addr = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                if (++digits > 3)
+                    return -1;
+                value = value * 10 + (b - '0');
+            } else if (b == '.') {
+                if (digits == 0 || value > 255 || octets == 3)
+                    return -1;
+                addr = (addr << 8) | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0 || value > 255 || octets != 3)
+            return -1;
+
+        return (addr << 8) | value;
+    }
+
+    private boolean parseV6(ByteBuffer buf, int from, int to, long[] out)
+    {
+        int n = 0;
+        /* Position of the '::' in the groups */
+        int gap = -1;
+        int i = from;
+        if (buf.get(i) == ':') {
+            if (to - i < 2 || buf.get(i + 1) != ':')
+                return false;
+            gap = 0;
+            i += 2;
+        }
+
+        while (i < to) {
+            int groupStart = i;
+            int value = 0;
+            int digits = 0;
+            int digit;
+            while (i < to && (digit = hexDigit(buf.get(i))) >= 0) {
+                if (++digits > 4)
+                    return false;
+                value = (value << 4) | digit;
+                i++;
+            }
+            if (i < to && buf.get(i) == '.') {
+                /* IPv4 in the last 32 bits */
+                if (n > 6)
+                    return false;
+                long v4 = parseV4(buf, groupStart, to);
+                if (v4 < 0)
+                    return false;
+                groups[n++] = (int)(v4 >>> 16);
+                groups[n++] = (int)(v4 & 0xFFFF);
+                break;
+            }
+            if (digits == 0 || n == 8)
+                return false;
+            groups[n++] = value;
+            if (i == to)
+                break;
+
+            if (buf.get(i++) != ':' || i == to)
+                return false;
+            if (buf.get(i) == ':') {
+                if (gap >= 0)
+                    return false;
+                gap = n;
+                i++;
+            }
+        }
+
+        if (gap < 0) {
+            if (n != 8)
+                return false;
+        } else {
+            if (n > 7)
+                return false;
+            int shift = 8 - n;
+            for (int j = n - 1; j >= gap; j--)
+                groups[j + shift] = groups[j];
+            for (int j = gap; j < gap + shift; j++)
+                groups[j] = 0;
+        }
+
+        long high = 0;
+        long low = 0;
+        for (int j = 0; j < 4; j++) {
+            high = (high << 16) | groups[j];
+            low = (low << 16) | groups[j + 4];
+        }
+        out[1] = high;
+        out[2] = low;
+
+        return true;
+    }
+
+    private static int hexDigit(byte b)
+    {
+        if (b >= '0' && b <= '9')
+            return b - '0';
+        else if (b >= 'a' && b <= 'f')
+            return b - 'a' + 10;
+        else if (b >= 'A' && b <= 'F')
+            return b - 'A' + 10;
+        else
+            return -1;
+    }
+
+    /*
+     * Returns -1 if the number is invalid
+     */
+
+    private static long parseNumber(ByteBuffer buf, int from, int to)
+    {
+        from = skipSpaces(buf, from, to);
+        to = trimSpaces(buf, from, to);
+        if (from == to || to - from > 9)
+            return -1;
+
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9')
+                return -1;
+            value = value * 10 + (b - '0');
+        }
+
+        return value;
+    }
+
+    private static int indexOf(ByteBuffer buf, char c, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == c)
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buf, char c, int from, int to)
+    {
+        for (int i = to - 1; i >= from; i--) {
+            if (buf.get(i) == c)
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    private static int skipSpaces(ByteBuffer buf, int from, int to)
+    {
+        while (from < to && isSpace(buf.get(from)))
+            from++;
+
+        return from;
+    }
+
+    private static int trimSpaces(ByteBuffer buf, int from, int to)
+    {
+        while (to > from && isSpace(buf.get(to - 1)))
+            to--;
+
+        return to;
+    }
+
+    private static String toString(ByteBuffer buf, int from, int to)
+    {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++)
+            bytes[i - from] = buf.get(i);
+
+        return new String(bytes, Charset.forName("UTF-8"));
+    }
+
     private String parseIpAddress(String ip)
     {
         if (ip == null || ip.isEmpty())
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/*
+ * Compiled IP filter: sorted and merged ranges of the source list,
+ * stored in the binary form. The snapshot is valid for the source it was
+ * made from (its Uri also defines the list format), while the source
+ * has the same size and modification time, or the same content hash.
+ *
+ * Format (big-endian):
+ *   magic, version, source Uri length, source Uri (UTF-8),
+ *   source size, source modification time,
+ *   source hash, rules count, IPv4 ranges count, IPv6 ranges count,
+ *   IPv4 ranges (first and last address, 4 bytes each),
+ *   IPv6 ranges (first and last address, 16 bytes each)
+ */
+
+class IPFilterSnapshot
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = IPFilterSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "ip_filter.snapshot";
+    private static final int MAGIC = 0x4C544946; /* LTIF */
+    private static final int VERSION = 2;
+    /* Without the source Uri */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4;
+    private static final int V4_RANGE_SIZE = 8;
+    private static final int V6_RANGE_SIZE = 32;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final Charset SOURCE_CHARSET = Charset.forName("UTF-8");
+
+    private final File file;
+    private final int rangesOffset;
+    final long sourceSize;
+    final long sourceLastModified;
+    final long sourceHash;
+    final int ruleCount;
+    private final int v4Count;
+    private final int v6Count;
+
+    private IPFilterSnapshot(File file, int rangesOffset, long sourceSize, long sourceLastModified,
+                             long sourceHash, int ruleCount, int v4Count, int v6Count)
+    {
+        this.file = file;
+        this.rangesOffset = rangesOffset;
+        this.sourceSize = sourceSize;
+        this.sourceLastModified = sourceLastModified;
+        this.sourceHash = sourceHash;
+        this.ruleCount = ruleCount;
+        this.v4Count = v4Count;
+        this.v6Count = v6Count;
+    }
+
+    /*
+     * Reads the snapshot header. Returns null if there is no snapshot,
+     * it's corrupted, has a different version or made from another source
+     */
+
+    @Nullable
+    static IPFilterSnapshot open(@NonNull File file, @NonNull String source)
+    {
+        if (!file.exists())
+            return null;
+
+        try (DataInputStream is = new DataInputStream(new FileInputStream(file))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION)
+                return null;
+
+            int sourceLength = is.readInt();
+            if (sourceLength < 0 || sourceLength > file.length())
+                return null;
+            byte[] storedSource = new byte[sourceLength];
+            is.readFully(storedSource);
+            if (!source.equals(new String(storedSource, SOURCE_CHARSET)))
+                return null;
+
+            long sourceSize = is.readLong();
+            long sourceLastModified = is.readLong();
+            long sourceHash = is.readLong();
+            int ruleCount = is.readInt();
+            int v4Count = is.readInt();
+            int v6Count = is.readInt();
+            if (ruleCount < 0 || v4Count < 0 || v6Count < 0)
+                return null;
+            int rangesOffset = HEADER_SIZE + sourceLength;
+            long expectedSize = rangesOffset +
+                    (long)v4Count * V4_RANGE_SIZE +
+                    (long)v6Count * V6_RANGE_SIZE;
+            if (file.length() != expectedSize)
+                return null;
+
+            return new IPFilterSnapshot(file, rangesOffset, sourceSize, sourceLastModified,
+                    sourceHash, ruleCount, v4Count, v6Count);
+
+        } catch (IOException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+
+            return null;
+        }
+    }
+
+    /*
+     * The modification time may be unknown (e.g for some SAF providers),
+     * in that case the source should be checked by the hash
+     */
+
+    boolean isSourceUnchanged(long size, long lastModified)
+    {
+        return lastModified > 0 && size == sourceSize && lastModified == sourceLastModified;
+    }
+
+    boolean isSameSource(long size, long hash)
+    {
+        return size == sourceSize && hash == sourceHash;
+    }
+
+    @NonNull
+    IPRangeSet load() throws IOException
+    {
+        IPRangeSet ranges = new IPRangeSet(v4Count, v6Count);
+
+        try (FileInputStream is = new FileInputStream(file);
+             FileChannel chan = is.getChannel()) {
+            ByteBuffer buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+            int pos = rangesOffset;
+            for (int i = 0; i < v4Count; i++) {
+                ranges.addV4(buf.getInt(pos) & 0xFFFFFFFFL, buf.getInt(pos + 4) & 0xFFFFFFFFL);
+                pos += V4_RANGE_SIZE;
+            }
+            for (int i = 0; i < v6Count; i++) {
+                ranges.addV6(buf.getLong(pos), buf.getLong(pos + 8),
+                             buf.getLong(pos + 16), buf.getLong(pos + 24));
+                pos += V6_RANGE_SIZE;
+            }
+        }
+
+        return ranges;
+    }
+
+    /*
+     * Ranges must be compacted. The snapshot is written to a temporary
+     * file first, so the old snapshot stays valid if the write fails
+     */
+
+    @NonNull
+    static IPFilterSnapshot save(@NonNull File file,
+                                 @NonNull String source,
+                                 long sourceSize,
+                                 long sourceLastModified,
+                                 long sourceHash,
+                                 int ruleCount,
+                                 @NonNull IPRangeSet ranges) throws IOException
+    {
+        byte[] sourceBytes = source.getBytes(SOURCE_CHARSET);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile), WRITE_BUFFER_SIZE))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeInt(sourceBytes.length);
+            os.write(sourceBytes);
+            os.writeLong(sourceSize);
+            os.writeLong(sourceLastModified);
+            os.writeLong(sourceHash);
+            os.writeInt(ruleCount);
+            os.writeInt(ranges.getV4Count());
+            os.writeInt(ranges.getV6Count());
+            for (int i = 0; i < ranges.getV4Count(); i++) {
+                os.writeInt((int)ranges.getV4First(i));
+                os.writeInt((int)ranges.getV4Last(i));
+            }
+            for (int i = 0; i < ranges.getV6Count(); i++) {
+                os.writeLong(ranges.getV6FirstHigh(i));
+                os.writeLong(ranges.getV6FirstLow(i));
+                os.writeLong(ranges.getV6LastHigh(i));
+                os.writeLong(ranges.getV6LastLow(i));
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + file);
+        }
+
+        return new IPFilterSnapshot(file, HEADER_SIZE + sourceBytes.length,
+                sourceSize, sourceLastModified, sourceHash, ruleCount, ranges.getV4Count(), ranges.getV6Count());
+    }
+
+    /*
+     * CRC32 of the buffer from the position to the limit,
+     * the buffer position isn't changed
+     */
+
+    static long hash(@NonNull ByteBuffer buf)
+    {
+        ByteBuffer src = buf.duplicate();
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(HASH_BUFFER_SIZE, Math.max(src.remaining(), 1))];
+        while (src.hasRemaining()) {
+            int n = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+
+        return crc.getValue();
+    }
+}
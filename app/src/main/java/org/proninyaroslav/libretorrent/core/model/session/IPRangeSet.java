@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/*
+ * Compact set of the IP ranges, stored in primitive arrays.
+ * IPv4 range is packed into one long (first address in the high 32 bits,
+ * with the sign bit flipped so that the signed order is the address order),
+ * IPv6 range takes four longs: high and low words of the first
+ * and the last address. Call compact() after adding the ranges
+ * to sort them and merge overlapping and adjacent ones.
+ */
+
+class IPRangeSet
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_V6_CAPACITY = 4;
+    private static final long V4_MASK = 0xFFFFFFFFL;
+
+    private long[] v4;
+    private int v4Count;
+    private long[] v6;
+    private int v6Count;
+
+    IPRangeSet()
+    {
+        this(INITIAL_CAPACITY, INITIAL_V6_CAPACITY);
+    }
+
+    IPRangeSet(int v4Capacity, int v6Capacity)
+    {
+        v4 = new long[Math.max(v4Capacity, 1)];
+        v6 = new long[Math.max(v6Capacity, 1) * 4];
+    }
+
+    void addV4(long first, long last)
+    {
+        if (v4Count == v4.length)
+            v4 = Arrays.copyOf(v4, v4.length * 2);
+        v4[v4Count++] = packV4(first, last);
+    }
+
+    void addV6(long firstHigh, long firstLow, long lastHigh, long lastLow)
+    {
+        int pos = v6Count * 4;
+        if (pos == v6.length)
+            v6 = Arrays.copyOf(v6, v6.length * 2);
+        v6[pos] = firstHigh;
+        v6[pos + 1] = firstLow;
+        v6[pos + 2] = lastHigh;
+        v6[pos + 3] = lastLow;
+        v6Count++;
+    }
+
+    int getV4Count()
+    {
+        return v4Count;
+    }
+
+    int getV6Count()
+    {
+        return v6Count;
+    }
+
+    int size()
+    {
+        return v4Count + v6Count;
+    }
+
+    long getV4First(int i)
+    {
+        return (v4[i] ^ Long.MIN_VALUE) >>> 32;
+    }
+
+    long getV4Last(int i)
+    {
+        return v4[i] & V4_MASK;
+    }
+
+    long getV6FirstHigh(int i)
+    {
+        return v6[i * 4];
+    }
+
+    long getV6FirstLow(int i)
+    {
+        return v6[i * 4 + 1];
+    }
+
+    long getV6LastHigh(int i)
+    {
+        return v6[i * 4 + 2];
+    }
+
+    long getV6LastLow(int i)
+    {
+        return v6[i * 4 + 3];
+    }
+
+    void compact()
+    {
+        compactV4();
+        compactV6();
+    }
+
+    private void compactV4()
+    {
+        if (v4Count == 0)
+            return;
+
+        Arrays.sort(v4, 0, v4Count);
+
+        int n = 0;
+        long first = getV4First(0);
+        long last = getV4Last(0);
+        for (int i = 1; i < v4Count; i++) {
+            long nextFirst = getV4First(i);
+            long nextLast = getV4Last(i);
+            if (nextFirst <= last + 1) {
+                if (nextLast > last)
+                    last = nextLast;
+            } else {
+                v4[n++] = packV4(first, last);
+                first = nextFirst;
+                last = nextLast;
+            }
+        }
+        v4[n++] = packV4(first, last);
+        v4Count = n;
+    }
+
+    private static long packV4(long first, long last)
+    {
+        return ((first << 32) | (last & V4_MASK)) ^ Long.MIN_VALUE;
+    }
+
+    private void compactV6()
+    {
+        if (v6Count == 0)
+            return;
+
+        int[] order = new int[v6Count];
+        for (int i = 0; i < v6Count; i++)
+            order[i] = i;
+        sortV6(order, new int[v6Count], 0, v6Count);
+
+        long[] merged = new long[v6Count * 4];
+        int n = 0;
+        int pos = order[0] * 4;
+        long firstHigh = v6[pos], firstLow = v6[pos + 1];
+        long lastHigh = v6[pos + 2], lastLow = v6[pos + 3];
+        for (int i = 1; i < v6Count; i++) {
+            pos = order[i] * 4;
+            if (isMergeable(lastHigh, lastLow, v6[pos], v6[pos + 1])) {
+                if (compareUnsigned(v6[pos + 2], v6[pos + 3], lastHigh, lastLow) > 0) {
+                    lastHigh = v6[pos + 2];
+                    lastLow = v6[pos + 3];
+                }
+            } else {
+                n = putV6(merged, n, firstHigh, firstLow, lastHigh, lastLow);
+                firstHigh = v6[pos];
+                firstLow = v6[pos + 1];
+                lastHigh = v6[pos + 2];
+                lastLow = v6[pos + 3];
+            }
+        }
+        n = putV6(merged, n, firstHigh, firstLow, lastHigh, lastLow);
+        v6 = merged;
+        v6Count = n;
+    }
+
+    private static int putV6(long[] dst, int n, long firstHigh, long firstLow,
+                             long lastHigh, long lastLow)
+    {
+        int pos = n * 4;
+        dst[pos] = firstHigh;
+        dst[pos + 1] = firstLow;
+        dst[pos + 2] = lastHigh;
+        dst[pos + 3] = lastLow;
+
+        return n + 1;
+    }
+
+    /*
+     * Merge sort of the IPv6 range indexes by the first address
+     */
+
+    private void sortV6(int[] order, int[] tmp, int from, int to)
+    {
+        if (to - from < 2)
+            return;
+
+        int mid = (from + to) >>> 1;
+        sortV6(order, tmp, from, mid);
+        sortV6(order, tmp, mid, to);
+
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            int a = order[i] * 4, b = order[j] * 4;
+            if (compareUnsigned(v6[a], v6[a + 1], v6[b], v6[b + 1]) <= 0)
+                tmp[k++] = order[i++];
+            else
+                tmp[k++] = order[j++];
+        }
+        while (i < mid)
+            tmp[k++] = order[i++];
+        while (j < to)
+            tmp[k++] = order[j++];
+        System.arraycopy(tmp, from, order, from, to - from);
+    }
+
+    /*
+     * Returns true if the next range starts before or right after the last address
+     */
+
+    private static boolean isMergeable(long lastHigh, long lastLow, long nextHigh, long nextLow)
+    {
+        if (compareUnsigned(nextHigh, nextLow, lastHigh, lastLow) <= 0)
+            return true;
+        /* last + 1, the maximum address can't be followed by anything */
+        long incLow = lastLow + 1;
+        long incHigh = (incLow == 0 ? lastHigh + 1 : lastHigh);
+
+        return incHigh == nextHigh && incLow == nextLow;
+    }
+
+    static int compareUnsigned(long aHigh, long aLow, long bHigh, long bLow)
+    {
+        if (aHigh != bHigh)
+            return (aHigh + Long.MIN_VALUE) < (bHigh + Long.MIN_VALUE) ? -1 : 1;
+        if (aLow != bLow)
+            return (aLow + Long.MIN_VALUE) < (bLow + Long.MIN_VALUE) ? -1 : 1;
+
+        return 0;
+    }
+
+    @NonNull
+    static String formatV4(long address)
+    {
+        return ((address >>> 24) & 0xFF) + "." +
+                ((address >>> 16) & 0xFF) + "." +
+                ((address >>> 8) & 0xFF) + "." +
+                (address & 0xFF);
+    }
+
+    @NonNull
+    static String formatV6(long high, long low)
+    {
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            long word = (i < 4 ? high : low);
+            int shift = (3 - (i % 4)) * 16;
+            if (i > 0)
+                sb.append(':');
+            sb.append(Integer.toHexString((int)((word >>> shift) & 0xFFFF)));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+
+/*
+ * Availability of the piece. Completes once, when the piece is finished,
+ * or is cancelled if the torrent is stopped before that.
+ */
+
+public class PieceFuture
+{
+    public interface Listener
+    {
+        void onDone(@NonNull PieceFuture future);
+    }
+
+    private final int pieceIndex;
+    private boolean done;
+    private boolean cancelled;
+    private ArrayList<Listener> listeners;
+
+    PieceFuture(int pieceIndex)
+    {
+        this.pieceIndex = pieceIndex;
+    }
+
+    public int getPieceIndex()
+    {
+        return pieceIndex;
+    }
+
+    public synchronized boolean isDone()
+    {
+        return done;
+    }
+
+    public synchronized boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /*
+     * The listener is called at once if the future is already done
+     */
+
+    public void addListener(@NonNull Listener listener)
+    {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null)
+                    listeners = new ArrayList<>(1);
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onDone(this);
+    }
+
+    public synchronized void removeListener(@NonNull Listener listener)
+    {
+        if (listeners != null)
+            listeners.remove(listener);
+    }
+
+    void complete(boolean cancel)
+    {
+        ArrayList<Listener> toNotify;
+        synchronized (this) {
+            if (done)
+                return;
+            done = true;
+            cancelled = cancel;
+            toNotify = listeners;
+            listeners = null;
+        }
+
+        /* Listeners are called without the lock */
+        if (toNotify != null) {
+            for (Listener listener : toNotify)
+                listener.onDone(this);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PieceFuture{" +
+                "pieceIndex=" + pieceIndex +
+                ", done=" + done +
+                ", cancelled=" + cancelled +
+                '}';
+    }
+}
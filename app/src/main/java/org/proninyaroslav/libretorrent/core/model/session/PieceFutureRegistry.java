@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Pending piece futures of the torrent. The future of the piece is shared
+ * by all readers waiting for it and is completed only by the finish
+ * of this piece, so the readers aren't woken up by the other pieces.
+ */
+
+class PieceFutureRegistry
+{
+    private final HashMap<Integer, PieceFuture> futures = new HashMap<>();
+    private boolean cancelled;
+
+    @NonNull
+    synchronized PieceFuture get(int pieceIndex)
+    {
+        PieceFuture future = futures.get(pieceIndex);
+        if (future == null) {
+            future = new PieceFuture(pieceIndex);
+            if (cancelled)
+                future.complete(true);
+            else
+                futures.put(pieceIndex, future);
+        }
+
+        return future;
+    }
+
+    void complete(int pieceIndex)
+    {
+        PieceFuture future;
+        synchronized (this) {
+            if (futures.isEmpty())
+                return;
+            future = futures.remove(pieceIndex);
+        }
+        if (future != null)
+            future.complete(false);
+    }
+
+    /*
+     * Cancels pending futures, the futures requested after that are cancelled at once
+     */
+
+    void cancelAll()
+    {
+        ArrayList<PieceFuture> pending;
+        synchronized (this) {
+            cancelled = true;
+            pending = new ArrayList<>(futures.values());
+            futures.clear();
+        }
+        for (PieceFuture future : pending)
+            future.complete(true);
+    }
+
+    synchronized int size()
+    {
+        return futures.size();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
+import org.proninyaroslav.libretorrent.core.storage.TorrentRepository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Session-wide write-behind storage of the resume data. Saves of the same torrent,
+ * made before it's written, are coalesced into one, so the queue holds at most
+ * one entry per torrent and never more than MAX_PENDING entries. Pending torrents
+ * are written in batches, one transaction each, on a dedicated thread. The metadata
+ * of the torrent, if it isn't stored yet, is written along with its resume data.
+ *
+ * Each pending resume data holds the save resume state of the torrent critical work,
+ * so stopping of the torrent waits until its resume data is written.
+ */
+
+class ResumeDataWriter
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = ResumeDataWriter.class.getSimpleName();
+
+    /* Limits the number of torrents in one transaction */
+    private static final int MAX_BATCH = 256;
+    /*
+     * Limits the memory if the disk is slow. Writers never wait,
+     * the data of a new torrent is rejected if the queue is full
+     */
+    private static final int MAX_PENDING = 4 * MAX_BATCH;
+    private static final long FLUSH_DELAY = 1000; /* ms */
+
+    private static class Entry
+    {
+        final FastResume fastResume;
+        final TorrentMetadata metadata;
+        final TorrentCriticalWork criticalWork;
+
+        Entry(FastResume fastResume, TorrentMetadata metadata, TorrentCriticalWork criticalWork)
+        {
+            this.fastResume = fastResume;
+            this.metadata = metadata;
+            this.criticalWork = criticalWork;
+        }
+    }
+
+    private final TorrentRepository repo;
+    private final ThreadPoolExecutor exec;
+    private final Object lock = new Object();
+    /* Guarded by lock; in the order of the first save of the torrent */
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private boolean urgent;
+
+    ResumeDataWriter(@NonNull TorrentRepository repo)
+    {
+        this.repo = repo;
+        exec = new ThreadPoolExecutor(1, 1,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        exec.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     * The critical work must be already in the save resume state,
+     * it's released when the data is written or replaced by the newer one.
+     * Returns false if the queue is full, in that case nothing is queued
+     * and the caller releases the critical work
+     */
+
+    boolean write(@NonNull FastResume fastResume,
+                  @Nullable TorrentMetadata metadata,
+                  @NonNull TorrentCriticalWork criticalWork)
+    {
+        Entry replaced;
+        synchronized (lock) {
+            replaced = pending.get(fastResume.torrentId);
+            /* Called from the alert thread, so must not block */
+            if (replaced == null && pending.size() >= MAX_PENDING) {
+                Log.w(TAG, "Resume data queue is full, skip " + fastResume.torrentId);
+                return false;
+            }
+
+            /* The metadata is given only once, keep it for the newer data */
+            if (metadata == null && replaced != null)
+                metadata = replaced.metadata;
+            pending.put(fastResume.torrentId, new Entry(fastResume, metadata, criticalWork));
+            if (pending.size() >= MAX_BATCH)
+                lock.notifyAll();
+            if (!flushScheduled) {
+                flushScheduled = true;
+                exec.execute(this::flushLoop);
+            }
+        }
+
+        if (replaced != null)
+            replaced.criticalWork.setSaveResume(false);
+
+        return true;
+    }
+
+    /*
+     * In the urgent mode pending data is written without delay,
+     * e.g. when the session is stopping
+     */
+
+    void setUrgent(boolean urgent)
+    {
+        synchronized (lock) {
+            this.urgent = urgent;
+            lock.notifyAll();
+        }
+    }
+
+    private void flushLoop()
+    {
+        while (true) {
+            ArrayList<Entry> entries;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    flushScheduled = false;
+                    return;
+                }
+
+                /* Wait to collect more torrents and repeated saves */
+                long deadline = System.currentTimeMillis() + FLUSH_DELAY;
+                long timeout;
+                while (!urgent && pending.size() < MAX_BATCH &&
+                        (timeout = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        lock.wait(timeout);
+
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+
+                /* The oldest torrents go first, the newer saves are coalesced with them */
+                entries = new ArrayList<>(Math.min(pending.size(), MAX_BATCH));
+                Iterator<Entry> it = pending.values().iterator();
+                while (it.hasNext() && entries.size() < MAX_BATCH) {
+                    entries.add(it.next());
+                    it.remove();
+                }
+            }
+
+            writeEntries(entries);
+        }
+    }
+
+    private void writeEntries(List<Entry> entries)
+    {
+        ArrayList<FastResume> fastResumeList = new ArrayList<>(entries.size());
+        ArrayList<TorrentMetadata> metadataList = new ArrayList<>();
+        for (Entry entry : entries) {
+            fastResumeList.add(entry.fastResume);
+            if (entry.metadata != null)
+                metadataList.add(entry.metadata);
+        }
+
+        try {
+            repo.addFastResumeList(fastResumeList, metadataList);
+
+        } catch (Throwable e) {
+            /*
+             * E.g. the torrent was deleted before the flush (foreign key violation);
+             * write one by one so that the other torrents don't lose their data
+             */
+            writeSeparately(entries);
+
+        } finally {
+            for (Entry entry : entries)
+                entry.criticalWork.setSaveResume(false);
+        }
+    }
+
+    private void writeSeparately(List<Entry> entries)
+    {
+        for (Entry entry : entries) {
+            try {
+                /* Resume data without the info dict is useless */
+                if (entry.metadata != null)
+                    repo.addTorrentMetadata(entry.metadata);
+                repo.addFastResume(entry.fastResume);
+
+            } catch (Throwable e) {
+                Log.e(TAG, "Unable to write resume data of " + entry.fastResume.torrentId + ": " +
+                        Log.getStackTraceString(e));
+            }
+        }
+    }
+}
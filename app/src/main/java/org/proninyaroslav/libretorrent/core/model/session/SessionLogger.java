@@ -25,12 +25,11 @@ import org.libtorrent4j.alerts.LogAlert;
 import org.libtorrent4j.alerts.PeerLogAlert;
 import org.libtorrent4j.alerts.PortmapLogAlert;
 import org.libtorrent4j.alerts.TorrentLogAlert;
-import org.proninyaroslav.libretorrent.core.logger.LogEntry;
-import org.proninyaroslav.libretorrent.core.logger.LogFilter;
 import org.proninyaroslav.libretorrent.core.logger.Logger;
 
 class SessionLogger extends Logger
 {
+    private static final int LOG_MESSAGE_CAPACITY = 512;
     private static int nextLogEntryId = 0;
 
     public enum SessionLogEntryType {
@@ -63,21 +62,21 @@ class SessionLogger extends Logger
 
     public enum SessionLogFilter
     {
-        SESSION((entry) -> entry == null || !entry.getTag().equals(SessionLogEntryType.SESSION_LOG.name())),
+        SESSION(SessionLogEntryType.SESSION_LOG),
 
-        DHT((entry) -> entry == null || !entry.getTag().equals(SessionLogEntryType.DHT_LOG.name())),
+        DHT(SessionLogEntryType.DHT_LOG),
 
-        PEER((entry) -> entry == null || !entry.getTag().equals(SessionLogEntryType.PEER_LOG.name())),
+        PEER(SessionLogEntryType.PEER_LOG),
 
-        PORTMAP((entry) -> entry == null || !entry.getTag().equals(SessionLogEntryType.PORTMAP_LOG.name())),
+        PORTMAP(SessionLogEntryType.PORTMAP_LOG),
 
-        TORRENT((entry) -> entry == null || !entry.getTag().equals(SessionLogEntryType.TORRENT_LOG.name()));
+        TORRENT(SessionLogEntryType.TORRENT_LOG);
 
         private final NewFilter filter;
 
-        SessionLogFilter(LogFilter filter)
+        SessionLogFilter(SessionLogEntryType type)
         {
-            this.filter = new NewFilter(name(), filter);
+            this.filter = NewFilter.excludeTag(name(), type.name());
         }
 
         public NewFilter filter()
@@ -108,62 +107,63 @@ class SessionLogger extends Logger
         }
     }
 
+    /* Used only by the alert thread */
+    private final StringBuilder msgBuilder = new StringBuilder(LOG_MESSAGE_CAPACITY);
+
     SessionLogger()
     {
         /* Default stub */
         super(1);
+
+        /* Entry type is the ordinal of the entry type enum */
+        for (SessionLogEntryType type : SessionLogEntryType.values())
+            registerTag(type.name());
     }
 
+    /*
+     * The message is built in the reusable builder
+     * and copied into the log ring, without allocations
+     */
+
     void send(Alert<?> alert)
     {
         long time = System.currentTimeMillis();
-        String msg;
-        LogEntry entry = null;
+        StringBuilder msg = msgBuilder;
+        msg.setLength(0);
+        SessionLogEntryType type;
         switch (alert.type()) {
             case LOG:
-                entry = new LogEntry(nextLogEntryId++,
-                        SessionLogEntryType.SESSION_LOG.name(),
-                        ((LogAlert)alert).logMessage(),
-                        time);
+                type = SessionLogEntryType.SESSION_LOG;
+                msg.append(((LogAlert)alert).logMessage());
                 break;
             case DHT_LOG:
+                type = SessionLogEntryType.DHT_LOG;
                 DhtLogAlert dhtLogAlert = (DhtLogAlert)alert;
-                msg = "[" + dhtLogAlert.module().name() + "] " + dhtLogAlert.logMessage();
-                entry = new LogEntry(nextLogEntryId++,
-                        SessionLogEntryType.DHT_LOG.name(),
-                        msg,
-                        time);
+                msg.append('[').append(dhtLogAlert.module().name()).append("] ")
+                        .append(dhtLogAlert.logMessage());
                 break;
             case PEER_LOG:
+                type = SessionLogEntryType.PEER_LOG;
                 PeerLogAlert peerLogAlert = (PeerLogAlert)alert;
-
-                msg = "[" + peerLogAlert.direction() + "] " +
-                        "[" + peerLogAlert.eventType() + "] " +
-                        peerLogAlert.logMessage();
-
-                entry = new LogEntry(nextLogEntryId++,
-                        SessionLogEntryType.PEER_LOG.name(),
-                        msg,
-                        time);
+                msg.append('[').append(peerLogAlert.direction()).append("] ")
+                        .append('[').append(peerLogAlert.eventType()).append("] ")
+                        .append(peerLogAlert.logMessage());
                 break;
             case PORTMAP_LOG:
+                type = SessionLogEntryType.PORTMAP_LOG;
                 PortmapLogAlert portmapLogAlert = (PortmapLogAlert)alert;
-                msg = "[" + portmapLogAlert.mapType().name() + "] " + portmapLogAlert.logMessage();
-                entry = new LogEntry(nextLogEntryId++,
-                        SessionLogEntryType.PORTMAP_LOG.name(),
-                        msg,
-                        time);
+                msg.append('[').append(portmapLogAlert.mapType().name()).append("] ")
+                        .append(portmapLogAlert.logMessage());
                 break;
             case TORRENT_LOG:
-                entry = new LogEntry(nextLogEntryId++,
-                        SessionLogEntryType.TORRENT_LOG.name(),
-                        ((TorrentLogAlert)alert).logMessage(),
-                        time);
+                type = SessionLogEntryType.TORRENT_LOG;
+                msg.append(((TorrentLogAlert)alert).logMessage());
                 break;
+            default:
+                return;
         }
 
-        if (entry != null)
-            send(entry);
+        send(nextLogEntryId++, type.ordinal(), time, msg);
     }
 
     void applyFilterParams(SessionFilterParams params)
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.libtorrent4j.AlertListener;
+import org.libtorrent4j.Sha1Hash;
+import org.libtorrent4j.TorrentHandle;
+import org.libtorrent4j.alerts.Alert;
+import org.libtorrent4j.alerts.AlertType;
+import org.libtorrent4j.alerts.TorrentAlert;
+import org.libtorrent4j.alerts.TorrentRemovedAlert;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Single session listener for the torrent alerts. Instead of registering
+ * one listener per torrent (and filtering each alert by handle in every listener),
+ * the alert is routed to the handler of the torrent by info-hash.
+ */
+
+class TorrentAlertDispatcher implements AlertListener
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = TorrentAlertDispatcher.class.getSimpleName();
+
+    interface Handler
+    {
+        void onAlert(@NonNull Alert<?> alert);
+    }
+
+    private final int[] types;
+    private final ConcurrentHashMap<String, Handler> handlers = new ConcurrentHashMap<>();
+
+    TorrentAlertDispatcher(@NonNull int[] types)
+    {
+        this.types = types;
+    }
+
+    @Override
+    public int[] types()
+    {
+        return types;
+    }
+
+    @Override
+    public void alert(Alert<?> alert)
+    {
+        if (!(alert instanceof TorrentAlert<?>) || handlers.isEmpty())
+            return;
+
+        String infoHash = getInfoHash((TorrentAlert<?>)alert);
+        if (infoHash != null)
+            dispatch(infoHash, alert);
+    }
+
+    void dispatch(@NonNull String infoHash, @NonNull Alert<?> alert)
+    {
+        Handler handler = handlers.get(infoHash);
+        if (handler != null)
+            handler.onAlert(alert);
+    }
+
+    void register(@NonNull String infoHash, @NonNull Handler handler)
+    {
+        handlers.put(infoHash, handler);
+    }
+
+    /*
+     * Removes the handler only if it's still registered for this info-hash,
+     * so that a re-added torrent with the same hash doesn't lose its handler
+     */
+
+    void unregister(@NonNull String infoHash, @NonNull Handler handler)
+    {
+        handlers.remove(infoHash, handler);
+    }
+
+    int size()
+    {
+        return handlers.size();
+    }
+
+    @Nullable
+    private static String getInfoHash(TorrentAlert<?> alert)
+    {
+        Sha1Hash hash;
+        if (alert.type() == AlertType.TORRENT_REMOVED) {
+            /* The handle is already invalid, the alert keeps the info-hash */
+            hash = ((TorrentRemovedAlert)alert).infoHash();
+        } else {
+            TorrentHandle th = alert.handle();
+            if (th == null || !th.isValid())
+                return null;
+            hash = th.infoHash();
+        }
+
+        return (hash == null ? null : hash.toHex());
+    }
+}
@@ -137,6 +137,8 @@ public interface TorrentDownload
 
     Uri getPartsFile();
 
+    Uri getFileUri(int fileIndex);
+
     void setDownloadSpeedLimit(int limit);
 
     int getDownloadSpeedLimit();
@@ -175,9 +177,15 @@ public interface TorrentDownload
 
     boolean havePiece(int pieceIndex);
 
+    PieceFuture getPieceFuture(int pieceIndex);
+
+    boolean isPieceFlushed(int pieceIndex);
+
     void readPiece(int pieceIndex);
 
-    void setInterestedPieces(@NonNull TorrentStream stream, int startPiece, int numPieces);
+    void setPieceDeadline(int pieceIndex, int deadline);
+
+    void resetPieceDeadline(int pieceIndex);
 
     TorrentStream getStream(int fileIndex);
 
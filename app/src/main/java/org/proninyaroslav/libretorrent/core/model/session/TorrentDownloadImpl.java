@@ -27,9 +27,9 @@ import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Pair;
 
-import org.libtorrent4j.AlertListener;
 import org.libtorrent4j.AnnounceEntry;
 import org.libtorrent4j.ErrorCode;
+import org.libtorrent4j.FileSlice;
 import org.libtorrent4j.FileStorage;
 import org.libtorrent4j.MoveFlags;
 import org.libtorrent4j.PieceIndexBitfield;
@@ -50,7 +50,6 @@ import org.libtorrent4j.alerts.PieceFinishedAlert;
 import org.libtorrent4j.alerts.ReadPieceAlert;
 import org.libtorrent4j.alerts.SaveResumeDataAlert;
 import org.libtorrent4j.alerts.StateChangedAlert;
-import org.libtorrent4j.alerts.TorrentAlert;
 import org.libtorrent4j.alerts.TorrentErrorAlert;
 import org.libtorrent4j.swig.add_torrent_params;
 import org.libtorrent4j.swig.byte_vector;
@@ -67,6 +66,7 @@ import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
 import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentStream;
 import org.proninyaroslav.libretorrent.core.storage.TorrentRepository;
@@ -75,10 +75,10 @@ import org.proninyaroslav.libretorrent.core.system.FileSystemFacade;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -99,12 +99,10 @@ class TorrentDownloadImpl implements TorrentDownload
     private static final long SAVE_RESUME_SYNC_TIME = 10000; /* ms */
     private static final long CRITICAL_WORK_WAIT_TIMEOUT = 30000; /* ms */
     private static final double MAX_RATIO = 9999.;
-    /* For streaming */
-    private final static int PRELOAD_PIECES_COUNT = 5;
-    private static final int DEFAULT_PIECE_DEADLINE = 1000; /* ms */
     private static final int MAX_METADATA_SIZE = 2 * 1024 * 1024;
 
-    private static final int[] INNER_LISTENER_TYPES = new int[] {
+    /* Routed to the torrent by TorrentAlertDispatcher */
+    static final int[] ALERT_TYPES = new int[] {
             AlertType.STATE_CHANGED.swig(),
             AlertType.TORRENT_FINISHED.swig(),
             AlertType.TORRENT_REMOVED.swig(),
@@ -121,6 +119,7 @@ class TorrentDownloadImpl implements TorrentDownload
             AlertType.FILE_ERROR.swig(),
             AlertType.FASTRESUME_REJECTED.swig(),
             AlertType.TORRENT_CHECKED.swig(),
+            AlertType.CACHE_FLUSHED.swig(),
     };
 
     private SessionManager sessionManager;
@@ -128,7 +127,9 @@ class TorrentDownloadImpl implements TorrentDownload
     private String id;
     private TorrentRepository repo;
     private FileSystemFacade fs;
-    private Queue<TorrentEngineListener> listeners;
+    private EngineListenerDispatcher listenerDispatcher;
+    private TorrentAlertDispatcher alertDispatcher;
+    private ResumeDataWriter resumeDataWriter;
     private InnerListener listener;
     private Set<Uri> incompleteFilesToRemove;
     private Uri partsFile;
@@ -141,26 +142,41 @@ class TorrentDownloadImpl implements TorrentDownload
     private Completable stopEvent;
     private boolean resumeDataRejected;
     private boolean hasMissingFiles;
+    /* Last status snapshot, updated by the session once per stats tick */
+    private volatile TorrentStatus statusSnapshot;
+    /* The info dict is saved separately from the resume data, only once */
+    private boolean metadataSaved;
+    /* Finished pieces that may still be in the disk cache */
+    private final BitSet unflushedPieces = new BitSet();
+    /* Pieces that will be on the disk after the requested cache flush */
+    private BitSet flushingPieces;
+    private final PieceFutureRegistry pieceFutures = new PieceFutureRegistry();
 
     public TorrentDownloadImpl(SessionManager sessionManager,
                                TorrentRepository repo,
                                FileSystemFacade fs,
-                               final Queue<TorrentEngineListener> listeners,
+                               EngineListenerDispatcher listenerDispatcher,
+                               TorrentAlertDispatcher alertDispatcher,
+                               ResumeDataWriter resumeDataWriter,
                                String id,
                                TorrentHandle handle,
-                               boolean autoManaged)
+                               boolean autoManaged,
+                               boolean metadataStored)
     {
         this.id = id;
         this.repo = repo;
         this.fs = fs;
         this.sessionManager = sessionManager;
         this.autoManaged = autoManaged;
-        this.listeners = listeners;
+        this.listenerDispatcher = listenerDispatcher;
+        this.alertDispatcher = alertDispatcher;
+        this.resumeDataWriter = resumeDataWriter;
         this.th = handle;
+        this.metadataSaved = metadataStored;
         this.name = new AtomicReference<>(handle.name());
         partsFile = getPartsFile();
         listener = new InnerListener();
-        sessionManager.addListener(listener);
+        alertDispatcher.register(id, listener);
 
         /*
          * Save resume data after first start, if needed
@@ -170,61 +186,71 @@ class TorrentDownloadImpl implements TorrentDownload
             saveResumeData(true);
     }
 
-    private interface CallListener
+    private void notifyListeners(@NonNull EngineListenerDispatcher.Event event)
     {
-        void apply(TorrentEngineListener listener);
+        listenerDispatcher.dispatch(id, event);
     }
 
-    private void notifyListeners(@NonNull CallListener l)
+    private boolean operationNotAllowed()
     {
-        for (TorrentEngineListener listener : listeners) {
-            if (listener != null)
-                l.apply(listener);
+        return !th.isValid() || stopped;
+    }
+
+    /*
+     * Returns the last status snapshot. Requests the status directly
+     * only if there is no snapshot yet or it was invalidated
+     */
+
+    private TorrentStatus status()
+    {
+        TorrentStatus status = statusSnapshot;
+        if (status == null) {
+            status = th.status();
+            statusSnapshot = status;
         }
+
+        return status;
     }
 
-    private boolean operationNotAllowed()
+    void updateStatus(@NonNull TorrentStatus status)
     {
-        return !th.isValid() || stopped;
+        statusSnapshot = status;
     }
 
-    private final class InnerListener implements AlertListener
+    private void invalidateStatus()
     {
-        @Override
-        public int[] types()
-        {
-            return INNER_LISTENER_TYPES;
-        }
+        statusSnapshot = null;
+    }
 
+    private final class InnerListener implements TorrentAlertDispatcher.Handler
+    {
         @Override
-        public void alert(Alert<?> alert)
+        public void onAlert(@NonNull Alert<?> alert)
         {
-            if (!(alert instanceof TorrentAlert<?>))
-                return;
-
-            if (!((TorrentAlert<?>) alert).handle().swig().op_eq(th.swig()))
-                return;
-
             AlertType type = alert.type();
             switch (type) {
                 case STATE_CHANGED:
+                    invalidateStatus();
                     StateChangedAlert a = ((StateChangedAlert)alert);
+                    TorrentStateCode prevState = stateToStateCode(a.getPrevState());
+                    TorrentStateCode state = stateToStateCode(a.getState());
                     notifyListeners((listener) ->
-                            listener.onTorrentStateChanged(id,
-                                    stateToStateCode(a.getPrevState()),
-                                    stateToStateCode(a.getState())));
+                            listener.onTorrentStateChanged(id, prevState, state));
                     break;
                 case TORRENT_FINISHED:
+                    invalidateStatus();
                     handleTorrentFinished();
                     break;
                 case TORRENT_REMOVED:
                     torrentRemoved();
                     break;
                 case TORRENT_PAUSED:
+                    invalidateStatus();
                     notifyListeners((listener) ->
                             listener.onTorrentPaused(id));
                     break;
                 case TORRENT_RESUMED:
+                    invalidateStatus();
                     resetTorrentError();
 
                     notifyListeners((listener) ->
@@ -242,10 +268,15 @@ class TorrentDownloadImpl implements TorrentDownload
                 case PIECE_FINISHED:
                     saveResumeData(false);
                     int piece = ((PieceFinishedAlert)alert).pieceIndex();
+                    synchronized (unflushedPieces) {
+                        unflushedPieces.set(piece);
+                    }
+                    pieceFutures.complete(piece);
                     notifyListeners((listener) ->
                             listener.onPieceFinished(id, piece));
                     break;
                 case METADATA_RECEIVED:
+                    invalidateStatus();
                     handleMetadata((MetadataReceivedAlert)alert);
                     saveResumeData(true);
                     break;
@@ -253,8 +284,12 @@ class TorrentDownloadImpl implements TorrentDownload
                     handleReadPiece((ReadPieceAlert)alert);
                     break;
                 case TORRENT_CHECKED:
+                    invalidateStatus();
                     handleTorrentChecked();
                     break;
+                case CACHE_FLUSHED:
+                    handleCacheFlushed();
+                    break;
                 default:
                     checkError(alert);
                     break;
@@ -429,7 +464,8 @@ class TorrentDownloadImpl implements TorrentDownload
                 alert.bufferPtr(),
                 err);
 
-        notifyListeners((listener) ->
+        /* The buffer is valid only while the alert is handled */
+        listenerDispatcher.dispatchSync((listener) ->
                 listener.onReadPiece(id, info));
     }
 
@@ -457,6 +493,16 @@ class TorrentDownloadImpl implements TorrentDownload
             saveResumeData(true);
     }
 
+    private void handleCacheFlushed()
+    {
+        synchronized (unflushedPieces) {
+            if (flushingPieces == null)
+                return;
+            unflushedPieces.andNot(flushingPieces);
+            flushingPieces = null;
+        }
+    }
+
     private void handleTorrentFinished()
     {
         hasMissingFiles = false;
@@ -473,6 +519,10 @@ class TorrentDownloadImpl implements TorrentDownload
     @Override
     public void saveResumeData(boolean force)
     {
+        /* The requested resume data isn't received or written yet, it will be fresh enough */
+        if (!force && criticalWork.isSaveResume())
+            return;
+
         long now = System.currentTimeMillis();
 
         if (force || (now - lastSaveResumeTime) >= SAVE_RESUME_SYNC_TIME)
@@ -484,7 +534,8 @@ class TorrentDownloadImpl implements TorrentDownload
         try {
             if (th.isValid()) {
                 criticalWork.setSaveResume(true);
-                th.saveResumeData(TorrentHandle.SAVE_INFO_DICT);
+                /* Without the info dict, it's kept in the metadata store */
+                th.saveResumeData();
             }
 
         } catch (Exception e) {
@@ -498,13 +549,27 @@ class TorrentDownloadImpl implements TorrentDownload
     private void serializeResumeData(SaveResumeDataAlert alert)
     {
         try {
+            /* Magnet without metadata has nothing to save yet */
+            TorrentInfo ti = (metadataSaved ? null : th.torrentFile());
+            TorrentMetadata metadata = (ti == null ? null : new TorrentMetadata(id, ti.bencode()));
+
             byte_vector data = add_torrent_params.write_resume_data(alert.params().swig()).bencode();
-            repo.addFastResume(new FastResume(id, Vectors.byte_vector2bytes(data)));
+            /*
+             * Releases the critical work after writing. The metadata is written
+             * in the same transaction, so the alert thread never touches the DB
+             */
+            if (!resumeDataWriter.write(new FastResume(id, Vectors.byte_vector2bytes(data)),
+                    metadata, criticalWork)) {
+                criticalWork.setSaveResume(false);
+                /* Retry with the next save */
+                lastSaveResumeTime = 0;
+                return;
+            }
+            if (metadata != null)
+                metadataSaved = true;
 
         } catch (Throwable e) {
             Log.e(TAG, Log.getStackTraceString(e));
-
-        } finally {
             criticalWork.setSaveResume(false);
         }
     }
@@ -566,10 +631,12 @@ class TorrentDownloadImpl implements TorrentDownload
         if (!stopRequested || stopped)
             return;
 
-        sessionManager.removeListener(listener);
+        alertDispatcher.unregister(id, listener);
         stopRequested = false;
         stopped = true;
         stopEvent = null;
+        /* Pieces won't be finished anymore, don't leave the readers waiting */
+        pieceFutures.cancelAll();
     }
 
     @Override
@@ -633,6 +700,7 @@ class TorrentDownloadImpl implements TorrentDownload
 
         th.unsetFlags(TorrentFlags.AUTO_MANAGED);
         th.pause();
+        invalidateStatus();
         saveResumeData(true);
     }
 
@@ -651,6 +719,7 @@ class TorrentDownloadImpl implements TorrentDownload
         else
             th.unsetFlags(TorrentFlags.AUTO_MANAGED);
         th.resume();
+        invalidateStatus();
         saveResumeData(true);
     }
 
@@ -666,12 +735,13 @@ class TorrentDownloadImpl implements TorrentDownload
             th.setFlags(TorrentFlags.AUTO_MANAGED);
         else
             th.unsetFlags(TorrentFlags.AUTO_MANAGED);
+        invalidateStatus();
     }
 
     @Override
     public boolean isAutoManaged()
     {
-        return !operationNotAllowed() && th.status().flags().and_(TorrentFlags.AUTO_MANAGED).nonZero();
+        return !operationNotAllowed() && status().flags().and_(TorrentFlags.AUTO_MANAGED).nonZero();
     }
 
     @Override
@@ -680,7 +750,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
+        TorrentStatus ts = status();
         if (ts == null)
             return 0;
 
@@ -733,7 +803,7 @@ class TorrentDownloadImpl implements TorrentDownload
     {
         return operationNotAllowed() || isFinished() || isPaused() || isSeeding() ?
                 0 :
-                th.status().downloadPayloadRate();
+                status().downloadPayloadRate();
     }
 
     @Override
@@ -741,7 +811,7 @@ class TorrentDownloadImpl implements TorrentDownload
     {
         return operationNotAllowed() || isFinished() && !isSeeding() || isPaused() ?
                 0 :
-                th.status().uploadPayloadRate();
+                status().uploadPayloadRate();
     }
 
     @Override
@@ -823,37 +893,37 @@ class TorrentDownloadImpl implements TorrentDownload
     @Override
     public long getActiveTime()
     {
-        return operationNotAllowed() ? 0 : th.status().activeDuration() / 1000L;
+        return operationNotAllowed() ? 0 : status().activeDuration() / 1000L;
     }
 
     @Override
     public long getSeedingTime()
     {
-        return operationNotAllowed() ? 0 : th.status().seedingDuration() / 1000L;
+        return operationNotAllowed() ? 0 : status().seedingDuration() / 1000L;
     }
 
     @Override
     public long getReceivedBytes()
     {
-        return operationNotAllowed() ? 0 : th.status().totalDone();
+        return operationNotAllowed() ? 0 : status().totalDone();
     }
 
     @Override
     public long getTotalSentBytes()
     {
-        return operationNotAllowed() ? 0 : th.status().allTimeUpload();
+        return operationNotAllowed() ? 0 : status().allTimeUpload();
     }
 
     @Override
     public int getConnectedPeers()
     {
-        return operationNotAllowed() ? 0 : th.status().numPeers();
+        return operationNotAllowed() ? 0 : status().numPeers();
     }
 
     @Override
     public int getConnectedSeeds()
     {
-        return operationNotAllowed() ? 0 : th.status().numSeeds();
+        return operationNotAllowed() ? 0 : status().numSeeds();
     }
 
     @Override
@@ -862,7 +932,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
+        TorrentStatus ts = status();
 
         return ts.numPeers() - ts.numSeeds();
     }
@@ -873,7 +943,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
+        TorrentStatus ts = status();
         int peers = ts.numComplete() + ts.numIncomplete();
 
         return (peers > 0 ? peers : ts.listPeers());
@@ -885,7 +955,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
+        TorrentStatus ts = status();
         int numComplete = ts.numComplete();
 
         return (numComplete > 0 ? numComplete : ts.listSeeds());
@@ -897,7 +967,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
+        TorrentStatus ts = status();
         int numIncomplete = ts.numIncomplete();
 
         return (numIncomplete > 0 ? numIncomplete : ts.listPeers() - ts.listSeeds());
@@ -951,7 +1021,7 @@ class TorrentDownloadImpl implements TorrentDownload
         ArrayList<PeerInfo> infoList = new ArrayList<>();
         List<AdvancedPeerInfo> peers = advancedPeerInfo();
 
-        TorrentStatus status = th.status();
+        TorrentStatus status = status();
         if (status == null)
             return infoList;
 
@@ -989,7 +1059,7 @@ class TorrentDownloadImpl implements TorrentDownload
     @Override
     public long getTotalWanted()
     {
-        return operationNotAllowed() ? 0 : th.status().totalWanted();
+        return operationNotAllowed() ? 0 : status().totalWanted();
     }
 
     @Override
@@ -1115,6 +1185,7 @@ class TorrentDownloadImpl implements TorrentDownload
             th.setFlags(TorrentFlags.SEQUENTIAL_DOWNLOAD);
         else
             th.unsetFlags(TorrentFlags.SEQUENTIAL_DOWNLOAD);
+        invalidateStatus();
 
         saveResumeData(true);
     }
@@ -1141,7 +1212,7 @@ class TorrentDownloadImpl implements TorrentDownload
         TorrentInfo ti = th.torrentFile();
         if (ti == null)
             return 0;
-        TorrentStatus status = th.status();
+        TorrentStatus status = status();
         long left = ti.totalSize() - status.totalDone();
         long rate = status.downloadPayloadRate();
         if (left <= 0)
@@ -1226,7 +1297,7 @@ class TorrentDownloadImpl implements TorrentDownload
     @Override
     public int getNumDownloadedPieces()
     {
-        return operationNotAllowed() ? 0 : th.status().numPieces();
+        return operationNotAllowed() ? 0 : status().numPieces();
     }
 
     @Override
@@ -1235,7 +1306,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
+        TorrentStatus ts = status();
         long allTimeUpload = ts.allTimeUpload();
         long allTimeDownload = ts.allTimeDownload();
         long totalDone = ts.totalDone();
@@ -1251,6 +1322,23 @@ class TorrentDownloadImpl implements TorrentDownload
         return Math.min(ratio, MAX_RATIO);
     }
 
+    @Override
+    public Uri getFileUri(int fileIndex)
+    {
+        if (operationNotAllowed())
+            return null;
+
+        TorrentInfo ti = th.torrentFile();
+        if (ti == null || fileIndex < 0 || fileIndex >= ti.numFiles())
+            return null;
+
+        Torrent torrent = repo.getTorrentById(id);
+        if (torrent == null)
+            return null;
+
+        return fs.getFileUri(ti.files().filePath(fileIndex), torrent.downloadPath);
+    }
+
     @Override
     public Uri getPartsFile()
     {
@@ -1318,7 +1406,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (!th.isValid())
             return TorrentStateCode.ERROR;
 
-        TorrentStatus status = th.status();
+        TorrentStatus status = status();
         boolean isPaused = isPaused(status);
 
         if (isPaused && status.isFinished())
@@ -1357,7 +1445,7 @@ class TorrentDownloadImpl implements TorrentDownload
     @Override
     public boolean isPaused()
     {
-        return !operationNotAllowed() && (isPaused(th.status(true)) ||
+        return !operationNotAllowed() && (isPaused(status()) ||
                 sessionManager.isPaused() || !sessionManager.isRunning());
     }
 
@@ -1369,13 +1457,13 @@ class TorrentDownloadImpl implements TorrentDownload
     @Override
     public boolean isSeeding()
     {
-        return !operationNotAllowed() && th.status().isSeeding();
+        return !operationNotAllowed() && status().isSeeding();
     }
 
     @Override
     public boolean isFinished()
     {
-        return !operationNotAllowed() && th.status().isFinished();
+        return !operationNotAllowed() && status().isFinished();
     }
 
     @Override
@@ -1387,7 +1475,7 @@ class TorrentDownloadImpl implements TorrentDownload
     @Override
     public boolean isSequentialDownload()
     {
-        return !operationNotAllowed() && th.status().flags().and_(TorrentFlags.SEQUENTIAL_DOWNLOAD).nonZero();
+        return !operationNotAllowed() && status().flags().and_(TorrentFlags.SEQUENTIAL_DOWNLOAD).nonZero();
     }
 
     @Override
@@ -1520,6 +1608,45 @@ class TorrentDownloadImpl implements TorrentDownload
         return !operationNotAllowed() && th.havePiece(pieceIndex);
     }
 
+    /*
+     * The future is registered before checking the piece,
+     * so that the finish of the piece can't be missed
+     */
+
+    @Override
+    public PieceFuture getPieceFuture(int pieceIndex)
+    {
+        PieceFuture future = pieceFutures.get(pieceIndex);
+        if (!future.isDone() && havePiece(pieceIndex))
+            pieceFutures.complete(pieceIndex);
+
+        return future;
+    }
+
+    /*
+     * Pieces restored from the resume data are already on the disk. Pieces finished
+     * in this session might be still in the disk cache, in this case a cache
+     * flush is requested and the piece is reported as not flushed until it's done
+     */
+
+    @Override
+    public boolean isPieceFlushed(int pieceIndex)
+    {
+        if (!havePiece(pieceIndex))
+            return false;
+
+        synchronized (unflushedPieces) {
+            if (!unflushedPieces.get(pieceIndex))
+                return true;
+            if (flushingPieces == null) {
+                flushingPieces = (BitSet)unflushedPieces.clone();
+                th.flushCache();
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public void readPiece(int pieceIndex)
     {
@@ -1535,37 +1662,60 @@ class TorrentDownloadImpl implements TorrentDownload
      * These pieces will then be prioritised, which results in continuing the sequential download after that piece
      */
 
+    /*
+     * Requests the piece to be downloaded within the deadline (ms)
+     */
+
     @Override
-    public void setInterestedPieces(@NonNull TorrentStream stream, int startPiece, int numPieces)
+    public void setPieceDeadline(int pieceIndex, int deadline)
     {
-        if (startPiece < 0 || numPieces < 0)
+        if (operationNotAllowed() || th.havePiece(pieceIndex))
             return;
 
-        for (int i = 0; i < numPieces; i++) {
-            int piece = startPiece + i;
-            if (piece > stream.lastFilePiece)
-                break;
+        th.piecePriority(pieceIndex, org.libtorrent4j.Priority.TOP_PRIORITY);
+        th.setPieceDeadline(pieceIndex, deadline);
+    }
 
-            if (i + 1 == numPieces) {
-                int preloadPieces = PRELOAD_PIECES_COUNT;
-                for (int p = piece; p <= stream.lastFilePiece; p++) {
-                    /* Set max priority to first found piece that is not confirmed finished */
-                    if (!operationNotAllowed() && !th.havePiece(p)) {
-                        th.piecePriority(p, org.libtorrent4j.Priority.TOP_PRIORITY);
-                        th.setPieceDeadline(p, DEFAULT_PIECE_DEADLINE);
-                        preloadPieces--;
-                        if (preloadPieces == 0)
-                            break;
-                    }
-                }
+    /*
+     * Removes the deadline and restores the priority of the files the piece belongs to
+     */
 
-            } else {
-                if (!operationNotAllowed() && !th.havePiece(piece)) {
-                    th.piecePriority(piece, org.libtorrent4j.Priority.TOP_PRIORITY);
-                    th.setPieceDeadline(piece, DEFAULT_PIECE_DEADLINE);
-                }
-            }
+    @Override
+    public void resetPieceDeadline(int pieceIndex)
+    {
+        if (operationNotAllowed())
+            return;
+
+        th.resetPieceDeadline(pieceIndex);
+        if (th.havePiece(pieceIndex))
+            return;
+
+        TorrentInfo ti = th.torrentFile();
+        if (ti == null)
+            return;
+        th.piecePriority(pieceIndex, getPiecePriority(ti, pieceIndex, th.filePriorities()));
+    }
+
+    /*
+     * The piece can span several files, it gets the highest priority of them.
+     * Otherwise the piece shared with the ignored file would never be downloaded
+     */
+
+    @VisibleForTesting
+    public static org.libtorrent4j.Priority getPiecePriority(TorrentInfo ti,
+                                                            int pieceIndex,
+                                                            org.libtorrent4j.Priority[] filePriorities)
+    {
+        org.libtorrent4j.Priority priority = org.libtorrent4j.Priority.IGNORE;
+        List<FileSlice> slices = ti.mapBlock(pieceIndex, 0, ti.pieceSize(pieceIndex));
+        for (FileSlice slice : slices) {
+            int fileIndex = slice.fileIndex();
+            if (fileIndex < filePriorities.length &&
+                filePriorities[fileIndex].swig() > priority.swig())
+                priority = filePriorities[fileIndex];
         }
+
+        return priority;
     }
 
     @Override
@@ -42,6 +42,12 @@ public interface TorrentSession
 
     void addListener(TorrentEngineListener listener);
 
+    /*
+     * The listener is called on the alert thread, use it only
+     * for fast handlers that need the alert data or strict ordering
+     */
+    void addSyncListener(TorrentEngineListener listener);
+
     void removeListener(TorrentEngineListener listener);
 
     TorrentDownload getTask(String id);
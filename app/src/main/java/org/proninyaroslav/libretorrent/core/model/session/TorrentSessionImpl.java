@@ -25,6 +25,7 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.util.Pair;
 
 import org.apache.commons.io.FileUtils;
 import org.libtorrent4j.AlertListener;
@@ -39,14 +40,17 @@ import org.libtorrent4j.TcpEndpoint;
 import org.libtorrent4j.TorrentFlags;
 import org.libtorrent4j.TorrentHandle;
 import org.libtorrent4j.TorrentInfo;
+import org.libtorrent4j.TorrentStatus;
 import org.libtorrent4j.Vectors;
 import org.libtorrent4j.WebSeedEntry;
 import org.libtorrent4j.alerts.Alert;
+import org.libtorrent4j.alerts.AddTorrentAlert;
 import org.libtorrent4j.alerts.AlertType;
 import org.libtorrent4j.alerts.ListenFailedAlert;
 import org.libtorrent4j.alerts.MetadataReceivedAlert;
 import org.libtorrent4j.alerts.PortmapErrorAlert;
 import org.libtorrent4j.alerts.SessionErrorAlert;
+import org.libtorrent4j.alerts.StateUpdateAlert;
 import org.libtorrent4j.alerts.TorrentAlert;
 import org.libtorrent4j.swig.add_torrent_params;
 import org.libtorrent4j.swig.alert;
@@ -62,20 +66,26 @@ import org.libtorrent4j.swig.libtorrent;
 import org.libtorrent4j.swig.session_params;
 import org.libtorrent4j.swig.settings_pack;
 import org.libtorrent4j.swig.sha1_hash;
+import org.libtorrent4j.swig.status_flags_t;
 import org.libtorrent4j.swig.string_vector;
 import org.libtorrent4j.swig.tcp_endpoint_vector;
 import org.libtorrent4j.swig.torrent_flags_t;
 import org.libtorrent4j.swig.torrent_handle;
 import org.libtorrent4j.swig.torrent_info;
+import org.libtorrent4j.swig.torrent_status;
+import org.libtorrent4j.swig.torrent_status_vector;
 import org.proninyaroslav.libretorrent.core.exception.DecodeException;
 import org.proninyaroslav.libretorrent.core.exception.TorrentAlreadyExistsException;
+import org.proninyaroslav.libretorrent.core.logger.LogStore;
 import org.proninyaroslav.libretorrent.core.model.AddTorrentParams;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
+import org.proninyaroslav.libretorrent.core.model.data.AlertLoopStats;
 import org.proninyaroslav.libretorrent.core.model.data.MagnetInfo;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
 import org.proninyaroslav.libretorrent.core.model.data.SessionStats;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
 import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
 import org.proninyaroslav.libretorrent.core.settings.SessionSettings;
 import org.proninyaroslav.libretorrent.core.storage.TorrentRepository;
@@ -93,13 +103,17 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.reactivex.Completable;
@@ -124,24 +138,47 @@ public class TorrentSessionImpl extends SessionManager
             AlertType.PEER_LOG.swig(),
             AlertType.PORTMAP_LOG.swig(),
             AlertType.TORRENT_LOG.swig(),
-            AlertType.STATS.swig()
+            AlertType.STATS.swig(),
+            AlertType.STATE_UPDATE.swig(),
+            AlertType.ALERTS_DROPPED.swig()
     };
 
     /* Base unit in KiB. Used for create torrent */
     private static final int[] pieceSize = {0, 16, 32, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768};
     private static final String PEER_FINGERPRINT = "Lr"; /* called peer id */
     private static final String USER_AGENT = "LibreTorrent %s";
+    private static final long STATUS_UPDATE_INTERVAL = 1000; /* ms */
+    /* Restore pipeline */
+    private static final int RESTORE_DECODE_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /* Limits the number of read, but not yet decoded resume data */
+    private static final int RESTORE_READ_BUFFER_SIZE = 16;
+    private static final int RESTORE_DECODE_QUEUE_SIZE = 64;
+    /* Limits the number of async_add_torrent calls waiting for ADD_TORRENT alert */
+    private static final int MAX_RESTORE_IN_FLIGHT = 32;
+    private static final long RESTORE_WAIT_TIMEOUT = 100; /* ms */
+    /* The ADD_TORRENT alert could be dropped, the slot is freed after this time */
+    private static final long RESTORE_ADD_TIMEOUT = 30_000; /* ms */
+    private static final int ALERT_QUEUE_SIZE = 5000;
 
     private InnerListener innerListener;
-    private ConcurrentLinkedQueue<TorrentEngineListener> listeners = new ConcurrentLinkedQueue<>();
+    private TorrentAlertDispatcher torrentAlertDispatcher;
+    private AlertLoopMonitor alertLoopMonitor;
+    /* Listeners added to the session, measured by the monitor */
+    private AlertListener monitoredInnerListener;
+    private AlertListener monitoredAlertDispatcher;
+    private AlertListener monitoredDropListener;
+    private EngineListenerDispatcher listenerDispatcher;
+    private ResumeDataWriter resumeDataWriter;
     private SessionSettings settings = new SessionSettings();
     private ReentrantLock settingsLock = new ReentrantLock();
-    private Queue<LoadTorrentTask> restoreTorrentsQueue = new LinkedList<>();
-    private ExecutorService loadTorrentsExec;
+    private ThreadPoolExecutor restoreExec;
+    private volatile RestorePipeline restorePipeline;
     private ConcurrentHashMap<String, TorrentDownload> torrentTasks = new ConcurrentHashMap<>();
     /* Wait list for non added magnets */
     private HashSet<String> magnets = new HashSet<>();
     private ConcurrentHashMap<String, byte[]> loadedMagnets = new ConcurrentHashMap<>();
+    /* Restored torrents whose metadata is already in the store */
+    private ConcurrentHashMap<String, Boolean> storedMetadata = new ConcurrentHashMap<>();
     private ArrayList<String> addTorrentsList = new ArrayList<>();
     private ReentrantLock syncMagnet = new ReentrantLock();
     private CompositeDisposable disposables = new CompositeDisposable();
@@ -152,6 +189,7 @@ public class TorrentSessionImpl extends SessionManager
     private boolean started;
     private boolean stopRequested;
     private Thread parseIpFilterThread;
+    private long lastStatusUpdateTime;
 
     public TorrentSessionImpl(@NonNull TorrentRepository repo,
                               @NonNull FileSystemFacade fs,
@@ -166,7 +204,20 @@ public class TorrentSessionImpl extends SessionManager
         this.fs = fs;
         this.system = system;
         innerListener = new InnerListener();
-        loadTorrentsExec = Executors.newCachedThreadPool();
+        torrentAlertDispatcher = new TorrentAlertDispatcher(TorrentDownloadImpl.ALERT_TYPES);
+        alertLoopMonitor = new AlertLoopMonitor();
+        monitoredInnerListener = alertLoopMonitor.wrap("session", innerListener);
+        monitoredAlertDispatcher = alertLoopMonitor.wrap("torrents", torrentAlertDispatcher);
+        monitoredDropListener = alertLoopMonitor.wrap("dropped", alertLoopMonitor);
+        listenerDispatcher = new EngineListenerDispatcher(EngineListenerDispatcher.DEFAULT_STRIPES,
+                alertLoopMonitor);
+        resumeDataWriter = new ResumeDataWriter(repo);
+        restoreExec = new ThreadPoolExecutor(RESTORE_DECODE_THREADS, RESTORE_DECODE_THREADS,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(RESTORE_DECODE_QUEUE_SIZE),
+                /* The reading thread decodes itself if the queue is full */
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        restoreExec.allowCoreThreadTimeOut(true);
     }
 
     @Override
@@ -178,13 +229,19 @@ public class TorrentSessionImpl extends SessionManager
     @Override
     public void addListener(TorrentEngineListener listener)
     {
-        listeners.add(listener);
+        listenerDispatcher.addListener(listener);
+    }
+
+    @Override
+    public void addSyncListener(TorrentEngineListener listener)
+    {
+        listenerDispatcher.addSyncListener(listener);
     }
 
     @Override
     public void removeListener(TorrentEngineListener listener)
     {
-        listeners.remove(listener);
+        listenerDispatcher.removeListener(listener);
     }
 
     @Override
@@ -355,32 +412,30 @@ public class TorrentSessionImpl extends SessionManager
             if (torrent != null)
                 repo.deleteTorrent(torrent);
 
-            notifyListeners((listener) ->
+            notifyListeners(id, (listener) ->
                     listener.onTorrentRemoved(id));
         } else {
             task.remove(withFiles);
         }
     }
 
+    /*
+     * Restore pipeline:
+     *  1) the calling thread reads resume data from the database;
+     *  2) the bounded pool decodes it and makes add_torrent_params;
+     *  3) torrents are added asynchronously with the limited number of
+     *     additions, waiting for the ADD_TORRENT alert.
+     */
+
     @Override
     public void restoreTorrents()
     {
         if (operationNotAllowed())
             return;
 
-        for (Torrent torrent : repo.getAllTorrents()) {
-            if (torrent == null || isTorrentAlreadyRunning(torrent.id))
-                continue;
-
-            String path = fs.makeFileSystemPath(torrent.downloadPath);
-            LoadTorrentTask loadTask = new LoadTorrentTask(torrent.id);
-            if (torrent.isDownloadingMetadata())
-                loadTask.putMagnet(torrent.getMagnet(), new File(path),
-                        torrent.manuallyPaused);
-
-            restoreTorrentsQueue.add(loadTask);
-        }
-        runNextLoadTorrentTask();
+        RestorePipeline pipeline = new RestorePipeline();
+        restorePipeline = pipeline;
+        pipeline.run();
     }
 
     @Override
@@ -436,8 +491,9 @@ public class TorrentSessionImpl extends SessionManager
                     byte[] b = createTorrent(p, ti);
                     if (b != null)
                         loadedMagnets.put(hash.to_hex(), b);
-                    notifyListeners((listener) ->
-                            listener.onMagnetLoaded(strHash, ti != null ? new TorrentInfo(ti).bencode() : null));
+                    byte[] bencode = (ti != null ? new TorrentInfo(ti).bencode() : null);
+                    notifyListeners(strHash, (listener) ->
+                            listener.onMagnetLoaded(strHash, bencode));
                 } else {
                     add = true;
                 }
@@ -600,7 +656,8 @@ public class TorrentSessionImpl extends SessionManager
                 return;
 
             IPFilterImpl filter = new IPFilterImpl();
-            int ruleCount = new IPFilterParser().parseFile(path, fs, filter);
+            File snapshotFile = new File(fs.getCacheDir(), IPFilterSnapshot.FILE_NAME);
+            int ruleCount = new IPFilterParser(snapshotFile).parseFile(path, fs, filter);
             if (Thread.interrupted())
                 return;
             if (ruleCount != 0 && swig() != null && !operationNotAllowed())
@@ -759,7 +816,7 @@ public class TorrentSessionImpl extends SessionManager
         sp.set_str(settings_pack.string_types.dht_bootstrap_nodes.swigValue(), dhtBootstrapNodes());
         sp.set_bool(settings_pack.bool_types.enable_ip_notifier.swigValue(), false);
         sp.set_int(settings_pack.int_types.stop_tracker_timeout.swigValue(), 0);
-        sp.set_int(settings_pack.int_types.alert_queue_size.swigValue(), 5000);
+        sp.set_int(settings_pack.int_types.alert_queue_size.swigValue(), ALERT_QUEUE_SIZE);
         sp.set_bool(settings_pack.bool_types.upnp_ignore_nonrouters.swigValue(), true);
 
         String versionName = system.getAppVersionName();
@@ -811,6 +868,8 @@ public class TorrentSessionImpl extends SessionManager
             return;
 
         stopRequested = true;
+        /* Torrents are stopped after writing their resume data, don't delay it */
+        resumeDataWriter.setUrgent(true);
         saveAllResumeData();
         stopTasks();
     }
@@ -875,8 +934,14 @@ public class TorrentSessionImpl extends SessionManager
     @Override
     protected void onBeforeStart()
     {
-        addListener(torrentTaskListener);
-        addListener(innerListener);
+        /*
+         * Keeps the tasks map consistent with the alerts. Called from
+         * the monitored alert listeners, so measured by the monitor as well
+         */
+        addSyncListener(torrentTaskListener);
+        addListener(monitoredInnerListener);
+        addListener(monitoredAlertDispatcher);
+        addListener(monitoredDropListener);
     }
 
     @Override
@@ -893,7 +958,7 @@ public class TorrentSessionImpl extends SessionManager
             sp.setInteger(settings_pack.int_types.alert_mask.swigValue(), getAlertMask(settings).to_int());
             applySettingsPack(sp);
 
-            enableSessionLogger(true);
+            enableSessionLogger(true, settings.logHistory);
         }
 
         saveSettings();
@@ -904,35 +969,77 @@ public class TorrentSessionImpl extends SessionManager
                 .subscribe());
     }
 
-    private void enableSessionLogger(boolean enable)
+    private void enableSessionLogger(boolean enable, boolean history)
     {
         if (enable) {
+            if (history)
+                openLogStore();
+            else
+                closeLogStore();
             sessionLogger.resume();
 
         } else {
             sessionLogger.stopRecording();
             sessionLogger.pause();
             sessionLogger.clean();
+            closeLogStore();
+        }
+    }
+
+    /*
+     * If enabled in the settings, the log history is kept
+     * on disk between the sessions
+     */
+
+    private void openLogStore()
+    {
+        if (sessionLogger.getStore() != null)
+            return;
+
+        LogStore store = new LogStore(new File(fs.getCacheDir(), LogStore.DIR_NAME));
+        try {
+            store.open();
+            sessionLogger.setStore(store);
+
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open log store: " + Log.getStackTraceString(e));
         }
     }
 
+    private void closeLogStore()
+    {
+        LogStore store = sessionLogger.getStore();
+        if (store == null)
+            return;
+
+        sessionLogger.setStore(null);
+        store.close();
+        if (store.getError() != null)
+            Log.e(TAG, "Log store error: " + Log.getStackTraceString(store.getError()));
+    }
+
     @Override
     protected void onBeforeStop()
     {
         disposables.clear();
         started = false;
-        enableSessionLogger(false);
+        enableSessionLogger(false, false);
         parseIpFilterThread = null;
+        restorePipeline = null;
         magnets.clear();
         loadedMagnets.clear();
+        storedMetadata.clear();
         removeListener(torrentTaskListener);
-        removeListener(innerListener);
+        removeListener(monitoredInnerListener);
+        removeListener(monitoredAlertDispatcher);
+        removeListener(monitoredDropListener);
     }
 
     @Override
     protected void onAfterStop()
     {
         notifyListeners(TorrentEngineListener::onSessionStopped);
+        resumeDataWriter.setUrgent(false);
         stopRequested = false;
     }
 
@@ -963,6 +1070,10 @@ public class TorrentSessionImpl extends SessionManager
         {
             switch (alert.type()) {
                 case ADD_TORRENT:
+                    RestorePipeline pipeline = restorePipeline;
+                    if (pipeline != null)
+                        pipeline.onTorrentAdded((AddTorrentAlert)alert);
+
                     TorrentAlert<?> torrentAlert = (TorrentAlert<?>)alert;
                     TorrentHandle th = find(torrentAlert.handle().infoHash());
                     if (th == null)
@@ -972,14 +1083,13 @@ public class TorrentSessionImpl extends SessionManager
                         break;
                     torrentTasks.put(hash, newTask(th, hash));
                     if (addTorrentsList.contains(hash))
-                        notifyListeners((listener) ->
+                        notifyListeners(hash, (listener) ->
                                 listener.onTorrentAdded(hash));
                     else
-                        notifyListeners((listener) ->
+                        notifyListeners(hash, (listener) ->
                                 listener.onTorrentLoaded(hash));
                     addTorrentsList.remove(hash);
                     checkStop();
-                    runNextLoadTorrentTask();
                     break;
                 case METADATA_RECEIVED:
                     handleMetadata(((MetadataReceivedAlert)alert));
@@ -987,6 +1097,14 @@ public class TorrentSessionImpl extends SessionManager
                 case STATS:
                     handleStats();
                     break;
+                case STATE_UPDATE:
+                    handleStateUpdate((StateUpdateAlert)alert);
+                    break;
+                case ALERTS_DROPPED:
+                    RestorePipeline restoring = restorePipeline;
+                    if (restoring != null)
+                        restoring.onAlertsDropped();
+                    break;
                 default:
                     checkError(alert);
                     if (settings.logging)
@@ -998,38 +1116,44 @@ public class TorrentSessionImpl extends SessionManager
 
     private void checkError(Alert<?> alert)
     {
-        notifyListeners((listener) -> {
-            String msg = null;
-            switch (alert.type()) {
-                case SESSION_ERROR: {
-                    SessionErrorAlert sessionErrorAlert = (SessionErrorAlert)alert;
-                    ErrorCode error = sessionErrorAlert.error();
-                    msg = SessionErrors.getErrorMsg(error);
-                    if (!SessionErrors.isNonCritical(error))
-                        listener.onSessionError(msg);
-                    break;
-                }
-                case LISTEN_FAILED: {
-                    ListenFailedAlert listenFailedAlert = (ListenFailedAlert)alert;
-                    msg = SessionErrors.getErrorMsg(listenFailedAlert.error());
-                    ErrorCode error = listenFailedAlert.error();
-                    if (!SessionErrors.isNonCritical(error))
-                        listener.onSessionError(msg);
-                    break;
-                }
-                case PORTMAP_ERROR: {
-                    PortmapErrorAlert portmapErrorAlert = (PortmapErrorAlert)alert;
-                    ErrorCode error = portmapErrorAlert.error();
-                    msg = SessionErrors.getErrorMsg(error);
-                    if (!SessionErrors.isNonCritical(error))
-                        listener.onNatError(msg);
-                    break;
-                }
+        /* The alert is invalid after the callback, get the error before the dispatch */
+        String msg = null;
+        boolean critical = false;
+        switch (alert.type()) {
+            case SESSION_ERROR: {
+                SessionErrorAlert sessionErrorAlert = (SessionErrorAlert)alert;
+                ErrorCode error = sessionErrorAlert.error();
+                msg = SessionErrors.getErrorMsg(error);
+                critical = !SessionErrors.isNonCritical(error);
+                break;
+            }
+            case LISTEN_FAILED: {
+                ListenFailedAlert listenFailedAlert = (ListenFailedAlert)alert;
+                ErrorCode error = listenFailedAlert.error();
+                msg = SessionErrors.getErrorMsg(error);
+                critical = !SessionErrors.isNonCritical(error);
+                break;
+            }
+            case PORTMAP_ERROR: {
+                PortmapErrorAlert portmapErrorAlert = (PortmapErrorAlert)alert;
+                ErrorCode error = portmapErrorAlert.error();
+                msg = SessionErrors.getErrorMsg(error);
+                critical = !SessionErrors.isNonCritical(error);
+                break;
             }
+        }
+        if (msg == null)
+            return;
 
-            if (msg != null)
-                Log.e(TAG, "Session error: " + msg);
-        });
+        Log.e(TAG, "Session error: " + msg);
+        if (!critical)
+            return;
+
+        String errorMsg = msg;
+        if (alert.type() == AlertType.PORTMAP_ERROR)
+            notifyListeners((listener) -> listener.onNatError(errorMsg));
+        else
+            notifyListeners((listener) -> listener.onSessionError(errorMsg));
     }
 
     private void handleMetadata(MetadataReceivedAlert metadataAlert)
@@ -1048,22 +1172,61 @@ public class TorrentSessionImpl extends SessionManager
             loadedMagnets.put(hash, bencode);
         remove(th, SessionHandle.DELETE_FILES);
 
-        notifyListeners((listener) ->
-                listener.onMagnetLoaded(hash, loadedMagnets.get(hash)));
+        byte[] magnet = loadedMagnets.get(hash);
+        notifyListeners(hash, (listener) ->
+                listener.onMagnetLoaded(hash, magnet));
     }
 
+    /*
+     * Stats alert is posted for each active torrent, so request
+     * the status of all changed torrents only once per tick
+     */
+
     private void handleStats()
     {
         if (operationNotAllowed())
             return;
 
+        long now = System.currentTimeMillis();
+        if (now - lastStatusUpdateTime < STATUS_UPDATE_INTERVAL)
+            return;
+        lastStatusUpdateTime = now;
+
+        /* Without additional queries (pieces, trackers, name, etc) */
+        swig().post_torrent_updates(new status_flags_t());
+    }
+
+    private void handleStateUpdate(StateUpdateAlert alert)
+    {
+        if (operationNotAllowed())
+            return;
+
+        torrent_status_vector v = alert.swig().getStatus();
+        int size = (int)v.size();
+        ArrayList<String> ids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            torrent_status ts = v.get(i);
+            String id = ts.getInfo_hash().to_hex();
+            TorrentDownload task = torrentTasks.get(id);
+            if (!(task instanceof TorrentDownloadImpl))
+                continue;
+            /* Copy, because the vector is owned by the alert */
+            ((TorrentDownloadImpl)task).updateStatus(new TorrentStatus(new torrent_status(ts)));
+            ids.add(id);
+        }
+
+        if (!ids.isEmpty())
+            listenerDispatcher.dispatchBatch(ids, TorrentEngineListener::onTorrentsStatusUpdated);
+
+        AlertLoopStats alertLoop = alertLoopMonitor.makeStats(ALERT_QUEUE_SIZE);
         notifyListeners((listener) -> listener.onSessionStats(
                 new SessionStats(dhtNodes(),
                         getTotalDownload(),
                         getTotalUpload(),
                         getDownloadSpeed(),
                         getUploadSpeed(),
-                        getListenPort()))
+                        getListenPort(),
+                        alertLoop))
         );
     }
 
@@ -1262,7 +1425,7 @@ public class TorrentSessionImpl extends SessionManager
     {
         applyMaxStoredLogs(settings);
         applySessionLoggerFilters(settings);
-        enableSessionLogger(settings.logging);
+        enableSessionLogger(settings.logging, settings.logHistory);
 
         SettingsPack sp = settings();
         if (sp != null) {
@@ -1317,99 +1480,312 @@ public class TorrentSessionImpl extends SessionManager
 
     private TorrentDownload newTask(TorrentHandle th, String id)
     {
-        TorrentDownload task = new TorrentDownloadImpl(this, repo, fs, listeners,
-                id, th, settings.autoManaged);
+        boolean metadataStored = storedMetadata.remove(id) != null;
+        TorrentDownload task = new TorrentDownloadImpl(this, repo, fs, listenerDispatcher,
+                torrentAlertDispatcher, resumeDataWriter, id, th, settings.autoManaged,
+                metadataStored);
         task.setMaxConnections(settings.connectionsLimitPerTorrent);
         task.setMaxUploads(settings.uploadsLimitPerTorrent);
 
         return task;
     }
 
-    private interface CallListener
+    private void notifyListeners(@NonNull EngineListenerDispatcher.Event event)
     {
-        void apply(TorrentEngineListener listener);
+        listenerDispatcher.dispatch(null, event);
     }
 
-    private void notifyListeners(@NonNull CallListener l)
+    private void notifyListeners(@NonNull String id, @NonNull EngineListenerDispatcher.Event event)
     {
-        for (TorrentEngineListener listener : listeners) {
-            if (listener != null)
-                l.apply(listener);
+        listenerDispatcher.dispatch(id, event);
+    }
+
+    private boolean isTorrentAlreadyRunning(String torrentId)
+    {
+        return torrentTasks.containsKey(torrentId) || addTorrentsList.contains(torrentId);
+    }
+
+    private void handleRestoreError(String id, Exception e)
+    {
+        Log.e(TAG, "Unable to restore torrent from previous session: " + id, e);
+        Torrent torrent = repo.getTorrentById(id);
+        if (torrent != null) {
+            torrent.error = e.toString();
+            repo.updateTorrent(torrent);
         }
+
+        notifyListeners(id, (listener) ->
+                listener.onRestoreSessionError(id));
     }
 
-    private void runNextLoadTorrentTask()
+    private final class RestorePipeline
     {
-        if (operationNotAllowed()) {
-            restoreTorrentsQueue.clear();
+        private final Semaphore inFlight = new Semaphore(MAX_RESTORE_IN_FLIGHT);
+        /* Torrents passed to async_add_torrent, but not added yet, with the submit time */
+        private final ConcurrentHashMap<String, Long> adding = new ConcurrentHashMap<>();
+        private volatile boolean alertsDropped;
+        private final RestoreStats stats = new RestoreStats();
 
-            return;
+        void run()
+        {
+            ArrayList<String> ids = new ArrayList<>();
+            for (Torrent torrent : repo.getAllTorrents()) {
+                if (operationNotAllowed())
+                    break;
+                if (torrent == null || isTorrentAlreadyRunning(torrent.id))
+                    continue;
+
+                stats.onScheduled();
+                if (torrent.isDownloadingMetadata()) {
+                    String path = fs.makeFileSystemPath(torrent.downloadPath);
+                    restoreExec.execute(() -> restoreMagnet(torrent, new File(path)));
+                } else {
+                    ids.add(torrent.id);
+                }
+            }
+
+            /* Resume data is read in pages, in the order of the torrents */
+            HashSet<String> notRead = new HashSet<>(ids);
+            long readStart = System.nanoTime();
+            try {
+                Iterable<Pair<FastResume, TorrentMetadata>> restoreList =
+                        repo.getFastResumeWithMetadataByIds(ids)
+                                .takeWhile((__) -> !operationNotAllowed())
+                                .blockingIterable(RESTORE_READ_BUFFER_SIZE);
+                for (Pair<FastResume, TorrentMetadata> data : restoreList) {
+                    notRead.remove(data.first.torrentId);
+                    restoreExec.execute(() -> restore(data.first, data.second));
+                }
+
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to read resume data: " + Log.getStackTraceString(e));
+            }
+            stats.onRead(System.nanoTime() - readStart);
+
+            boolean stopped = operationNotAllowed();
+            for (String id : notRead) {
+                if (stopped) {
+                    stats.onSkipped();
+                } else {
+                    stats.onFailed();
+                    handleRestoreError(id, new IOException("Fast resume data not found"));
+                }
+            }
+            stats.onReadFinished();
         }
 
-        LoadTorrentTask task;
-        try {
-            task = restoreTorrentsQueue.poll();
+        private void restore(FastResume fastResume, TorrentMetadata metadata)
+        {
+            if (operationNotAllowed() || isTorrentAlreadyRunning(fastResume.torrentId)) {
+                stats.onSkipped();
+                return;
+            }
 
-        } catch (Exception e) {
-            Log.e(TAG, Log.getStackTraceString(e));
+            add_torrent_params p;
+            long decodeStart = System.nanoTime();
+            try {
+                p = makeRestoreParams(fastResume, metadata);
 
-            return;
+            } catch (Exception e) {
+                stats.onFailed();
+                handleRestoreError(fastResume.torrentId, e);
+                return;
+            }
+            stats.onDecoded(System.nanoTime() - decodeStart);
+
+            submit(fastResume.torrentId, p);
         }
 
-        if (task != null)
-            loadTorrentsExec.execute(task);
-    }
+        private void restoreMagnet(Torrent torrent, File saveDir)
+        {
+            if (operationNotAllowed() || isTorrentAlreadyRunning(torrent.id)) {
+                stats.onSkipped();
+                return;
+            }
 
-    private boolean isTorrentAlreadyRunning(String torrentId)
-    {
-        return torrentTasks.containsKey(torrentId) || addTorrentsList.contains(torrentId);
-    }
+            /* Magnets are added without waiting, they don't have resume data to decode */
+            try {
+                download(torrent.getMagnet(), saveDir, torrent.manuallyPaused);
+                stats.onAdded();
 
-    private final class LoadTorrentTask implements Runnable
-    {
-        private String torrentId;
-        private File saveDir = null;
-        private String magnetUri = null;
-        private boolean isMagnet = false;
-        private boolean magnetPaused = false;
+            } catch (Exception e) {
+                stats.onFailed();
+                handleRestoreError(torrent.id, e);
+            }
+        }
 
-        LoadTorrentTask(String torrentId)
+        private void submit(String id, add_torrent_params p)
         {
-            this.torrentId = torrentId;
+            if (!acquire()) {
+                stats.onSkipped();
+                return;
+            }
+            adding.put(id, System.nanoTime());
+
+            /* After decoding and waiting some time may have passed */
+            if (operationNotAllowed()) {
+                release(id);
+                stats.onSkipped();
+                return;
+            }
+            swig().async_add_torrent(p);
         }
 
-        public void putMagnet(String magnetUri, File saveDir, boolean magnetPaused)
+        void onTorrentAdded(AddTorrentAlert alert)
         {
-            this.magnetUri = magnetUri;
-            this.saveDir = saveDir;
-            this.magnetPaused = magnetPaused;
-            isMagnet = true;
+            sha1_hash hash = alert.swig().getParams().getInfo_hash();
+            if (hash == null || !release(hash.to_hex()))
+                return;
+
+            if (alert.error().isError())
+                stats.onFailed();
+            else
+                stats.onAdded();
         }
 
-        @Override
-        public void run()
+        /*
+         * Called from the alert thread, the slots are checked by the waiting thread
+         */
+
+        void onAlertsDropped()
         {
-            try {
-                if (isTorrentAlreadyRunning(torrentId))
-                    return;
+            alertsDropped = true;
+        }
 
-                if (isMagnet)
-                    download(magnetUri, saveDir, magnetPaused);
-                else
-                    restoreDownload(torrentId);
+        /*
+         * Waits for a free slot, checking if the session is stopping
+         */
 
-            } catch (Exception e) {
-                Log.e(TAG, "Unable to restore torrent from previous session: " + torrentId, e);
-                Torrent torrent = repo.getTorrentById(torrentId);
-                if (torrent != null) {
-                    torrent.error = e.toString();
-                    repo.updateTorrent(torrent);
+        private boolean acquire()
+        {
+            try {
+                while (!operationNotAllowed()) {
+                    if (inFlight.tryAcquire(RESTORE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS))
+                        return true;
+                    reconcile();
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
 
-                notifyListeners((listener) ->
-                        listener.onRestoreSessionError(torrentId));
+            return false;
+        }
+
+        /*
+         * Frees the slots whose ADD_TORRENT alert may be lost: torrents
+         * that are already in the session if alerts were dropped, and
+         * the ones waiting longer than RESTORE_ADD_TIMEOUT
+         */
+
+        private void reconcile()
+        {
+            boolean dropped = alertsDropped;
+            alertsDropped = false;
+            long timeout = TimeUnit.MILLISECONDS.toNanos(RESTORE_ADD_TIMEOUT);
+            long now = System.nanoTime();
+
+            for (Map.Entry<String, Long> entry : adding.entrySet()) {
+                String id = entry.getKey();
+                boolean timedOut = now - entry.getValue() >= timeout;
+                if (!dropped && !timedOut)
+                    continue;
+
+                TorrentHandle th = find(new Sha1Hash(id));
+                if (th != null && th.isValid()) {
+                    if (release(id))
+                        stats.onAdded();
+                } else if (timedOut && release(id)) {
+                    Log.w(TAG, "No ADD_TORRENT alert for the restored torrent " + id);
+                    stats.onFailed();
+                }
             }
         }
+
+        private boolean release(String id)
+        {
+            if (adding.remove(id) == null)
+                return false;
+            inFlight.release();
+
+            return true;
+        }
+    }
+
+    /*
+     * Startup metrics of the restore pipeline
+     */
+
+    private static final class RestoreStats
+    {
+        private final long startTime = System.nanoTime();
+        private final AtomicInteger scheduled = new AtomicInteger();
+        private final AtomicInteger added = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicLong readTime = new AtomicLong();
+        private final AtomicLong decodeTime = new AtomicLong();
+        private final AtomicLong firstAddedTime = new AtomicLong();
+        private volatile boolean readFinished;
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        void onScheduled()
+        {
+            scheduled.incrementAndGet();
+        }
+
+        void onRead(long time)
+        {
+            readTime.addAndGet(time);
+        }
+
+        void onDecoded(long time)
+        {
+            decodeTime.addAndGet(time);
+        }
+
+        void onAdded()
+        {
+            firstAddedTime.compareAndSet(0, System.nanoTime() - startTime);
+            added.incrementAndGet();
+            checkCompleted();
+        }
+
+        void onFailed()
+        {
+            failed.incrementAndGet();
+            checkCompleted();
+        }
+
+        void onSkipped()
+        {
+            skipped.incrementAndGet();
+            checkCompleted();
+        }
+
+        void onReadFinished()
+        {
+            readFinished = true;
+            checkCompleted();
+        }
+
+        private void checkCompleted()
+        {
+            if (!readFinished || added.get() + failed.get() + skipped.get() < scheduled.get())
+                return;
+            if (!reported.compareAndSet(false, true))
+                return;
+
+            Log.i(TAG, String.format(Locale.US,
+                    "Restored %d of %d torrents in %d ms (failed: %d, skipped: %d); " +
+                    "first torrent added in %d ms, db read stage: %d ms, decode: %d ms (sum of %d threads)",
+                    added.get(), scheduled.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+                    failed.get(), skipped.get(),
+                    TimeUnit.NANOSECONDS.toMillis(firstAddedTime.get()),
+                    TimeUnit.NANOSECONDS.toMillis(readTime.get()),
+                    TimeUnit.NANOSECONDS.toMillis(decodeTime.get()),
+                    RESTORE_DECODE_THREADS));
+        }
     }
 
     private void download(byte[] bencode, File saveDir,
@@ -1531,20 +1907,23 @@ public class TorrentSessionImpl extends SessionManager
         swig().async_add_torrent(p);
     }
 
-    private void restoreDownload(String id) throws IOException
+    private add_torrent_params makeRestoreParams(FastResume fastResume, TorrentMetadata metadata)
     {
-        if (operationNotAllowed())
-            return;
-
-        FastResume fastResume = repo.getFastResumeById(id);
-        if (fastResume == null)
-            throw new IOException("Fast resume data not found");
-
         error_code ec = new error_code();
         add_torrent_params p = add_torrent_params.read_resume_data(Vectors.bytes2byte_vector(fastResume.data), ec);
         if (ec.value() != 0)
             throw new IllegalArgumentException("Unable to read the resume data: " + ec.message());
 
+        /*
+         * The info dict is stored separately,
+         * only the old resume data still contains it
+         */
+        org.libtorrent4j.AddTorrentParams params = new org.libtorrent4j.AddTorrentParams(p);
+        if (params.torrentInfo() == null && metadata != null) {
+            params.torrentInfo(TorrentInfo.bdecode(metadata.data));
+            storedMetadata.put(fastResume.torrentId, true);
+        }
+
         torrent_flags_t flags = p.getFlags();
         /* Disable force saving resume data, because they already have */
         flags = flags.and_(TorrentFlags.NEED_SAVE_RESUME.inv());
@@ -1556,10 +1935,6 @@ public class TorrentSessionImpl extends SessionManager
 
         p.setFlags(flags);
 
-        /* After reading the metadata some time may have passed */
-        if (operationNotAllowed())
-            return;
-
-        swig().async_add_torrent(p);
+        return p;
     }
 }
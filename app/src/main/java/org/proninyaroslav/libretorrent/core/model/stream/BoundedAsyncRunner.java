@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.threading.IAsyncRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.nanohttpd.protocols.http.response.Response.newFixedLengthResponse;
+import static org.nanohttpd.protocols.http.response.Status.SERVICE_UNAVAILABLE;
+
+/*
+ * Runs the client connections on a bounded thread pool instead of
+ * a new thread per connection. If all threads are busy and the queue is full,
+ * the connection is rejected with 503 (Service Unavailable).
+ * The stream connections hold the threads for the whole playback, so
+ * the connection that waits in the queue longer than the timeout is rejected as well.
+ */
+
+class BoundedAsyncRunner implements IAsyncRunner
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = BoundedAsyncRunner.class.getSimpleName();
+
+    static final int DEFAULT_MAX_THREADS = 8;
+    static final int DEFAULT_QUEUE_SIZE = 16;
+    static final long DEFAULT_QUEUE_TIMEOUT = 5000; /* ms */
+    private static final long KEEP_ALIVE_TIME = 30; /* sec */
+    private static final int RETRY_AFTER = 1; /* sec */
+    private static final int REJECT_QUEUE_SIZE = 64;
+
+    private final ThreadPoolExecutor executor;
+    /* Sends 503 off the accept thread, it waits for the client to close the connection */
+    private final ThreadPoolExecutor rejectExecutor;
+    /* Rejects the connections that wait in the queue too long */
+    private final ScheduledThreadPoolExecutor timeoutExecutor;
+    private final int maxThreads;
+    private final long queueTimeout;
+    private final Set<ClientHandler> running =
+            Collections.newSetFromMap(new ConcurrentHashMap<ClientHandler, Boolean>());
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    BoundedAsyncRunner()
+    {
+        this(DEFAULT_MAX_THREADS, DEFAULT_QUEUE_SIZE, DEFAULT_QUEUE_TIMEOUT);
+    }
+
+    BoundedAsyncRunner(int maxThreads, int queueSize, long queueTimeout)
+    {
+        this.maxThreads = maxThreads;
+        this.queueTimeout = queueTimeout;
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new WorkerThreadFactory("TorrentStreamServer-"));
+        executor.allowCoreThreadTimeOut(true);
+        rejectExecutor = new ThreadPoolExecutor(1, 1,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(REJECT_QUEUE_SIZE),
+                new WorkerThreadFactory("TorrentStreamServer-reject-"));
+        rejectExecutor.allowCoreThreadTimeOut(true);
+        timeoutExecutor = new ScheduledThreadPoolExecutor(1,
+                new WorkerThreadFactory("TorrentStreamServer-timeout-"));
+        timeoutExecutor.setKeepAliveTime(KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+        timeoutExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void exec(ClientHandler handler)
+    {
+        running.add(handler);
+        QueuedTask task = new QueuedTask(handler);
+        try {
+            executor.execute(task);
+
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            reject(handler);
+            return;
+        }
+        /* No free thread, don't let it wait for one forever */
+        if (executor.getQueue().contains(task))
+            task.timeout = timeoutExecutor.schedule(() -> expire(task),
+                    queueTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(QueuedTask task)
+    {
+        /* Already taken by the thread otherwise */
+        if (!executor.remove(task))
+            return;
+
+        rejected.incrementAndGet();
+        reject(task.handler);
+    }
+
+    private void reject(ClientHandler handler)
+    {
+        try {
+            rejectExecutor.execute(() -> {
+                try {
+                    Response res = newFixedLengthResponse(SERVICE_UNAVAILABLE,
+                            NanoHTTPD.MIME_PLAINTEXT, "Server is busy");
+                    res.addHeader("Retry-After", Integer.toString(RETRY_AFTER));
+                    handler.reject(res);
+
+                } finally {
+                    running.remove(handler);
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+            /* Completely overloaded, just drop the connection */
+            running.remove(handler);
+            handler.close();
+        }
+    }
+
+    private void run(ClientHandler handler)
+    {
+        accepted.incrementAndGet();
+        int n = active.incrementAndGet();
+        int peak;
+        while (n > (peak = peakActive.get()))
+            if (peakActive.compareAndSet(peak, n))
+                break;
+
+        try {
+            handler.run();
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void closed(ClientHandler handler)
+    {
+        running.remove(handler);
+    }
+
+    @Override
+    public void closeAll()
+    {
+        for (ClientHandler handler : new ArrayList<>(running))
+            handler.close();
+    }
+
+    /*
+     * True if the new connections will wait in the queue or be rejected.
+     * Used to stop keeping idle connections open
+     */
+
+    boolean isSaturated()
+    {
+        return active.get() >= maxThreads;
+    }
+
+    int getActiveCount()
+    {
+        return active.get();
+    }
+
+    int getPeakActiveCount()
+    {
+        return peakActive.get();
+    }
+
+    int getQueueSize()
+    {
+        return executor.getQueue().size();
+    }
+
+    long getAcceptedCount()
+    {
+        return accepted.get();
+    }
+
+    long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    long getCompletedCount()
+    {
+        return completed.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BoundedAsyncRunner{" +
+                "active=" + active.get() +
+                ", peakActive=" + peakActive.get() +
+                ", queued=" + getQueueSize() +
+                ", accepted=" + accepted.get() +
+                ", rejected=" + rejected.get() +
+                ", completed=" + completed.get() +
+                '}';
+    }
+
+    private class QueuedTask implements Runnable
+    {
+        final ClientHandler handler;
+        volatile ScheduledFuture<?> timeout;
+
+        QueuedTask(ClientHandler handler)
+        {
+            this.handler = handler;
+        }
+
+        @Override
+        public void run()
+        {
+            ScheduledFuture<?> f = timeout;
+            if (f != null)
+                f.cancel(false);
+
+            BoundedAsyncRunner.this.run(handler);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable r)
+        {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+
+            return t;
+        }
+    }
+}
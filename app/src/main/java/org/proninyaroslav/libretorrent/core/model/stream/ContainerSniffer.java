@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/*
+ * Detects the media container by the beginning of the file and finds
+ * the region with the index, that players read before the playback:
+ * the moov atom of MP4 (at the head or at the tail of the file)
+ * and the cues of MKV (usually at the tail of the file)
+ */
+
+class ContainerSniffer
+{
+    /* Enough to find the top-level boxes or the seek head */
+    static final int SNIFF_SIZE = 64 * 1024;
+    /* Cues position is unknown, take the tail of the file */
+    static final long DEFAULT_TAIL_SIZE = 4 * 1024 * 1024;
+
+    enum Container
+    {
+        MP4,
+        MKV
+    }
+
+    static class Index
+    {
+        @NonNull
+        final Container container;
+        final long offset;
+        final long length;
+
+        Index(@NonNull Container container, long offset, long length)
+        {
+            this.container = container;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        boolean overlaps(long pos, long n)
+        {
+            return pos < offset + length && pos + n > offset;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Index{" +
+                    "container=" + container +
+                    ", offset=" + offset +
+                    ", length=" + length +
+                    '}';
+        }
+    }
+
+    private static final int EBML_ID = 0x1A45DFA3;
+    private static final int SEGMENT_ID = 0x18538067;
+    private static final int SEEK_HEAD_ID = 0x114D9B74;
+    private static final int SEEK_ID = 0x4DBB;
+    private static final int SEEK_ID_ID = 0x53AB;
+    private static final int SEEK_POSITION_ID = 0x53AC;
+    private static final int CUES_ID = 0x1C53BB6B;
+
+    /*
+     * Returns null if the container is unknown
+     */
+
+    @Nullable
+    static Index sniff(@NonNull byte[] head, int len, long fileSize)
+    {
+        if (len >= 8 && readInt(head, 4) == fourCC("ftyp"))
+            return sniffMp4(head, len, fileSize);
+        if (len >= 4 && readInt(head, 0) == EBML_ID)
+            return sniffMkv(head, len, fileSize);
+
+        return null;
+    }
+
+    /*
+     * Walks the top-level boxes. The moov box can be found directly,
+     * or follows the mdat box (which is too large for the head)
+     */
+
+    private static Index sniffMp4(byte[] head, int len, long fileSize)
+    {
+        long pos = 0;
+        while (pos + 8 <= len) {
+            long size = readInt(head, (int)pos) & 0xFFFFFFFFL;
+            int type = readInt(head, (int)pos + 4);
+            if (size == 1) {
+                if (pos + 16 > len)
+                    break;
+                size = readLong(head, (int)pos + 8);
+            } else if (size == 0) {
+                size = fileSize - pos;
+            }
+            if (size < 8)
+                break;
+
+            if (type == fourCC("moov"))
+                return makeIndex(Container.MP4, pos, size, fileSize);
+            if (type == fourCC("mdat")) {
+                long next = pos + size;
+                if (next >= fileSize)
+                    break;
+                /* Assume that moov is the rest of the file */
+                return makeIndex(Container.MP4, next, fileSize - next, fileSize);
+            }
+            /* The next box is beyond the head (or the size is corrupted) */
+            if (size > len - pos)
+                break;
+            pos += size;
+        }
+
+        return null;
+    }
+
+    /*
+     * Looks for the cues position in the seek head of the segment.
+     * If there is no seek head, the cues are expected at the tail
+     */
+
+    private static Index sniffMkv(byte[] head, int len, long fileSize)
+    {
+        long tailOffset = Math.max(0, fileSize - DEFAULT_TAIL_SIZE);
+        Index tail = new Index(Container.MKV, tailOffset, fileSize - tailOffset);
+
+        int[] pos = new int[] {0};
+        /* EBML header */
+        if (readId(head, len, pos) != EBML_ID)
+            return tail;
+        long size = readSize(head, len, pos);
+        if (size < 0 || pos[0] + size > len)
+            return tail;
+        pos[0] += (int)size;
+
+        if (readId(head, len, pos) != SEGMENT_ID || readSize(head, len, pos) == -1)
+            return tail;
+        long segmentStart = pos[0];
+
+        /* Seek head is one of the first elements of the segment */
+        while (pos[0] < len) {
+            int id = readId(head, len, pos);
+            size = readSize(head, len, pos);
+            if (id < 0 || size < 0)
+                break;
+            if (id != SEEK_HEAD_ID) {
+                /* The seek head isn't in the head */
+                if (pos[0] + size > len)
+                    break;
+                pos[0] += (int)size;
+                continue;
+            }
+
+            long cues = findCues(head, (int)Math.min(len, pos[0] + size), pos);
+            if (cues < 0 || cues >= fileSize - segmentStart)
+                break;
+            long offset = segmentStart + cues;
+
+            return makeIndex(Container.MKV, offset, DEFAULT_TAIL_SIZE, fileSize);
+        }
+
+        return tail;
+    }
+
+    private static long findCues(byte[] head, int end, int[] pos)
+    {
+        while (pos[0] < end) {
+            int id = readId(head, end, pos);
+            long size = readSize(head, end, pos);
+            if (id < 0 || size < 0)
+                return -1;
+            if (id != SEEK_ID) {
+                if (pos[0] + size > end)
+                    return -1;
+                pos[0] += (int)size;
+                continue;
+            }
+
+            int seekEnd = (int)Math.min(end, pos[0] + size);
+            int seekId = -1;
+            long seekPosition = -1;
+            while (pos[0] < seekEnd) {
+                int childId = readId(head, seekEnd, pos);
+                long childSize = readSize(head, seekEnd, pos);
+                if (childId < 0 || childSize < 0 || childSize > 8 || pos[0] + childSize > seekEnd)
+                    return -1;
+                if (childId == SEEK_ID_ID)
+                    seekId = (int)readUnsigned(head, pos[0], (int)childSize);
+                else if (childId == SEEK_POSITION_ID)
+                    seekPosition = readUnsigned(head, pos[0], (int)childSize);
+                pos[0] += (int)childSize;
+            }
+            if (seekId == CUES_ID && seekPosition >= 0)
+                return seekPosition;
+        }
+
+        return -1;
+    }
+
+    private static Index makeIndex(Container container, long offset, long length, long fileSize)
+    {
+        return new Index(container, offset, Math.min(length, fileSize - offset));
+    }
+
+    /*
+     * EBML element ID, keeps the length marker bits. Returns -1 if invalid
+     */
+
+    private static int readId(byte[] buf, int len, int[] pos)
+    {
+        if (pos[0] >= len)
+            return -1;
+        int first = buf[pos[0]] & 0xFF;
+        int width = Integer.numberOfLeadingZeros(first) - 24 + 1;
+        if (width > 4 || pos[0] + width > len)
+            return -1;
+
+        int id = (int)readUnsigned(buf, pos[0], width);
+        pos[0] += width;
+
+        return id;
+    }
+
+    /*
+     * EBML variable size integer. Returns -1 if invalid
+     * and -2 if the size is unknown (all value bits are set)
+     */
+
+    private static long readSize(byte[] buf, int len, int[] pos)
+    {
+        if (pos[0] >= len)
+            return -1;
+        int first = buf[pos[0]] & 0xFF;
+        if (first == 0)
+            return -1;
+        int width = Integer.numberOfLeadingZeros(first) - 24 + 1;
+        if (pos[0] + width > len)
+            return -1;
+
+        long mask = (1L << (7 * width)) - 1;
+        long size = readUnsigned(buf, pos[0], width) & mask;
+        pos[0] += width;
+
+        return (size == mask ? -2 : size);
+    }
+
+    private static long readUnsigned(byte[] buf, int off, int width)
+    {
+        long res = 0;
+        for (int i = 0; i < width; i++)
+            res = (res << 8) | (buf[off + i] & 0xFF);
+
+        return res;
+    }
+
+    private static int readInt(byte[] buf, int off)
+    {
+        return (int)readUnsigned(buf, off, 4);
+    }
+
+    private static long readLong(byte[] buf, int off)
+    {
+        return readUnsigned(buf, off, 8);
+    }
+
+    private static int fourCC(String s)
+    {
+        return (s.charAt(0) << 24) | (s.charAt(1) << 16) | (s.charAt(2) << 8) | s.charAt(3);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Byte range of the Range header (RFC 7233), the end is inclusive
+ */
+
+class HttpRange
+{
+    private static final String UNIT = "bytes=";
+    /* More ranges than this is most likely an abuse, the header is ignored */
+    static final int MAX_RANGES = 32;
+
+    final long start;
+    final long end;
+
+    HttpRange(long start, long end)
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    long length()
+    {
+        return end - start + 1;
+    }
+
+    String toContentRange(long size)
+    {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /*
+     * Returns satisfiable ranges, sorted and coalesced, an empty list if
+     * none of the ranges is satisfiable, or null if the header is invalid
+     * and must be ignored. Supports suffix ranges (bytes=-N)
+     */
+
+    @Nullable
+    static List<HttpRange> parse(@NonNull String header, long size)
+    {
+        header = header.trim();
+        if (!header.toLowerCase(Locale.US).startsWith(UNIT))
+            return null;
+
+        String[] specs = header.substring(UNIT.length()).split(",");
+        ArrayList<HttpRange> ranges = new ArrayList<>(specs.length);
+        boolean hasSpecs = false;
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                if (spec.isEmpty())
+                    continue;
+                hasSpecs = true;
+
+                int minus = spec.indexOf('-');
+                if (minus < 0)
+                    return null;
+                String first = spec.substring(0, minus).trim();
+                String last = spec.substring(minus + 1).trim();
+
+                long start, end;
+                if (first.isEmpty()) {
+                    /* Suffix range, the last N bytes */
+                    long suffixLength = parseNumber(last);
+                    if (suffixLength == 0 || size == 0)
+                        continue;
+                    start = Math.max(0, size - suffixLength);
+                    end = size - 1;
+                } else {
+                    start = parseNumber(first);
+                    end = (last.isEmpty() ? Long.MAX_VALUE : parseNumber(last));
+                    if (end < start)
+                        return null;
+                    if (start >= size)
+                        continue;
+                    end = Math.min(end, size - 1);
+                }
+                ranges.add(new HttpRange(start, end));
+            }
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!hasSpecs)
+            return null;
+
+        List<HttpRange> res = coalesce(ranges);
+
+        return (res.size() > MAX_RANGES ? null : res);
+    }
+
+    private static long parseNumber(String s)
+    {
+        if (s.isEmpty())
+            throw new NumberFormatException();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                throw new NumberFormatException(s);
+        }
+
+        return Long.parseLong(s);
+    }
+
+    /*
+     * Merges overlapping and adjacent ranges
+     */
+
+    private static List<HttpRange> coalesce(ArrayList<HttpRange> ranges)
+    {
+        if (ranges.size() < 2)
+            return ranges;
+
+        Collections.sort(ranges, (a, b) -> (a.start < b.start ? -1 : (a.start == b.start ? 0 : 1)));
+        ArrayList<HttpRange> res = new ArrayList<>(ranges.size());
+        HttpRange cur = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            HttpRange next = ranges.get(i);
+            if (next.start <= cur.end + 1) {
+                cur = new HttpRange(cur.start, Math.max(cur.end, next.end));
+            } else {
+                res.add(cur);
+                cur = next;
+            }
+        }
+        res.add(cur);
+
+        return res;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof HttpRange))
+            return false;
+
+        HttpRange range = (HttpRange)o;
+
+        return start == range.start && end == range.end;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * (int)(start ^ (start >>> 32)) + (int)(end ^ (end >>> 32));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HttpRange{" +
+                "start=" + start +
+                ", end=" + end +
+                '}';
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/*
+ * Builder of the metrics in the Prometheus text format
+ */
+
+class MetricsWriter
+{
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "libretorrent_";
+
+    private final StringBuilder sb = new StringBuilder(4096);
+
+    MetricsWriter family(@NonNull String name, @NonNull String type, @NonNull String help)
+    {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+
+        return this;
+    }
+
+    MetricsWriter sample(@NonNull String name, @Nullable String labels, long value)
+    {
+        appendName(name, labels);
+        sb.append(value).append('\n');
+
+        return this;
+    }
+
+    MetricsWriter sample(@NonNull String name, @Nullable String labels, double value)
+    {
+        appendName(name, labels);
+        sb.append(String.format(Locale.US, "%.6f", value)).append('\n');
+
+        return this;
+    }
+
+    /*
+     * Label values are escaped according to the format
+     */
+
+    static String labels(@NonNull String... namesAndValues)
+    {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            if (labels.length() > 0)
+                labels.append(',');
+            labels.append(namesAndValues[i]).append("=\"");
+            String value = namesAndValues[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"')
+                    labels.append('\\').append(c);
+                else if (c == '\n')
+                    labels.append("\\n");
+                else
+                    labels.append(c);
+            }
+            labels.append('"');
+        }
+
+        return labels.toString();
+    }
+
+    private void appendName(String name, String labels)
+    {
+        sb.append(PREFIX).append(name);
+        if (labels != null && !labels.isEmpty())
+            sb.append('{').append(labels).append('}');
+        sb.append(' ');
+    }
+
+    @Override
+    public String toString()
+    {
+        return sb.toString();
+    }
+}
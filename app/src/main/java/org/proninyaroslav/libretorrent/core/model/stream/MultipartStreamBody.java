@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import org.nanohttpd.protocols.http.response.IChannelBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * multipart/byteranges body (RFC 7233). Each part is opened
+ * only when the previous one is sent
+ */
+
+class MultipartStreamBody implements IChannelBody
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = MultipartStreamBody.class.getSimpleName();
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    interface PartOpener
+    {
+        IChannelBody open(@NonNull HttpRange range) throws IOException;
+    }
+
+    private final List<HttpRange> ranges;
+    private final String boundary;
+    private final PartOpener opener;
+    /* Headers of the parts, the last one is the closing delimiter */
+    private final byte[][] delimiters;
+    private final long contentLength;
+    /* Even stages are the delimiters, odd stages are the parts */
+    private int stage;
+    private ByteBuffer delimiter;
+    private IChannelBody part;
+    private long partWritten;
+
+    MultipartStreamBody(@NonNull List<HttpRange> ranges,
+                        @NonNull String boundary,
+                        @NonNull String mimeType,
+                        long size,
+                        @NonNull PartOpener opener)
+    {
+        this.ranges = ranges;
+        this.boundary = boundary;
+        this.opener = opener;
+
+        delimiters = new byte[ranges.size() + 1][];
+        long length = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            HttpRange range = ranges.get(i);
+            delimiters[i] = ((i == 0 ? "" : "\r\n") +
+                    "--" + boundary + "\r\n" +
+                    "Content-Type: " + mimeType + "\r\n" +
+                    "Content-Range: " + range.toContentRange(size) + "\r\n" +
+                    "\r\n").getBytes(ASCII);
+            length += delimiters[i].length + range.length();
+        }
+        delimiters[ranges.size()] = ("\r\n--" + boundary + "--\r\n").getBytes(ASCII);
+        length += delimiters[ranges.size()].length;
+        contentLength = length;
+    }
+
+    static String makeBoundary()
+    {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    String getContentType()
+    {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    long getContentLength()
+    {
+        return contentLength;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel target, long count) throws IOException
+    {
+        while (stage <= 2 * ranges.size()) {
+            if (stage % 2 == 0) {
+                if (delimiter == null)
+                    delimiter = ByteBuffer.wrap(delimiters[stage / 2]);
+                if (delimiter.hasRemaining()) {
+                    int limit = delimiter.limit();
+                    if (delimiter.remaining() > count)
+                        delimiter.limit(delimiter.position() + (int)count);
+                    int n = target.write(delimiter);
+                    delimiter.limit(limit);
+
+                    return n;
+                }
+                delimiter = null;
+                stage++;
+
+            } else {
+                HttpRange range = ranges.get(stage / 2);
+                if (partWritten < range.length()) {
+                    if (part == null)
+                        part = opener.open(range);
+                    long n = part.writeTo(target, Math.min(count, range.length() - partWritten));
+                    if (n > 0) {
+                        partWritten += n;
+                        return n;
+                    }
+                    /* The part ended before the range, the rest can't be framed */
+                    closePart();
+                    return -1;
+                }
+                closePart();
+                partWritten = 0;
+                stage++;
+            }
+        }
+
+        return -1;
+    }
+
+    private void closePart() throws IOException
+    {
+        if (part == null)
+            return;
+        try {
+            part.close();
+
+        } finally {
+            part = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        closePart();
+    }
+}
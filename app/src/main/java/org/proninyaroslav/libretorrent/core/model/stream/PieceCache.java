@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * LRU cache of the recently read pieces, shared by all streams.
+ * The size is limited in bytes. Pieces of the torrent are invalidated
+ * when the torrent is removed or rechecked.
+ *
+ * The returned piece data is shared and must not be modified.
+ */
+
+public class PieceCache extends TorrentEngineListener
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = PieceCache.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024; /* bytes */
+
+    private final long maxSize;
+    /* Guarded by this */
+    private final LinkedHashMap<PieceKey, byte[]> pieces =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public PieceCache()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public PieceCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    @Nullable
+    public byte[] get(@NonNull String torrentId, int piece)
+    {
+        byte[] data;
+        synchronized (this) {
+            data = pieces.get(new PieceKey(torrentId, piece));
+        }
+
+        if (data == null)
+            missCount.incrementAndGet();
+        else
+            hitCount.incrementAndGet();
+
+        return data;
+    }
+
+    public synchronized void put(@NonNull String torrentId, int piece, @NonNull byte[] data)
+    {
+        /* Doesn't fit at all */
+        if (data.length > maxSize)
+            return;
+
+        byte[] prevData = pieces.put(new PieceKey(torrentId, piece), data);
+        if (prevData != null)
+            size -= prevData.length;
+        size += data.length;
+
+        Iterator<byte[]> it = pieces.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().length;
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidate(@NonNull String torrentId)
+    {
+        Iterator<Map.Entry<PieceKey, byte[]>> it = pieces.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PieceKey, byte[]> entry = it.next();
+            if (entry.getKey().torrentId.equals(torrentId)) {
+                size -= entry.getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        pieces.clear();
+        size = 0;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /* In bytes */
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    @Override
+    public void onTorrentRemoved(@NonNull String id)
+    {
+        invalidate(id);
+    }
+
+    @Override
+    public void onTorrentStateChanged(@NonNull String id,
+                                      @NonNull TorrentStateCode prevState,
+                                      @NonNull TorrentStateCode curState)
+    {
+        /* The data on the disk may be changed after checking */
+        if (curState == TorrentStateCode.CHECKING)
+            invalidate(id);
+    }
+
+    @Override
+    public void onSessionStopped()
+    {
+        clear();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Holders of the piece deadlines, shared by all streams. Several streams
+ * of the same file may schedule the same piece, so the deadline
+ * is reset only when the last stream that holds it releases the piece.
+ */
+
+public class PieceDeadlines
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = PieceDeadlines.class.getSimpleName();
+
+    /* Guarded by this */
+    private final HashMap<PieceKey, HashSet<Object>> holders = new HashMap<>();
+
+    /*
+     * Returns true if the piece wasn't held by anyone before
+     */
+
+    public synchronized boolean hold(@NonNull String torrentId, int piece, @NonNull Object holder)
+    {
+        PieceKey key = new PieceKey(torrentId, piece);
+        HashSet<Object> set = holders.get(key);
+        if (set == null) {
+            set = new HashSet<>();
+            holders.put(key, set);
+        }
+        boolean first = set.isEmpty();
+        set.add(holder);
+
+        return first;
+    }
+
+    /*
+     * Returns true if the deadline of the piece can be reset,
+     * i.e. there are no other holders
+     */
+
+    public synchronized boolean release(@NonNull String torrentId, int piece, @NonNull Object holder)
+    {
+        PieceKey key = new PieceKey(torrentId, piece);
+        HashSet<Object> set = holders.get(key);
+        if (set == null || !set.remove(holder))
+            return false;
+        if (!set.isEmpty())
+            return false;
+        holders.remove(key);
+
+        return true;
+    }
+
+    synchronized int size()
+    {
+        return holders.size();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+/*
+ * Identifies the piece of the particular torrent
+ */
+
+final class PieceKey
+{
+    final String torrentId;
+    final int piece;
+
+    PieceKey(@NonNull String torrentId, int piece)
+    {
+        this.torrentId = torrentId;
+        this.piece = piece;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * torrentId.hashCode() + piece;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof PieceKey))
+            return false;
+
+        PieceKey key = (PieceKey)o;
+
+        return piece == key.piece && torrentId.equals(key.torrentId);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PieceKey{" +
+                "torrentId='" + torrentId + '\'' +
+                ", piece=" + piece +
+                '}';
+    }
+}
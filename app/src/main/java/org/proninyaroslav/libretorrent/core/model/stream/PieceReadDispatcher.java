@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
+import org.proninyaroslav.libretorrent.core.model.data.ReadPieceInfo;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Routes the read piece results to the streams that are waiting for
+ * this piece of this torrent, instead of offering each result to every stream.
+ * Called on the alert thread, the piece buffer is valid only during the call.
+ */
+
+public class PieceReadDispatcher extends TorrentEngineListener
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = PieceReadDispatcher.class.getSimpleName();
+
+    public interface Reader
+    {
+        void onReadPiece(@NonNull ReadPieceInfo info);
+    }
+
+    private final ConcurrentHashMap<PieceKey, CopyOnWriteArrayList<Reader>> readers =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public void onReadPiece(@NonNull String id, ReadPieceInfo info)
+    {
+        if (info == null)
+            return;
+
+        dispatch(id, info);
+    }
+
+    void dispatch(@NonNull String torrentId, @NonNull ReadPieceInfo info)
+    {
+        CopyOnWriteArrayList<Reader> pieceReaders = readers.get(new PieceKey(torrentId, info.piece));
+        if (pieceReaders == null)
+            return;
+
+        for (Reader reader : pieceReaders)
+            reader.onReadPiece(info);
+    }
+
+    /*
+     * Must be called before the piece reading request,
+     * otherwise the result can be missed
+     */
+
+    public void register(@NonNull String torrentId, int piece, @NonNull Reader reader)
+    {
+        PieceKey key = new PieceKey(torrentId, piece);
+        synchronized (readers) {
+            CopyOnWriteArrayList<Reader> pieceReaders = readers.get(key);
+            if (pieceReaders == null) {
+                pieceReaders = new CopyOnWriteArrayList<>();
+                readers.put(key, pieceReaders);
+            }
+            pieceReaders.addIfAbsent(reader);
+        }
+    }
+
+    public void unregister(@NonNull String torrentId, int piece, @NonNull Reader reader)
+    {
+        PieceKey key = new PieceKey(torrentId, piece);
+        synchronized (readers) {
+            CopyOnWriteArrayList<Reader> pieceReaders = readers.get(key);
+            if (pieceReaders == null)
+                return;
+
+            pieceReaders.remove(reader);
+            if (pieceReaders.isEmpty())
+                readers.remove(key);
+        }
+    }
+
+    int size()
+    {
+        return readers.size();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/*
+ * The file of the stream opened on the disk. The owner of the file descriptor
+ * (e.g. ParcelFileDescriptor) is closed along with the channel
+ */
+
+public class StreamFile implements Closeable
+{
+    private final FileChannel channel;
+    private final Closeable owner;
+
+    public StreamFile(@NonNull FileChannel channel, @Nullable Closeable owner)
+    {
+        this.channel = channel;
+        this.owner = owner;
+    }
+
+    @NonNull
+    public FileChannel getChannel()
+    {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            channel.close();
+
+        } finally {
+            if (owner != null)
+                owner.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Counters of the streams, shared by the input streams and the server.
+ * The counters of the stream are looked up once per input stream (or response)
+ * and then only incremented, so they can be always enabled.
+ */
+
+public class StreamMetrics
+{
+    private static final int MAX_STREAMS = 64;
+
+    public static class Counters
+    {
+        @NonNull
+        public final TorrentStream stream;
+        /* Server */
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong bytesServed = new AtomicLong();
+        final AtomicLong firstByteCount = new AtomicLong();
+        final AtomicLong firstByteTime = new AtomicLong(); /* ns */
+        /* Input stream */
+        final AtomicLong stallCount = new AtomicLong();
+        final AtomicLong stallTime = new AtomicLong(); /* ns */
+        final AtomicLong pieceReadCount = new AtomicLong();
+        final AtomicLong pieceReadTime = new AtomicLong(); /* ns */
+
+        Counters(@NonNull TorrentStream stream)
+        {
+            this.stream = stream;
+        }
+
+        void onRequest()
+        {
+            requests.incrementAndGet();
+        }
+
+        void onServed(long bytes)
+        {
+            bytesServed.addAndGet(bytes);
+        }
+
+        void onFirstByte(long time)
+        {
+            firstByteCount.incrementAndGet();
+            firstByteTime.addAndGet(time);
+        }
+
+        void onStall(long time)
+        {
+            stallCount.incrementAndGet();
+            stallTime.addAndGet(time);
+        }
+
+        /*
+         * Time from the piece read request to the read piece alert
+         */
+
+        void onPieceRead(long time)
+        {
+            pieceReadCount.incrementAndGet();
+            pieceReadTime.addAndGet(time);
+        }
+
+        public long getRequests()
+        {
+            return requests.get();
+        }
+
+        public long getBytesServed()
+        {
+            return bytesServed.get();
+        }
+
+        public long getStallCount()
+        {
+            return stallCount.get();
+        }
+
+        public long getPieceReadCount()
+        {
+            return pieceReadCount.get();
+        }
+    }
+
+    /* The latest used streams */
+    private final LinkedHashMap<String, Counters> counters =
+            new LinkedHashMap<String, Counters>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Counters> eldest)
+                {
+                    return size() > MAX_STREAMS;
+                }
+            };
+
+    @NonNull
+    public synchronized Counters get(@NonNull TorrentStream stream)
+    {
+        Counters c = counters.get(stream.id);
+        if (c == null) {
+            c = new Counters(stream);
+            counters.put(stream.id, c);
+        }
+
+        return c;
+    }
+
+    @NonNull
+    public synchronized List<Counters> getAll()
+    {
+        return new ArrayList<>(counters.values());
+    }
+}
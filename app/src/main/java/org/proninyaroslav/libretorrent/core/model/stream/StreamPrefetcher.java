@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/*
+ * Prefetch stage of the stream. When the stream is requested for the first time,
+ * the head of the file is requested at once, then the container is sniffed
+ * from the first piece and the index region (MP4 moov or MKV cues),
+ * that the player reads before the playback, is requested at top priority too.
+ * Also measures the startup of the stream: time to the container sniffing
+ * and time to the first frame, i.e. the first media data sent to the player
+ * after it has read the header and the index.
+ *
+ * The head is read by the stream without the readahead, so the sniffing
+ * doesn't set or reset the deadlines of the pieces that the player needs.
+ * The deadlines of the head and the index region are held by the startup
+ * (see PieceDeadlines) until the first frame. The sniffing is cancelled and
+ * the deadlines are released when the startup is evicted or the server is stopped.
+ */
+
+class StreamPrefetcher
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = StreamPrefetcher.class.getSimpleName();
+
+    static final long HEAD_SIZE = 2 * 1024 * 1024;
+    static final long MAX_INDEX_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_STARTUPS = 32;
+
+    interface Target
+    {
+        /* The stream mustn't touch the piece deadlines */
+        InputStream openStream(@NonNull TorrentStream stream) throws IOException;
+
+        /*
+         * The deadline is reset when the last holder releases the piece
+         */
+
+        void holdPieceDeadline(@NonNull TorrentStream stream, int pieceIndex, int deadline,
+                               @NonNull Object holder);
+
+        void releasePieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                  @NonNull Object holder);
+    }
+
+    static class Startup
+    {
+        @NonNull
+        final TorrentStream stream;
+        /* ns */
+        final long openTime;
+        @NonNull
+        private final Target target;
+        @Nullable
+        private volatile ContainerSniffer.Index index;
+        private volatile boolean sniffed;
+        /* ms since open, -1 if not yet */
+        private volatile long sniffTime = -1;
+        private volatile long firstFrameTime = -1;
+        private volatile boolean indexServed;
+        /* Guarded by this */
+        private InputStream sniffStream;
+        private boolean cancelled;
+        private final ArrayList<Integer> heldPieces = new ArrayList<>();
+        private boolean piecesReleased;
+
+        Startup(@NonNull TorrentStream stream, long openTime, @NonNull Target target)
+        {
+            this.stream = stream;
+            this.openTime = openTime;
+            this.target = target;
+        }
+
+        @Nullable
+        ContainerSniffer.Index getIndex()
+        {
+            return index;
+        }
+
+        boolean isSniffed()
+        {
+            return sniffed;
+        }
+
+        long getSniffTime()
+        {
+            return sniffTime;
+        }
+
+        long getFirstFrameTime()
+        {
+            return firstFrameTime;
+        }
+
+        /*
+         * Returns false if the startup is already cancelled
+         */
+
+        private synchronized boolean setSniffStream(@Nullable InputStream is)
+        {
+            if (cancelled)
+                return false;
+            sniffStream = is;
+
+            return true;
+        }
+
+        synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        private synchronized void holdPiece(int piece)
+        {
+            if (piecesReleased || heldPieces.contains(piece))
+                return;
+
+            heldPieces.add(piece);
+            target.holdPieceDeadline(stream, piece, StreamScheduler.MIN_PIECE_DEADLINE, this);
+        }
+
+        /*
+         * After the first frame the pieces are scheduled by the player stream
+         */
+
+        private synchronized void releasePieces()
+        {
+            if (piecesReleased)
+                return;
+
+            piecesReleased = true;
+            for (int piece : heldPieces)
+                target.releasePieceDeadline(stream, piece, this);
+            heldPieces.clear();
+        }
+
+        /*
+         * Interrupts the sniffing that waits for the head of the file
+         */
+
+        void cancel()
+        {
+            InputStream is;
+            synchronized (this) {
+                cancelled = true;
+                is = sniffStream;
+                sniffStream = null;
+            }
+            releasePieces();
+            if (is == null)
+                return;
+
+            try {
+                is.close();
+
+            } catch (IOException e) {
+                /* Ignore */
+            }
+        }
+
+        /*
+         * Called for each chunk of the response body sent to the player
+         */
+
+        void onServed(long pos, long n)
+        {
+            if (firstFrameTime >= 0 || n <= 0 || !sniffed)
+                return;
+
+            ContainerSniffer.Index index = this.index;
+            long headerEnd = ContainerSniffer.SNIFF_SIZE;
+            boolean indexAtHead = index != null && index.offset < HEAD_SIZE;
+            if (indexAtHead)
+                headerEnd = index.offset + index.length;
+
+            if (index != null && !indexAtHead && index.overlaps(pos, n)) {
+                indexServed = true;
+                return;
+            }
+            if (pos + n <= headerEnd)
+                return;
+            /* The index at the tail must be read before the media data */
+            if (index != null && !indexAtHead && !indexServed)
+                return;
+
+            firstFrameTime = (System.nanoTime() - openTime) / 1_000_000;
+            releasePieces();
+            Log.i(TAG, "Time to first frame: " + firstFrameTime + " ms, " + this);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Startup{" +
+                    "stream=" + stream.id +
+                    ", index=" + index +
+                    ", sniffTime=" + sniffTime +
+                    ", firstFrameTime=" + firstFrameTime +
+                    '}';
+        }
+    }
+
+    private final Target target;
+    private final Executor executor;
+    /* The latest requested streams */
+    private final LinkedHashMap<String, Startup> startups =
+            new LinkedHashMap<String, Startup>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Startup> eldest)
+                {
+                    if (size() <= MAX_STARTUPS)
+                        return false;
+                    eldest.getValue().cancel();
+
+                    return true;
+                }
+            };
+
+    StreamPrefetcher(@NonNull Target target, @NonNull Executor executor)
+    {
+        this.target = target;
+        this.executor = executor;
+    }
+
+    /*
+     * Starts the prefetch if the stream is requested for the first time
+     */
+
+    @NonNull
+    Startup onStreamRequested(@NonNull TorrentStream stream)
+    {
+        Startup startup;
+        synchronized (startups) {
+            startup = startups.get(stream.id);
+            if (startup != null)
+                return startup;
+            startup = new Startup(stream, System.nanoTime(), target);
+            startups.put(stream.id, startup);
+        }
+
+        requestRegion(startup, 0, HEAD_SIZE);
+        Startup s = startup;
+        executor.execute(() -> sniff(s));
+
+        return startup;
+    }
+
+    @Nullable
+    Startup getStartup(@NonNull String streamId)
+    {
+        synchronized (startups) {
+            return startups.get(streamId);
+        }
+    }
+
+    /*
+     * Cancels the pending sniffing, e.g. when the server is stopped
+     */
+
+    void stop()
+    {
+        ArrayList<Startup> list;
+        synchronized (startups) {
+            list = new ArrayList<>(startups.values());
+            startups.clear();
+        }
+        for (Startup startup : list)
+            startup.cancel();
+    }
+
+    private void sniff(Startup startup)
+    {
+        TorrentStream stream = startup.stream;
+        int len = (int)Math.min(ContainerSniffer.SNIFF_SIZE, stream.fileSize);
+        byte[] head = new byte[len];
+        int read = 0;
+        InputStream is = null;
+        try {
+            is = target.openStream(stream);
+            if (!startup.setSniffStream(is))
+                return;
+            /* Blocks until the first piece is downloaded */
+            while (read < len) {
+                int n = is.read(head, read, len - read);
+                if (n <= 0)
+                    break;
+                read += n;
+            }
+
+        } catch (IOException e) {
+            if (!startup.isCancelled())
+                Log.w(TAG, "Unable to sniff the container: " + Log.getStackTraceString(e));
+
+        } finally {
+            startup.setSniffStream(null);
+            if (is != null) {
+                try {
+                    is.close();
+
+                } catch (IOException e) {
+                    /* Ignore */
+                }
+            }
+        }
+        if (startup.isCancelled()) {
+            Log.i(TAG, "Sniffing cancelled: " + startup);
+            return;
+        }
+
+        ContainerSniffer.Index index = ContainerSniffer.sniff(head, read, stream.fileSize);
+        if (index != null && index.offset >= HEAD_SIZE)
+            requestRegion(startup, index.offset, Math.min(index.length, MAX_INDEX_SIZE));
+
+        startup.index = index;
+        startup.sniffTime = (System.nanoTime() - startup.openTime) / 1_000_000;
+        startup.sniffed = true;
+        Log.i(TAG, "Sniffed: " + startup);
+    }
+
+    private void requestRegion(Startup startup, long offset, long length)
+    {
+        TorrentStream stream = startup.stream;
+        long end = Math.min(stream.fileSize, offset + length);
+        if (offset >= end)
+            return;
+
+        int firstPiece = (int)((stream.fileOffset + offset) / stream.pieceLength);
+        int lastPiece = (int)((stream.fileOffset + end - 1) / stream.pieceLength);
+        for (int piece = firstPiece; piece <= lastPiece; piece++)
+            startup.holdPiece(piece);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/*
+ * Readahead scheduler of the stream. Measures the read rate of the consumer
+ * and keeps the window of the pieces ahead of the read position,
+ * sized in bytes, with the deadlines spread according to the time
+ * when the consumer reaches the piece. The deadlines of the pieces
+ * that left the window (already read or abandoned after seek) are reset.
+ * Only the pieces scheduled by this scheduler are reset, and the target
+ * keeps the deadline if another stream still holds the piece (see PieceDeadlines).
+ */
+
+public class StreamScheduler
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = StreamScheduler.class.getSimpleName();
+
+    /* Readahead of the consumer in seconds */
+    private static final long READAHEAD_TIME = 10;
+    private static final long DEFAULT_WINDOW_SIZE = 8 * 1024 * 1024; /* bytes */
+    private static final long MIN_WINDOW_SIZE = 4 * 1024 * 1024; /* bytes */
+    private static final long MAX_WINDOW_SIZE = 64 * 1024 * 1024; /* bytes */
+    private static final int MIN_WINDOW_PIECES = 2;
+    private static final int MAX_WINDOW_PIECES = 64;
+    static final int MIN_PIECE_DEADLINE = 500; /* ms */
+    static final int MAX_PIECE_DEADLINE = 60000; /* ms */
+    /* Deadline spread if the read rate is unknown */
+    private static final int DEFAULT_DEADLINE_STEP = 500; /* ms */
+    private static final long RATE_SAMPLE_TIME = 500_000_000; /* ns */
+    private static final long MIN_ACTIVE_TIME = 1_000_000; /* ns */
+    private static final double RATE_SMOOTHING = 0.3;
+
+    public interface Target
+    {
+        void setPieceDeadline(int pieceIndex, int deadline);
+
+        void resetPieceDeadline(int pieceIndex);
+    }
+
+    private final int firstPiece, lastPiece;
+    private final int pieceLength;
+    /* Bytes per second, 0 if unknown */
+    private double readRate;
+    private long sampleStartTime = -1;
+    private long sampleBytes;
+    private long sampleStallTime;
+    private int windowStart = -1;
+    private int windowPieces;
+    /* Pieces with the deadline */
+    private final TreeSet<Integer> scheduled = new TreeSet<>();
+
+    public StreamScheduler(int firstPiece, int lastPiece, int pieceLength)
+    {
+        if (pieceLength <= 0 || firstPiece > lastPiece)
+            throw new IllegalArgumentException();
+
+        this.firstPiece = firstPiece;
+        this.lastPiece = lastPiece;
+        this.pieceLength = pieceLength;
+    }
+
+    /*
+     * Called after each read. The time of waiting for not downloaded pieces (stall time)
+     * isn't counted, so the rate reflects the consumer, not the download speed
+     */
+
+    public synchronized void onRead(long bytes, long stallTime, long now)
+    {
+        if (sampleStartTime < 0) {
+            sampleStartTime = now;
+            return;
+        }
+
+        sampleBytes += bytes;
+        sampleStallTime += stallTime;
+
+        long elapsed = now - sampleStartTime;
+        if (elapsed < RATE_SAMPLE_TIME)
+            return;
+
+        long activeTime = Math.max(elapsed - sampleStallTime, MIN_ACTIVE_TIME);
+        double rate = sampleBytes * 1e9 / activeTime;
+        readRate = (readRate == 0 ? rate : readRate + RATE_SMOOTHING * (rate - readRate));
+
+        sampleStartTime = now;
+        sampleBytes = 0;
+        sampleStallTime = 0;
+    }
+
+    /*
+     * Schedules the window from the piece of the current read position.
+     * The window includes at least the pieces of the current read
+     */
+
+    public synchronized void schedule(int startPiece, int numPieces, @NonNull Target target)
+    {
+        if (startPiece < firstPiece || startPiece > lastPiece || numPieces < 0)
+            return;
+
+        int pieces = Math.max(numPieces, calcWindowPieces());
+        /* Nothing changed since the last time */
+        if (startPiece == windowStart && pieces <= windowPieces)
+            return;
+
+        windowStart = startPiece;
+        windowPieces = pieces;
+        int windowEnd = (int)Math.min((long)startPiece + pieces - 1, lastPiece);
+
+        Iterator<Integer> it = scheduled.iterator();
+        while (it.hasNext()) {
+            int piece = it.next();
+            if (piece < startPiece || piece > windowEnd) {
+                target.resetPieceDeadline(piece);
+                it.remove();
+            }
+        }
+
+        for (int piece = startPiece; piece <= windowEnd; piece++) {
+            target.setPieceDeadline(piece, calcDeadline(piece - startPiece));
+            scheduled.add(piece);
+        }
+    }
+
+    /*
+     * Resets all deadlines, e.g. when the stream is closed
+     */
+
+    public synchronized void cancel(@NonNull Target target)
+    {
+        for (int piece : scheduled)
+            target.resetPieceDeadline(piece);
+        scheduled.clear();
+        windowStart = -1;
+        windowPieces = 0;
+    }
+
+    public synchronized double getReadRate()
+    {
+        return readRate;
+    }
+
+    public synchronized int getWindowPieces()
+    {
+        return calcWindowPieces();
+    }
+
+    private int calcWindowPieces()
+    {
+        long windowSize;
+        if (readRate == 0) {
+            windowSize = DEFAULT_WINDOW_SIZE;
+        } else {
+            windowSize = (long)(readRate * READAHEAD_TIME);
+            windowSize = Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, windowSize));
+        }
+        long pieces = (windowSize + pieceLength - 1) / pieceLength;
+
+        return (int)Math.max(MIN_WINDOW_PIECES, Math.min(MAX_WINDOW_PIECES, pieces));
+    }
+
+    /*
+     * Time (ms) until the consumer reaches the piece
+     * with the given distance from the current one
+     */
+
+    private int calcDeadline(int distance)
+    {
+        long deadline;
+        if (readRate == 0)
+            deadline = MIN_PIECE_DEADLINE + (long)distance * DEFAULT_DEADLINE_STEP;
+        else
+            deadline = MIN_PIECE_DEADLINE + (long)((double)distance * pieceLength * 1000 / readRate);
+
+        return (int)Math.min(deadline, MAX_PIECE_DEADLINE);
+    }
+}
@@ -24,13 +24,14 @@ import androidx.annotation.NonNull;
 
 import com.sun.jna.Pointer;
 
-import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
 import org.proninyaroslav.libretorrent.core.model.data.ReadPieceInfo;
+import org.proninyaroslav.libretorrent.core.model.session.PieceFuture;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentDownload;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentSession;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.concurrent.locks.ReentrantLock;
 
 /*
@@ -53,13 +54,20 @@ public class TorrentInputStream extends InputStream
     public static final int EOF = -1;
 
     private TorrentSession session;
+    private PieceReadDispatcher readDispatcher;
+    private PieceCache pieceCache;
+    private PieceDeadlines deadlines;
     private TorrentStream stream;
     private ReadSession readSession;
     private long filePos, fileStart, eof;
-    private byte[] cacheBuf;
-    private int cachePieceIndex = -1;
     private boolean stopped;
-    private static ReentrantLock lock = new ReentrantLock();
+    /* Serializes reading of this stream only, other streams are read independently */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PieceReadDispatcher.Reader pieceReader = this::onReadPiece;
+    private final PieceFuture.Listener pieceListener = (future) -> pieceFinished();
+    /* Null if the stream doesn't set the deadlines */
+    private final StreamScheduler scheduler;
+    private final StreamMetrics.Counters counters;
 
     private class ReadSession
     {
@@ -74,7 +82,8 @@ public class TorrentInputStream extends InputStream
         int readLength;
         int readOffset;
         int bufIndex;
-        boolean cache = false;
+        /* ns */
+        long readRequestTime;
 
         Piece(int index)
         {
@@ -94,10 +103,39 @@ public class TorrentInputStream extends InputStream
         }
     }
 
-    public TorrentInputStream(@NonNull TorrentSession session, @NonNull TorrentStream stream)
+    public TorrentInputStream(@NonNull TorrentSession session,
+                              @NonNull PieceReadDispatcher readDispatcher,
+                              @NonNull PieceCache pieceCache,
+                              @NonNull PieceDeadlines deadlines,
+                              @NonNull StreamMetrics metrics,
+                              @NonNull TorrentStream stream)
+    {
+        this(session, readDispatcher, pieceCache, deadlines, metrics, stream, true);
+    }
+
+    /*
+     * Without the readahead the stream only waits for the pieces
+     * and never touches their deadlines, e.g. for the background reading
+     * of the container header, that mustn't disturb the player streams
+     */
+
+    public TorrentInputStream(@NonNull TorrentSession session,
+                              @NonNull PieceReadDispatcher readDispatcher,
+                              @NonNull PieceCache pieceCache,
+                              @NonNull PieceDeadlines deadlines,
+                              @NonNull StreamMetrics metrics,
+                              @NonNull TorrentStream stream,
+                              boolean readahead)
     {
         this.session = session;
+        this.readDispatcher = readDispatcher;
+        this.pieceCache = pieceCache;
+        this.deadlines = deadlines;
         this.stream = stream;
+        counters = metrics.get(stream);
+        scheduler = (readahead ?
+                     new StreamScheduler(stream.firstFilePiece, stream.lastFilePiece, stream.pieceLength) :
+                     null);
         TorrentDownload task = session.getTask(stream.torrentId);
         if (task == null)
             throw new NullPointerException("task " + stream.torrentId + " is null");
@@ -114,17 +152,17 @@ public class TorrentInputStream extends InputStream
         fileStart = filePos + 1;
         eof = filePos + stream.fileSize;
 
-        session.addListener(listener);
-        task.setInterestedPieces(stream, stream.firstFilePiece, 1);
+        if (scheduler != null)
+            scheduler.schedule(stream.firstFilePiece, 1, deadlineTarget);
     }
 
     @Override
     protected void finalize() throws Throwable
     {
+        if (scheduler != null)
+            scheduler.cancel(deadlineTarget);
         synchronized (this) {
             stopped = true;
-            if (session != null)
-                session.removeListener(listener);
             session = null;
             notifyAll();
         }
@@ -132,16 +170,34 @@ public class TorrentInputStream extends InputStream
         super.finalize();
     }
 
-    private synchronized boolean waitForPiece(TorrentDownload task, int pieceIndex)
+    /*
+     * Woken up only by the finish of this piece (or by the closing of the stream)
+     */
+
+    private boolean waitForPiece(TorrentDownload task, int pieceIndex)
     {
-        while (!Thread.currentThread().isInterrupted() && !stopped) {
-            try {
-                if (task.havePiece(pieceIndex))
-                    return true;
-                wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+        PieceFuture future = task.getPieceFuture(pieceIndex);
+        if (future.isDone())
+            return !future.isCancelled();
+
+        long stallStartTime = System.nanoTime();
+        future.addListener(pieceListener);
+        try {
+            synchronized (this) {
+                while (!Thread.currentThread().isInterrupted() && !stopped) {
+                    try {
+                        if (future.isDone())
+                            return !future.isCancelled();
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
             }
+
+        } finally {
+            future.removeListener(pieceListener);
+            counters.onStall(System.nanoTime() - stallStartTime);
         }
 
         return false;
@@ -177,9 +233,9 @@ public class TorrentInputStream extends InputStream
         return pieceSize - (int)(pieceEnd - pos);
     }
 
-    private void readFromCache(Piece piece, byte[] b)
+    private void readFromPiece(Piece piece, byte[] data, byte[] b)
     {
-        System.arraycopy(cacheBuf, piece.readOffset, b,
+        System.arraycopy(data, piece.readOffset, b,
                          piece.bufIndex, piece.readLength);
     }
 
@@ -195,62 +251,11 @@ public class TorrentInputStream extends InputStream
     @Override
     public int read() throws IOException
     {
-        lock.lock();
-
-        try {
-            if (session == null)
-                throw new IOException("Torrent session is null");
-
-            TorrentDownload task = session.getTask(stream.torrentId);
-            if (task == null)
-                throw new IOException("task " + stream.torrentId + " is null");
-
-            /* EOF check */
-            if (filePos == eof) {
-                cacheBuf = null;
-                return EOF;
-            }
-
-            /* Pieces definition that need to be read */
-            int p = stream.bytesToPieceIndex(filePos + 1);
-
-            task.setInterestedPieces(stream, p, 1);
-
-            readSession = new ReadSession();
-            readSession.piecesForReading = new Piece[1];
-            readSession.buf = new byte[1];
-            readSession.countLatch = 1;
-
-            Piece piece = new Piece(p);
-            piece.readOffset = filePosToPiecePos(p, filePos);
-            piece.readLength = 1;
-            piece.bufIndex = 0;
-
-            /* Check cache */
-            if (p == cachePieceIndex) {
-                readFromCache(piece, readSession.buf);
-                filePos++;
-
-                return toUnsignedByte(readSession.buf[0]);
-            }
-            piece.cache = true;
-            readSession.piecesForReading[0] = piece;
-
-            if (!waitForPiece(task, p))
-                return EOF;
-            /* Async piece reading */
-            task.readPiece(p);
-
-            if (!waitForReadPieces())
-                return EOF;
-            filePos++;
+        byte[] b = new byte[1];
+        if (read(b, 0, 1) == EOF)
+            return EOF;
 
-            return toUnsignedByte(readSession.buf[0]);
-
-        } finally {
-            readSession = null;
-            lock.unlock();
-        }
+        return toUnsignedByte(b[0]);
     }
 
     @Override
@@ -272,10 +277,8 @@ public class TorrentInputStream extends InputStream
                 throw new IOException("Task " + stream.torrentId + " is null");
 
             /* EOF check */
-            if (filePos == eof) {
-                cacheBuf = null;
+            if (filePos == eof)
                 return EOF;
-            }
             if (filePos + len > eof)
                 len = (int)(eof - filePos);
 
@@ -285,15 +288,12 @@ public class TorrentInputStream extends InputStream
             int lastPiece = stream.bytesToPieceIndex(filePos + len);
             int numPieces = lastPiece - firstPiece + 1;
 
-            task.setInterestedPieces(stream, firstPiece, numPieces);
-
-            readSession = new ReadSession();
-            readSession.piecesForReading = new Piece[numPieces];
-            readSession.buf = b;
-            readSession.countLatch = numPieces;
+            if (scheduler != null)
+                scheduler.schedule(firstPiece, numPieces, deadlineTarget);
 
+            ArrayList<Piece> piecesForReading = new ArrayList<>(numPieces);
             int bufIndex = off;
-            for (int p = firstPiece, i = 0; p <= lastPiece; p++, i++) {
+            for (int p = firstPiece; p <= lastPiece; p++) {
                 int pieceSize;
                 if (p == stream.lastFilePiece)
                     pieceSize = stream.lastFilePieceSize;
@@ -302,7 +302,6 @@ public class TorrentInputStream extends InputStream
 
                 Piece piece = new Piece(p);
                 piece.bufIndex = bufIndex;
-                piece.cache = p == lastPiece;
 
                 if (p == firstPiece)
                     piece.readOffset = filePosToPiecePos(firstPiece, filePos);
@@ -320,33 +319,40 @@ public class TorrentInputStream extends InputStream
                 bufIndex += piece.readLength;
 
                 /* Check cache */
-                if (p == cachePieceIndex) {
-                    readFromCache(piece, b);
-                    /* Exit if there are no other pieces except cached */
-                    if (numPieces == 1) {
-                        filePos += len;
+                byte[] data = pieceCache.get(stream.torrentId, p);
+                if (data == null)
+                    piecesForReading.add(piece);
+                else
+                    readFromPiece(piece, data, b);
+            }
 
-                        return len;
-                    }
+            long stallTime = 0;
+            if (!piecesForReading.isEmpty()) {
+                long waitStartTime = System.nanoTime();
+                startReadSession(piecesForReading.toArray(new Piece[0]), b);
+
+                for (Piece piece : piecesForReading) {
+                    if (!waitForPiece(task, piece.index))
+                        return EOF;
+                    /* Async pieces reading */
+                    readDispatcher.register(stream.torrentId, piece.index, pieceReader);
+                    piece.readRequestTime = System.nanoTime();
+                    task.readPiece(piece.index);
                 }
 
-                readSession.piecesForReading[i] = piece;
-
-                if (!waitForPiece(task, p))
+                /* Wait for pieces reading */
+                if (!waitForReadPieces())
                     return EOF;
-                /* Async pieces reading */
-                task.readPiece(p);
+                stallTime = System.nanoTime() - waitStartTime;
             }
-
-            /* Wait for pieces reading */
-            if (!waitForReadPieces())
-                return EOF;
             filePos += len;
+            if (scheduler != null)
+                scheduler.onRead(len, stallTime, System.nanoTime());
 
             return len;
 
         } finally {
-            readSession = null;
+            finishReadSession();
             lock.unlock();
         }
     }
@@ -360,10 +366,11 @@ public class TorrentInputStream extends InputStream
     @Override
     public void close() throws IOException
     {
+        /* Don't leave the priorities after the stream */
+        if (scheduler != null)
+            scheduler.cancel(deadlineTarget);
         synchronized (this) {
             stopped = true;
-            if (session != null)
-                session.removeListener(listener);
             session = null;
             notifyAll();
         }
@@ -388,11 +395,8 @@ public class TorrentInputStream extends InputStream
 
             filePos += n;
 
-            if (session != null) {
-                TorrentDownload task = session.getTask(stream.torrentId);
-                if (task != null)
-                    task.setInterestedPieces(stream, stream.bytesToPieceIndex(filePos + 1), 1);
-            }
+            if (scheduler != null)
+                scheduler.schedule(stream.bytesToPieceIndex(filePos + 1), 1, deadlineTarget);
 
             return n;
 
@@ -407,71 +411,99 @@ public class TorrentInputStream extends InputStream
         return false;
     }
 
-    private TorrentEngineListener listener = new TorrentEngineListener()
+    /*
+     * The deadline of the piece is reset only if the other streams don't hold it
+     */
+
+    private final StreamScheduler.Target deadlineTarget = new StreamScheduler.Target()
     {
         @Override
-        public void onReadPiece(@NonNull String id, ReadPieceInfo info)
+        public void setPieceDeadline(int pieceIndex, int deadline)
         {
-            if (!stream.torrentId.equals(id))
-                return;
-
-            readPiece(info);
+            deadlines.hold(stream.torrentId, pieceIndex, this);
+            TorrentDownload task = getTask();
+            if (task != null)
+                task.setPieceDeadline(pieceIndex, deadline);
         }
 
         @Override
-        public void onPieceFinished(@NonNull String id, int piece)
+        public void resetPieceDeadline(int pieceIndex)
         {
-            if (!stream.torrentId.equals(id))
+            if (!deadlines.release(stream.torrentId, pieceIndex, this))
                 return;
-
-            pieceFinished();
+            TorrentDownload task = getTask();
+            if (task != null)
+                task.resetPieceDeadline(pieceIndex);
         }
     };
 
+    private TorrentDownload getTask()
+    {
+        TorrentSession s = session;
+
+        return (s == null ? null : s.getTask(stream.torrentId));
+    }
+
     private synchronized void pieceFinished()
     {
         notifyAll();
     }
 
-    private void readPiece(ReadPieceInfo info)
+    private synchronized void startReadSession(Piece[] piecesForReading, byte[] buf)
     {
-        lock.lock();
-        try {
-            if (readSession == null)
-                return;
+        readSession = new ReadSession();
+        readSession.piecesForReading = piecesForReading;
+        readSession.buf = buf;
+        readSession.countLatch = piecesForReading.length;
+    }
 
-            Piece piece = null;
-            for (Piece p : readSession.piecesForReading) {
-                if (p.index == info.piece) {
-                    piece = p;
-                    break;
-                }
+    private synchronized void finishReadSession()
+    {
+        if (readSession == null)
+            return;
+
+        for (Piece piece : readSession.piecesForReading) {
+            if (piece != null)
+                readDispatcher.unregister(stream.torrentId, piece.index, pieceReader);
+        }
+        readSession = null;
+    }
+
+    /*
+     * Called by PieceReadDispatcher on the alert thread
+     * only for the pieces of this stream
+     */
+
+    private synchronized void onReadPiece(ReadPieceInfo info)
+    {
+        if (readSession == null)
+            return;
+
+        Piece piece = null;
+        for (Piece p : readSession.piecesForReading) {
+            if (p != null && p.index == info.piece) {
+                piece = p;
+                break;
             }
-            if (readSession.countLatch > 0 && piece != null && readSession.buf != null) {
-                try {
-                    if (info.err != null) {
-                        TorrentDownload task = session.getTask(stream.torrentId);
-                        if (task != null)
-                            task.resume();
-                        return;
-                    }
-                    Pointer ptr = new Pointer(info.bufferPtr);
-                    if (piece.cache) {
-                        cacheBuf = new byte[info.size];
-                        ptr.read(0, cacheBuf, 0, info.size);
-                        cachePieceIndex = piece.index;
-                        readFromCache(piece, readSession.buf);
-                    } else {
-                        ptr.read(piece.readOffset, readSession.buf, piece.bufIndex, piece.readLength);
-                    }
-                } finally {
-                    --readSession.countLatch;
-                    notifyAll();
+        }
+        if (readSession.countLatch > 0 && piece != null && readSession.buf != null) {
+            try {
+                if (info.err != null) {
+                    TorrentDownload task = (session == null ? null : session.getTask(stream.torrentId));
+                    if (task != null)
+                        task.resume();
+                    return;
                 }
+                /* The buffer is valid only during the call, copy the whole piece for the cache */
+                counters.onPieceRead(System.nanoTime() - piece.readRequestTime);
+                byte[] data = new byte[info.size];
+                new Pointer(info.bufferPtr).read(0, data, 0, info.size);
+                pieceCache.put(stream.torrentId, piece.index, data);
+                readFromPiece(piece, data, readSession.buf);
+            } finally {
+                --readSession.countLatch;
+                notifyAll();
             }
-
-        } finally {
-            lock.unlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.nanohttpd.protocols.http.response.IChannelBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * Response body with a range of the stream. Pieces that are already
+ * flushed to the disk are sent from the file with FileChannel.transferTo(),
+ * which doesn't copy the data to the heap if the target is a socket channel.
+ * Only the rest of the pieces are read through the stream (read piece alert).
+ * The stream is opened on the first missing piece, so the finished ranges
+ * are served without the torrent session at all.
+ */
+
+class TorrentStreamBody implements IChannelBody
+{
+    @SuppressWarnings("unused")
+    private static final String TAG = TorrentStreamBody.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    interface PieceChecker
+    {
+        boolean isPieceFlushed(int pieceIndex);
+    }
+
+    interface StreamOpener
+    {
+        InputStream open() throws IOException;
+    }
+
+    interface ServeListener
+    {
+        void onServed(long pos, long n);
+    }
+
+    private final TorrentStream stream;
+    private final StreamOpener opener;
+    private InputStream is;
+    /* Position of the opened stream */
+    private long streamPos;
+    private final StreamFile file;
+    private final PieceChecker checker;
+    private ServeListener listener;
+    /* Position in the file */
+    private long pos;
+    private final long end;
+    private byte[] buf;
+    private long diskBytes, readBytes;
+    /* The last piece known to be on the disk */
+    private int flushedPiece = -1;
+
+    TorrentStreamBody(@NonNull TorrentStream stream,
+                      @NonNull StreamOpener opener,
+                      @Nullable StreamFile file,
+                      @NonNull PieceChecker checker,
+                      long start,
+                      long length) throws IOException
+    {
+        this.stream = stream;
+        this.opener = opener;
+        this.file = file;
+        this.checker = checker;
+        pos = start;
+        end = Math.min(stream.fileSize, start + length);
+
+        if (file == null || !isPieceFlushed(pieceIndex(start)))
+            openStream();
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel target, long count) throws IOException
+    {
+        if (pos >= end)
+            return -1;
+
+        int piece = pieceIndex(pos);
+        long pieceEnd = (long)(piece + 1) * stream.pieceLength - stream.fileOffset;
+        long n = Math.min(count, Math.min(pieceEnd, end) - pos);
+
+        long written = 0;
+        if (file != null && isPieceFlushed(piece)) {
+            /*
+             * Open the stream in advance if the next piece is missing,
+             * so that it's already requested when we get there
+             */
+            if (is == null && pieceEnd < end && !isPieceFlushed(piece + 1))
+                openStream();
+            /* Returns 0 if the file on the disk is shorter */
+            written = file.getChannel().transferTo(pos, n, target);
+            if (written > 0) {
+                diskBytes += written;
+                /* Keep the opened stream position, it schedules the next pieces */
+                if (is != null)
+                    skipStream(pos + written - streamPos);
+            }
+        }
+        if (written <= 0) {
+            if (is == null)
+                openStream();
+            /* Catch up with the disk reads */
+            skipStream(pos - streamPos);
+            written = readFromStream(target, n);
+            if (written < 0)
+                return -1;
+            readBytes += written;
+        }
+        if (listener != null)
+            listener.onServed(pos, written);
+        pos += written;
+
+        return written;
+    }
+
+    private long readFromStream(WritableByteChannel target, long n) throws IOException
+    {
+        if (buf == null)
+            buf = new byte[BUFFER_SIZE];
+
+        int len = is.read(buf, 0, (int)Math.min(n, buf.length));
+        if (len <= 0)
+            return -1;
+        streamPos += len;
+
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, len);
+        while (b.hasRemaining())
+            target.write(b);
+
+        return len;
+    }
+
+    private void openStream() throws IOException
+    {
+        is = opener.open();
+        streamPos = 0;
+        skipStream(pos);
+    }
+
+    private void skipStream(long n) throws IOException
+    {
+        while (n > 0) {
+            long skipped = is.skip(n);
+            if (skipped <= 0)
+                break;
+            streamPos += skipped;
+            n -= skipped;
+        }
+    }
+
+    private int pieceIndex(long filePos)
+    {
+        return (int)((stream.fileOffset + filePos) / stream.pieceLength);
+    }
+
+    private boolean isPieceFlushed(int piece)
+    {
+        if (piece == flushedPiece)
+            return true;
+        if (!checker.isPieceFlushed(piece))
+            return false;
+        flushedPiece = piece;
+
+        return true;
+    }
+
+    void setServeListener(@Nullable ServeListener listener)
+    {
+        this.listener = listener;
+    }
+
+    boolean isStreamOpened()
+    {
+        return is != null;
+    }
+
+    long getDiskBytes()
+    {
+        return diskBytes;
+    }
+
+    long getReadBytes()
+    {
+        return readBytes;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            if (is != null)
+                is.close();
+
+        } finally {
+            if (file != null)
+                file.close();
+        }
+    }
+}
@@ -20,23 +20,37 @@
 package org.proninyaroslav.libretorrent.core.model.stream;
 
 import android.content.Context;
+import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.nanohttpd.protocols.http.IHTTPSession;
 import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.response.IChannelBody;
 import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.response.Status;
+import org.nanohttpd.protocols.http.sockets.ChannelServerSocketFactory;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngine;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.schedulers.Schedulers;
 
 import static org.nanohttpd.protocols.http.response.Response.newFixedLengthResponse;
 import static org.nanohttpd.protocols.http.response.Status.BAD_REQUEST;
@@ -58,6 +72,8 @@ public class TorrentStreamServer extends NanoHTTPD
     private static final String TAG = TorrentStreamServer.class.getSimpleName();
 
     private static final String MIME_OCTET_STREAM = "application/octet-stream";
+    /* Size of the beginning of each requested range, that is downloaded first */
+    private static final long RANGE_HINT_SIZE = 64 * 1024;
 
     private static HashMap<String, DLNAFileType> DLNA_FILE_TYPES;
     static {
@@ -67,18 +83,152 @@ public class TorrentStreamServer extends NanoHTTPD
         DLNA_FILE_TYPES.put("mkv", new DLNAFileType("mkv", "video/x-matroska", "DLNA.ORG_PN=AVC_MKV_MP_HD_AC3;DLNA.ORG_OP=01;DLNA.ORG_CI=0;DLNA.ORG_FLAGS=01700000000000000000000000000000", "Streaming"));
     }
 
-    private TorrentEngine engine;
+    /*
+     * Source of the streams. Allows to test the server without the engine
+     */
+
+    interface StreamProvider
+    {
+        TorrentStream getStream(@NonNull String torrentId, int fileIndex);
+
+        /*
+         * The stream without the readahead doesn't set the piece deadlines
+         */
+
+        InputStream openStream(@NonNull TorrentStream stream, boolean readahead) throws IOException;
+
+        @Nullable
+        StreamFile openFile(@NonNull TorrentStream stream) throws IOException;
+
+        boolean isPieceFlushed(@NonNull TorrentStream stream, int pieceIndex);
+
+        /*
+         * The deadline is reset when the last holder releases the piece, see PieceDeadlines
+         */
+
+        void holdPieceDeadline(@NonNull TorrentStream stream, int pieceIndex, int deadline,
+                               @NonNull Object holder);
+
+        void releasePieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                  @NonNull Object holder);
+
+        @NonNull
+        StreamMetrics getMetrics();
+
+        @Nullable
+        PieceCache getPieceCache();
+    }
+
+    private StreamProvider provider;
+    private StreamPrefetcher prefetcher;
+    private final BoundedAsyncRunner runner;
+    /* Hints of the responses being sent, released on the stop */
+    private final Set<RangeHint> hints =
+            Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     public TorrentStreamServer(@NonNull String host, int port)
+    {
+        /* Socket adaptors of the older NIO don't support read timeouts */
+        this(host, port, new BoundedAsyncRunner(),
+             Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+    }
+
+    TorrentStreamServer(@NonNull String host, int port,
+                        @NonNull BoundedAsyncRunner runner,
+                        boolean zeroCopy)
     {
         super(host, port);
+
+        this.runner = runner;
+        setAsyncRunner(runner);
+        /* Sockets with channels, to send the files with sendfile() */
+        if (zeroCopy)
+            setServerSocketFactory(new ChannelServerSocketFactory());
     }
 
     public void start(@NonNull Context appContext) throws IOException
     {
         Log.i(TAG, "Start " + TAG);
 
-        engine = TorrentEngine.getInstance(appContext);
+        TorrentEngine engine = TorrentEngine.getInstance(appContext);
+        start(new StreamProvider() {
+            @Override
+            public TorrentStream getStream(@NonNull String torrentId, int fileIndex)
+            {
+                return engine.getStream(torrentId, fileIndex);
+            }
+
+            @Override
+            public InputStream openStream(@NonNull TorrentStream stream, boolean readahead)
+            {
+                return engine.getTorrentInputStream(stream, readahead);
+            }
+
+            @Override
+            public StreamFile openFile(@NonNull TorrentStream stream) throws IOException
+            {
+                return engine.openStreamFile(stream);
+            }
+
+            @Override
+            public boolean isPieceFlushed(@NonNull TorrentStream stream, int pieceIndex)
+            {
+                return engine.isPieceFlushed(stream.torrentId, pieceIndex);
+            }
+
+            @Override
+            public void holdPieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                          int deadline, @NonNull Object holder)
+            {
+                engine.holdPieceDeadline(stream.torrentId, pieceIndex, deadline, holder);
+            }
+
+            @Override
+            public void releasePieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                             @NonNull Object holder)
+            {
+                engine.releasePieceDeadline(stream.torrentId, pieceIndex, holder);
+            }
+
+            @NonNull
+            @Override
+            public StreamMetrics getMetrics()
+            {
+                return engine.getStreamMetrics();
+            }
+
+            @Override
+            public PieceCache getPieceCache()
+            {
+                return engine.getPieceCache();
+            }
+        });
+    }
+
+    void start(@NonNull StreamProvider provider) throws IOException
+    {
+        this.provider = provider;
+        prefetcher = new StreamPrefetcher(new StreamPrefetcher.Target() {
+            @Override
+            public InputStream openStream(@NonNull TorrentStream stream) throws IOException
+            {
+                return provider.openStream(stream, false);
+            }
+
+            @Override
+            public void holdPieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                          int deadline, @NonNull Object holder)
+            {
+                provider.holdPieceDeadline(stream, pieceIndex, deadline, holder);
+            }
+
+            @Override
+            public void releasePieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                             @NonNull Object holder)
+            {
+                provider.releasePieceDeadline(stream, pieceIndex, holder);
+            }
+        }, (task) -> Schedulers.io().scheduleDirect(task));
 
         super.start();
     }
@@ -87,12 +237,39 @@ public class TorrentStreamServer extends NanoHTTPD
     public void stop()
     {
         super.stop();
+        if (prefetcher != null)
+            prefetcher.stop();
+        for (RangeHint hint : hints)
+            hint.release();
+
+        Log.i(TAG, "Stop " + TAG + ": " + runner);
+    }
 
-        Log.i(TAG, "Stop " + TAG);
+    BoundedAsyncRunner getAsyncRunner()
+    {
+        return runner;
+    }
+
+    @Nullable
+    StreamPrefetcher.Startup getStartup(@NonNull String streamId)
+    {
+        return (prefetcher == null ? null : prefetcher.getStartup(streamId));
+    }
+
+    /*
+     * Don't let idle persistent connections hold the pool threads
+     * while other clients are waiting
+     */
+
+    @Override
+    protected boolean isKeepAliveAllowed()
+    {
+        return !runner.isSaturated();
     }
 
     /*
      * URL format: http://'hostname':'port'/stream?file='file_index'&torrent='torrent_hash'
+     * Metrics of the server are available at http://'hostname':'port'/metrics
      */
 
     public static String makeStreamUrl(@NonNull String hostname, int port,
@@ -116,6 +293,9 @@ public class TorrentStreamServer extends NanoHTTPD
     public Response handle(IHTTPSession session)
     {
         String uri = session.getUri();
+        if ("/metrics".equals(uri))
+            return handleMetrics();
+
         String extension = uri.substring(uri.lastIndexOf('.') + 1);
         DLNAFileType fileType = DLNA_FILE_TYPES.get(extension);
 
@@ -128,7 +308,7 @@ public class TorrentStreamServer extends NanoHTTPD
 
     public Response handleTorrent(IHTTPSession httpSession)
     {
-        if (engine == null)
+        if (provider == null)
             return newFixedLengthResponse(NOT_FOUND, "", "");
 
         if (!httpSession.getUri().equals("/stream"))
@@ -144,7 +324,7 @@ public class TorrentStreamServer extends NanoHTTPD
         TorrentStream stream;
         try {
             fileIndex = Integer.parseInt(Objects.requireNonNull(params.get("file")).get(0));
-            stream = engine.getStream(torrentId, fileIndex);
+            stream = provider.getStream(torrentId, fileIndex);
             if (stream == null)
                 return newFixedLengthResponse(NOT_FOUND, "", "");
 
@@ -153,27 +333,16 @@ public class TorrentStreamServer extends NanoHTTPD
         }
 
         Map<String, String> header = httpSession.getHeaders();
+        RangeHint hint = null;
         try {
             Response res;
             String etag = stream.id;
-            long startFrom = 0;
-            long endAt = -1;
+            boolean head = httpSession.getMethod() == Method.HEAD;
             String range = header.get("range");
-
-            if (range != null) {
-                if (range.startsWith("bytes=")) {
-                    range = range.substring("bytes=".length());
-                    int minus = range.indexOf('-');
-                    try {
-                        if (minus > 0) {
-                            startFrom = Long.parseLong(range.substring(0, minus));
-                            endAt = Long.parseLong(range.substring(minus + 1));
-                        }
-                    } catch (NumberFormatException ignored) {
-
-                    }
-                }
-            }
+            StreamMetrics.Counters counters = provider.getMetrics().get(stream);
+            counters.onRequest();
+            ServeTracker tracker = (head ? null :
+                    new ServeTracker(counters, prefetcher.onStreamRequested(stream)));
 
             /*
              * Get if-range header. If present, it must match etag or else we
@@ -186,82 +355,329 @@ public class TorrentStreamServer extends NanoHTTPD
             boolean headerIfNoneMatchPresentAndMatching = ifNoneMatch != null &&
                     ("*".equals(ifNoneMatch) || ifNoneMatch.equals(etag));
 
-            if (headerIfRangeMissingOrMatching && range != null &&
-                startFrom >= 0 && startFrom < stream.fileSize) {
+            /* Null if there is no range or it must be ignored */
+            List<HttpRange> ranges = null;
+            if (range != null && headerIfRangeMissingOrMatching)
+                ranges = HttpRange.parse(range, stream.fileSize);
+
+            if (ranges != null && ranges.isEmpty()) {
+                /*
+                 * Return the size of the file
+                 * 4xx responses are not trumped by if-none-match
+                 */
+                res = newFixedLengthResponse(RANGE_NOT_SATISFIABLE, NanoHTTPD.MIME_PLAINTEXT, "");
+                res.addHeader("Content-Range", "bytes */" + stream.fileSize);
+                res.addHeader("ETag", etag);
+
+            } else if (headerIfNoneMatchPresentAndMatching) {
                 /*
-                 * Range request that matches current etag
-                 * and the startFrom of the range is satisfiable
+                 * Range or full-file-fetch request that matches current etag
+                 * (or doesn't match if-range and would return entire file)
+                 * respond with not-modified
                  */
-                if (headerIfNoneMatchPresentAndMatching) {
-                    /*
-                     * Range request that matches current etag
-                     * and the startFrom of the range is satisfiable
-                     * would return range from file respond with not-modified
-                     */
-                    res = newFixedLengthResponse(NOT_MODIFIED, MIME_OCTET_STREAM, "");
-                    res.addHeader("ETag", etag);
-
-                } else {
-                    if (endAt < 0)
-                        endAt = stream.fileSize - 1;
-                    long newLen = endAt - startFrom + 1;
-                    if (newLen < 0)
-                        newLen = 0;
-
-                    TorrentInputStream is = engine.getTorrentInputStream(stream);
-                    is.skip(startFrom);
-
-                    res = newFixedLengthResponse(PARTIAL_CONTENT, MIME_OCTET_STREAM, is, newLen);
-                    res.addHeader("Accept-Ranges", "bytes");
-                    res.addHeader("Content-Length", "" + newLen);
-                    res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + stream.fileSize);
-                    res.addHeader("ETag", etag);
-                    res.addHeader("Content-Disposition", "inline; filename=" + stream.id);
-                }
+                res = newFixedLengthResponse(NOT_MODIFIED, MIME_OCTET_STREAM, "");
+                res.addHeader("ETag", etag);
+
+            } else if (ranges == null) {
+                res = makeResponse(stream, OK, MIME_OCTET_STREAM, stream.fileSize, head,
+                        () -> openBody(stream, tracker, 0, stream.fileSize));
+
+            } else if (ranges.size() == 1) {
+                HttpRange r = ranges.get(0);
+                RangeHint h = (head ? null : requestRanges(stream, ranges));
+                hint = h;
+
+                res = makeResponse(stream, PARTIAL_CONTENT, MIME_OCTET_STREAM, r.length(), head,
+                        () -> new HintedBody(openBody(stream, tracker, r.start, r.length()), h));
+                res.addHeader("Content-Range", r.toContentRange(stream.fileSize));
+
             } else {
-                if (headerIfRangeMissingOrMatching && range != null && startFrom >= stream.fileSize) {
-                    /*
-                     * Return the size of the file
-                     * 4xx responses are not trumped by if-none-match
-                     */
-                    res = newFixedLengthResponse(RANGE_NOT_SATISFIABLE, NanoHTTPD.MIME_PLAINTEXT, "");
-                    res.addHeader("Content-Range", "bytes */" + stream.fileSize);
-                    res.addHeader("ETag", etag);
-
-                } else if (range == null && headerIfNoneMatchPresentAndMatching) {
-                    /*
-                     * Full-file-fetch request would return entire file
-                     * respond with not-modified
-                     */
-                    res = newFixedLengthResponse(NOT_MODIFIED, MIME_OCTET_STREAM, "");
-                    res.addHeader("ETag", etag);
-
-                } else if (!headerIfRangeMissingOrMatching && headerIfNoneMatchPresentAndMatching) {
-                    /*
-                     * Range request that doesn't match current etag
-                     * would return entire (different) file respond with not-modified
-                     */
-                    res = newFixedLengthResponse(NOT_MODIFIED, MIME_OCTET_STREAM, "");
-                    res.addHeader("ETag", etag);
-
-                } else {
-                    TorrentInputStream is = engine.getTorrentInputStream(stream);
-                    res = newFixedLengthResponse(OK, MIME_OCTET_STREAM, is, stream.fileSize);
-                    res.addHeader("Accept-Ranges", "bytes");
-                    res.addHeader("Content-Length", "" + stream.fileSize);
-                    res.addHeader("ETag", etag);
-                    res.addHeader("Content-Disposition", "inline; filename=" + stream.id);
-                }
+                RangeHint h = (head ? null : requestRanges(stream, ranges));
+                hint = h;
+
+                MultipartStreamBody body = new MultipartStreamBody(ranges,
+                        MultipartStreamBody.makeBoundary(),
+                        MIME_OCTET_STREAM,
+                        stream.fileSize,
+                        (r) -> openBody(stream, tracker, r.start, r.length()));
+                res = makeResponse(stream, PARTIAL_CONTENT, body.getContentType(),
+                        body.getContentLength(), head, () -> new HintedBody(body, h));
             }
 
             return res;
         } catch (Throwable e) {
             Log.e(TAG, Log.getStackTraceString(e));
+            if (hint != null)
+                hint.release();
 
             return newFixedLengthResponse(FORBIDDEN, NanoHTTPD.MIME_PLAINTEXT, "Forbidden");
         }
     }
 
+    private interface BodyOpener
+    {
+        IChannelBody open() throws IOException;
+    }
+
+    /*
+     * The body isn't opened for HEAD requests
+     */
+
+    private Response makeResponse(TorrentStream stream, Status status, String mimeType,
+                                  long length, boolean head, BodyOpener opener) throws IOException
+    {
+        IChannelBody body = (head ? null : opener.open());
+        Response res = newFixedLengthResponse(status, mimeType, body, length);
+        res.addHeader("Accept-Ranges", "bytes");
+        res.addHeader("Content-Length", "" + length);
+        res.addHeader("ETag", stream.id);
+        res.addHeader("Content-Disposition", "inline; filename=" + stream.id);
+
+        return res;
+    }
+
+    /*
+     * Requests the first pieces of each range at once, so that
+     * small probes (e.g. the container index at the end of the file)
+     * are downloaded before the rest of the pieces. The pieces are held
+     * until the response is closed (see HintedBody)
+     */
+
+    private RangeHint requestRanges(TorrentStream stream, List<HttpRange> ranges)
+    {
+        RangeHint hint = new RangeHint(stream);
+        hints.add(hint);
+        for (HttpRange range : ranges) {
+            long hintEnd = Math.min(range.end, range.start + RANGE_HINT_SIZE - 1);
+            int firstPiece = (int)((stream.fileOffset + range.start) / stream.pieceLength);
+            int lastPiece = (int)((stream.fileOffset + hintEnd) / stream.pieceLength);
+            for (int piece = firstPiece; piece <= lastPiece; piece++)
+                hint.hold(piece);
+        }
+
+        return hint;
+    }
+
+    /*
+     * Deadlines of the range beginnings, held by the request
+     */
+
+    private final class RangeHint
+    {
+        private final TorrentStream stream;
+        /* Guarded by this */
+        private final ArrayList<Integer> pieces = new ArrayList<>();
+        private boolean released;
+
+        RangeHint(TorrentStream stream)
+        {
+            this.stream = stream;
+        }
+
+        synchronized void hold(int piece)
+        {
+            if (released || pieces.contains(piece))
+                return;
+
+            pieces.add(piece);
+            provider.holdPieceDeadline(stream, piece, StreamScheduler.MIN_PIECE_DEADLINE, this);
+        }
+
+        synchronized void release()
+        {
+            if (released)
+                return;
+
+            released = true;
+            hints.remove(this);
+            for (int piece : pieces)
+                provider.releasePieceDeadline(stream, piece, this);
+            pieces.clear();
+        }
+    }
+
+    /*
+     * Releases the hint when the response is closed, i.e. sent or aborted
+     */
+
+    private static class HintedBody implements IChannelBody
+    {
+        private final IChannelBody body;
+        @Nullable
+        private final RangeHint hint;
+
+        HintedBody(IChannelBody body, @Nullable RangeHint hint)
+        {
+            this.body = body;
+            this.hint = hint;
+        }
+
+        @Override
+        public long writeTo(WritableByteChannel target, long count) throws IOException
+        {
+            return body.writeTo(target, count);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                body.close();
+
+            } finally {
+                if (hint != null)
+                    hint.release();
+            }
+        }
+    }
+
+    private IChannelBody openBody(TorrentStream stream, ServeTracker tracker,
+                                  long start, long length) throws IOException
+    {
+        StreamFile file = null;
+        try {
+            file = provider.openFile(stream);
+
+        } catch (IOException e) {
+            /* Read all pieces through the session */
+        }
+
+        try {
+            TorrentStreamBody body = new TorrentStreamBody(stream,
+                    () -> provider.openStream(stream, true), file,
+                    (pieceIndex) -> provider.isPieceFlushed(stream, pieceIndex),
+                    start, length);
+            body.setServeListener(tracker);
+
+            return body;
+
+        } catch (IOException | RuntimeException e) {
+            if (file != null)
+                file.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Counts the file bytes of the response and the time to the first of them
+     */
+
+    private static class ServeTracker implements TorrentStreamBody.ServeListener
+    {
+        private final StreamMetrics.Counters counters;
+        private final StreamPrefetcher.Startup startup;
+        private final long startTime = System.nanoTime();
+        /* Parts of the response are written by one thread */
+        private boolean firstByteSent;
+
+        ServeTracker(StreamMetrics.Counters counters, StreamPrefetcher.Startup startup)
+        {
+            this.counters = counters;
+            this.startup = startup;
+        }
+
+        @Override
+        public void onServed(long pos, long n)
+        {
+            if (!firstByteSent) {
+                firstByteSent = true;
+                counters.onFirstByte(System.nanoTime() - startTime);
+            }
+            counters.onServed(n);
+            startup.onServed(pos, n);
+        }
+    }
+
+    private interface CounterValue
+    {
+        long get(StreamMetrics.Counters c);
+    }
+
+    private Response handleMetrics()
+    {
+        if (provider == null)
+            return newFixedLengthResponse(NOT_FOUND, "", "");
+
+        MetricsWriter w = new MetricsWriter();
+        List<StreamMetrics.Counters> streams = provider.getMetrics().getAll();
+
+        writeCounter(w, streams, "stream_requests_total",
+                "HTTP requests of the stream", (c) -> c.requests.get());
+        writeCounter(w, streams, "stream_bytes_served_total",
+                "File bytes sent to the clients", (c) -> c.bytesServed.get());
+        writeSummary(w, streams, "stream_time_to_first_byte_seconds",
+                "Time from the request to the first byte of the file",
+                (c) -> c.firstByteCount.get(), (c) -> c.firstByteTime.get());
+        writeCounter(w, streams, "stream_stalls_total",
+                "Waits for not downloaded pieces", (c) -> c.stallCount.get());
+        w.family("stream_stall_seconds_total", "counter", "Time of waiting for not downloaded pieces");
+        for (StreamMetrics.Counters c : streams)
+            w.sample("stream_stall_seconds_total", labels(c), c.stallTime.get() / 1e9);
+        writeSummary(w, streams, "stream_piece_read_seconds",
+                "Time from the piece read request to the read piece alert",
+                (c) -> c.pieceReadCount.get(), (c) -> c.pieceReadTime.get());
+
+        w.family("stream_first_frame_seconds", "gauge",
+                "Time from the first request to the first media data after the container index");
+        for (StreamMetrics.Counters c : streams) {
+            StreamPrefetcher.Startup startup = prefetcher.getStartup(c.stream.id);
+            if (startup != null && startup.getFirstFrameTime() >= 0)
+                w.sample("stream_first_frame_seconds", labels(c), startup.getFirstFrameTime() / 1e3);
+        }
+
+        PieceCache cache = provider.getPieceCache();
+        if (cache != null) {
+            w.family("piece_cache_hits_total", "counter", "Pieces read from the cache")
+             .sample("piece_cache_hits_total", null, cache.getHitCount());
+            w.family("piece_cache_misses_total", "counter", "Pieces missing in the cache")
+             .sample("piece_cache_misses_total", null, cache.getMissCount());
+            w.family("piece_cache_size_bytes", "gauge", "Size of the cached pieces")
+             .sample("piece_cache_size_bytes", null, cache.getSize());
+        }
+
+        w.family("http_connections_active", "gauge", "Connections served at the moment")
+         .sample("http_connections_active", null, runner.getActiveCount());
+        w.family("http_connections_queued", "gauge", "Connections waiting for a thread")
+         .sample("http_connections_queued", null, runner.getQueueSize());
+        w.family("http_connections_accepted_total", "counter", "Connections taken by a thread")
+         .sample("http_connections_accepted_total", null, runner.getAcceptedCount());
+        w.family("http_connections_rejected_total", "counter", "Connections rejected with 503")
+         .sample("http_connections_rejected_total", null, runner.getRejectedCount());
+
+        return newFixedLengthResponse(OK, MetricsWriter.CONTENT_TYPE, w.toString());
+    }
+
+    private static void writeCounter(MetricsWriter w, List<StreamMetrics.Counters> streams,
+                                     String name, String help, CounterValue value)
+    {
+        w.family(name, "counter", help);
+        for (StreamMetrics.Counters c : streams)
+            w.sample(name, labels(c), value.get(c));
+    }
+
+    /*
+     * Durations are counted in nanoseconds and exported in seconds
+     */
+
+    private static void writeSummary(MetricsWriter w, List<StreamMetrics.Counters> streams,
+                                     String name, String help,
+                                     CounterValue count, CounterValue sum)
+    {
+        w.family(name, "summary", help);
+        for (StreamMetrics.Counters c : streams) {
+            String labels = labels(c);
+            w.sample(name + "_sum", labels, sum.get(c) / 1e9);
+            w.sample(name + "_count", labels, count.get(c));
+        }
+    }
+
+    private static String labels(StreamMetrics.Counters c)
+    {
+        return MetricsWriter.labels("stream", c.stream.id,
+                "torrent", c.stream.torrentId,
+                "file", Integer.toString(c.stream.selectedFileIndex));
+    }
+
     static class DLNAFileType
     {
         public final String dlnaContentFeatures;
@@ -283,7 +699,9 @@ public class TorrentStreamServer extends NanoHTTPD
             res.addHeader("TransferMode.DLNA.ORG", this.dlnaTransferMode);
             res.addHeader("DAAP-Server", "iTunes/11.0.5 (OS X)");
             res.addHeader("Last-Modified", "2015-01-01T10:00:00Z");
-            res.setMimeType(this.mimeType);
+            /* Multipart responses keep their type */
+            if (MIME_OCTET_STREAM.equals(res.getMimeType()))
+                res.setMimeType(this.mimeType);
         }
     }
 }
@@ -63,6 +63,7 @@ public class SessionSettings
     public static final boolean DEFAULT_SEEDING_OUTGOING_CONNECTIONS = true;
     public static final boolean DEFAULT_LOGGING = BuildConfig.SESSION_LOGGING;
     public static final int DEFAULT_MAX_LOG_SIZE = 10000;
+    public static final boolean DEFAULT_LOG_HISTORY = true;
     public static final boolean DEFAULT_LOG_SESSION_FILTER = false;
     public static final boolean DEFAULT_LOG_DHT_FILTER = true;
     public static final boolean DEFAULT_LOG_PEER_FILTER = true;
@@ -104,6 +105,7 @@ public class SessionSettings
     public boolean seedingOutgoingConnections = DEFAULT_SEEDING_OUTGOING_CONNECTIONS;
     public boolean logging = DEFAULT_LOGGING;
     public int maxLogSize = DEFAULT_MAX_LOG_SIZE;
+    public boolean logHistory = DEFAULT_LOG_HISTORY;
     public boolean logSessionFilter = DEFAULT_LOG_SESSION_FILTER;
     public boolean logDhtFilter = DEFAULT_LOG_DHT_FILTER;
     public boolean logPeerFilter = DEFAULT_LOG_PEER_FILTER;
@@ -148,6 +150,7 @@ public class SessionSettings
         this.seedingOutgoingConnections = other.seedingOutgoingConnections;
         this.logging = other.logging;
         this.maxLogSize = other.maxLogSize;
+        this.logHistory = other.logHistory;
         this.logSessionFilter = other.logSessionFilter;
         this.logDhtFilter = other.logDhtFilter;
         this.logPeerFilter = other.logPeerFilter;
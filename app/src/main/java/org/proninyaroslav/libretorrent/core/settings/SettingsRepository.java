@@ -375,6 +375,10 @@ public interface SettingsRepository
 
     void maxLogSize(int val);
 
+    boolean logHistory();
+
+    void logHistory(boolean val);
+
     boolean logSessionFilter();
 
     void logSessionFilter(boolean val);
@@ -144,6 +144,7 @@ public class SettingsRepositoryImpl implements SettingsRepository
         /* Logging settings */
         static final boolean logging = SessionSettings.DEFAULT_LOGGING;
         static final int maxLogSize = SessionSettings.DEFAULT_MAX_LOG_SIZE;
+        static final boolean logHistory = SessionSettings.DEFAULT_LOG_HISTORY;
         static final boolean logSessionFilter = SessionSettings.DEFAULT_LOG_SESSION_FILTER;
         static final boolean logDhtFilter = SessionSettings.DEFAULT_LOG_DHT_FILTER;
         static final boolean logPeerFilter = SessionSettings.DEFAULT_LOG_PEER_FILTER;
@@ -219,6 +220,7 @@ public class SettingsRepositoryImpl implements SettingsRepository
 
         settings.logging = logging();
         settings.maxLogSize = maxLogSize();
+        settings.logHistory = logHistory();
         settings.logSessionFilter = logSessionFilter();
         settings.logDhtFilter = logDhtFilter();
         settings.logPeerFilter = logPeerFilter();
@@ -1369,6 +1371,21 @@ public class SettingsRepositoryImpl implements SettingsRepository
                 .apply();
     }
 
+    @Override
+    public boolean logHistory()
+    {
+        return pref.getBoolean(appContext.getString(R.string.pref_key_log_history),
+                Default.logHistory);
+    }
+
+    @Override
+    public void logHistory(boolean val)
+    {
+        pref.edit()
+                .putBoolean(appContext.getString(R.string.pref_key_log_history), val)
+                .apply();
+    }
+
     @Override
     public boolean logSessionFilter()
     {
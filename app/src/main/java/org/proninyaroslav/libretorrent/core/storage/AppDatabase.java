@@ -31,16 +31,19 @@ import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FeedChannel;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FeedItem;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
 import org.proninyaroslav.libretorrent.core.storage.converter.UriConverter;
 import org.proninyaroslav.libretorrent.core.storage.dao.FastResumeDao;
 import org.proninyaroslav.libretorrent.core.storage.dao.FeedDao;
 import org.proninyaroslav.libretorrent.core.storage.dao.TorrentDao;
+import org.proninyaroslav.libretorrent.core.storage.dao.TorrentMetadataDao;
 
 @Database(entities = {Torrent.class,
         FastResume.class,
         FeedChannel.class,
-        FeedItem.class},
-        version = 6)
+        FeedItem.class,
+        TorrentMetadata.class},
+        version = 7)
 @TypeConverters({UriConverter.class})
 
 public abstract class AppDatabase extends RoomDatabase
@@ -53,6 +56,8 @@ public abstract class AppDatabase extends RoomDatabase
 
     public abstract FastResumeDao fastResumeDao();
 
+    public abstract TorrentMetadataDao torrentMetadataDao();
+
     public abstract FeedDao feedDao();
 
     public static AppDatabase getInstance(@NonNull Context appContext)
@@ -49,6 +49,7 @@ class DatabaseMigration
                 MIGRATION_3_4,
                 new RoomDatabaseMigration(appContext),
                 MIGRATION_5_6,
+                MIGRATION_6_7,
         };
     }
 
@@ -87,6 +88,20 @@ class DatabaseMigration
         }
     };
 
+    /*
+     * The info dict is moved out of the resume data to the write-once metadata table.
+     * Old resume data still contains it and is loaded as is,
+     * it's split on the next save of the resume data
+     */
+
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database)
+        {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TorrentMetadata` (`torrentId` TEXT NOT NULL, `data` BLOB NOT NULL, PRIMARY KEY(`torrentId`), FOREIGN KEY(`torrentId`) REFERENCES `Torrent`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+        }
+    };
+
     /*
      * Migration from old database (ver. 4) to Room (ver. 5).
      */
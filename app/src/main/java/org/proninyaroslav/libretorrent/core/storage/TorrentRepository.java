@@ -20,9 +20,11 @@
 package org.proninyaroslav.libretorrent.core.storage;
 
 import androidx.annotation.NonNull;
+import androidx.core.util.Pair;
 
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
 
 import java.io.IOException;
 import java.util.List;
@@ -46,10 +48,19 @@ public interface TorrentRepository
 
     List<Torrent> getAllTorrents();
 
+    Flowable<List<Torrent>> observeAllTorrents();
+
     void addFastResume(@NonNull FastResume fastResume);
 
+    void addFastResumeList(@NonNull List<FastResume> fastResumeList,
+                           @NonNull List<TorrentMetadata> metadataList);
+
     FastResume getFastResumeById(@NonNull String torrentId);
 
+    Flowable<Pair<FastResume, TorrentMetadata>> getFastResumeWithMetadataByIds(@NonNull List<String> torrentIds);
+
+    void addTorrentMetadata(@NonNull TorrentMetadata metadata);
+
     void saveSession(@NonNull byte[] data) throws IOException;
 
     String getSessionFile();
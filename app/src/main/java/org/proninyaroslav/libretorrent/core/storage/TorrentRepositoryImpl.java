@@ -22,13 +22,17 @@ package org.proninyaroslav.libretorrent.core.storage;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.core.util.Pair;
 
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
 import org.proninyaroslav.libretorrent.core.system.SystemFacadeHelper;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import io.reactivex.Flowable;
@@ -39,6 +43,9 @@ public class TorrentRepositoryImpl implements TorrentRepository
     @SuppressWarnings("unused")
     private static final String TAG = TorrentRepositoryImpl.class.getSimpleName();
 
+    /* Resume data blobs loaded by a single query */
+    private static final int FAST_RESUME_PAGE_SIZE = 32;
+
     private static final class FileDataModel
     {
         private static final String TORRENT_SESSION_FILE = "session";
@@ -95,18 +102,82 @@ public class TorrentRepositoryImpl implements TorrentRepository
         return db.torrentDao().getAllTorrents();
     }
 
+    @Override
+    public Flowable<List<Torrent>> observeAllTorrents()
+    {
+        return db.torrentDao().observeAllTorrents();
+    }
+
     @Override
     public void addFastResume(@NonNull FastResume fastResume)
     {
         db.fastResumeDao().add(fastResume);
     }
 
+    /*
+     * Writes all in one transaction, so the resume data
+     * is never stored without the metadata
+     */
+
+    @Override
+    public void addFastResumeList(@NonNull List<FastResume> fastResumeList,
+                                  @NonNull List<TorrentMetadata> metadataList)
+    {
+        db.runInTransaction(() -> {
+            if (!metadataList.isEmpty())
+                db.torrentMetadataDao().add(metadataList);
+            db.fastResumeDao().add(fastResumeList);
+        });
+    }
+
     @Override
     public FastResume getFastResumeById(@NonNull String torrentId)
     {
         return db.fastResumeDao().getByTorrentId(torrentId);
     }
 
+    /*
+     * Loads resume data page by page, only when the previous page is consumed,
+     * so the blobs of all torrents aren't kept in memory at once. The stored
+     * metadata (or null) of the page is loaded by the second query.
+     * Emits in the order of the given ids, ids without resume data are skipped
+     */
+
+    @Override
+    public Flowable<Pair<FastResume, TorrentMetadata>> getFastResumeWithMetadataByIds(@NonNull List<String> torrentIds)
+    {
+        ArrayList<List<String>> pages = new ArrayList<>();
+        for (int i = 0; i < torrentIds.size(); i += FAST_RESUME_PAGE_SIZE)
+            pages.add(torrentIds.subList(i, Math.min(i + FAST_RESUME_PAGE_SIZE, torrentIds.size())));
+
+        return Flowable.fromIterable(pages)
+                .concatMapIterable((page) -> {
+                    HashMap<String, FastResume> fastResumeMap = new HashMap<>(page.size());
+                    for (FastResume fastResume : db.fastResumeDao().getByTorrentIds(page))
+                        fastResumeMap.put(fastResume.torrentId, fastResume);
+
+                    HashMap<String, TorrentMetadata> metadataMap = new HashMap<>(page.size());
+                    for (TorrentMetadata metadata : db.torrentMetadataDao().getByTorrentIds(page))
+                        metadataMap.put(metadata.torrentId, metadata);
+
+                    ArrayList<Pair<FastResume, TorrentMetadata>> ordered =
+                            new ArrayList<>(fastResumeMap.size());
+                    for (String id : page) {
+                        FastResume fastResume = fastResumeMap.get(id);
+                        if (fastResume != null)
+                            ordered.add(Pair.create(fastResume, metadataMap.get(id)));
+                    }
+
+                    return ordered;
+                }, 1);
+    }
+
+    @Override
+    public void addTorrentMetadata(@NonNull TorrentMetadata metadata)
+    {
+        db.torrentMetadataDao().add(metadata);
+    }
+
     @Override
     public void saveSession(@NonNull byte[] data) throws IOException
     {
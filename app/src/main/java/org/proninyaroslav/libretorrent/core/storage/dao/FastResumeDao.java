@@ -7,12 +7,21 @@ import androidx.room.Query;
 
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 
+import java.util.List;
+
 @Dao
 public interface FastResumeDao
 {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void add(FastResume fastResume);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void add(List<FastResume> fastResumeList);
+
     @Query("SELECT * FROM FastResume WHERE torrentId = :torrentId")
     FastResume getByTorrentId(String torrentId);
+
+    /* The number of ids must not exceed the SQLite variables limit (999) */
+    @Query("SELECT * FROM FastResume WHERE torrentId IN (:torrentIds)")
+    List<FastResume> getByTorrentIds(List<String> torrentIds);
 }
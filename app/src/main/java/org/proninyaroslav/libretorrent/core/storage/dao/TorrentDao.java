@@ -50,6 +50,9 @@ public interface TorrentDao
     @Query(QUERY_GET_ALL)
     List<Torrent> getAllTorrents();
 
+    @Query(QUERY_GET_ALL)
+    Flowable<List<Torrent>> observeAllTorrents();
+
     @Query(QUERY_GET_BY_ID)
     Torrent getTorrentById(String id);
 
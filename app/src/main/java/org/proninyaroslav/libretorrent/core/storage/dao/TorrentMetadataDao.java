@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.storage.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import org.proninyaroslav.libretorrent.core.model.data.entity.TorrentMetadata;
+
+import java.util.List;
+
+@Dao
+public interface TorrentMetadataDao
+{
+    /* Metadata is immutable, the already stored one is kept */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void add(TorrentMetadata metadata);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void add(List<TorrentMetadata> metadataList);
+
+    @Query("SELECT * FROM TorrentMetadata WHERE torrentId = :torrentId")
+    TorrentMetadata getByTorrentId(String torrentId);
+
+    /* The number of ids must not exceed the SQLite variables limit (999) */
+    @Query("SELECT * FROM TorrentMetadata WHERE torrentId IN (:torrentIds)")
+    List<TorrentMetadata> getByTorrentIds(List<String> torrentIds);
+}
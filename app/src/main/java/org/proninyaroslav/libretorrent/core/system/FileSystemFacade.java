@@ -77,6 +77,8 @@ public interface FileSystemFacade
 
     File getTempDir();
 
+    File getCacheDir();
+
     void cleanTempDir() throws IOException;
 
     File makeTempFile(@NonNull String postfix);
@@ -292,6 +292,12 @@ class FileSystemFacadeImpl implements FileSystemFacade
         return tmpDir;
     }
 
+    @Override
+    public File getCacheDir()
+    {
+        return appContext.getCacheDir();
+    }
+
     @Override
     public void cleanTempDir() throws IOException
     {
@@ -19,11 +19,13 @@
 
 package org.proninyaroslav.libretorrent.ui.log;
 
+import android.app.TimePickerDialog;
 import android.content.Intent;
 import android.content.res.TypedArray;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.text.format.DateFormat;
 import android.util.TypedValue;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -38,6 +40,7 @@ import androidx.databinding.library.baseAdapters.BR;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.paging.PagedList;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.snackbar.Snackbar;
@@ -50,6 +53,8 @@ import org.proninyaroslav.libretorrent.ui.customviews.RecyclerViewDividerDecorat
 import org.proninyaroslav.libretorrent.ui.filemanager.FileManagerConfig;
 import org.proninyaroslav.libretorrent.ui.filemanager.FileManagerDialog;
 
+import java.util.Calendar;
+
 import io.reactivex.disposables.CompositeDisposable;
 
 public class LogActivity extends AppCompatActivity
@@ -72,6 +77,8 @@ public class LogActivity extends AppCompatActivity
     private boolean ignoreScrollEvent;
     private boolean autoScroll = true;
     private int scrollPosition = 0;
+    /* Entry to scroll to after the seek, or -1 */
+    private long seekSeq = -1;
     private CompositeDisposable disposables = new CompositeDisposable();
     private SessionLogFilterDialog filterDialog;
 
@@ -117,6 +124,7 @@ public class LogActivity extends AppCompatActivity
 
         adapter = new LogAdapter(this);
         binding.logList.setAdapter(adapter);
+        adapter.registerAdapterDataObserver(appendObserver);
 
         viewModel.observeLog().observe(this, (entries) ->
             adapter.submitList(entries, handleUpdateAdapter));
@@ -217,6 +225,8 @@ public class LogActivity extends AppCompatActivity
             pauseResume.setTitle(R.string.pause_torrent);
         }
 
+        menu.findItem(R.id.go_to_time_log_menu).setVisible(viewModel.logHistoryAvailable());
+
         MenuItem record = menu.findItem(R.id.record_log_menu);
         if (viewModel.logRecording()) {
             record.setIcon(R.drawable.ic_stop_white_24dp);
@@ -243,6 +253,9 @@ public class LogActivity extends AppCompatActivity
             case R.id.save_log_menu:
                 saveLogPathChooseDialog();
                 break;
+            case R.id.go_to_time_log_menu:
+                showGoToTimeDialog();
+                break;
             case R.id.filter_log_menu:
                 showFilterDialog();
                 break;
@@ -263,6 +276,41 @@ public class LogActivity extends AppCompatActivity
         }
     }
 
+    private void showGoToTimeDialog()
+    {
+        Calendar now = Calendar.getInstance();
+        new TimePickerDialog(this,
+                (view, hourOfDay, minute) -> goToTime(hourOfDay, minute),
+                now.get(Calendar.HOUR_OF_DAY),
+                now.get(Calendar.MINUTE),
+                DateFormat.is24HourFormat(this))
+                .show();
+    }
+
+    /*
+     * Scrolls to the first entry of the last passed time of day
+     */
+
+    private void goToTime(int hourOfDay, int minute)
+    {
+        Calendar time = Calendar.getInstance();
+        time.set(Calendar.HOUR_OF_DAY, hourOfDay);
+        time.set(Calendar.MINUTE, minute);
+        time.set(Calendar.SECOND, 0);
+        time.set(Calendar.MILLISECOND, 0);
+        if (time.getTimeInMillis() > System.currentTimeMillis())
+            time.add(Calendar.DAY_OF_MONTH, -1);
+
+        long seq = viewModel.seekLog(time.getTimeInMillis());
+        if (seq < 0)
+            return;
+
+        viewModel.pauseLog();
+        hideFabUp();
+        autoScroll = false;
+        seekSeq = seq;
+    }
+
     private void showLogSettings()
     {
         startActivity(new Intent(this, LogSettingsActivity.class));
@@ -447,6 +495,20 @@ public class LogActivity extends AppCompatActivity
         updateToolbarSubtitle();
     };
 
+    /* New entries are appended to the current list, without submitting the new one */
+    private final RecyclerView.AdapterDataObserver appendObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount)
+        {
+            if (positionStart + itemCount != adapter.getItemCount())
+                return;
+
+            if (autoScroll)
+                layoutManager.scrollToPosition(adapter.getItemCount() - 1);
+            updateToolbarSubtitle();
+        }
+    };
+
     private void updateToolbarSubtitle()
     {
         int numEntries = viewModel.getLogEntriesCount();
@@ -458,12 +520,34 @@ public class LogActivity extends AppCompatActivity
 
     private void scrollLogList()
     {
-        if (autoScroll)
+        if (seekSeq >= 0) {
+            scrollToSeq(seekSeq);
+            seekSeq = -1;
+            resumeLog();
+
+        } else if (autoScroll)
             layoutManager.scrollToPosition(adapter.getItemCount() - 1);
         else
             layoutManager.scrollToPositionWithOffset(scrollPosition, 0);
     }
 
+    private void scrollToSeq(long seq)
+    {
+        PagedList<LogEntry> entries = adapter.getCurrentList();
+        if (entries == null)
+            return;
+
+        int pos = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            LogEntry entry = entries.get(i);
+            if (entry != null && entry.getSeq() >= seq) {
+                pos = i;
+                break;
+            }
+        }
+        layoutManager.scrollToPositionWithOffset(pos, 0);
+    }
+
     @Override
     public void onItemClicked(@NonNull LogEntry entry)
     {
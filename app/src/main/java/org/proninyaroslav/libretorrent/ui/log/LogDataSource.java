@@ -20,9 +20,10 @@
 package org.proninyaroslav.libretorrent.ui.log;
 
 import androidx.annotation.NonNull;
-import androidx.paging.PositionalDataSource;
+import androidx.paging.ItemKeyedDataSource;
 
 import org.proninyaroslav.libretorrent.core.logger.LogEntry;
+import org.proninyaroslav.libretorrent.core.logger.LogStore;
 import org.proninyaroslav.libretorrent.core.logger.Logger;
 
 import java.util.ArrayList;
@@ -30,89 +31,157 @@ import java.util.List;
 
 import io.reactivex.disposables.Disposable;
 
-class LogDataSource extends PositionalDataSource<LogEntry>
+/*
+ * Append-only source keyed by the entry sequence number. New entries
+ * don't invalidate the loaded pages: the append request at the end of
+ * the log is kept pending and completed when the entries arrive.
+ * Evicted entries (HEAD_TRIM) are simply not returned when loading
+ * before the head. Only filtering and cleaning invalidate the source.
+ *
+ * If the logger has the store, the pages are read from it by the
+ * store sequence number, so the whole history can be scrolled
+ * without loading it into memory. The source can start from
+ * the given entry (see LogSourceFactory.seek())
+ */
+
+class LogDataSource extends ItemKeyedDataSource<Long, LogEntry>
 {
     private Logger logger;
+    private boolean stored;
+    /* Initial key instead of the requested one, or -1 */
+    private long seekSeq;
     private Disposable disposable;
+    /* Append request waiting for the new entries */
+    private long pendingKey;
+    private int pendingSize;
+    private LoadCallback<LogEntry> pendingCallback;
+    private boolean initialEmpty;
 
-    LogDataSource(@NonNull Logger logger)
+    LogDataSource(@NonNull Logger logger, long seekSeq)
     {
         this.logger = logger;
+        this.seekSeq = seekSeq;
+        stored = logger.getStore() != null;
 
         disposable = logger.observeDataSetChanged()
-                .subscribe((__) -> invalidate());
+                .subscribe(this::handleDataSetChange);
+    }
+
+    private void handleDataSetChange(Logger.DataSetChange change)
+    {
+        switch (change.reason) {
+            case NEW_ENTRIES:
+                handleNewEntries();
+                break;
+            case FILTER:
+            case CLEAN:
+            case STORE:
+                invalidate();
+                break;
+        }
+    }
+
+    private synchronized void handleNewEntries()
+    {
+        /* Nothing to append to, the list must be reloaded */
+        if (initialEmpty) {
+            invalidate();
+            return;
+        }
+        /* Appended after resume, with the next entries */
+        if (pendingCallback == null || logger.isPaused())
+            return;
+
+        List<LogEntry> entries = getEntriesAfter(pendingKey, pendingSize);
+        if (entries.isEmpty())
+            return;
+
+        LoadCallback<LogEntry> callback = pendingCallback;
+        pendingCallback = null;
+        callback.onResult(entries);
     }
 
     @Override
     public void invalidate()
     {
         disposable.dispose();
+        synchronized (this) {
+            pendingCallback = null;
+        }
 
         super.invalidate();
     }
 
+    @NonNull
     @Override
-    public void loadInitial(@NonNull LoadInitialParams params,
-                            @NonNull LoadInitialCallback<LogEntry> callback)
+    public Long getKey(@NonNull LogEntry item)
     {
-        boolean paused = false;
-        if (!logger.isPaused()) {
-            logger.pause();
-            paused = true;
-        }
-
-        try {
-            List<LogEntry> entries;
-            int numEntries = logger.getNumEntries();
-            int pos = params.requestedStartPosition;
+        return item.getSeq();
+    }
 
-            if (params.requestedStartPosition < numEntries) {
-                entries = logger.getEntries(params.requestedStartPosition, params.requestedLoadSize);
+    /*
+     * Without the initial key the last entries are loaded
+     */
 
-            } else if (params.requestedLoadSize <= numEntries) {
-                pos = numEntries - params.requestedLoadSize;
-                entries = logger.getEntries(pos, params.requestedLoadSize);
+    @Override
+    public synchronized void loadInitial(@NonNull LoadInitialParams<Long> params,
+                                         @NonNull LoadInitialCallback<LogEntry> callback)
+    {
+        Long initialKey = (seekSeq >= 0 ? Long.valueOf(seekSeq) : params.requestedInitialKey);
+        List<LogEntry> entries;
+        if (initialKey == null) {
+            entries = getEntriesBefore(Long.MAX_VALUE, params.requestedLoadSize);
+
+        } else {
+            long key = initialKey;
+            entries = getEntriesBefore(key, params.requestedLoadSize / 2);
+            entries.addAll(getEntriesAfter(key - 1, params.requestedLoadSize - entries.size()));
+        }
 
-            } else {
-                pos = 0;
-                entries = logger.getEntries(pos, numEntries);
-            }
+        initialEmpty = entries.isEmpty();
+        callback.onResult(entries);
+    }
 
-            if (entries.isEmpty())
-                callback.onResult(entries, 0);
-            else
-                callback.onResult(entries, pos);
+    @Override
+    public synchronized void loadAfter(@NonNull LoadParams<Long> params,
+                                       @NonNull LoadCallback<LogEntry> callback)
+    {
+        List<LogEntry> entries = getEntriesAfter(params.key, params.requestedLoadSize);
+        if (entries.isEmpty()) {
+            pendingKey = params.key;
+            pendingSize = params.requestedLoadSize;
+            pendingCallback = callback;
 
-        } finally {
-            if (paused)
-                logger.resume();
+        } else {
+            callback.onResult(entries);
         }
     }
 
     @Override
-    public void loadRange(@NonNull LoadRangeParams params,
-                          @NonNull LoadRangeCallback<LogEntry> callback)
+    public void loadBefore(@NonNull LoadParams<Long> params,
+                           @NonNull LoadCallback<LogEntry> callback)
     {
-        boolean paused = false;
-        if (!logger.isPaused()) {
-            logger.pause();
-            paused = true;
-        }
+        callback.onResult(getEntriesBefore(params.key, params.requestedLoadSize));
+    }
 
-        try {
-            List<LogEntry> entries;
-            int numEntries = logger.getNumEntries();
+    private List<LogEntry> getEntriesAfter(long seq, int maxSize)
+    {
+        if (!stored)
+            return logger.getEntriesAfter(seq, maxSize);
 
-            if (params.startPosition < numEntries)
-                entries = logger.getEntries(params.startPosition, params.loadSize);
-            else
-                entries = new ArrayList<>(0);
+        LogStore.Page page = logger.getStoredEntries(seq + 1, maxSize);
 
-            callback.onResult(entries);
+        /* The store is detached, the source is invalidated */
+        return (page == null ? new ArrayList<>() : page.entries);
+    }
 
-        } finally {
-            if (paused)
-                logger.resume();
-        }
+    private List<LogEntry> getEntriesBefore(long seq, int maxSize)
+    {
+        if (!stored)
+            return logger.getEntriesBefore(seq, maxSize);
+
+        LogStore.Page page = logger.getStoredEntriesBefore(seq, maxSize);
+
+        return (page == null ? new ArrayList<>() : page.entries);
     }
 }
@@ -25,6 +25,7 @@ import android.text.InputFilter;
 import android.text.TextUtils;
 
 import androidx.preference.Preference;
+import androidx.preference.SwitchPreferenceCompat;
 
 import com.takisoft.preferencex.EditTextPreference;
 import com.takisoft.preferencex.PreferenceFragmentCompat;
@@ -74,6 +75,13 @@ public class LogSettingsFragment extends PreferenceFragmentCompat
             maxLogSize.setText(value);
             bindOnPreferenceChangeListener(maxLogSize);
         }
+
+        String keyLogHistory = getString(R.string.pref_key_log_history);
+        SwitchPreferenceCompat logHistory = findPreference(keyLogHistory);
+        if (logHistory != null) {
+            logHistory.setChecked(pref.logHistory());
+            bindOnPreferenceChangeListener(logHistory);
+        }
     }
 
     @Override
@@ -96,6 +104,9 @@ public class LogSettingsFragment extends PreferenceFragmentCompat
                 value = Integer.parseInt((String)newValue);
             pref.maxLogSize(value);
             preference.setSummary(Integer.toString(value));
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_log_history))) {
+            pref.logHistory((boolean)newValue);
         }
 
         return true;
@@ -25,9 +25,11 @@ import androidx.paging.DataSource;
 import org.proninyaroslav.libretorrent.core.logger.LogEntry;
 import org.proninyaroslav.libretorrent.core.logger.Logger;
 
-class LogSourceFactory extends LogDataSource.Factory<Integer, LogEntry>
+class LogSourceFactory extends LogDataSource.Factory<Long, LogEntry>
 {
     private Logger logger;
+    private LogDataSource source;
+    private long seekSeq = -1;
 
     public LogSourceFactory(@NonNull Logger logger)
     {
@@ -36,8 +38,22 @@ class LogSourceFactory extends LogDataSource.Factory<Integer, LogEntry>
 
     @NonNull
     @Override
-    public DataSource<Integer, LogEntry> create()
+    public synchronized DataSource<Long, LogEntry> create()
     {
-        return new LogDataSource(logger);
+        source = new LogDataSource(logger, seekSeq);
+        seekSeq = -1;
+
+        return source;
+    }
+
+    /*
+     * Reloads the list starting from the entry with the sequence number
+     */
+
+    synchronized void seek(long seq)
+    {
+        seekSeq = seq;
+        if (source != null)
+            source.invalidate();
     }
 }
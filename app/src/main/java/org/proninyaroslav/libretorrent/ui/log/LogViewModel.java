@@ -50,6 +50,8 @@ import java.util.Locale;
 public class LogViewModel extends AndroidViewModel
 {
     private static final int PAGE_SIZE = 20;
+    /* Pages far from the visible position are dropped and reloaded by the key */
+    private static final int MAX_LOADED_ENTRIES = PAGE_SIZE * 10;
 
     private TorrentEngine engine;
     private SettingsRepository pref;
@@ -58,6 +60,7 @@ public class LogViewModel extends AndroidViewModel
     private PagedList.Config pageConfig = new PagedList.Config.Builder()
             .setPageSize(PAGE_SIZE)
             .setEnablePlaceholders(false)
+            .setMaxSize(MAX_LOADED_ENTRIES)
             .build();
     private boolean logPaused;
     private boolean recordingStopped;
@@ -91,8 +94,8 @@ public class LogViewModel extends AndroidViewModel
 
     LiveData<PagedList<LogEntry>> observeLog()
     {
+        /* Without the initial key the source starts from the last entry */
         return new LivePagedListBuilder<>(sourceFactory, pageConfig)
-                .setInitialLoadKey(Integer.MAX_VALUE) /* Start from the last entry */
                 .build();
     }
 
@@ -159,6 +162,25 @@ public class LogViewModel extends AndroidViewModel
         logPaused = false;
     }
 
+    boolean logHistoryAvailable()
+    {
+        return engine.getSessionLogger().getStore() != null;
+    }
+
+    /*
+     * Reloads the log starting from the first stored entry not older than `timeStamp`.
+     * Returns the sequence number of the entry, or -1 if there is no history
+     */
+
+    long seekLog(long timeStamp)
+    {
+        long seq = engine.getSessionLogger().findStoredSeq(timeStamp);
+        if (seq >= 0)
+            sourceFactory.seek(seq);
+
+        return seq;
+    }
+
     int getLogEntriesCount()
     {
         return engine.getSessionLogger().getNumEntries();
@@ -68,8 +68,8 @@ import org.proninyaroslav.libretorrent.ui.filemanager.FileManagerDialog;
 
 import java.util.Collections;
 
-import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
@@ -281,15 +281,10 @@ public class MainFragment extends Fragment
 
     private Disposable observeTorrents()
     {
-        return viewModel.observeAllTorrentsInfo()
+        return viewModel.observeAllTorrentsInfoDelta()
                 .subscribeOn(Schedulers.io())
-                .flatMapSingle((infoList) ->
-                        Flowable.fromIterable(infoList)
-                                .filter(viewModel.getFilter())
-                                .map(TorrentListItem::new)
-                                .sorted(viewModel.getSorting())
-                                .toList()
-                )
+                .doOnSubscribe((__) -> viewModel.clearTorrentList())
+                .map(viewModel::applyTorrentsInfoDelta)
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(adapter::submitList,
                         (Throwable t) -> {
@@ -331,15 +326,8 @@ public class MainFragment extends Fragment
 
     private Disposable getAllTorrentsSingle()
     {
-        return viewModel.getAllTorrentsInfoSingle()
+        return Single.fromCallable(viewModel::rebuildTorrentList)
                 .subscribeOn(Schedulers.io())
-                .flatMap((infoList) ->
-                        Observable.fromIterable(infoList)
-                                .filter(viewModel.getFilter())
-                                .map(TorrentListItem::new)
-                                .sorted(viewModel.getSorting())
-                                .toList()
-                )
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(adapter::submitList,
                         (Throwable t) -> {
@@ -31,14 +31,17 @@ import org.proninyaroslav.libretorrent.core.filter.TorrentFilterCollection;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngine;
 import org.proninyaroslav.libretorrent.core.model.TorrentInfoProvider;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfoDelta;
 import org.proninyaroslav.libretorrent.core.sorting.TorrentSorting;
 import org.proninyaroslav.libretorrent.core.sorting.TorrentSortingComparator;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 import io.reactivex.Flowable;
 import io.reactivex.Observable;
-import io.reactivex.Single;
 import io.reactivex.subjects.PublishSubject;
 
 public class MainViewModel extends AndroidViewModel
@@ -50,6 +53,11 @@ public class MainViewModel extends AndroidViewModel
     private TorrentFilter statusFilter = TorrentFilterCollection.all();
     private TorrentFilter dateAddedFilter = TorrentFilterCollection.all();
     private PublishSubject<Boolean> forceSortAndFilter = PublishSubject.create();
+    /* All torrents info and the filtered and sorted items, updated by the deltas */
+    private final HashMap<String, TorrentInfo> infoTable = new HashMap<>();
+    private final ArrayList<TorrentListItem> torrentList = new ArrayList<>();
+    /* Position of the item in `torrentList` by the torrent id */
+    private final HashMap<String, Integer> positions = new HashMap<>();
 
     private String searchQuery;
     private TorrentFilter searchFilter = (state) -> {
@@ -69,14 +77,151 @@ public class MainViewModel extends AndroidViewModel
         engine = TorrentEngine.getInstance(application);
     }
 
-    public Flowable<List<TorrentInfo>> observeAllTorrentsInfo()
+    /*
+     * The first delta contains all torrents, so the list must be
+     * cleared (see clearTorrentList()) before subscribing
+     */
+
+    public Flowable<TorrentInfoDelta> observeAllTorrentsInfoDelta()
+    {
+        return stateProvider.observeInfoDelta();
+    }
+
+    public void clearTorrentList()
+    {
+        synchronized (torrentList) {
+            infoTable.clear();
+            torrentList.clear();
+            positions.clear();
+        }
+    }
+
+    /*
+     * Updates only the changed items, without re-sorting the whole list.
+     * Returns a copy of the list
+     */
+
+    public List<TorrentListItem> applyTorrentsInfoDelta(@NonNull TorrentInfoDelta delta) throws Exception
+    {
+        synchronized (torrentList) {
+            TorrentFilter filter = getFilter();
+
+            for (String id : delta.removed) {
+                if (infoTable.remove(id) != null)
+                    removeTorrentListItem(id);
+            }
+            if (torrentList.isEmpty()) {
+                /* Initial delta, sort once instead of inserting one by one */
+                for (TorrentInfo info : delta.added) {
+                    infoTable.put(info.torrentId, info);
+                    if (filter.test(info))
+                        torrentList.add(new TorrentListItem(info));
+                }
+                Collections.sort(torrentList, sorting);
+                reindex(0, torrentList.size());
+            } else {
+                for (TorrentInfo info : delta.added)
+                    updateTorrentListItem(info, filter);
+            }
+            for (TorrentInfo info : delta.changed)
+                updateTorrentListItem(info, filter);
+
+            return new ArrayList<>(torrentList);
+        }
+    }
+
+    /*
+     * Re-filters and re-sorts all items, e.g after changing the sorting or filter.
+     * Returns a copy of the list
+     */
+
+    public List<TorrentListItem> rebuildTorrentList() throws Exception
+    {
+        synchronized (torrentList) {
+            TorrentFilter filter = getFilter();
+
+            torrentList.clear();
+            for (TorrentInfo info : infoTable.values()) {
+                if (filter.test(info))
+                    torrentList.add(new TorrentListItem(info));
+            }
+            Collections.sort(torrentList, sorting);
+            positions.clear();
+            reindex(0, torrentList.size());
+
+            return new ArrayList<>(torrentList);
+        }
+    }
+
+    private void updateTorrentListItem(TorrentInfo info, TorrentFilter filter) throws Exception
     {
-        return stateProvider.observeInfoList();
+        infoTable.put(info.torrentId, info);
+
+        TorrentListItem item = new TorrentListItem(info);
+        boolean visible = filter.test(info);
+        Integer pos = positions.get(info.torrentId);
+        int index = (pos == null ? -1 : pos);
+        if (index >= 0) {
+            if (visible && isInOrder(index, item)) {
+                torrentList.set(index, item);
+                return;
+            }
+            if (!visible) {
+                removeTorrentListItem(info.torrentId);
+                return;
+            }
+            torrentList.remove(index);
+        }
+        if (visible) {
+            int newIndex = findInsertionIndex(item);
+            torrentList.add(newIndex, item);
+            /* Only the items between the old and the new position are shifted */
+            if (index >= 0)
+                reindex(Math.min(index, newIndex), Math.max(index, newIndex) + 1);
+            else
+                reindex(newIndex, torrentList.size());
+        }
     }
 
-    public Single<List<TorrentInfo>> getAllTorrentsInfoSingle()
+    private void removeTorrentListItem(String id)
+    {
+        Integer index = positions.remove(id);
+        if (index == null)
+            return;
+
+        torrentList.remove((int)index);
+        reindex(index, torrentList.size());
+    }
+
+    private void reindex(int from, int to)
+    {
+        for (int i = from; i < to; i++)
+            positions.put(torrentList.get(i).torrentId, i);
+    }
+
+    private boolean isInOrder(int index, TorrentListItem item)
+    {
+        return (index == 0 || sorting.compare(torrentList.get(index - 1), item) <= 0) &&
+                (index == torrentList.size() - 1 || sorting.compare(item, torrentList.get(index + 1)) <= 0);
+    }
+
+    /*
+     * Position after the last item that isn't greater than the new one
+     */
+
+    private int findInsertionIndex(TorrentListItem item)
     {
-        return stateProvider.getInfoListSingle();
+        int low = 0;
+        int high = torrentList.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorting.compare(torrentList.get(mid), item) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
     }
 
     public Flowable<String> observeTorrentsDeleted()
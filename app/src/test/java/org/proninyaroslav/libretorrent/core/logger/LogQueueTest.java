@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.logger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogQueueTest
+{
+    @Test
+    public void testDrain()
+    {
+        LogQueue queue = new LogQueue(4);
+        String longMsg = new String(new char[LogQueue.SLOT_CHARS + 1]).replace('\0', 'x');
+        assertTrue(queue.offer(0, 1, 10, "0"));
+        assertTrue(queue.offer(1, 2, 11, new StringBuilder("1")));
+        assertTrue(queue.offer(2, 3, 12, longMsg));
+        assertEquals(3, queue.pendingCount());
+
+        LogRing ring = new LogRing(10);
+        assertEquals(3, queue.drain(ring));
+        assertEquals(0, queue.pendingCount());
+        assertEquals(0, queue.drain(ring));
+
+        assertEquals(3, ring.size());
+        assertEquals("0", ring.getMessage(0));
+        assertEquals(2, ring.getType(1));
+        assertEquals(11, ring.getTimeStamp(1));
+        assertEquals("1", ring.getMessage(1));
+        assertEquals(longMsg, ring.getMessage(2));
+    }
+
+    @Test
+    public void testFull()
+    {
+        LogQueue queue = new LogQueue(2);
+        assertTrue(queue.offer(0, 0, 0, "0"));
+        assertTrue(queue.offer(1, 0, 1, "1"));
+        assertFalse(queue.offer(2, 0, 2, "2"));
+        assertEquals(1, queue.getDroppedCount());
+
+        /* Slots are reused after the drain */
+        LogRing ring = new LogRing(10);
+        assertEquals(2, queue.drain(ring));
+        assertTrue(queue.offer(3, 0, 3, "3"));
+        assertEquals(1, queue.drain(ring));
+        assertEquals(3, ring.getId(2));
+        assertEquals("3", ring.getMessage(2));
+
+        /* Discard */
+        assertTrue(queue.offer(4, 0, 4, "4"));
+        assertEquals(1, queue.drain(null));
+        assertEquals(3, ring.size());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.logger;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LogRingTest
+{
+    @Test
+    public void testAdd()
+    {
+        LogRing ring = new LogRing(3);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            sb.setLength(0);
+            sb.append("msg ").append(i);
+            assertEquals(i, ring.add(i, i % 2, i * 10, sb));
+        }
+
+        assertEquals(3, ring.size());
+        assertEquals(2, ring.getHeadSeq());
+        assertEquals(5, ring.getTailSeq());
+        assertFalse(ring.contains(1));
+        for (long seq = 2; seq < 5; seq++) {
+            assertEquals(seq, ring.getId(seq));
+            assertEquals(seq % 2, ring.getType(seq));
+            assertEquals(seq * 10, ring.getTimeStamp(seq));
+            assertEquals("msg " + seq, ring.getMessage(seq));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetEvicted()
+    {
+        LogRing ring = new LogRing(1);
+        ring.add(0, 0, 0, "0");
+        ring.add(1, 0, 1, "1");
+
+        ring.getMessage(0);
+    }
+
+    @Test
+    public void testLongMessages()
+    {
+        /* Arena is smaller than capacity * message length, old entries are evicted by chars */
+        LogRing ring = new LogRing(4);
+        char[] chars = new char[LogRing.MAX_MESSAGE_LENGTH / 2 + 1];
+        for (int i = 0; i < 10; i++) {
+            Arrays.fill(chars, (char)('a' + i));
+            String msg = new String(chars);
+            long seq = ring.add(i, 0, i, msg);
+
+            assertEquals(msg, ring.getMessage(seq));
+            for (long s = ring.getHeadSeq(); s < ring.getTailSeq(); s++) {
+                String m = ring.getMessage(s);
+                assertEquals(chars.length, m.length());
+                assertEquals((char)('a' + s), m.charAt(0));
+                assertEquals((char)('a' + s), m.charAt(m.length() - 1));
+            }
+        }
+        assertEquals(1, ring.size());
+
+        /* Truncated */
+        String msg = new String(new char[LogRing.MAX_MESSAGE_LENGTH + 1]);
+        long seq = ring.add(10, 0, 10, msg);
+        assertEquals(LogRing.MAX_MESSAGE_LENGTH, ring.getMessage(seq).length());
+    }
+
+    @Test
+    public void testWrap()
+    {
+        LogRing ring = new LogRing(100);
+        for (int i = 0; i < 10_000; i++) {
+            String msg = Integer.toString(i * 7919);
+            long seq = ring.add(i, 0, i, msg);
+            assertEquals(msg, ring.getMessage(seq));
+        }
+        assertEquals(100, ring.size());
+        for (long seq = ring.getHeadSeq(); seq < ring.getTailSeq(); seq++)
+            assertEquals(Long.toString(seq * 7919), ring.getMessage(seq));
+    }
+}
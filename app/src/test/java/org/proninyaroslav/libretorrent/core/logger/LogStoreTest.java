@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LogStoreTest
+{
+    private static final int SEGMENT_SIZE = 16 * 1024;
+
+    private File dir;
+
+    @Before
+    public void init() throws Exception
+    {
+        dir = File.createTempFile("log", "store");
+        dir.delete();
+    }
+
+    @After
+    public void cleanup()
+    {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testAddAndRead() throws Exception
+    {
+        LogStore store = new LogStore(dir);
+        store.open();
+        for (int i = 0; i < 200; i++)
+            store.add(i, (i % 2 == 0 ? "A" : "B"), 1000 + i, "msg " + i);
+
+        assertEquals(0, store.getHeadSeq());
+        assertEquals(200, store.getTailSeq());
+
+        LogStore.Page page = store.read(100, 10, null, null);
+        assertEquals(10, page.entries.size());
+        assertEquals(110, page.nextSeq);
+        assertEquals(new LogEntry(100, "A", "msg 100", 1100), page.entries.get(0));
+        assertEquals(new LogEntry(109, "B", "msg 109", 1109), page.entries.get(9));
+
+        page = store.read(195, 10, null, null);
+        assertEquals(5, page.entries.size());
+        assertEquals(200, page.nextSeq);
+
+        page = store.read(0, 10, Collections.singletonList("B"), null);
+        assertEquals(10, page.entries.size());
+        assertEquals(1, page.entries.get(0).getId());
+        assertEquals(19, page.entries.get(9).getId());
+        assertEquals(20, page.nextSeq);
+
+        page = store.read(0, 10, null, (entry) -> entry.getId() >= 150);
+        assertEquals(10, page.entries.size());
+        assertEquals(150, page.entries.get(0).getId());
+
+        assertEquals(0, store.read(0, 10, Collections.singletonList("C"), null).entries.size());
+
+        store.close();
+    }
+
+    @Test
+    public void testReadBefore() throws Exception
+    {
+        LogStore store = new LogStore(dir, SEGMENT_SIZE, 10);
+        store.open();
+        for (int i = 0; i < 1000; i++)
+            store.add(i, (i < 500 ? "A" : "B"), 1000 + i, "msg " + i);
+
+        LogStore.Page page = store.readBefore(Long.MAX_VALUE, 10, null, null);
+        assertEquals(10, page.entries.size());
+        assertEquals(990, page.entries.get(0).getSeq());
+        assertEquals(999, page.entries.get(9).getSeq());
+        assertEquals(990, page.nextSeq);
+
+        /* Across the index blocks and the segments */
+        page = store.readBefore(300, 200, null, null);
+        assertEquals(200, page.entries.size());
+        for (int i = 0; i < 200; i++)
+            assertEquals(new LogEntry(100 + i, "A", "msg " + (100 + i), 1100 + i),
+                    page.entries.get(i));
+        assertEquals(100, page.entries.get(0).getSeq());
+        assertEquals(100, page.nextSeq);
+
+        page = store.readBefore(5, 10, null, null);
+        assertEquals(5, page.entries.size());
+        assertEquals(0, page.entries.get(0).getSeq());
+        assertEquals(0, page.nextSeq);
+
+        /* The segments without the tag are skipped */
+        page = store.readBefore(Long.MAX_VALUE, 10, Collections.singletonList("A"), null);
+        assertEquals(10, page.entries.size());
+        assertEquals(490, page.entries.get(0).getSeq());
+        assertEquals(499, page.entries.get(9).getSeq());
+
+        page = store.readBefore(Long.MAX_VALUE, 3, null, (entry) -> entry.getId() % 100 == 0);
+        assertEquals(3, page.entries.size());
+        assertEquals(700, page.entries.get(0).getId());
+        assertEquals(900, page.entries.get(2).getId());
+        page = store.readBefore(page.nextSeq, 1, null, (entry) -> entry.getId() % 100 == 0);
+        assertEquals(600, page.entries.get(0).getId());
+
+        page = store.read(600, 10, Collections.singletonList("A"), null);
+        assertEquals(0, page.entries.size());
+        assertEquals(1000, page.nextSeq);
+
+        store.close();
+    }
+
+    @Test
+    public void testFindSeq() throws Exception
+    {
+        LogStore store = new LogStore(dir, SEGMENT_SIZE, 10);
+        store.open();
+        for (int i = 0; i < 1000; i++)
+            store.add(i, "A", i * 10, "msg " + i);
+
+        assertEquals(0, store.findSeq(-5));
+        assertEquals(500, store.findSeq(5000));
+        assertEquals(501, store.findSeq(5001));
+        assertEquals(1000, store.findSeq(100000));
+
+        store.close();
+    }
+
+    @Test
+    public void testRotation() throws Exception
+    {
+        LogStore store = new LogStore(dir, SEGMENT_SIZE, 3);
+        store.open();
+        char[] msg = new char[100];
+        Arrays.fill(msg, 'x');
+        for (int i = 0; i < 1000; i++)
+            store.add(i, "A", i, msg, 0, msg.length);
+
+        assertEquals(1000, store.getTailSeq());
+        long headSeq = store.getHeadSeq();
+        assertTrue(headSeq > 0);
+        assertTrue(store.getNumEntries() <= 3L * SEGMENT_SIZE / (20 + 200));
+
+        LogStore.Page page = store.read(0, 1, null, null);
+        assertEquals(headSeq, page.entries.get(0).getId());
+        store.close();
+
+        int segments = 0;
+        for (String name : dir.list()) {
+            if (name.endsWith(".log"))
+                segments++;
+        }
+        assertEquals(3, segments);
+    }
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        LogStore store = new LogStore(dir, SEGMENT_SIZE, 10);
+        store.open();
+        for (int i = 0; i < 300; i++)
+            store.add(i, (i % 2 == 0 ? "A" : "B"), i, "msg " + i);
+        store.close();
+
+        store = new LogStore(dir, SEGMENT_SIZE, 10);
+        store.open();
+        assertEquals(0, store.getHeadSeq());
+        assertEquals(300, store.getTailSeq());
+        store.add(300, "C", 300, "msg 300");
+
+        LogStore.Page page = store.read(290, 20, null, null);
+        assertEquals(11, page.entries.size());
+        assertEquals(new LogEntry(299, "B", "msg 299", 299), page.entries.get(9));
+        assertEquals(new LogEntry(300, "C", "msg 300", 300), page.entries.get(10));
+        store.close();
+    }
+
+    @Test
+    public void testRecovery() throws Exception
+    {
+        LogStore store = new LogStore(dir);
+        store.open();
+        for (int i = 0; i < 100; i++)
+            store.add(i, "A", i, "msg " + i);
+        /* Not closed, the index isn't written */
+        store.flush();
+
+        File segment = null;
+        for (File f : dir.listFiles()) {
+            if (f.getName().endsWith(".log"))
+                segment = f;
+        }
+        assertNotNull(segment);
+        /* Incomplete entry */
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[] {0, 0, 0, 1, 0, 0});
+        }
+
+        LogStore recovered = new LogStore(dir);
+        recovered.open();
+        assertEquals(100, recovered.getTailSeq());
+        LogStore.Page page = recovered.read(99, 10, null, null);
+        assertEquals(1, page.entries.size());
+        assertEquals("msg 99", page.entries.get(0).getMsg());
+        recovered.close();
+    }
+
+    @Test
+    public void testWrite() throws Exception
+    {
+        LogStore store = new LogStore(dir, SEGMENT_SIZE, 10);
+        store.open();
+        for (int i = 0; i < 500; i++)
+            store.add(i, (i % 2 == 0 ? "A" : "B"), i, "msg " + i);
+
+        StringWriter writer = new StringWriter();
+        assertEquals(500, store.write(writer, 0, false, null));
+        String[] lines = writer.toString().split("\n");
+        assertEquals(500, lines.length);
+        assertEquals("[A] msg 0", lines[0]);
+        assertEquals("[B] msg 499", lines[499]);
+
+        writer = new StringWriter();
+        assertEquals(5, store.write(writer, 490, false, (entry) -> entry.getTag().equals("A")));
+        assertEquals("[A] msg 490\n", writer.toString().substring(0, 12));
+
+        store.close();
+    }
+}
@@ -22,6 +22,7 @@ package org.proninyaroslav.libretorrent.core.logger;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -163,6 +164,80 @@ public class LoggerTest
         logger.getEntries(5, 5);
     }
 
+    @Test
+    public void testGetLogEntriesByKey()
+    {
+        Logger logger = new Logger(10);
+
+        for (int i = 0; i < 15; i++)
+            logger.send(new LogEntry(i, "TEST", "" + i, i));
+
+        List<LogEntry> last = logger.getEntriesBefore(Long.MAX_VALUE, 3);
+        assertEquals(3, last.size());
+        assertEquals(12, last.get(0).getId());
+        assertEquals(14, last.get(2).getId());
+        assertTrue(last.get(0).getSeq() < last.get(1).getSeq());
+
+        long key = last.get(0).getSeq();
+        List<LogEntry> before = logger.getEntriesBefore(key, 20);
+        assertEquals(7, before.size());
+        assertEquals(5, before.get(0).getId());
+        assertEquals(11, before.get(6).getId());
+
+        List<LogEntry> after = logger.getEntriesAfter(before.get(0).getSeq(), 2);
+        assertEquals(2, after.size());
+        assertEquals(6, after.get(0).getId());
+
+        assertTrue(logger.getEntriesAfter(last.get(2).getSeq(), 5).isEmpty());
+        assertEquals(10, logger.getEntriesAfter(-1, 20).size());
+    }
+
+    @Test
+    public void testKeysAfterClean()
+    {
+        Logger logger = new Logger(10);
+
+        for (int i = 0; i < 5; i++)
+            logger.send(new LogEntry(i, "TEST", "" + i, i));
+        long lastKey = logger.getEntry(4).getSeq();
+
+        logger.clean();
+        logger.send(new LogEntry(5, "TEST", "5", 5));
+
+        assertEquals(1, logger.getNumEntries());
+        assertTrue(logger.getEntry(0).getSeq() > lastKey);
+        assertTrue(logger.getEntriesBefore(lastKey + 1, 10).isEmpty());
+    }
+
+    @Test
+    public void testObserveHeadTrim() throws InterruptedException
+    {
+        Logger logger = new Logger(5);
+        CountDownLatch c = new CountDownLatch(1);
+        long[] headSeq = new long[1];
+
+        for (int i = 0; i < 5; i++)
+            logger.send(new LogEntry(i, "TEST", "" + i, i));
+        assertEquals(5, logger.getNumEntries());
+
+        Disposable d = logger.observeDataSetChanged()
+                .subscribe((change) -> {
+                    if (change.reason == Logger.DataSetChange.Reason.HEAD_TRIM) {
+                        headSeq[0] = change.headSeq;
+                        c.countDown();
+                    }
+                });
+
+        logger.send(new LogEntry(5, "TEST", "5", 5));
+        logger.send(new LogEntry(6, "TEST", "6", 6));
+        assertEquals(5, logger.getNumEntries());
+
+        assertTrue(c.await(30, TimeUnit.SECONDS));
+        assertEquals(logger.getEntry(0).getSeq(), headSeq[0]);
+        assertEquals(2, logger.getEntry(0).getId());
+        d.dispose();
+    }
+
     @Test
     public void testFilter()
     {
@@ -319,4 +394,126 @@ public class LoggerTest
         assertEquals(5, logger.write(os));
         assertEquals(expected, os.toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWrite_store() throws Exception
+    {
+        File dir = File.createTempFile("log", "store");
+        dir.delete();
+        LogStore store = new LogStore(dir);
+        store.open();
+        Logger logger = new Logger(5);
+        logger.setStore(store);
+
+        try {
+            for (int i = 0; i < 50; i++)
+                logger.send(new LogEntry(i, (i % 2 == 0 ? "A" : "B"), "" + i, i));
+            logger.startRecording();
+            for (int i = 50; i < 100; i++)
+                logger.send(new LogEntry(i, (i % 2 == 0 ? "A" : "B"), "" + i, i));
+            logger.addFilter(new Logger.NewFilter("A", (entry) -> entry.getTag().equals("A")));
+
+            /* Not limited by the maximum stored logs */
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            assertEquals(50, logger.write(os));
+            assertTrue(os.toString().startsWith("[A] 0\n[A] 2\n"));
+
+            os = new ByteArrayOutputStream();
+            assertEquals(25, logger.stopRecording(os));
+            assertTrue(os.toString().startsWith("[A] 50\n"));
+
+            LogStore.Page page = logger.getStoredEntries(0, 10);
+            assertNotNull(page);
+            assertEquals(10, page.entries.size());
+            assertEquals(18, page.entries.get(9).getId());
+
+            /* Excluded by the tag */
+            logger.removeFilter("A");
+            logger.addFilter(Logger.NewFilter.excludeTag("B", "B"));
+            page = logger.getStoredEntriesBefore(Long.MAX_VALUE, 10);
+            assertNotNull(page);
+            assertEquals(10, page.entries.size());
+            assertEquals(80, page.entries.get(0).getId());
+            assertEquals(98, page.entries.get(9).getId());
+            assertEquals(80, page.nextSeq);
+
+            page = logger.getStoredEntries(page.entries.get(9).getSeq() + 1, 10);
+            assertNotNull(page);
+            assertTrue(page.entries.isEmpty());
+
+            assertEquals(50, logger.findStoredSeq(50));
+
+        } finally {
+            logger.setStore(null);
+            store.close();
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testConcurrentSend() throws InterruptedException
+    {
+        int producers = 4;
+        int entriesPerProducer = 20_000;
+        Logger logger = new Logger(producers * entriesPerProducer);
+        int type = logger.registerTag("TEST");
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                StringBuilder msg = new StringBuilder();
+                for (int i = 0; i < entriesPerProducer; i++) {
+                    msg.setLength(0);
+                    msg.append(producer).append(':').append(i);
+                    logger.send(producer * entriesPerProducer + i, type, i, msg);
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        /* Dropped entries are counted, the order of each producer is kept */
+        int numEntries = logger.getNumEntries();
+        assertEquals(producers * entriesPerProducer, numEntries + logger.getDroppedCount());
+        int[] lastIndex = new int[producers];
+        java.util.Arrays.fill(lastIndex, -1);
+        for (LogEntry entry : logger.getEntries(0, numEntries)) {
+            int producer = entry.getId() / entriesPerProducer;
+            int i = entry.getId() % entriesPerProducer;
+            assertTrue(i > lastIndex[producer]);
+            lastIndex[producer] = i;
+            assertEquals(producer + ":" + i, entry.getMsg());
+        }
+        logger.clean();
+    }
+
+    @Test
+    public void testSend_reusedBuilder()
+    {
+        Logger logger = new Logger(4);
+        int type = logger.registerTag("PEER_LOG");
+
+        /* The message is copied, so the builder can be reused */
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            msg.setLength(0);
+            msg.append("[INCOMING] ").append(i);
+            logger.send(i, type, i, msg);
+        }
+        msg.setLength(0);
+
+        List<LogEntry> entries = logger.getEntries(0, logger.getNumEntries());
+        assertEquals(4, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            LogEntry entry = entries.get(i);
+            assertEquals(i + 2, entry.getId());
+            assertEquals("PEER_LOG", entry.getTag());
+            assertEquals("[INCOMING] " + (i + 2), entry.getMsg());
+        }
+        logger.clean();
+    }
+}
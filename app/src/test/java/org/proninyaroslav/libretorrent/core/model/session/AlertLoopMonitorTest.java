@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import org.junit.Test;
+import org.proninyaroslav.libretorrent.core.model.data.AlertLoopStats;
+
+import static org.junit.Assert.*;
+
+public class AlertLoopMonitorTest
+{
+    private static final int QUEUE_SIZE = 5000;
+    private static final int PIECE_FINISHED = 1;
+    private static final int READ_PIECE = 2;
+    private static final long US = 1000; /* ns */
+    private static final long MS = 1000 * US;
+
+    @Test
+    public void testAlertTime()
+    {
+        AlertLoopMonitor monitor = new AlertLoopMonitor();
+        Object alert = new Object();
+        /* The same alert is handled by two listeners */
+        monitor.onAlertHandled("alerts:session", alert, PIECE_FINISHED, "PIECE_FINISHED", 0, 3 * US);
+        monitor.onAlertHandled("alerts:torrents", alert, PIECE_FINISHED, "PIECE_FINISHED", 4 * US, 9 * US);
+        /* Flushes the previous alert */
+        monitor.onAlertHandled("alerts:torrents", new Object(), READ_PIECE, "READ_PIECE", 10 * US, 10 * US + 40 * MS);
+
+        AlertLoopStats stats = monitor.makeStats(QUEUE_SIZE);
+        assertEquals(2, stats.alertsCount);
+        assertEquals(QUEUE_SIZE, stats.alertQueueSize);
+        assertEquals(8 + 40_000, stats.busyTime);
+        /* The current alert isn't counted yet */
+        assertEquals(1, stats.types.size());
+
+        AlertLoopStats.TypeStats type = stats.types.get(0);
+        assertEquals("PIECE_FINISHED", type.name);
+        assertEquals(1, type.count);
+        assertEquals(8, type.totalTime);
+        assertEquals(8, type.maxTime);
+        /* 8 us < 2^4 */
+        assertEquals(1, type.histogram[4]);
+    }
+
+    @Test
+    public void testSlowestListener()
+    {
+        AlertLoopMonitor monitor = new AlertLoopMonitor();
+        monitor.onAlertHandled("alerts:session", new Object(), PIECE_FINISHED, "PIECE_FINISHED", 0, 10 * US);
+        monitor.onAlertHandled("alerts:torrents", new Object(), READ_PIECE, "READ_PIECE", 20 * US, 50 * US);
+        /* Called from the alert listener */
+        monitor.onAlertStarted();
+        monitor.onSyncListenerCall("SlowListener", 200 * MS);
+        monitor.onSyncListenerCall("SlowListener", 100 * MS);
+        monitor.onAlertHandled("alerts:session", new Object(), PIECE_FINISHED, "PIECE_FINISHED",
+                60 * US, 300 * MS + 70 * US);
+
+        AlertLoopStats stats = monitor.makeStats(QUEUE_SIZE);
+        assertEquals(3, stats.listeners.size());
+        assertTrue(stats.engineListeners.isEmpty());
+        /* Includes the time of the synchronous listener */
+        AlertLoopStats.ListenerStats slowest = stats.getSlowestListener();
+        assertNotNull(slowest);
+        assertEquals("alerts:session", slowest.name);
+        assertEquals(300_020, slowest.totalTime);
+        AlertLoopStats.ListenerStats sync = stats.listeners.get(1);
+        assertEquals("sync:SlowListener", sync.name);
+        assertEquals(2, sync.calls);
+        assertEquals(300_000, sync.totalTime);
+        assertEquals(200_000, sync.maxTime);
+        assertEquals("alerts:torrents", stats.listeners.get(2).name);
+        /* The huge time goes to the last bucket */
+        monitor.onAlertHandled("alerts:session", new Object(), READ_PIECE, "READ_PIECE", 100 * MS, 200 * MS);
+        monitor.onAlertHandled("alerts:session", new Object(), READ_PIECE, "READ_PIECE", 300 * MS, 301 * MS);
+        stats = monitor.makeStats(QUEUE_SIZE);
+        AlertLoopStats.TypeStats type = stats.types.get(1);
+        assertEquals("READ_PIECE", type.name);
+        assertEquals(1, type.histogram[AlertLoopStats.HISTOGRAM_BUCKETS - 1]);
+    }
+
+    @Test
+    public void testEngineListenerTime() throws Exception
+    {
+        AlertLoopMonitor monitor = new AlertLoopMonitor();
+        monitor.onAlertHandled("alerts:session", new Object(), PIECE_FINISHED, "PIECE_FINISHED", 0, 10 * US);
+        /* Called on the listener threads */
+        monitor.onListenerCall("AsyncListener", 50 * MS);
+        monitor.onSyncListenerCall("SyncListener", 10 * MS);
+        /* The alert listener is running on another thread */
+        monitor.onAlertStarted();
+        Thread t = new Thread(() -> monitor.onSyncListenerCall("SyncListener", 30 * MS));
+        t.start();
+        t.join();
+
+        AlertLoopStats stats = monitor.makeStats(QUEUE_SIZE);
+        assertEquals(10, stats.busyTime);
+        assertEquals(1, stats.listeners.size());
+        assertEquals("alerts:session", stats.listeners.get(0).name);
+        assertEquals(2, stats.engineListeners.size());
+        assertEquals("AsyncListener", stats.engineListeners.get(0).name);
+        assertEquals("SyncListener", stats.engineListeners.get(1).name);
+        assertEquals(2, stats.engineListeners.get(1).calls);
+    }
+
+    @Test
+    public void testBatchSize()
+    {
+        AlertLoopMonitor monitor = new AlertLoopMonitor();
+        long time = 0;
+        /* Alerts without pauses */
+        for (int i = 0; i < 100; i++) {
+            monitor.onAlertHandled("alerts:session", new Object(), PIECE_FINISHED, "PIECE_FINISHED",
+                    time, time + 10 * US);
+            time += 20 * US;
+        }
+        /* Waiting for alerts */
+        time += 100 * MS;
+        for (int i = 0; i < 10; i++) {
+            monitor.onAlertHandled("alerts:session", new Object(), PIECE_FINISHED, "PIECE_FINISHED",
+                    time, time + 10 * US);
+            time += 5 * MS;
+        }
+
+        AlertLoopStats stats = monitor.makeStats(QUEUE_SIZE);
+        assertEquals(110, stats.alertsCount);
+        assertEquals(100, stats.maxBatchSize);
+        assertEquals(0, stats.droppedCount);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EngineListenerDispatcherTest
+{
+    private static final int EVENTS_COUNT = 1000;
+
+    private static class RecordingListener extends TorrentEngineListener
+    {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch finished;
+
+        RecordingListener(int expected)
+        {
+            finished = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onPieceFinished(@NonNull String id, int piece)
+        {
+            events.add(id + ":" + piece);
+            threads.add(Thread.currentThread());
+            finished.countDown();
+        }
+
+        @Override
+        public void onTorrentsStatusUpdated(@NonNull List<String> ids)
+        {
+            for (String id : ids) {
+                events.add(id + ":status");
+                finished.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void testTorrentOrder() throws InterruptedException
+    {
+        EngineListenerDispatcher dispatcher = new EngineListenerDispatcher(
+                EngineListenerDispatcher.DEFAULT_STRIPES, null);
+        RecordingListener listener = new RecordingListener(EVENTS_COUNT * 2);
+        dispatcher.addListener(listener);
+
+        for (int i = 0; i < EVENTS_COUNT; i++) {
+            int piece = i;
+            dispatcher.dispatch("a", (l) -> l.onPieceFinished("a", piece));
+            dispatcher.dispatch("b", (l) -> l.onPieceFinished("b", piece));
+        }
+        assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+
+        int nextA = 0, nextB = 0;
+        for (String event : new ArrayList<>(listener.events)) {
+            String[] parts = event.split(":");
+            int piece = Integer.parseInt(parts[1]);
+            if (parts[0].equals("a"))
+                assertEquals(nextA++, piece);
+            else
+                assertEquals(nextB++, piece);
+        }
+        assertEquals(EVENTS_COUNT, nextA);
+        assertEquals(EVENTS_COUNT, nextB);
+    }
+
+    /*
+     * The torrent sees the batch event after its own preceding events
+     */
+
+    @Test
+    public void testBatchOrder() throws InterruptedException
+    {
+        EngineListenerDispatcher dispatcher = new EngineListenerDispatcher(
+                EngineListenerDispatcher.DEFAULT_STRIPES, null);
+        int torrentsCount = 64;
+        RecordingListener listener = new RecordingListener(torrentsCount * 2);
+        RecordingListener syncListener = new RecordingListener(torrentsCount * 2);
+        dispatcher.addListener(listener);
+        dispatcher.addSyncListener(syncListener);
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < torrentsCount; i++) {
+            String id = Integer.toHexString(i);
+            ids.add(id);
+            dispatcher.dispatch(id, (l) -> l.onPieceFinished(id, 0));
+        }
+        dispatcher.dispatchBatch(ids, TorrentEngineListener::onTorrentsStatusUpdated);
+        assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+        assertEquals(torrentsCount * 2, syncListener.events.size());
+
+        List<String> events = new ArrayList<>(listener.events);
+        assertEquals(torrentsCount * 2, events.size());
+        for (String id : ids)
+            assertTrue(events.indexOf(id + ":0") < events.indexOf(id + ":status"));
+    }
+
+    @Test
+    public void testSlowListener() throws InterruptedException
+    {
+        EngineListenerDispatcher dispatcher = new EngineListenerDispatcher(
+                EngineListenerDispatcher.DEFAULT_STRIPES, null);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.addListener(new TorrentEngineListener() {
+            @Override
+            public void onPieceFinished(@NonNull String id, int piece)
+            {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    /* Ignore */
+                }
+            }
+        });
+        RecordingListener syncListener = new RecordingListener(EVENTS_COUNT);
+        dispatcher.addSyncListener(syncListener);
+
+        /* Must not block on the async listener */
+        for (int i = 0; i < EVENTS_COUNT; i++) {
+            int piece = i;
+            dispatcher.dispatch("a", (l) -> l.onPieceFinished("a", piece));
+        }
+        assertEquals(EVENTS_COUNT, syncListener.events.size());
+        for (Thread t : syncListener.threads)
+            assertSame(Thread.currentThread(), t);
+        assertTrue(dispatcher.getQueueSize() > 0);
+
+        release.countDown();
+    }
+
+    @Test
+    public void testDispatchSync()
+    {
+        EngineListenerDispatcher dispatcher = new EngineListenerDispatcher(
+                EngineListenerDispatcher.DEFAULT_STRIPES, null);
+        RecordingListener asyncListener = new RecordingListener(1);
+        RecordingListener syncListener = new RecordingListener(1);
+        dispatcher.addListener(asyncListener);
+        dispatcher.addSyncListener(syncListener);
+
+        dispatcher.dispatchSync((l) -> l.onPieceFinished("a", 0));
+        assertEquals(1, syncListener.events.size());
+        assertEquals(0, dispatcher.getQueueSize());
+        assertTrue(asyncListener.events.isEmpty());
+
+        dispatcher.removeListener(syncListener);
+        dispatcher.dispatchSync((l) -> l.onPieceFinished("a", 1));
+        assertEquals(1, syncListener.events.size());
+    }
+}
@@ -37,6 +37,17 @@ class FakeIPFilter implements IPFilter
         ranges.add(Pair.create(first, last));
     }
 
+    @Override
+    public void addRanges(@NonNull IPRangeSet set) throws IPFilterException
+    {
+        for (int i = 0; i < set.getV4Count(); i++)
+            ranges.add(Pair.create(IPRangeSet.formatV4(set.getV4First(i)),
+                                   IPRangeSet.formatV4(set.getV4Last(i))));
+        for (int i = 0; i < set.getV6Count(); i++)
+            ranges.add(Pair.create(IPRangeSet.formatV6(set.getV6FirstHigh(i), set.getV6FirstLow(i)),
+                                   IPRangeSet.formatV6(set.getV6LastHigh(i), set.getV6LastLow(i))));
+    }
+
     List<Pair<String, String>> getRanges()
     {
         return ranges;
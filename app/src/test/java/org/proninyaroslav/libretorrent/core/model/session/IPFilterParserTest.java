@@ -19,18 +19,29 @@
 
 package org.proninyaroslav.libretorrent.core.model.session;
 
+import androidx.annotation.NonNull;
 import androidx.core.util.Pair;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
+import java.util.Locale;
 
 import static org.junit.Assert.*;
 
 public class IPFilterParserTest
 {
+    private static final int LIST_LINES = 1000;
+
     private String dat_file =
             "# Accept this ranges\n" +
             "000.000.000.000 - 000.255.255.255 , 000 , Bogon\n" +
@@ -122,4 +133,175 @@ public class IPFilterParserTest
             fail(e.toString());
         }
     }
-}
\ No newline at end of file
+
+    /* Sorted and merged, IPv6 after IPv4 */
+    private Pair[] dat_expected_compact_ranges = new Pair[] {
+            Pair.create("0.0.0.0", "0.255.255.255"),
+            Pair.create("1.2.4.0", "1.2.4.255"),
+            Pair.create("1.2.8.0", "1.2.8.255"),
+            Pair.create("1.9.96.105", "1.9.96.105"),
+            Pair.create("1.9.102.251", "1.9.102.251"),
+            Pair.create("1.9.106.186", "1.9.106.186"),
+            Pair.create("1.16.0.0", "1.19.255.255"),
+            Pair.create("1.55.241.140", "1.55.241.140"),
+            Pair.create("2002:0:0:0:0:0:0:0", "2002:ff:ffff:0:0:0:0:0"),
+    };
+
+    @Test
+    public void parseDATCompact()
+    {
+        FakeIPFilter filter = new FakeIPFilter();
+        IPRangeSet ranges = new IPRangeSet();
+        try {
+            int ruleCount = new IPFilterParser(false).parseDAT(toBuffer(dat_file), ranges);
+            assertEquals(dat_expected_ranges.length, ruleCount);
+            ranges.compact();
+            filter.addRanges(ranges);
+
+            assertRanges(dat_expected_compact_ranges, filter.getRanges());
+
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    @Test
+    public void parseP2PCompact()
+    {
+        FakeIPFilter filter = new FakeIPFilter();
+        IPRangeSet ranges = new IPRangeSet();
+        try {
+            int ruleCount = new IPFilterParser(false).parseP2P(toBuffer(p2p_file), ranges);
+            assertEquals(p2p_expected_ranges.length, ruleCount);
+            ranges.compact();
+            filter.addRanges(ranges);
+
+            assertRanges(p2p_expected_ranges, filter.getRanges());
+
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    @Test
+    public void parseCompactMerge()
+    {
+        String file =
+                "200.0.0.0 - 200.0.0.255 , 000 , High address\n" +
+                "10.0.0.128 - 10.0.1.255 , 000 , Overlapped\n" +
+                "10.0.0.0 - 10.0.0.255 , 000 , Overlaps\n" +
+                "10.0.2.0 - 10.0.2.10 , 000 , Adjacent\n" +
+                "10.0.3.0 - 10.0.2.0 , 000 , Reversed\n" +
+                "10.0.4.256 - 10.0.4.1 , 000 , Invalid\n" +
+                "::1 - ::1 , 000 , Loopback\n" +
+                "fe80:: - fe80::ffff , 000 , Link-local\n" +
+                "fe80::1:0 - fe80::2:0 , 000 , Adjacent\n" +
+                "::ffff:1.2.3.4 - ::ffff:1.2.3.4 , 000 , Mapped\n" +
+                "1::2::3 - 1::3 , 000 , Invalid\n" +
+                "10.0.0.0 - ::1 , 000 , Mixed\n";
+        Pair[] expected = new Pair[] {
+                Pair.create("10.0.0.0", "10.0.2.10"),
+                Pair.create("200.0.0.0", "200.0.0.255"),
+                Pair.create("0:0:0:0:0:0:0:1", "0:0:0:0:0:0:0:1"),
+                Pair.create("0:0:0:0:0:ffff:102:304", "0:0:0:0:0:ffff:102:304"),
+                Pair.create("fe80:0:0:0:0:0:0:0", "fe80:0:0:0:0:0:2:0"),
+        };
+
+        FakeIPFilter filter = new FakeIPFilter();
+        IPRangeSet ranges = new IPRangeSet();
+        try {
+            int ruleCount = new IPFilterParser(false).parseDAT(toBuffer(file), ranges);
+            assertEquals(8, ruleCount);
+            ranges.compact();
+            filter.addRanges(ranges);
+
+            assertRanges(expected, filter.getRanges());
+
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    /*
+     * The line-by-line stream parser and the memory-mapped
+     * compact parser must accept the same rules
+     */
+
+    @Test
+    public void parseMappedMatchesStream() throws Exception
+    {
+        File file = File.createTempFile("ipfilter", ".dat");
+        try {
+            writeList(file);
+
+            CountingIPFilter filter = new CountingIPFilter();
+            int streamRules;
+            try (InputStream is = new FileInputStream(file)) {
+                streamRules = new IPFilterParser(false).parseDAT(is, filter);
+            }
+            assertEquals(LIST_LINES, streamRules);
+            assertEquals(LIST_LINES, filter.count);
+
+            IPRangeSet ranges = new IPRangeSet();
+            int compactRules;
+            try (FileInputStream is = new FileInputStream(file);
+                 FileChannel chan = is.getChannel()) {
+                ByteBuffer buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+                compactRules = new IPFilterParser(false).parseDAT(buf, ranges);
+                ranges.compact();
+            }
+            assertEquals(LIST_LINES, compactRules);
+            /* Adjacent pairs are merged */
+            assertEquals(LIST_LINES / 2, ranges.size());
+
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static class CountingIPFilter implements IPFilter
+    {
+        int count;
+
+        @Override
+        public void addRange(@NonNull String first, @NonNull String last)
+        {
+            count++;
+        }
+
+        @Override
+        public void addRanges(@NonNull IPRangeSet ranges)
+        {
+            count += ranges.size();
+        }
+    }
+
+    private static void writeList(File file) throws Exception
+    {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            writer.write("# Test list\n");
+            for (int i = 0; i < LIST_LINES; i++) {
+                /* Pairs of adjacent /25 ranges, separated by gaps */
+                long first = 0x01000000L + (i / 2) * 512L + (i % 2) * 128L;
+                long last = first + 127;
+                writer.write(String.format(Locale.US,
+                        "%03d.%03d.%03d.%03d - %03d.%03d.%03d.%03d , 000 , Range %d\n",
+                        (first >>> 24) & 0xFF, (first >>> 16) & 0xFF, (first >>> 8) & 0xFF, first & 0xFF,
+                        (last >>> 24) & 0xFF, (last >>> 16) & 0xFF, (last >>> 8) & 0xFF, last & 0xFF,
+                        i));
+            }
+        }
+    }
+
+    private static ByteBuffer toBuffer(String s) throws Exception
+    {
+        return ByteBuffer.wrap(s.getBytes("UTF-8"));
+    }
+
+    private static void assertRanges(Pair[] expected, List<Pair<String, String>> ranges)
+    {
+        assertEquals(expected.length, ranges.size());
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], ranges.get(i));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class IPFilterSnapshotTest
+{
+    private static final String SOURCE = "file:///sdcard/ipfilter.dat";
+    private static final long SOURCE_SIZE = 1000;
+    private static final long SOURCE_LAST_MODIFIED = 1577836800000L;
+    private static final long SOURCE_HASH = 0xCAFEL;
+
+    private File file;
+
+    @Before
+    public void init() throws Exception
+    {
+        file = File.createTempFile("ipfilter", ".snapshot");
+        file.delete();
+    }
+
+    @After
+    public void cleanup()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception
+    {
+        IPRangeSet ranges = new IPRangeSet();
+        ranges.addV4(0x0A000000L, 0x0A0000FFL);
+        ranges.addV4(0xC8000000L, 0xFFFFFFFFL);
+        ranges.addV6(0x20020000L << 32, 0, 0x200200FFFFFF0000L, -1);
+        ranges.compact();
+        IPFilterSnapshot.save(file, SOURCE, SOURCE_SIZE, SOURCE_LAST_MODIFIED, SOURCE_HASH, 5, ranges);
+
+        IPFilterSnapshot snapshot = IPFilterSnapshot.open(file, SOURCE);
+        assertNotNull(snapshot);
+        assertEquals(5, snapshot.ruleCount);
+        assertTrue(snapshot.isSourceUnchanged(SOURCE_SIZE, SOURCE_LAST_MODIFIED));
+        assertFalse(snapshot.isSourceUnchanged(SOURCE_SIZE, SOURCE_LAST_MODIFIED + 1));
+        assertFalse(snapshot.isSourceUnchanged(SOURCE_SIZE + 1, SOURCE_LAST_MODIFIED));
+        assertTrue(snapshot.isSameSource(SOURCE_SIZE, SOURCE_HASH));
+        assertFalse(snapshot.isSameSource(SOURCE_SIZE, SOURCE_HASH + 1));
+
+        IPRangeSet loaded = snapshot.load();
+        assertEquals(2, loaded.getV4Count());
+        assertEquals(1, loaded.getV6Count());
+        for (int i = 0; i < ranges.getV4Count(); i++) {
+            assertEquals(ranges.getV4First(i), loaded.getV4First(i));
+            assertEquals(ranges.getV4Last(i), loaded.getV4Last(i));
+        }
+        assertEquals(ranges.getV6FirstHigh(0), loaded.getV6FirstHigh(0));
+        assertEquals(ranges.getV6FirstLow(0), loaded.getV6FirstLow(0));
+        assertEquals(ranges.getV6LastHigh(0), loaded.getV6LastHigh(0));
+        assertEquals(ranges.getV6LastLow(0), loaded.getV6LastLow(0));
+    }
+
+    @Test
+    public void testUnknownLastModified() throws Exception
+    {
+        IPFilterSnapshot.save(file, SOURCE, SOURCE_SIZE, -1, SOURCE_HASH, 0, new IPRangeSet());
+
+        IPFilterSnapshot snapshot = IPFilterSnapshot.open(file, SOURCE);
+        assertNotNull(snapshot);
+        assertFalse(snapshot.isSourceUnchanged(SOURCE_SIZE, -1));
+        assertTrue(snapshot.isSameSource(SOURCE_SIZE, SOURCE_HASH));
+    }
+
+    @Test
+    public void testOtherSource() throws Exception
+    {
+        IPFilterSnapshot.save(file, SOURCE, SOURCE_SIZE, SOURCE_LAST_MODIFIED, SOURCE_HASH, 0, new IPRangeSet());
+
+        assertNull(IPFilterSnapshot.open(file, "file:///sdcard/ipfilter.p2p"));
+        assertNull(IPFilterSnapshot.open(file, ""));
+        assertNotNull(IPFilterSnapshot.open(file, SOURCE));
+    }
+
+    @Test
+    public void testCorrupted() throws Exception
+    {
+        assertNull(IPFilterSnapshot.open(file, SOURCE));
+
+        IPRangeSet ranges = new IPRangeSet();
+        ranges.addV4(1, 2);
+        IPFilterSnapshot.save(file, SOURCE, SOURCE_SIZE, SOURCE_LAST_MODIFIED, SOURCE_HASH, 1, ranges);
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(f.length() - 1);
+        }
+        assertNull(IPFilterSnapshot.open(file, SOURCE));
+
+        IPFilterSnapshot.save(file, SOURCE, SOURCE_SIZE, SOURCE_LAST_MODIFIED, SOURCE_HASH, 1, ranges);
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            /* Version */
+            f.seek(4);
+            f.writeInt(Integer.MAX_VALUE);
+        }
+        assertNull(IPFilterSnapshot.open(file, SOURCE));
+    }
+
+    @Test
+    public void testHash()
+    {
+        ByteBuffer buf = ByteBuffer.wrap("1.2.3.4 - 1.2.3.5 , 000 , Test\n".getBytes());
+        long hash = IPFilterSnapshot.hash(buf);
+        assertEquals(0, buf.position());
+        assertEquals(hash, IPFilterSnapshot.hash(buf));
+
+        buf.put(0, (byte)'2');
+        assertNotEquals(hash, IPFilterSnapshot.hash(buf));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PieceFutureRegistryTest
+{
+    private static final int PIECES_COUNT = 10_000;
+
+    @Test
+    public void testComplete()
+    {
+        PieceFutureRegistry registry = new PieceFutureRegistry();
+        PieceFuture first = registry.get(1);
+        /* Shared by the readers */
+        assertSame(first, registry.get(1));
+        PieceFuture second = registry.get(2);
+        assertEquals(2, registry.size());
+
+        registry.complete(2);
+        assertFalse(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(second.isCancelled());
+        assertEquals(1, registry.size());
+
+        /* The next future of the same piece is new */
+        registry.complete(1);
+        assertTrue(first.isDone());
+        assertNotSame(first, registry.get(1));
+    }
+
+    @Test
+    public void testCancel() throws Exception
+    {
+        PieceFutureRegistry registry = new PieceFutureRegistry();
+        PieceFuture future = registry.get(1);
+        registry.cancelAll();
+
+        assertTrue(future.isDone());
+        assertTrue(future.isCancelled());
+        assertTrue(registry.get(2).isCancelled());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testListener()
+    {
+        PieceFutureRegistry registry = new PieceFutureRegistry();
+        AtomicInteger calls = new AtomicInteger();
+        PieceFuture.Listener listener = (f) -> calls.incrementAndGet();
+
+        PieceFuture future = registry.get(1);
+        future.addListener(listener);
+        registry.complete(1);
+        registry.complete(1);
+        assertEquals(1, calls.get());
+
+        /* Already done */
+        future.addListener(listener);
+        assertEquals(2, calls.get());
+
+        future = registry.get(2);
+        future.addListener(listener);
+        future.removeListener(listener);
+        registry.complete(2);
+        assertEquals(2, calls.get());
+    }
+
+    /*
+     * The reader waiting for the last piece is woken up once,
+     * regardless of the number of other finished pieces
+     */
+
+    @Test
+    public void testWakeUps() throws Exception
+    {
+        PieceFutureRegistry registry = new PieceFutureRegistry();
+        PieceFuture future = registry.get(PIECES_COUNT - 1);
+        AtomicInteger wakeUps = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean(true);
+        CountDownLatch finished = new CountDownLatch(1);
+        future.addListener((f) -> {
+            wakeUps.incrementAndGet();
+            cancelled.set(f.isCancelled());
+            finished.countDown();
+        });
+
+        Thread completer = new Thread(() -> {
+            for (int i = 0; i < PIECES_COUNT; i++)
+                registry.complete(i);
+        });
+        completer.start();
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        completer.join(10_000);
+        assertFalse(completer.isAlive());
+        assertFalse(cancelled.get());
+        assertEquals(1, wakeUps.get());
+    }
+}
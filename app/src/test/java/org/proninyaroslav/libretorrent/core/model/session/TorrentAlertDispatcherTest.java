@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import org.junit.Test;
+import org.libtorrent4j.alerts.Alert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class TorrentAlertDispatcherTest
+{
+    private static final int TORRENTS_COUNT = 100;
+    private static final int ALERTS_COUNT = 1000;
+
+    private static class CountingHandler implements TorrentAlertDispatcher.Handler
+    {
+        final String infoHash;
+        int received;
+
+        CountingHandler(String infoHash)
+        {
+            this.infoHash = infoHash;
+        }
+
+        @Override
+        public void onAlert(Alert<?> alert)
+        {
+            received++;
+        }
+    }
+
+    @Test
+    public void testDispatch()
+    {
+        TorrentAlertDispatcher dispatcher = new TorrentAlertDispatcher(new int[0]);
+        CountingHandler first = new CountingHandler(hash(1));
+        CountingHandler second = new CountingHandler(hash(2));
+        dispatcher.register(first.infoHash, first);
+        dispatcher.register(second.infoHash, second);
+        assertEquals(2, dispatcher.size());
+
+        dispatcher.dispatch(first.infoHash, null);
+        dispatcher.dispatch(first.infoHash, null);
+        dispatcher.dispatch(second.infoHash, null);
+        dispatcher.dispatch(hash(3), null);
+
+        assertEquals(2, first.received);
+        assertEquals(1, second.received);
+    }
+
+    @Test
+    public void testUnregister()
+    {
+        TorrentAlertDispatcher dispatcher = new TorrentAlertDispatcher(new int[0]);
+        CountingHandler oldHandler = new CountingHandler(hash(1));
+        CountingHandler newHandler = new CountingHandler(hash(1));
+        dispatcher.register(oldHandler.infoHash, oldHandler);
+        /* Torrent with the same hash was re-added */
+        dispatcher.register(newHandler.infoHash, newHandler);
+        dispatcher.unregister(oldHandler.infoHash, oldHandler);
+
+        dispatcher.dispatch(hash(1), null);
+        assertEquals(0, oldHandler.received);
+        assertEquals(1, newHandler.received);
+
+        dispatcher.unregister(newHandler.infoHash, newHandler);
+        assertEquals(0, dispatcher.size());
+    }
+
+    @Test
+    public void testManyTorrents()
+    {
+        TorrentAlertDispatcher dispatcher = new TorrentAlertDispatcher(new int[0]);
+        List<CountingHandler> handlers = new ArrayList<>(TORRENTS_COUNT);
+        for (int i = 0; i < TORRENTS_COUNT; i++) {
+            CountingHandler handler = new CountingHandler(hash(i));
+            handlers.add(handler);
+            dispatcher.register(handler.infoHash, handler);
+        }
+
+        for (int i = 0; i < ALERTS_COUNT; i++)
+            dispatcher.dispatch(hash(i % TORRENTS_COUNT), null);
+
+        /* Each handler receives only the alerts of its torrent */
+        for (int i = 0; i < TORRENTS_COUNT; i++)
+            assertEquals(ALERTS_COUNT / TORRENTS_COUNT, handlers.get(i).received);
+    }
+
+    private static String hash(int n)
+    {
+        return String.format(Locale.US, "%040x", n);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ContainerSnifferTest
+{
+    private static final long FILE_SIZE = 100L * 1024 * 1024;
+
+    @Test
+    public void testMp4MoovAtHead()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", 24);
+        box(out, "moov", 1000);
+        box(out, "mdat", 16);
+        byte[] head = out.toByteArray();
+
+        ContainerSniffer.Index index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(ContainerSniffer.Container.MP4, index.container);
+        assertEquals(24, index.offset);
+        assertEquals(1000, index.length);
+    }
+
+    @Test
+    public void testMp4MoovAtTail()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", 24);
+        box(out, "free", 8);
+        long mdatSize = 90L * 1024 * 1024;
+        /* 64-bit size */
+        writeInt(out, 1);
+        writeType(out, "mdat");
+        writeInt(out, (int)(mdatSize >>> 32));
+        writeInt(out, (int)mdatSize);
+        byte[] head = out.toByteArray();
+
+        ContainerSniffer.Index index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(ContainerSniffer.Container.MP4, index.container);
+        assertEquals(32 + mdatSize, index.offset);
+        assertEquals(FILE_SIZE - 32 - mdatSize, index.length);
+    }
+
+    @Test
+    public void testMkvCuesFromSeekHead()
+    {
+        long cuesPosition = 80L * 1024 * 1024;
+        ByteArrayOutputStream seek = new ByteArrayOutputStream();
+        /* Seek entry of the cues */
+        element(seek, new byte[] {0x53, (byte)0xAB}, new byte[] {0x1C, 0x53, (byte)0xBB, 0x6B});
+        element(seek, new byte[] {0x53, (byte)0xAC}, new byte[] {0x05, 0x00, 0x00, 0x00});
+        ByteArrayOutputStream seekHead = new ByteArrayOutputStream();
+        element(seekHead, new byte[] {0x4D, (byte)0xBB}, seek.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        element(out, new byte[] {0x1A, 0x45, (byte)0xDF, (byte)0xA3}, new byte[] {0x42, (byte)0x86, (byte)0x81, 0x01});
+        /* Segment of unknown size */
+        out.write(new byte[] {0x18, 0x53, (byte)0x80, 0x67}, 0, 4);
+        out.write(new byte[] {0x01, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF}, 0, 8);
+        int segmentStart = out.size();
+        /* Void element before the seek head */
+        element(out, new byte[] {(byte)0xEC}, new byte[4]);
+        element(out, new byte[] {0x11, 0x4D, (byte)0x9B, 0x74}, seekHead.toByteArray());
+        byte[] head = out.toByteArray();
+
+        ContainerSniffer.Index index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(ContainerSniffer.Container.MKV, index.container);
+        assertEquals(segmentStart + cuesPosition, index.offset);
+        assertEquals(ContainerSniffer.DEFAULT_TAIL_SIZE, index.length);
+    }
+
+    @Test
+    public void testMkvWithoutSeekHead()
+    {
+        byte[] head = new byte[] {0x1A, 0x45, (byte)0xDF, (byte)0xA3, (byte)0x80};
+
+        ContainerSniffer.Index index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(ContainerSniffer.Container.MKV, index.container);
+        assertEquals(FILE_SIZE - ContainerSniffer.DEFAULT_TAIL_SIZE, index.offset);
+        assertEquals(ContainerSniffer.DEFAULT_TAIL_SIZE, index.length);
+    }
+
+    @Test
+    public void testMp4OversizedBox()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", 24);
+        /* 64-bit size that overflows the position */
+        writeInt(out, 1);
+        writeType(out, "free");
+        writeInt(out, 0x7FFFFFFF);
+        writeInt(out, 0xFFFFFFF0);
+        box(out, "moov", 16);
+        byte[] head = out.toByteArray();
+
+        assertNull(ContainerSniffer.sniff(head, head.length, FILE_SIZE));
+    }
+
+    @Test
+    public void testMkvOversizedElements()
+    {
+        long tailOffset = FILE_SIZE - ContainerSniffer.DEFAULT_TAIL_SIZE;
+
+        /* EBML header larger than the head */
+        byte[] head = new byte[] {0x1A, 0x45, (byte)0xDF, (byte)0xA3,
+                0x01, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xF0};
+        ContainerSniffer.Index index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(tailOffset, index.offset);
+
+        /* Segment child larger than the head */
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        segment(out);
+        out.write(new byte[] {(byte)0xEC, 0x08, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xF0}, 0, 9);
+        head = out.toByteArray();
+        index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(tailOffset, index.offset);
+
+        /* Seek head child larger than the seek head */
+        ByteArrayOutputStream seekHead = new ByteArrayOutputStream();
+        seekHead.write(new byte[] {(byte)0xEC, 0x08, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xF0}, 0, 9);
+        out = new ByteArrayOutputStream();
+        segment(out);
+        element(out, new byte[] {0x11, 0x4D, (byte)0x9B, 0x74}, seekHead.toByteArray());
+        head = out.toByteArray();
+        index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(tailOffset, index.offset);
+
+        /* Cues position beyond the file */
+        ByteArrayOutputStream seek = new ByteArrayOutputStream();
+        element(seek, new byte[] {0x53, (byte)0xAB}, new byte[] {0x1C, 0x53, (byte)0xBB, 0x6B});
+        element(seek, new byte[] {0x53, (byte)0xAC}, new byte[] {0x7F, (byte)0xFF, (byte)0xFF,
+                (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xF0});
+        seekHead = new ByteArrayOutputStream();
+        element(seekHead, new byte[] {0x4D, (byte)0xBB}, seek.toByteArray());
+        out = new ByteArrayOutputStream();
+        segment(out);
+        element(out, new byte[] {0x11, 0x4D, (byte)0x9B, 0x74}, seekHead.toByteArray());
+        head = out.toByteArray();
+        index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(tailOffset, index.offset);
+    }
+
+    @Test
+    public void testMkvUnknownSizes()
+    {
+        long tailOffset = FILE_SIZE - ContainerSniffer.DEFAULT_TAIL_SIZE;
+
+        /* EBML header of unknown size */
+        byte[] head = new byte[] {0x1A, 0x45, (byte)0xDF, (byte)0xA3, (byte)0xFF, 0x42, (byte)0x86};
+        ContainerSniffer.Index index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(tailOffset, index.offset);
+
+        /* Cluster of unknown size before the seek head */
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        segment(out);
+        out.write(new byte[] {0x1F, 0x43, (byte)0xB6, 0x75, (byte)0xFF}, 0, 5);
+        head = out.toByteArray();
+        index = ContainerSniffer.sniff(head, head.length, FILE_SIZE);
+        assertNotNull(index);
+        assertEquals(tailOffset, index.offset);
+    }
+
+    @Test
+    public void testUnknown()
+    {
+        byte[] head = "RIFF....AVI LIST".getBytes();
+        assertNull(ContainerSniffer.sniff(head, head.length, FILE_SIZE));
+        assertNull(ContainerSniffer.sniff(new byte[0], 0, FILE_SIZE));
+    }
+
+    /*
+     * EBML header and the beginning of the segment of unknown size
+     */
+
+    private static void segment(ByteArrayOutputStream out)
+    {
+        element(out, new byte[] {0x1A, 0x45, (byte)0xDF, (byte)0xA3}, new byte[] {0x42, (byte)0x86, (byte)0x81, 0x01});
+        out.write(new byte[] {0x18, 0x53, (byte)0x80, 0x67}, 0, 4);
+        out.write(new byte[] {0x01, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF}, 0, 8);
+    }
+
+    private static void box(ByteArrayOutputStream out, String type, int size)
+    {
+        writeInt(out, size);
+        writeType(out, type);
+        out.write(new byte[size - 8], 0, size - 8);
+    }
+
+    private static void element(ByteArrayOutputStream out, byte[] id, byte[] data)
+    {
+        out.write(id, 0, id.length);
+        /* One byte size */
+        out.write(0x80 | data.length);
+        out.write(data, 0, data.length);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int n)
+    {
+        out.write(n >>> 24);
+        out.write(n >>> 16);
+        out.write(n >>> 8);
+        out.write(n);
+    }
+
+    private static void writeType(ByteArrayOutputStream out, String type)
+    {
+        for (int i = 0; i < 4; i++)
+            out.write(type.charAt(i));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HttpRangeTest
+{
+    private static final long SIZE = 10000;
+
+    @Test
+    public void testSingleRange()
+    {
+        assertEquals(ranges(0, 499), HttpRange.parse("bytes=0-499", SIZE));
+        assertEquals(ranges(500, 999), HttpRange.parse(" bytes=500-999 ", SIZE));
+        /* Open-ended */
+        assertEquals(ranges(9500, 9999), HttpRange.parse("bytes=9500-", SIZE));
+        /* The end is clamped */
+        assertEquals(ranges(9000, 9999), HttpRange.parse("bytes=9000-20000", SIZE));
+        assertEquals(ranges(0, 0), HttpRange.parse("Bytes=0-0", SIZE));
+    }
+
+    @Test
+    public void testSuffixRange()
+    {
+        assertEquals(ranges(9500, 9999), HttpRange.parse("bytes=-500", SIZE));
+        /* Longer than the file */
+        assertEquals(ranges(0, 9999), HttpRange.parse("bytes=-20000", SIZE));
+        /* Zero-length suffix isn't satisfiable */
+        assertEquals(Collections.emptyList(), HttpRange.parse("bytes=-0", SIZE));
+        assertEquals(Collections.emptyList(), HttpRange.parse("bytes=-1", 0));
+    }
+
+    @Test
+    public void testMultipleRanges()
+    {
+        assertEquals(ranges(0, 99, 9900, 9999),
+                HttpRange.parse("bytes=0-99, -100", SIZE));
+        /* Sorted and coalesced */
+        assertEquals(ranges(0, 299, 500, 599),
+                HttpRange.parse("bytes=500-599,100-299,0-150", SIZE));
+        assertEquals(ranges(0, 199), HttpRange.parse("bytes=0-99,100-199", SIZE));
+        /* Unsatisfiable ranges are skipped */
+        assertEquals(ranges(0, 9), HttpRange.parse("bytes=20000-30000,0-9", SIZE));
+        /* Empty list elements */
+        assertEquals(ranges(0, 9), HttpRange.parse("bytes=,0-9,", SIZE));
+    }
+
+    @Test
+    public void testUnsatisfiable()
+    {
+        assertEquals(Collections.emptyList(), HttpRange.parse("bytes=10000-", SIZE));
+        assertEquals(Collections.emptyList(), HttpRange.parse("bytes=10000-10001,20000-", SIZE));
+    }
+
+    @Test
+    public void testInvalid()
+    {
+        assertNull(HttpRange.parse("items=0-9", SIZE));
+        assertNull(HttpRange.parse("bytes=", SIZE));
+        assertNull(HttpRange.parse("bytes=9-0", SIZE));
+        assertNull(HttpRange.parse("bytes=a-b", SIZE));
+        assertNull(HttpRange.parse("bytes=+1-2", SIZE));
+        assertNull(HttpRange.parse("bytes=10", SIZE));
+        assertNull(HttpRange.parse("bytes=-", SIZE));
+        assertNull(HttpRange.parse("bytes=99999999999999999999-", SIZE));
+
+        StringBuilder sb = new StringBuilder("bytes=");
+        for (int i = 0; i <= HttpRange.MAX_RANGES; i++)
+            sb.append(i * 10).append('-').append(i * 10 + 1).append(',');
+        assertNull(HttpRange.parse(sb.toString(), SIZE));
+    }
+
+    private static List<HttpRange> ranges(long... bounds)
+    {
+        HttpRange[] res = new HttpRange[bounds.length / 2];
+        for (int i = 0; i < res.length; i++)
+            res[i] = new HttpRange(bounds[i * 2], bounds[i * 2 + 1]);
+
+        return Arrays.asList(res);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class PieceCacheTest
+{
+    private static final int PIECE_SIZE = 1024;
+
+    @Test
+    public void testHitMiss()
+    {
+        PieceCache cache = new PieceCache(PIECE_SIZE * 4);
+        byte[] data = new byte[PIECE_SIZE];
+
+        assertNull(cache.get(hash(1), 0));
+        cache.put(hash(1), 0, data);
+        assertSame(data, cache.get(hash(1), 0));
+        assertNull(cache.get(hash(2), 0));
+        assertNull(cache.get(hash(1), 1));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(PIECE_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        PieceCache cache = new PieceCache(PIECE_SIZE * 3);
+        for (int i = 0; i < 3; i++)
+            cache.put(hash(1), i, new byte[PIECE_SIZE]);
+
+        /* Piece 0 becomes the most recently used */
+        assertNotNull(cache.get(hash(1), 0));
+        cache.put(hash(1), 3, new byte[PIECE_SIZE]);
+
+        assertNotNull(cache.get(hash(1), 0));
+        assertNull(cache.get(hash(1), 1));
+        assertNotNull(cache.get(hash(1), 2));
+        assertNotNull(cache.get(hash(1), 3));
+        assertEquals(PIECE_SIZE * 3, cache.getSize());
+
+        /* Replacing doesn't count the piece twice */
+        cache.put(hash(1), 3, new byte[PIECE_SIZE / 2]);
+        assertEquals(PIECE_SIZE * 2 + PIECE_SIZE / 2, cache.getSize());
+
+        /* Too big for the cache */
+        cache.put(hash(1), 4, new byte[PIECE_SIZE * 4]);
+        assertNull(cache.get(hash(1), 4));
+        assertEquals(PIECE_SIZE * 2 + PIECE_SIZE / 2, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        PieceCache cache = new PieceCache(PIECE_SIZE * 10);
+        for (int i = 0; i < 3; i++) {
+            cache.put(hash(1), i, new byte[PIECE_SIZE]);
+            cache.put(hash(2), i, new byte[PIECE_SIZE]);
+            cache.put(hash(3), i, new byte[PIECE_SIZE]);
+        }
+
+        cache.onTorrentRemoved(hash(1));
+        assertNull(cache.get(hash(1), 0));
+        assertNotNull(cache.get(hash(2), 0));
+
+        cache.onTorrentStateChanged(hash(2),
+                TorrentStateCode.DOWNLOADING, TorrentStateCode.SEEDING);
+        assertNotNull(cache.get(hash(2), 0));
+        cache.onTorrentStateChanged(hash(2),
+                TorrentStateCode.SEEDING, TorrentStateCode.CHECKING);
+        assertNull(cache.get(hash(2), 0));
+        assertEquals(PIECE_SIZE * 3, cache.getSize());
+
+        cache.onSessionStopped();
+        assertNull(cache.get(hash(3), 0));
+        assertEquals(0, cache.getSize());
+    }
+
+    private static String hash(int n)
+    {
+        return String.format(Locale.US, "%040x", n);
+    }
+}
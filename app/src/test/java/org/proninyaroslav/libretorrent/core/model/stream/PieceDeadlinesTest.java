@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class PieceDeadlinesTest
+{
+    private static final String TORRENT_ID = "0123456789abcdef0123456789abcdef01234567";
+    private static final int PIECE_LENGTH = 1024 * 1024;
+    private static final int LAST_PIECE = 999;
+
+    /* Piece deadlines as libtorrent sees them */
+    private static final TreeMap<Integer, Integer> torrentDeadlines = new TreeMap<>();
+
+    /* Same as the target of TorrentInputStream */
+    private static class StreamTarget implements StreamScheduler.Target
+    {
+        final PieceDeadlines deadlines;
+
+        StreamTarget(PieceDeadlines deadlines)
+        {
+            this.deadlines = deadlines;
+        }
+
+        @Override
+        public void setPieceDeadline(int pieceIndex, int deadline)
+        {
+            deadlines.hold(TORRENT_ID, pieceIndex, this);
+            torrentDeadlines.put(pieceIndex, deadline);
+        }
+
+        @Override
+        public void resetPieceDeadline(int pieceIndex)
+        {
+            if (deadlines.release(TORRENT_ID, pieceIndex, this))
+                assertNotNull(torrentDeadlines.remove(pieceIndex));
+        }
+    }
+
+    @Test
+    public void testHoldRelease()
+    {
+        PieceDeadlines deadlines = new PieceDeadlines();
+        Object first = new Object();
+        Object second = new Object();
+
+        assertTrue(deadlines.hold(TORRENT_ID, 1, first));
+        assertFalse(deadlines.hold(TORRENT_ID, 1, first));
+        assertFalse(deadlines.hold(TORRENT_ID, 1, second));
+        assertTrue(deadlines.hold(TORRENT_ID, 2, second));
+        assertEquals(2, deadlines.size());
+
+        assertFalse(deadlines.release(TORRENT_ID, 1, first));
+        /* Not held by this holder */
+        assertFalse(deadlines.release(TORRENT_ID, 1, first));
+        assertFalse(deadlines.release(TORRENT_ID, 3, first));
+        assertTrue(deadlines.release(TORRENT_ID, 1, second));
+        assertTrue(deadlines.release(TORRENT_ID, 2, second));
+        assertEquals(0, deadlines.size());
+    }
+
+    @Test
+    public void testSharedPieces()
+    {
+        torrentDeadlines.clear();
+        PieceDeadlines deadlines = new PieceDeadlines();
+        StreamScheduler player = new StreamScheduler(0, LAST_PIECE, PIECE_LENGTH);
+        StreamTarget playerTarget = new StreamTarget(deadlines);
+        StreamScheduler probe = new StreamScheduler(0, LAST_PIECE, PIECE_LENGTH);
+        StreamTarget probeTarget = new StreamTarget(deadlines);
+
+        player.schedule(0, 1, playerTarget);
+        int windowPieces = player.getWindowPieces();
+        /* The second stream of the same file reads a bit further */
+        probe.schedule(2, 1, probeTarget);
+        assertEquals(windowPieces + 2, torrentDeadlines.size());
+
+        /* The pieces still needed by the player aren't reset */
+        probe.cancel(probeTarget);
+        assertEquals(windowPieces, torrentDeadlines.size());
+        assertEquals(0, (int)torrentDeadlines.firstKey());
+        assertEquals(windowPieces - 1, (int)torrentDeadlines.lastKey());
+
+        player.cancel(playerTarget);
+        assertTrue(torrentDeadlines.isEmpty());
+        assertEquals(0, deadlines.size());
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+import org.proninyaroslav.libretorrent.core.model.data.ReadPieceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class PieceReadDispatcherTest
+{
+    private static final int STREAMS_COUNT = 8;
+    private static final int READS_PER_STREAM = 100;
+    /* Simulated piece reading by the libtorrent disk threads */
+    private static final int DISK_THREADS = 4;
+
+    private static class CountingReader implements PieceReadDispatcher.Reader
+    {
+        final List<Integer> pieces = new ArrayList<>();
+
+        @Override
+        public void onReadPiece(ReadPieceInfo info)
+        {
+            pieces.add(info.piece);
+        }
+    }
+
+    /*
+     * Simulates TorrentInputStream: requests the piece and waits for the result
+     */
+
+    private static class FakeStream implements PieceReadDispatcher.Reader
+    {
+        final String torrentId;
+        final PieceReadDispatcher dispatcher;
+        final ExecutorService disk;
+        int received;
+
+        FakeStream(String torrentId, PieceReadDispatcher dispatcher, ExecutorService disk)
+        {
+            this.torrentId = torrentId;
+            this.dispatcher = dispatcher;
+            this.disk = disk;
+        }
+
+        void read(int piece) throws InterruptedException
+        {
+            int expected;
+            synchronized (this) {
+                expected = received + 1;
+            }
+            dispatcher.register(torrentId, piece, this);
+            disk.execute(() -> {
+                dispatcher.dispatch(torrentId, new ReadPieceInfo(piece, 0, 0, null));
+            });
+            synchronized (this) {
+                while (received < expected)
+                    wait();
+            }
+            dispatcher.unregister(torrentId, piece, this);
+        }
+
+        @Override
+        public synchronized void onReadPiece(ReadPieceInfo info)
+        {
+            received++;
+            notifyAll();
+        }
+    }
+
+    @Test
+    public void testDispatch()
+    {
+        PieceReadDispatcher dispatcher = new PieceReadDispatcher();
+        CountingReader first = new CountingReader();
+        CountingReader second = new CountingReader();
+        dispatcher.register(hash(1), 1, first);
+        dispatcher.register(hash(1), 2, first);
+        dispatcher.register(hash(2), 1, second);
+
+        dispatcher.onReadPiece(hash(1), new ReadPieceInfo(1, 0, 0, null));
+        dispatcher.onReadPiece(hash(1), new ReadPieceInfo(2, 0, 0, null));
+        dispatcher.onReadPiece(hash(1), new ReadPieceInfo(3, 0, 0, null));
+        dispatcher.onReadPiece(hash(2), new ReadPieceInfo(1, 0, 0, null));
+        dispatcher.onReadPiece(hash(3), new ReadPieceInfo(1, 0, 0, null));
+
+        assertEquals(2, first.pieces.size());
+        assertEquals(1, (int)first.pieces.get(0));
+        assertEquals(2, (int)first.pieces.get(1));
+        assertEquals(1, second.pieces.size());
+        assertEquals(1, (int)second.pieces.get(0));
+    }
+
+    @Test
+    public void testUnregister()
+    {
+        PieceReadDispatcher dispatcher = new PieceReadDispatcher();
+        CountingReader first = new CountingReader();
+        CountingReader second = new CountingReader();
+        /* Two streams of the same file are waiting for the same piece */
+        dispatcher.register(hash(1), 1, first);
+        dispatcher.register(hash(1), 1, second);
+        assertEquals(1, dispatcher.size());
+
+        dispatcher.unregister(hash(1), 1, first);
+        dispatcher.onReadPiece(hash(1), new ReadPieceInfo(1, 0, 0, null));
+        assertEquals(0, first.pieces.size());
+        assertEquals(1, second.pieces.size());
+
+        dispatcher.unregister(hash(1), 1, second);
+        assertEquals(0, dispatcher.size());
+    }
+
+    /*
+     * Each stream gets only its own pieces, even if
+     * the streams are waiting at the same time
+     */
+
+    @Test
+    public void testConcurrentStreams() throws Exception
+    {
+        PieceReadDispatcher dispatcher = new PieceReadDispatcher();
+        ExecutorService disk = Executors.newFixedThreadPool(DISK_THREADS);
+        List<FakeStream> streams = new ArrayList<>(STREAMS_COUNT);
+        List<Thread> threads = new ArrayList<>(STREAMS_COUNT);
+        List<Throwable> errors = new ArrayList<>();
+
+        for (int i = 0; i < STREAMS_COUNT; i++) {
+            FakeStream stream = new FakeStream(hash(i), dispatcher, disk);
+            streams.add(stream);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int piece = 0; piece < READS_PER_STREAM; piece++)
+                        stream.read(piece);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        disk.shutdown();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (FakeStream stream : streams)
+            assertEquals(READS_PER_STREAM, stream.received);
+        assertEquals(0, dispatcher.size());
+    }
+
+    private static String hash(int n)
+    {
+        return String.format(Locale.US, "%040x", n);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamSchedulerTest
+{
+    private static final int PIECE_LENGTH = 1024 * 1024;
+    private static final int LAST_PIECE = 999;
+
+    /* Piece deadlines as libtorrent sees them */
+    private static class FakeTarget implements StreamScheduler.Target
+    {
+        final TreeMap<Integer, Integer> deadlines = new TreeMap<>();
+        int resetCount;
+
+        @Override
+        public void setPieceDeadline(int pieceIndex, int deadline)
+        {
+            deadlines.put(pieceIndex, deadline);
+        }
+
+        @Override
+        public void resetPieceDeadline(int pieceIndex)
+        {
+            assertNotNull(deadlines.remove(pieceIndex));
+            resetCount++;
+        }
+    }
+
+    @Test
+    public void testDefaultWindow()
+    {
+        StreamScheduler scheduler = new StreamScheduler(0, LAST_PIECE, PIECE_LENGTH);
+        FakeTarget target = new FakeTarget();
+
+        scheduler.schedule(0, 1, target);
+        int windowPieces = scheduler.getWindowPieces();
+        assertEquals(windowPieces, target.deadlines.size());
+        assertEquals(0, (int)target.deadlines.firstKey());
+        assertEquals(windowPieces - 1, (int)target.deadlines.lastKey());
+        assertEquals(StreamScheduler.MIN_PIECE_DEADLINE, (int)target.deadlines.get(0));
+        assertDeadlinesGrow(target);
+
+        /* Window doesn't exceed the file */
+        scheduler.schedule(LAST_PIECE, 1, target);
+        assertEquals(1, target.deadlines.size());
+        assertEquals(LAST_PIECE, (int)target.deadlines.firstKey());
+    }
+
+    @Test
+    public void testWindowFollowsReadRate()
+    {
+        StreamScheduler slow = new StreamScheduler(0, LAST_PIECE, PIECE_LENGTH);
+        StreamScheduler fast = new StreamScheduler(0, LAST_PIECE, PIECE_LENGTH);
+        /* ~500 KB/s and ~5 MB/s consumers */
+        simulateReads(slow, 500 * 1024);
+        simulateReads(fast, 5 * 1024 * 1024);
+
+        assertEquals(500 * 1024, slow.getReadRate(), 50 * 1024);
+        assertEquals(5 * 1024 * 1024, fast.getReadRate(), 500 * 1024);
+        assertTrue(fast.getWindowPieces() > slow.getWindowPieces());
+
+        FakeTarget slowTarget = new FakeTarget();
+        FakeTarget fastTarget = new FakeTarget();
+        slow.schedule(0, 1, slowTarget);
+        fast.schedule(0, 1, fastTarget);
+        assertDeadlinesGrow(slowTarget);
+        assertDeadlinesGrow(fastTarget);
+        /* Slow consumer reaches the next piece later */
+        assertTrue(slowTarget.deadlines.get(1) > fastTarget.deadlines.get(1));
+    }
+
+    @Test
+    public void testStallIsNotCounted()
+    {
+        StreamScheduler scheduler = new StreamScheduler(0, LAST_PIECE, PIECE_LENGTH);
+        long now = 0;
+        scheduler.onRead(0, 0, now);
+        /* 1 MB per second, but half of the time is waiting for the download */
+        for (int i = 0; i < 10; i++) {
+            now += TimeUnit.SECONDS.toNanos(1);
+            scheduler.onRead(512 * 1024, TimeUnit.MILLISECONDS.toNanos(500), now);
+        }
+
+        assertEquals(1024 * 1024, scheduler.getReadRate(), 1024);
+    }
+
+    @Test
+    public void testStaleDeadlines()
+    {
+        StreamScheduler scheduler = new StreamScheduler(0, LAST_PIECE, PIECE_LENGTH);
+        FakeTarget target = new FakeTarget();
+        int windowPieces = scheduler.getWindowPieces();
+
+        scheduler.schedule(0, 1, target);
+        /* Reader passed the first pieces */
+        scheduler.schedule(3, 1, target);
+        assertEquals(windowPieces, target.deadlines.size());
+        assertEquals(3, (int)target.deadlines.firstKey());
+        assertEquals(3, target.resetCount);
+
+        /* Seek */
+        scheduler.schedule(500, 1, target);
+        assertEquals(windowPieces, target.deadlines.size());
+        assertEquals(500, (int)target.deadlines.firstKey());
+
+        /* Read bigger than the window */
+        scheduler.schedule(500, windowPieces * 2, target);
+        assertEquals(windowPieces * 2, target.deadlines.size());
+
+        scheduler.cancel(target);
+        assertTrue(target.deadlines.isEmpty());
+    }
+
+    private static void simulateReads(StreamScheduler scheduler, long rate)
+    {
+        int readSize = 64 * 1024;
+        long readTime = TimeUnit.SECONDS.toNanos(1) * readSize / rate;
+        long now = 0;
+        scheduler.onRead(0, 0, now);
+        for (int i = 0; i < 1000; i++) {
+            now += readTime;
+            scheduler.onRead(readSize, 0, now);
+        }
+    }
+
+    private static void assertDeadlinesGrow(FakeTarget target)
+    {
+        int prev = -1;
+        for (int deadline : target.deadlines.values()) {
+            assertTrue(deadline >= prev);
+            prev = deadline;
+        }
+    }
+}
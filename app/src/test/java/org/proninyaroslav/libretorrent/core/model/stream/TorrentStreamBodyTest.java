@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TorrentStreamBodyTest
+{
+    private static final int PIECE_LENGTH = 16 * 1024;
+    /* The file starts in the middle of the piece */
+    private static final long FILE_OFFSET = 3 * PIECE_LENGTH + 100;
+    private static final int FILE_SIZE = 10 * PIECE_LENGTH + 500;
+
+    @Test
+    public void testMixedPieces() throws IOException
+    {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(1).nextBytes(data);
+        File tmp = File.createTempFile("body", ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(data);
+            }
+
+            TorrentStream stream = makeStream();
+            long start = PIECE_LENGTH + 10;
+            long length = 7 * PIECE_LENGTH;
+            TorrentStreamBody body = new TorrentStreamBody(stream,
+                    () -> new ByteArrayInputStream(data),
+                    new StreamFile(new RandomAccessFile(tmp, "r").getChannel(), null),
+                    (pieceIndex) -> pieceIndex % 2 == 0,
+                    start, length);
+
+            byte[] res = writeAll(body, 5000);
+            assertArrayEquals(Arrays.copyOfRange(data, (int)start, (int)(start + length)), res);
+            assertEquals(length, body.getDiskBytes() + body.getReadBytes());
+            assertTrue(body.getDiskBytes() > 0);
+            assertTrue(body.getReadBytes() > 0);
+            body.close();
+
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    @Test
+    public void testWithoutFile() throws IOException
+    {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(2).nextBytes(data);
+
+        TorrentStreamBody body = new TorrentStreamBody(makeStream(),
+                () -> new ByteArrayInputStream(data), null,
+                (pieceIndex) -> true,
+                0, FILE_SIZE + 1000);
+
+        assertArrayEquals(data, writeAll(body, Long.MAX_VALUE));
+        assertEquals(0, body.getDiskBytes());
+        assertEquals(FILE_SIZE, body.getReadBytes());
+    }
+
+    /* The file on the disk is shorter (e.g. not preallocated) */
+    @Test
+    public void testShortFile() throws IOException
+    {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(3).nextBytes(data);
+        File tmp = File.createTempFile("body", ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(data, 0, 2 * PIECE_LENGTH);
+            }
+
+            TorrentStreamBody body = new TorrentStreamBody(makeStream(),
+                    () -> new ByteArrayInputStream(data),
+                    new StreamFile(new RandomAccessFile(tmp, "r").getChannel(), null),
+                    (pieceIndex) -> true,
+                    0, FILE_SIZE);
+
+            assertArrayEquals(data, writeAll(body, Long.MAX_VALUE));
+            assertEquals(2 * PIECE_LENGTH, body.getDiskBytes());
+            body.close();
+
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /* The stream is opened only at the missing piece */
+    @Test
+    public void testDiskFastPath() throws IOException
+    {
+        byte[] data = new byte[FILE_SIZE];
+        new Random(4).nextBytes(data);
+        File tmp = File.createTempFile("body", ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(data);
+            }
+            TorrentStream stream = makeStream();
+            int[] openCount = new int[1];
+            TorrentStreamBody.StreamOpener opener = () -> {
+                openCount[0]++;
+                return new ByteArrayInputStream(data);
+            };
+
+            /* All pieces are finished */
+            TorrentStreamBody body = new TorrentStreamBody(stream, opener,
+                    new StreamFile(new RandomAccessFile(tmp, "r").getChannel(), null),
+                    (pieceIndex) -> true,
+                    0, FILE_SIZE);
+            assertArrayEquals(data, writeAll(body, Long.MAX_VALUE));
+            assertFalse(body.isStreamOpened());
+            assertEquals(0, openCount[0]);
+            assertEquals(FILE_SIZE, body.getDiskBytes());
+            body.close();
+
+            /* One piece in the middle is missing */
+            int missingPiece = stream.firstFilePiece + 5;
+            body = new TorrentStreamBody(stream, opener,
+                    new StreamFile(new RandomAccessFile(tmp, "r").getChannel(), null),
+                    (pieceIndex) -> pieceIndex != missingPiece,
+                    0, FILE_SIZE);
+            assertArrayEquals(data, writeAll(body, Long.MAX_VALUE));
+            assertTrue(body.isStreamOpened());
+            assertEquals(1, openCount[0]);
+            assertEquals(PIECE_LENGTH, body.getReadBytes());
+            body.close();
+
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static TorrentStream makeStream()
+    {
+        int firstPiece = (int)(FILE_OFFSET / PIECE_LENGTH);
+        int lastPiece = (int)((FILE_OFFSET + FILE_SIZE - 1) / PIECE_LENGTH);
+        int lastPieceSize = (int)(FILE_OFFSET + FILE_SIZE - (long)lastPiece * PIECE_LENGTH);
+
+        return new TorrentStream("0123456789abcdef0123456789abcdef01234567", 0,
+                firstPiece, lastPiece, PIECE_LENGTH, FILE_OFFSET, FILE_SIZE, lastPieceSize);
+    }
+
+    private static byte[] writeAll(TorrentStreamBody body, long count) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        while (body.writeTo(target, count) >= 0)
+            ;
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,692 @@
+/*
+ * Copyright (C) 2020 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/*
+ * Hammers the stream server with concurrent range requests.
+ * The file is served from memory instead of the torrent session,
+ * and the "flushed" pieces from the file on the disk
+ */
+
+public class TorrentStreamServerLoadTest
+{
+    private static final String HOST = "127.0.0.1";
+    private static final String TORRENT_ID = "0123456789abcdef0123456789abcdef01234567";
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private static final int PIECE_LENGTH = 256 * 1024;
+    private static final int CLIENTS_COUNT = 32;
+    private static final int REQUESTS_PER_CLIENT = 20;
+    private static final int MAX_RANGE_LENGTH = 128 * 1024;
+    private static final long QUEUE_TIMEOUT = 60_000; /* ms */
+
+    private TorrentStreamServer server;
+
+    private static class FakeStreamProvider implements TorrentStreamServer.StreamProvider
+    {
+        final byte[] file;
+        final TorrentStream stream;
+        File diskFile;
+        final AtomicInteger openCount = new AtomicInteger();
+        final List<Integer> deadlinePieces = Collections.synchronizedList(new ArrayList<>());
+        final PieceDeadlines deadlines = new PieceDeadlines();
+        final StreamMetrics metrics = new StreamMetrics();
+        final PieceCache pieceCache = new PieceCache();
+
+        FakeStreamProvider(byte[] file)
+        {
+            this.file = file;
+            int lastPiece = (file.length - 1) / PIECE_LENGTH;
+            stream = new TorrentStream(TORRENT_ID, 0, 0, lastPiece, PIECE_LENGTH,
+                    0, file.length, file.length - lastPiece * PIECE_LENGTH);
+        }
+
+        @Override
+        public TorrentStream getStream(@NonNull String torrentId, int fileIndex)
+        {
+            return (TORRENT_ID.equals(torrentId) && fileIndex == 0 ? stream : null);
+        }
+
+        @Override
+        public InputStream openStream(@NonNull TorrentStream stream, boolean readahead) throws IOException
+        {
+            openCount.incrementAndGet();
+
+            return new ByteArrayInputStream(file);
+        }
+
+        @Override
+        public StreamFile openFile(@NonNull TorrentStream stream) throws IOException
+        {
+            if (diskFile == null)
+                return null;
+
+            return new StreamFile(new RandomAccessFile(diskFile, "r").getChannel(), null);
+        }
+
+        /* Every second piece is on the disk */
+        @Override
+        public boolean isPieceFlushed(@NonNull TorrentStream stream, int pieceIndex)
+        {
+            return pieceIndex % 2 == 0;
+        }
+
+        @Override
+        public void holdPieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                      int deadline, @NonNull Object holder)
+        {
+            deadlines.hold(stream.torrentId, pieceIndex, holder);
+            deadlinePieces.add(pieceIndex);
+        }
+
+        @Override
+        public void releasePieceDeadline(@NonNull TorrentStream stream, int pieceIndex,
+                                         @NonNull Object holder)
+        {
+            deadlines.release(stream.torrentId, pieceIndex, holder);
+        }
+
+        @NonNull
+        @Override
+        public StreamMetrics getMetrics()
+        {
+            return metrics;
+        }
+
+        @Override
+        public PieceCache getPieceCache()
+        {
+            return pieceCache;
+        }
+    }
+
+    private static class Result
+    {
+        int status;
+        String contentType;
+        String contentRange;
+        long contentLength;
+        byte[] body;
+    }
+
+    private File tmpFile;
+
+    @After
+    public void tearDown()
+    {
+        if (server != null)
+            server.stop();
+        if (tmpFile != null)
+            tmpFile.delete();
+    }
+
+    @Test
+    public void testConcurrentRangeRequests() throws Exception
+    {
+        byte[] file = new byte[FILE_SIZE];
+        new Random(42).nextBytes(file);
+        FakeStreamProvider provider = new FakeStreamProvider(file);
+        tmpFile = File.createTempFile("stream", ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(file);
+        }
+        provider.diskFile = tmpFile;
+        server = startServer(provider, new BoundedAsyncRunner());
+        String url = makeUrl(server);
+
+        AtomicInteger served = new AtomicInteger();
+        AtomicInteger busy = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS_COUNT);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            Random random = new Random(i);
+            futures.add(clients.submit(() -> {
+                for (int n = 0; n < REQUESTS_PER_CLIENT; n++) {
+                    int from = random.nextInt(FILE_SIZE);
+                    int to = Math.min(FILE_SIZE, from + 1 + random.nextInt(MAX_RANGE_LENGTH)) - 1;
+                    Result res = request(url, "bytes=" + from + "-" + to, false);
+                    if (res.status == 503) {
+                        busy.incrementAndGet();
+                        continue;
+                    }
+                    assertEquals(206, res.status);
+                    assertArrayEquals(Arrays.copyOfRange(file, from, to + 1), res.body);
+                    served.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> f : futures)
+                f.get(60, TimeUnit.SECONDS);
+        } finally {
+            clients.shutdownNow();
+        }
+
+        BoundedAsyncRunner runner = server.getAsyncRunner();
+        assertEquals(CLIENTS_COUNT * REQUESTS_PER_CLIENT, served.get() + busy.get());
+        assertTrue(served.get() > 0);
+        assertEquals(busy.get(), runner.getRejectedCount());
+        assertTrue(runner.getPeakActiveCount() <= BoundedAsyncRunner.DEFAULT_MAX_THREADS);
+        server.stop();
+        server = null;
+        assertEquals(0, provider.deadlines.size());
+    }
+
+    @Test
+    public void testBackPressure() throws Exception
+    {
+        byte[] file = new byte[PIECE_LENGTH];
+        CountDownLatch unblock = new CountDownLatch(1);
+        FakeStreamProvider provider = new FakeStreamProvider(file) {
+            @Override
+            public InputStream openStream(@NonNull TorrentStream stream, boolean readahead) throws IOException
+            {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+
+                return super.openStream(stream, readahead);
+            }
+        };
+        BoundedAsyncRunner runner = new BoundedAsyncRunner(1, 1, QUEUE_TIMEOUT);
+        server = startServer(provider, runner);
+        String url = makeUrl(server);
+
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            checkBackPressure(runner, url, unblock, clients);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private static void checkBackPressure(BoundedAsyncRunner runner, String url,
+                                          CountDownLatch unblock, ExecutorService clients) throws Exception
+    {
+        /* Occupies the only thread */
+        Future<Result> first = clients.submit(() -> request(url, "bytes=0-99", true));
+        waitFor(() -> runner.getActiveCount() == 1);
+        assertTrue(runner.isSaturated());
+        /* Waits in the queue */
+        Future<Result> second = clients.submit(() -> request(url, "bytes=100-199", true));
+        waitFor(() -> runner.getQueueSize() == 1);
+
+        Result rejected = request(url, "bytes=200-299", true);
+        assertEquals(503, rejected.status);
+        assertEquals(1, runner.getRejectedCount());
+
+        unblock.countDown();
+        assertEquals(206, first.get(10, TimeUnit.SECONDS).status);
+        assertEquals(206, second.get(10, TimeUnit.SECONDS).status);
+        assertEquals(2, runner.getAcceptedCount());
+    }
+
+    /*
+     * The connection that waits in the queue for a thread
+     * longer than the timeout is rejected
+     */
+
+    @Test
+    public void testQueueTimeout() throws Exception
+    {
+        byte[] file = new byte[PIECE_LENGTH];
+        CountDownLatch unblock = new CountDownLatch(1);
+        FakeStreamProvider provider = new FakeStreamProvider(file) {
+            @Override
+            public InputStream openStream(@NonNull TorrentStream stream, boolean readahead) throws IOException
+            {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+
+                return super.openStream(stream, readahead);
+            }
+        };
+        BoundedAsyncRunner runner = new BoundedAsyncRunner(1, 1, 200);
+        server = startServer(provider, runner);
+        String url = makeUrl(server);
+
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            Future<Result> first = clients.submit(() -> request(url, "bytes=0-99", true));
+            waitFor(() -> runner.getActiveCount() == 1);
+
+            Result queued = request(url, "bytes=100-199", true);
+            assertEquals(503, queued.status);
+            assertEquals(1, runner.getRejectedCount());
+            assertEquals(0, runner.getQueueSize());
+
+            unblock.countDown();
+            assertEquals(206, first.get(10, TimeUnit.SECONDS).status);
+            assertEquals(1, runner.getAcceptedCount());
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    /*
+     * The rejected client that neither finishes the request
+     * nor closes the connection doesn't hold the reject thread
+     */
+
+    @Test
+    public void testRejectSlowClient() throws Exception
+    {
+        byte[] file = new byte[PIECE_LENGTH];
+        CountDownLatch unblock = new CountDownLatch(1);
+        FakeStreamProvider provider = new FakeStreamProvider(file) {
+            @Override
+            public InputStream openStream(@NonNull TorrentStream stream, boolean readahead) throws IOException
+            {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+
+                return super.openStream(stream, readahead);
+            }
+        };
+        BoundedAsyncRunner runner = new BoundedAsyncRunner(1, 1, QUEUE_TIMEOUT);
+        server = startServer(provider, runner);
+        String url = makeUrl(server);
+
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            Future<Result> first = clients.submit(() -> request(url, "bytes=0-99", true));
+            waitFor(() -> runner.getActiveCount() == 1);
+            Future<Result> second = clients.submit(() -> request(url, "bytes=100-199", true));
+            waitFor(() -> runner.getQueueSize() == 1);
+
+            /* Endless headers, sent slower than the server reads them */
+            Socket socket = new Socket(HOST, server.getListeningPort());
+            socket.setSoTimeout(10_000);
+            OutputStream os = socket.getOutputStream();
+            os.write("GET / HTTP/1.1\r\nX-Header: ".getBytes(StandardCharsets.US_ASCII));
+            os.flush();
+            Future<?> sending = clients.submit(() -> {
+                while (true) {
+                    os.write('a');
+                    os.flush();
+                    Thread.sleep(100);
+                }
+            });
+
+            InputStream is = socket.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[512];
+            int n;
+            while ((n = is.read(buf)) != -1)
+                out.write(buf, 0, n);
+            assertTrue(out.toString("US-ASCII").startsWith("HTTP/1.1 503"));
+            /* The server closes the connection, the writing fails */
+            try {
+                sending.get(10, TimeUnit.SECONDS);
+                fail("The connection isn't closed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            socket.close();
+            assertEquals(1, runner.getRejectedCount());
+
+            unblock.countDown();
+            assertEquals(206, first.get(10, TimeUnit.SECONDS).status);
+            assertEquals(206, second.get(10, TimeUnit.SECONDS).status);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRanges() throws Exception
+    {
+        byte[] file = new byte[FILE_SIZE];
+        new Random(7).nextBytes(file);
+        FakeStreamProvider provider = new FakeStreamProvider(file);
+        server = startServer(provider, new BoundedAsyncRunner());
+        String url = makeUrl(server);
+
+        /* HEAD doesn't open the stream */
+        Result res = request(url, "HEAD", null, false);
+        assertEquals(200, res.status);
+        assertEquals(FILE_SIZE, res.contentLength);
+        assertEquals(0, res.body.length);
+        res = request(url, "HEAD", "bytes=-100", false);
+        assertEquals(206, res.status);
+        assertEquals(100, res.contentLength);
+        assertEquals(0, provider.openCount.get());
+        assertTrue(provider.deadlinePieces.isEmpty());
+
+        /* Suffix range, e.g. the index at the end of the file */
+        res = request(url, "bytes=-1000", false);
+        assertEquals(206, res.status);
+        assertEquals("bytes " + (FILE_SIZE - 1000) + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE,
+                res.contentRange);
+        assertArrayEquals(Arrays.copyOfRange(file, FILE_SIZE - 1000, FILE_SIZE), res.body);
+        /* The head is prefetched on the first request */
+        List<Integer> expectedPieces = new ArrayList<>();
+        for (int i = 0; i < StreamPrefetcher.HEAD_SIZE / PIECE_LENGTH; i++)
+            expectedPieces.add(i);
+        expectedPieces.add(FILE_SIZE / PIECE_LENGTH - 1);
+        assertEquals(expectedPieces, provider.deadlinePieces);
+        /* The range hint is released with the response, the head is held until the first frame */
+        StreamPrefetcher.Startup startup = server.getStartup(provider.stream.id);
+        assertNotNull(startup);
+        int headPieces = (int)(StreamPrefetcher.HEAD_SIZE / PIECE_LENGTH);
+        waitFor(() -> provider.deadlines.size() == (startup.getFirstFrameTime() >= 0 ? 0 : headPieces));
+
+        /* Multiple ranges */
+        provider.deadlinePieces.clear();
+        res = request(url, "bytes=0-99,-50", false);
+        assertEquals(206, res.status);
+        assertTrue(res.contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = res.contentType.substring(res.contentType.indexOf('=') + 1);
+        String body = new String(res.body, "ISO-8859-1");
+        String expected = "--" + boundary + "\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Range: bytes 0-99/" + FILE_SIZE + "\r\n\r\n" +
+                new String(file, 0, 100, "ISO-8859-1") +
+                "\r\n--" + boundary + "\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Range: bytes " + (FILE_SIZE - 50) + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE + "\r\n\r\n" +
+                new String(file, FILE_SIZE - 50, 50, "ISO-8859-1") +
+                "\r\n--" + boundary + "--\r\n";
+        assertEquals(expected, body);
+        assertEquals(expected.length(), res.contentLength);
+        assertEquals(2, provider.deadlinePieces.size());
+        waitFor(() -> provider.deadlines.size() == (startup.getFirstFrameTime() >= 0 ? 0 : headPieces));
+
+        /* Unsatisfiable */
+        res = request(url, "bytes=" + FILE_SIZE + "-", false);
+        assertEquals(416, res.status);
+        assertEquals("bytes */" + FILE_SIZE, res.contentRange);
+    }
+
+    /*
+     * The range hint of the response that isn't sent is released by the stop of the server
+     */
+
+    @Test
+    public void testRangeHintReleasedOnStop() throws Exception
+    {
+        byte[] file = new byte[FILE_SIZE];
+        CountDownLatch unblock = new CountDownLatch(1);
+        FakeStreamProvider provider = new FakeStreamProvider(file) {
+            @Override
+            public InputStream openStream(@NonNull TorrentStream stream, boolean readahead) throws IOException
+            {
+                if (readahead) {
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                return super.openStream(stream, readahead);
+            }
+        };
+        server = startServer(provider, new BoundedAsyncRunner());
+        String url = makeUrl(server);
+
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            clients.submit(() -> request(url, "bytes=-1000", true));
+            /* The head of the startup and the range hint */
+            waitFor(() -> provider.deadlines.size() == StreamPrefetcher.HEAD_SIZE / PIECE_LENGTH + 1);
+
+            server.stop();
+            server = null;
+            assertEquals(0, provider.deadlines.size());
+        } finally {
+            unblock.countDown();
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPrefetch() throws Exception
+    {
+        /* MP4 with the moov box at the tail */
+        byte[] file = new byte[FILE_SIZE];
+        int mdatSize = FILE_SIZE - 24 - 1000;
+        ByteBuffer b = ByteBuffer.wrap(file);
+        b.putInt(24).put("ftyp".getBytes("ISO-8859-1"));
+        b.position(24);
+        b.putInt(mdatSize).put("mdat".getBytes("ISO-8859-1"));
+        FakeStreamProvider provider = new FakeStreamProvider(file);
+        server = startServer(provider, new BoundedAsyncRunner());
+        String url = makeUrl(server);
+
+        assertEquals(206, request(url, "bytes=0-", false).status);
+        StreamPrefetcher.Startup startup = server.getStartup(provider.stream.id);
+        assertNotNull(startup);
+        waitFor(startup::isSniffed);
+
+        ContainerSniffer.Index index = startup.getIndex();
+        assertNotNull(index);
+        assertEquals(ContainerSniffer.Container.MP4, index.container);
+        assertEquals(FILE_SIZE - 1000, index.offset);
+        assertTrue(provider.deadlinePieces.contains(FILE_SIZE / PIECE_LENGTH - 1));
+        assertTrue(startup.getSniffTime() >= 0);
+
+        /* The player reads the moov box, then the media data */
+        request(url, "bytes=" + index.offset + "-", false);
+        assertEquals(-1, startup.getFirstFrameTime());
+        request(url, "bytes=1000000-", false);
+        assertTrue(startup.getFirstFrameTime() >= 0);
+        /* The head and the index are released after the first frame */
+        waitFor(() -> provider.deadlines.size() == 0);
+    }
+
+    /*
+     * The sniffing waits for the head without the readahead
+     * and is interrupted by the stop of the server
+     */
+
+    @Test
+    public void testSniffCancelled() throws Exception
+    {
+        byte[] file = new byte[FILE_SIZE];
+        CountDownLatch sniffStarted = new CountDownLatch(1);
+        CountDownLatch sniffClosed = new CountDownLatch(1);
+        FakeStreamProvider provider = new FakeStreamProvider(file) {
+            @Override
+            public InputStream openStream(@NonNull TorrentStream stream, boolean readahead) throws IOException
+            {
+                if (readahead)
+                    return super.openStream(stream, true);
+
+                /* The head isn't downloaded yet */
+                return new InputStream() {
+                    private boolean closed;
+
+                    @Override
+                    public synchronized int read() throws IOException
+                    {
+                        sniffStarted.countDown();
+                        try {
+                            while (!closed)
+                                wait();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+
+                        return -1;
+                    }
+
+                    @Override
+                    public synchronized void close()
+                    {
+                        closed = true;
+                        notifyAll();
+                        sniffClosed.countDown();
+                    }
+                };
+            }
+        };
+        server = startServer(provider, new BoundedAsyncRunner());
+        String url = makeUrl(server);
+
+        assertEquals(206, request(url, "bytes=0-999", false).status);
+        StreamPrefetcher.Startup startup = server.getStartup(provider.stream.id);
+        assertNotNull(startup);
+        assertTrue(sniffStarted.await(10, TimeUnit.SECONDS));
+
+        server.stop();
+        server = null;
+        assertTrue(sniffClosed.await(10, TimeUnit.SECONDS));
+        assertTrue(startup.isCancelled());
+        assertFalse(startup.isSniffed());
+        assertEquals(0, provider.deadlines.size());
+    }
+
+    @Test
+    public void testMetrics() throws Exception
+    {
+        byte[] file = new byte[FILE_SIZE];
+        FakeStreamProvider provider = new FakeStreamProvider(file);
+        server = startServer(provider, new BoundedAsyncRunner());
+        String url = makeUrl(server);
+
+        assertEquals(206, request(url, "bytes=0-999", false).status);
+        assertEquals(206, request(url, "bytes=-500", false).status);
+        assertEquals(200, request(url, "HEAD", null, false).status);
+        provider.pieceCache.get(TORRENT_ID, 0);
+
+        String metricsUrl = "http://" + HOST + ":" + server.getListeningPort() + "/metrics";
+        Result res = request(metricsUrl, null, false);
+        assertEquals(200, res.status);
+        assertTrue(res.contentType.startsWith("text/plain; version=0.0.4"));
+        String metrics = new String(res.body, "UTF-8");
+
+        String labels = "{stream=\"" + provider.stream.id + "\",torrent=\"" + TORRENT_ID + "\",file=\"0\"}";
+        assertTrue(metrics.contains("# TYPE libretorrent_stream_bytes_served_total counter\n"));
+        assertTrue(metrics.contains("libretorrent_stream_requests_total" + labels + " 3\n"));
+        assertTrue(metrics.contains("libretorrent_stream_bytes_served_total" + labels + " 1500\n"));
+        assertTrue(metrics.contains("libretorrent_stream_time_to_first_byte_seconds_count" + labels + " 2\n"));
+        assertTrue(metrics.contains("libretorrent_piece_cache_misses_total 1\n"));
+        /* The metrics request itself */
+        assertTrue(metrics.contains("libretorrent_http_connections_active 1\n"));
+        assertEquals(3, provider.metrics.get(provider.stream).getRequests());
+    }
+
+    private static TorrentStreamServer startServer(TorrentStreamServer.StreamProvider provider,
+                                                   BoundedAsyncRunner runner) throws IOException
+    {
+        TorrentStreamServer server = new TorrentStreamServer(HOST, 0, runner, true);
+        server.start(provider);
+
+        return server;
+    }
+
+    private static String makeUrl(TorrentStreamServer server)
+    {
+        return TorrentStreamServer.makeStreamUrl(HOST, server.getListeningPort(), TORRENT_ID, 0);
+    }
+
+    private static Result request(String url, String range, boolean close) throws IOException
+    {
+        return request(url, "GET", range, close);
+    }
+
+    private static Result request(String url, String method, String range, boolean close) throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection)new URL(url).openConnection();
+        conn.setRequestMethod(method);
+        if (range != null)
+            conn.setRequestProperty("Range", range);
+        if (close)
+            conn.setRequestProperty("Connection", "close");
+        conn.setConnectTimeout(10_000);
+        conn.setReadTimeout(10_000);
+
+        Result res = new Result();
+        res.status = conn.getResponseCode();
+        res.contentType = conn.getContentType();
+        res.contentRange = conn.getHeaderField("Content-Range");
+        res.contentLength = conn.getHeaderFieldLong("Content-Length", -1);
+        InputStream is = (res.status >= 400 ? conn.getErrorStream() : conn.getInputStream());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (is != null) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1)
+                out.write(buf, 0, n);
+            is.close();
+        }
+        res.body = out.toByteArray();
+
+        return res;
+    }
+
+    private interface Condition
+    {
+        boolean check();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.check()) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Timeout");
+            Thread.sleep(10);
+        }
+    }
+}